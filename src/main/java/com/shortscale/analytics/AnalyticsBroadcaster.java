@@ -0,0 +1,92 @@
+package com.shortscale.analytics;
+
+import com.shortscale.util.KeyedAccumulator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Component
+public class AnalyticsBroadcaster {
+
+    public static final String TOPIC = "/topic/analytics";
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalyticsBroadcaster.class);
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ClickCounter clickCounter;
+    private final int maxLinksPerTick;
+    private final int maxBacklog;
+    private final KeyedAccumulator deltas = new KeyedAccumulator();
+    // Only touched by the tick; links that did not fit into the last tick keep their place in line
+    private final LinkedHashMap<String, Long> backlog = new LinkedHashMap<>();
+    private final Counter framesCounter;
+    private final Counter droppedCounter;
+
+    public AnalyticsBroadcaster(SimpMessagingTemplate messagingTemplate, ClickCounter clickCounter, MeterRegistry meterRegistry,
+                                @Value("${shortscale.analytics.max-links-per-tick:500}") int maxLinksPerTick,
+                                @Value("${shortscale.analytics.max-backlog:50000}") int maxBacklog) {
+        this.messagingTemplate = messagingTemplate;
+        this.clickCounter = clickCounter;
+        this.maxLinksPerTick = maxLinksPerTick;
+        this.maxBacklog = maxBacklog;
+        this.framesCounter = meterRegistry.counter("analytics_frames_sent_total");
+        this.droppedCounter = meterRegistry.counter("analytics_updates_dropped_total");
+    }
+
+    public void recordClick(String shortCode) {
+        deltas.add(shortCode, 1);
+    }
+
+    @Scheduled(fixedRateString = "${shortscale.analytics.broadcast-tick-ms:250}")
+    public void broadcast() {
+        deltas.drain().forEach((shortCode, delta) -> backlog.merge(shortCode, delta, Long::sum));
+        trimBacklog();
+        if (backlog.isEmpty()) {
+            return;
+        }
+        Map<String, Long> tick = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, Long>> iterator = backlog.entrySet().iterator();
+        while (iterator.hasNext() && tick.size() < maxLinksPerTick) {
+            Map.Entry<String, Long> entry = iterator.next();
+            tick.put(entry.getKey(), entry.getValue());
+            iterator.remove();
+        }
+        Map<String, Long> counts;
+        try {
+            counts = clickCounter.getClickCounts(new ArrayList<>(tick.keySet()));
+        } catch (RuntimeException e) {
+            logger.warn("Skipping analytics broadcast, click counts unavailable: {}", e.getMessage());
+            tick.forEach((shortCode, delta) -> backlog.merge(shortCode, delta, Long::sum));
+            trimBacklog();
+            return;
+        }
+        // The shared topic keeps its one-object-per-message shape, now once per link per tick instead of per click
+        tick.forEach((shortCode, delta) -> {
+            Map<String, Object> update = Map.of("shortCode", shortCode, "clickCount", counts.getOrDefault(shortCode, 0L), "delta", delta);
+            messagingTemplate.convertAndSend(TOPIC + "/" + shortCode, update);
+            messagingTemplate.convertAndSend(TOPIC, update);
+        });
+        framesCounter.increment(2L * tick.size());
+    }
+
+    // Drops the longest-waiting links once the backlog is full; their clicks are still counted, only the
+    // real-time update is lost
+    private void trimBacklog() {
+        Iterator<String> oldest = backlog.keySet().iterator();
+        while (backlog.size() > maxBacklog && oldest.hasNext()) {
+            oldest.next();
+            oldest.remove();
+            droppedCounter.increment();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.shortscale.analytics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.shortscale.repository.RedisShards;
+import com.shortscale.repository.StorageLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Moves the clickCount that JSON values written before click counters still carry into clicks:{shortCode}, and drops
+// it from the value. Run once after upgrading, by starting a node with shortscale.clicks.migrate=true; it is safe to
+// repeat and to run while nodes keep serving and counting. Sharded, every shard is migrated in turn; a link and its
+// counter live on the same shard, since both are placed by the short code.
+@Component
+public class ClickCountMigration implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClickCountMigration.class);
+    private static final int BATCH_SIZE = 1000;
+    private static final String LEGACY_FIELD = "clickCount";
+    // KEYS[1] top-level key or bucket, KEYS[2] counter; ARGV[1] value as read, ARGV[2] value without clickCount,
+    // ARGV[3] clickCount, ARGV[4] short code when KEYS[1] is a bucket. Only rewrites a value nobody changed since it
+    // was read, so a count is moved exactly once; the counter keeps the link's expiry like the ones ClickCounter writes
+    private static final byte[] SEED_SCRIPT = (
+            "local bucketed = #ARGV > 3 "
+                    + "local value "
+                    + "if bucketed then value = redis.call('HGET', KEYS[1], ARGV[4]) else value = redis.call('GET', KEYS[1]) end "
+                    + "if value ~= ARGV[1] then return 0 end "
+                    + "local ttl = -1 "
+                    + "if bucketed then redis.call('HSET', KEYS[1], ARGV[4], ARGV[2]) else "
+                    + "ttl = redis.call('PTTL', KEYS[1]) "
+                    + "if ttl > 0 then redis.call('SET', KEYS[1], ARGV[2], 'PX', ttl) else redis.call('SET', KEYS[1], ARGV[2]) end end "
+                    + "if ARGV[3] ~= '0' then "
+                    + "redis.call('INCRBY', KEYS[2], ARGV[3]) "
+                    + "if ttl > 0 then redis.call('PEXPIRE', KEYS[2], ttl) end end "
+                    + "return 1").getBytes(StandardCharsets.UTF_8);
+
+    private final RedisShards shards;
+    private final ObjectMapper objectMapper;
+    private final boolean migrateOnStartup;
+
+    public ClickCountMigration(RedisShards shards, ObjectMapper objectMapper,
+                               @Value("${shortscale.clicks.migrate:false}") boolean migrateOnStartup) {
+        this.shards = shards;
+        this.objectMapper = objectMapper;
+        this.migrateOnStartup = migrateOnStartup;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (migrateOnStartup) {
+            migrate();
+        }
+    }
+
+    // Returns the number of values the count was moved out of
+    public long migrate() {
+        long seeded = 0;
+        for (RedisShards.Shard shard : shards.all()) {
+            seeded += migrate(shard.redisTemplate());
+        }
+        logger.info("Moved legacy click counts of {} links into click counters", seeded);
+        return seeded;
+    }
+
+    private long migrate(StringRedisTemplate redisTemplate) {
+        long seeded = 0;
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        try (Cursor<String> cursor = redisTemplate.scan(ScanOptions.scanOptions().count(BATCH_SIZE).build())) {
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                if (key.indexOf(':') < 0 || key.startsWith(StorageLayout.BUCKET_PREFIX)) {
+                    batch.add(key);
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    seeded += seed(redisTemplate, batch);
+                    batch.clear();
+                }
+            }
+        }
+        return seeded + seed(redisTemplate, batch);
+    }
+
+    @SuppressWarnings("unchecked")
+    private long seed(StringRedisTemplate redisTemplate, List<String> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        // Raw values, so legacy JSON can be told apart and compared byte for byte when rewritten; the template would
+        // decode bucket fields with its hash serializers
+        List<Object> values = redisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+            connection.openPipeline();
+            for (String key : keys) {
+                if (key.startsWith(StorageLayout.BUCKET_PREFIX)) {
+                    connection.hashCommands().hGetAll(bytes(key));
+                } else {
+                    connection.stringCommands().get(bytes(key));
+                }
+            }
+            return connection.closePipeline();
+        });
+        List<byte[][]> seeds = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            if (values.get(i) instanceof byte[] value) {
+                addSeed(seeds, key, key, null, value);
+            } else if (values.get(i) instanceof Map<?, ?> bucket) {
+                ((Map<byte[], byte[]>) bucket).forEach((field, value) -> addSeed(seeds, key, new String(field, StandardCharsets.UTF_8), field, value));
+            }
+        }
+        if (seeds.isEmpty()) {
+            return 0;
+        }
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (byte[][] keysAndArgs : seeds) {
+                connection.scriptingCommands().eval(SEED_SCRIPT, ReturnType.INTEGER, 2, keysAndArgs);
+            }
+            return null;
+        });
+        return results.stream().mapToLong(result -> (Long) result).sum();
+    }
+
+    // field is null for a top-level key, whose key is the short code
+    private void addSeed(List<byte[][]> seeds, String key, String shortCode, byte[] field, byte[] value) {
+        if (value.length == 0 || value[0] != '{') {
+            return; // binary values never had a click count
+        }
+        JsonNode json;
+        try {
+            json = objectMapper.readTree(value);
+        } catch (IOException e) {
+            logger.warn("Skipping unreadable value of {}: {}", shortCode, e.getMessage());
+            return;
+        }
+        if (!(json instanceof ObjectNode object) || !object.has(LEGACY_FIELD)) {
+            return;
+        }
+        long clickCount = object.remove(LEGACY_FIELD).asLong();
+        byte[] rewritten;
+        try {
+            rewritten = objectMapper.writeValueAsBytes(object);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] counterKey = bytes(ClickCounter.KEY_PREFIX + shortCode);
+        byte[] count = bytes(Long.toString(Math.max(clickCount, 0)));
+        seeds.add(field == null
+                ? new byte[][]{bytes(key), counterKey, value, rewritten, count}
+                : new byte[][]{bytes(key), counterKey, value, rewritten, count, field});
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,182 @@
+package com.shortscale.analytics;
+
+import com.shortscale.repository.RedisShards;
+import com.shortscale.repository.StorageLayout;
+import com.shortscale.util.KeyedAccumulator;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+@Component
+public class ClickCounter {
+
+    public static final String KEY_PREFIX = "clicks:";
+
+    private static final Logger logger = LoggerFactory.getLogger(ClickCounter.class);
+    // With links in Redis the counter lives exactly as long as its link: it takes over the link's remaining expiry,
+    // and clicks that arrive after the link expired or was deleted are dropped
+    // KEYS[1] counter, KEYS[2] top-level mapping key, KEYS[3] optional bucket; ARGV[1] delta, ARGV[2] short code
+    private static final RedisScript<Long> INCREMENT_SCRIPT = new DefaultRedisScript<>(
+            "local ttl = redis.call('PTTL', KEYS[2]) "
+                    + "if ttl == -2 and (#KEYS < 3 or redis.call('HEXISTS', KEYS[3], ARGV[2]) == 0) then return 0 end "
+                    + "local count = redis.call('INCRBY', KEYS[1], ARGV[1]) "
+                    + "if ttl > 0 then redis.call('PEXPIRE', KEYS[1], ttl) end "
+                    + "return count", Long.class);
+    // With links in an in-process engine Redis cannot see them, so the expiry comes from the clicked mapping instead
+    // KEYS[1] counter; ARGV[1] delta, ARGV[2] remaining time to live in ms, 0 for none
+    private static final RedisScript<Long> INCREMENT_UNGUARDED_SCRIPT = new DefaultRedisScript<>(
+            "local count = redis.call('INCRBY', KEYS[1], ARGV[1]) "
+                    + "if ARGV[2] ~= '0' then redis.call('PEXPIRE', KEYS[1], ARGV[2]) end "
+                    + "return count", Long.class);
+
+    private final RedisShards shards;
+    private final KeyedAccumulator pending = new KeyedAccumulator();
+    // Expiry of the clicked links with one, until their clicks are flushed; only kept when links are not in Redis
+    private final Map<String, LocalDateTime> expiries = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Shards known to have the increment script cached, so flushes send only its SHA1
+    private final Set<String> scriptLoaded = ConcurrentHashMap.newKeySet();
+    private final StorageLayout storageLayout;
+    private final boolean linksInRedis;
+    private final RedisScript<Long> incrementScript;
+
+    public ClickCounter(RedisShards shards, StorageLayout storageLayout, @Value("${shortscale.storage.engine:redis}") String engine) {
+        this.shards = shards;
+        this.storageLayout = storageLayout;
+        this.linksInRedis = engine.equals("redis");
+        this.incrementScript = linksInRedis ? INCREMENT_SCRIPT : INCREMENT_UNGUARDED_SCRIPT;
+    }
+
+    public void increment(String shortCode) {
+        pending.add(shortCode, 1);
+    }
+
+    // expiresAt is the clicked link's, so counters of in-process links expire with them
+    public void increment(String shortCode, LocalDateTime expiresAt) {
+        if (expiresAt != null && !linksInRedis) {
+            expiries.put(shortCode, expiresAt);
+        }
+        pending.add(shortCode, 1);
+    }
+
+    public long getClickCount(String shortCode) {
+        String persisted = shards.forKey(shortCode).redisTemplate().opsForValue().get(KEY_PREFIX + shortCode);
+        return (persisted != null ? Long.parseLong(persisted) : 0) + pending.pending(shortCode);
+    }
+
+    public Map<String, Long> getClickCounts(List<String> shortCodes) {
+        Map<String, Long> counts = new ConcurrentHashMap<>();
+        shards.inParallel(shards.partition(shortCodes, shortCode -> shortCode), (shard, codes) -> {
+            List<String> persisted = shard.redisTemplate().opsForValue().multiGet(codes.stream().map(code -> KEY_PREFIX + code).toList());
+            for (int i = 0; i < codes.size(); i++) {
+                String value = persisted != null ? persisted.get(i) : null;
+                counts.put(codes.get(i), (value != null ? Long.parseLong(value) : 0) + pending.pending(codes.get(i)));
+            }
+            return null;
+        });
+        return new HashMap<>(counts);
+    }
+
+    @Scheduled(fixedDelayString = "${shortscale.clicks.flush-interval-ms:1000}")
+    public void flush() {
+        flushLock.lock();
+        try {
+            Map<String, Long> batch = pending.drain();
+            if (batch.isEmpty()) {
+                return;
+            }
+            Map<String, LocalDateTime> batchExpiries = new HashMap<>();
+            if (!linksInRedis) {
+                batch.keySet().forEach(shortCode -> {
+                    LocalDateTime expiresAt = expiries.remove(shortCode);
+                    if (expiresAt != null) {
+                        batchExpiries.put(shortCode, expiresAt);
+                    }
+                });
+            }
+            // One pipeline per shard, all shards at once; a shard that fails keeps only its own counters for the next flush.
+            // The script is loaded at the head of a shard's first pipeline and again after any failure, which covers a
+            // restarted or failed-over shard that lost its script cache: there every EVALSHA fails, so none is applied twice
+            byte[] sha = bytes(incrementScript.getSha1());
+            shards.inParallel(shards.partition(batch.keySet(), shortCode -> shortCode), (shard, shortCodes) -> {
+                try {
+                    boolean loaded = scriptLoaded.contains(shard.name());
+                    shard.redisTemplate().executePipelined((RedisCallback<Object>) connection -> {
+                        if (!loaded) {
+                            connection.scriptingCommands().scriptLoad(bytes(incrementScript.getScriptAsString()));
+                        }
+                        for (String shortCode : shortCodes) {
+                            byte[] counterKey = bytes(KEY_PREFIX + shortCode);
+                            byte[] deltaArg = bytes(Long.toString(batch.get(shortCode)));
+                            if (!linksInRedis) {
+                                long timeToLive = timeToLiveMillis(batchExpiries.get(shortCode));
+                                if (timeToLive >= 0) {
+                                    connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 1, counterKey, deltaArg,
+                                            bytes(Long.toString(timeToLive)));
+                                }
+                                continue;
+                            }
+                            String bucketKey = storageLayout.bucketKey(shortCode);
+                            byte[] mappingKey = bytes(shortCode);
+                            if (bucketKey == null) {
+                                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 2, counterKey, mappingKey, deltaArg);
+                            } else {
+                                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 3, counterKey, mappingKey, bytes(bucketKey), deltaArg, mappingKey);
+                            }
+                        }
+                        return null;
+                    });
+                    scriptLoaded.add(shard.name());
+                } catch (RuntimeException e) {
+                    scriptLoaded.remove(shard.name());
+                    logger.warn("Failed to flush {} click counters to Redis shard {}, will retry: {}", shortCodes.size(), shard.name(), e.getMessage());
+                    shortCodes.forEach(shortCode -> {
+                        pending.add(shortCode, batch.get(shortCode));
+                        LocalDateTime expiresAt = batchExpiries.get(shortCode);
+                        if (expiresAt != null) {
+                            expiries.putIfAbsent(shortCode, expiresAt);
+                        }
+                    });
+                }
+                return null;
+            });
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // 0 for a link without an expiry, negative once it has expired and its clicks are dropped
+    private static long timeToLiveMillis(LocalDateTime expiresAt) {
+        if (expiresAt == null) {
+            return 0;
+        }
+        long remaining = Duration.between(LocalDateTime.now(), expiresAt).toMillis();
+        return remaining > 0 ? remaining : -1;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,15 @@
+package com.shortscale.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportResult {
+    private long line; // 1-based line of the import body this result answers
+    @JsonUnwrapped
+    private ShortenResponse result;
+}
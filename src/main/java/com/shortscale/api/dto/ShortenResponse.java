@@ -1,5 +1,6 @@
 package com.shortscale.api.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 
 @Data
@@ -7,4 +8,6 @@ public class ShortenResponse {
     private String shortUrl;
     private String originalUrl;
     private String shortCode;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String error; // set instead of the link when one item of a bulk request fails
 }
@@ -0,0 +1,80 @@
+package com.shortscale.cache;
+
+import com.shortscale.repository.RedisShards;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+@Component
+public class InvalidationSubscriber {
+
+    private static final Logger logger = LoggerFactory.getLogger(InvalidationSubscriber.class);
+
+    // Not beans: a container bean would fail startup when Redis is unreachable. One per shard, since writes publish
+    // on the shard that owns the link
+    private final List<RedisMessageListenerContainer> listenerContainers = new ArrayList<>();
+    private final ShortCodeFilter shortCodeFilter;
+    private volatile boolean ready;
+
+    public InvalidationSubscriber(RedisShards shards, UrlMappingNearCache nearCache, ShortCodeFilter shortCodeFilter) {
+        this.shortCodeFilter = shortCodeFilter;
+        for (RedisShards.Shard shard : shards.all()) {
+            RedisMessageListenerContainer listenerContainer = new RedisMessageListenerContainer();
+            listenerContainer.setConnectionFactory(shard.redisTemplate().getRequiredConnectionFactory());
+            listenerContainer.addMessageListener((message, pattern) -> {
+                String shortCode = new String(message.getBody(), StandardCharsets.UTF_8);
+                nearCache.invalidate(shortCode);
+                shortCodeFilter.add(shortCode); // written on another node
+            }, new ChannelTopic(UrlMappingNearCache.INVALIDATION_CHANNEL));
+            listenerContainer.afterPropertiesSet();
+            listenerContainers.add(listenerContainer);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        ready = true;
+        subscribe();
+    }
+
+    @Scheduled(fixedDelayString = "${shortscale.near-cache.resubscribe-interval-ms:5000}")
+    public void subscribe() {
+        if (!ready || listenerContainers.stream().allMatch(RedisMessageListenerContainer::isListening)) {
+            return;
+        }
+        // Without every subscription this node would not learn about links created elsewhere
+        shortCodeFilter.suspend();
+        for (RedisMessageListenerContainer listenerContainer : listenerContainers) {
+            if (listenerContainer.isListening()) {
+                continue;
+            }
+            try {
+                listenerContainer.start();
+                logger.info("Subscribed to near-cache invalidation channel {}", UrlMappingNearCache.INVALIDATION_CHANNEL);
+            } catch (RuntimeException e) {
+                // Entries still expire after the near-cache TTL while the subscription is down
+                logger.warn("Could not subscribe to near-cache invalidations, retrying: {}", e.getMessage());
+                listenerContainer.stop();
+                return;
+            }
+        }
+        shortCodeFilter.resume();
+    }
+
+    @PreDestroy
+    public void shutdown() throws Exception {
+        for (RedisMessageListenerContainer listenerContainer : listenerContainers) {
+            listenerContainer.destroy();
+        }
+    }
+}
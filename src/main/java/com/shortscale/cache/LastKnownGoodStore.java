@@ -0,0 +1,226 @@
+package com.shortscale.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.shortscale.model.UrlMapping;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+// Last known destination of recently resolved links, so redirects can still be answered while Redis is failing and
+// the circuit breaker is open. Bounded by maximum-size (least recently and frequently used links leave first); a link
+// that resolves to nothing is forgotten and an expired one is never served. Codes served stale are reloaded in the
+// background once the breaker half-opens. With spill-path set, the store is written to that file every
+// spill-interval-ms and on shutdown, and read back on startup, so a node restarted during an outage keeps it.
+// File: "LKG", format version, then entries of [code length (short)][code][url length (int)][url]
+// [expiry as UTC epoch seconds, Long.MIN_VALUE if none], closed by a zero code length.
+@Component
+public class LastKnownGoodStore {
+
+    static final byte[] MAGIC = {'L', 'K', 'G'};
+    static final byte FORMAT_VERSION = 1;
+
+    private static final Logger logger = LoggerFactory.getLogger(LastKnownGoodStore.class);
+    private static final long NO_EXPIRY = Long.MIN_VALUE;
+
+    private final Cache<String, Entry> entries;
+    private final Path spillPath;
+    private final Set<String> servedStale = ConcurrentHashMap.newKeySet();
+    private final Counter staleCounter;
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "last-known-good-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public LastKnownGoodStore(MeterRegistry meterRegistry,
+                              @Value("${shortscale.last-known-good.maximum-size:100000}") long maximumSize,
+                              @Value("${shortscale.last-known-good.spill-path:}") String spillPath) {
+        this.entries = Caffeine.newBuilder().maximumSize(maximumSize).build();
+        this.spillPath = spillPath.isEmpty() ? null : Paths.get(spillPath);
+        this.staleCounter = meterRegistry.counter("url_redirect_stale_total");
+        Gauge.builder("last_known_good_links", this, LastKnownGoodStore::size).register(meterRegistry);
+        if (this.spillPath != null) {
+            load();
+        }
+    }
+
+    // Called for every resolved link; a read when the store already holds it
+    public void record(String shortCode, UrlMapping mapping) {
+        Entry current = entries.getIfPresent(shortCode);
+        if (current == null || !current.originalUrl().equals(mapping.getOriginalUrl())
+                || !Objects.equals(current.expiresAt(), mapping.getExpiresAt())) {
+            entries.put(shortCode, new Entry(mapping.getOriginalUrl(), mapping.getExpiresAt()));
+        }
+    }
+
+    public void forget(String shortCode) {
+        entries.invalidate(shortCode);
+    }
+
+    // Null when the link was not resolved recently or has expired since
+    public String getStale(String shortCode) {
+        Entry entry = entries.getIfPresent(shortCode);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt() != null && LocalDateTime.now().isAfter(entry.expiresAt())) {
+            entries.invalidate(shortCode);
+            return null;
+        }
+        servedStale.add(shortCode);
+        staleCounter.increment();
+        return entry.originalUrl();
+    }
+
+    // Reloads the codes served stale since the last refresh and completes with how many were reloaded. Stops at the
+    // first failure, keeping the rest for the next time the breaker half-opens
+    public CompletableFuture<Integer> refresh(Function<String, UrlMapping> loader) {
+        return CompletableFuture.supplyAsync(() -> {
+            int refreshed = 0;
+            for (String shortCode : List.copyOf(servedStale)) {
+                UrlMapping mapping;
+                try {
+                    mapping = loader.apply(shortCode);
+                } catch (RuntimeException e) {
+                    logger.warn("Stopped refreshing last known links after {}: {}", refreshed, e.getMessage());
+                    break;
+                }
+                if (mapping == null) {
+                    forget(shortCode);
+                } else {
+                    record(shortCode, mapping);
+                }
+                servedStale.remove(shortCode);
+                refreshed++;
+            }
+            return refreshed;
+        }, refresher);
+    }
+
+    // The same for a reactive loader: each link is reloaded once the previous one has completed, without a thread
+    // waiting on it. Subscribe on a scheduler that may block, since the first reload starts on the subscribing thread
+    public Mono<Integer> refreshReactively(Function<String, Mono<UrlMapping>> loader) {
+        return Flux.fromIterable(List.copyOf(servedStale))
+                .concatMap(shortCode -> loader.apply(shortCode)
+                        .doOnNext(mapping -> record(shortCode, mapping))
+                        .switchIfEmpty(Mono.fromRunnable(() -> forget(shortCode)))
+                        .then(Mono.fromRunnable(() -> servedStale.remove(shortCode)))
+                        .thenReturn(shortCode))
+                .onErrorResume(e -> {
+                    logger.warn("Stopped refreshing last known links: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .count()
+                .map(Long::intValue);
+    }
+
+    public long size() {
+        entries.cleanUp(); // applies pending evictions
+        return entries.estimatedSize();
+    }
+
+    @Scheduled(fixedDelayString = "${shortscale.last-known-good.spill-interval-ms:60000}")
+    public void spill() {
+        if (spillPath == null) {
+            return;
+        }
+        Path temporary = spillPath.resolveSibling(spillPath.getFileName() + ".tmp");
+        try {
+            if (spillPath.getParent() != null) {
+                Files.createDirectories(spillPath.getParent());
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.write(MAGIC);
+                out.writeByte(FORMAT_VERSION);
+                for (Map.Entry<String, Entry> entry : entries.asMap().entrySet()) {
+                    byte[] code = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    byte[] url = entry.getValue().originalUrl().getBytes(StandardCharsets.UTF_8);
+                    LocalDateTime expiresAt = entry.getValue().expiresAt();
+                    out.writeShort(code.length);
+                    out.write(code);
+                    out.writeInt(url.length);
+                    out.write(url);
+                    out.writeLong(expiresAt == null ? NO_EXPIRY : expiresAt.toEpochSecond(ZoneOffset.UTC));
+                }
+                out.writeShort(0);
+            }
+            // Replaced in one step, so a crash mid-write leaves the previous file intact
+            Files.move(temporary, spillPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not spill last known links to {}: {}", spillPath, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        refresher.shutdownNow();
+        spill();
+    }
+
+    private void load() {
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillPath)))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readByte() != FORMAT_VERSION) {
+                logger.warn("Ignoring {}: not a last known links file", spillPath);
+                return;
+            }
+            int codeLength;
+            while ((codeLength = in.readUnsignedShort()) != 0) {
+                byte[] code = new byte[codeLength];
+                in.readFully(code);
+                byte[] url = new byte[in.readInt()];
+                in.readFully(url);
+                long expiresAt = in.readLong();
+                entries.put(new String(code, StandardCharsets.UTF_8), new Entry(new String(url, StandardCharsets.UTF_8),
+                        expiresAt == NO_EXPIRY ? null : LocalDateTime.ofEpochSecond(expiresAt, 0, ZoneOffset.UTC)));
+                loaded++;
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (EOFException e) {
+            logger.warn("{} ends early; kept the {} links before the cut", spillPath, loaded);
+        } catch (IOException e) {
+            logger.warn("Could not read last known links from {}: {}", spillPath, e.getMessage());
+        }
+        logger.info("Loaded {} last known links from {}", loaded, spillPath);
+    }
+
+    record Entry(String originalUrl, LocalDateTime expiresAt) {
+    }
+}
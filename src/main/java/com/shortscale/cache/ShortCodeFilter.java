@@ -0,0 +1,235 @@
+package com.shortscale.cache;
+
+import com.shortscale.repository.RedisShards;
+import com.shortscale.repository.StorageLayout;
+import com.shortscale.util.BloomFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Component
+public class ShortCodeFilter {
+
+    public static final String BITMAP_KEY = "bloom:short-codes";
+
+    private static final Logger logger = LoggerFactory.getLogger(ShortCodeFilter.class);
+    private static final byte[] BITMAP_KEY_BYTES = BITMAP_KEY.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REBUILD_KEY_BYTES = (BITMAP_KEY + ":rebuild").getBytes(StandardCharsets.UTF_8);
+
+    private final RedisShards shards;
+    private final boolean enabled;
+    private final BloomFilter filter;
+    private final Counter rejectionsCounter;
+    private final Counter sharedHitsCounter;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "short-code-filter-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean loading = new AtomicBoolean();
+    // Only trusted once it has been loaded and invalidation messages are flowing, otherwise it could hide new links
+    private volatile boolean active;
+    // Set while a lost subscription is being restored: links created elsewhere meanwhile are only in the shared bitmaps
+    private volatile boolean confirmingMisses;
+
+    public ShortCodeFilter(RedisShards shards, MeterRegistry meterRegistry,
+                           @Value("${shortscale.bloom-filter.enabled:true}") boolean enabled,
+                           @Value("${shortscale.bloom-filter.expected-links:10000000}") long expectedLinks,
+                           @Value("${shortscale.bloom-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.shards = shards;
+        this.enabled = enabled;
+        this.filter = BloomFilter.create(expectedLinks, falsePositiveRate);
+        this.rejectionsCounter = meterRegistry.counter("bloom_filter_rejections_total");
+        this.sharedHitsCounter = meterRegistry.counter("bloom_filter_shared_hits_total");
+        Gauge.builder("bloom_filter_fill_ratio", filter, BloomFilter::fillRatio).register(meterRegistry);
+    }
+
+    // A local miss is answered without Redis. Only while the invalidation subscription is being restored is it
+    // confirmed against the shared bitmap of the shard that owns the code, which has every link's bits
+    public boolean mightContain(String shortCode) {
+        if (!active || filter.mightContain(shortCode)) {
+            return true;
+        }
+        if (!confirmingMisses) {
+            rejectionsCounter.increment();
+            return false;
+        }
+        return confirmMiss(shortCode, inSharedBitmap(shortCode));
+    }
+
+    // The same for the reactive edition; owner is the reactive connection to the shard that owns shortCode
+    public Mono<Boolean> mightContain(String shortCode, ReactiveStringRedisTemplate owner) {
+        if (!active || filter.mightContain(shortCode)) {
+            return Mono.just(true);
+        }
+        if (!confirmingMisses) {
+            rejectionsCounter.increment();
+            return Mono.just(false);
+        }
+        return Flux.fromStream(Arrays.stream(filter.bitIndexes(shortCode)).boxed())
+                .flatMapSequential(offset -> owner.opsForValue().getBit(BITMAP_KEY, offset))
+                .all(Boolean.TRUE::equals)
+                .onErrorReturn(true) // the lookup behind it reports the failure
+                .map(shared -> confirmMiss(shortCode, shared));
+    }
+
+    private boolean confirmMiss(String shortCode, boolean inSharedBitmap) {
+        if (inSharedBitmap) {
+            filter.put(shortCode); // created while this node was not subscribed
+            sharedHitsCounter.increment();
+            return true;
+        }
+        rejectionsCounter.increment();
+        return false;
+    }
+
+    private boolean inSharedBitmap(String shortCode) {
+        long[] offsets = filter.bitIndexes(shortCode);
+        try {
+            List<Object> bits = shards.forKey(shortCode).redisTemplate().executePipelined((RedisCallback<Object>) connection -> {
+                for (long offset : offsets) {
+                    connection.stringCommands().getBit(BITMAP_KEY_BYTES, offset);
+                }
+                return null;
+            });
+            return bits.stream().allMatch(Boolean.TRUE::equals);
+        } catch (RuntimeException e) {
+            return true; // the lookup behind it reports the failure
+        }
+    }
+
+    public void add(String shortCode) {
+        if (enabled) {
+            filter.put(shortCode);
+        }
+    }
+
+    // Called inside the repository's write pipeline so the shared bitmap is updated in the same round trip. Sharded,
+    // connection is the shard that owns shortCode and the bitmap there covers only that shard's codes
+    public void addToBitmap(RedisConnection connection, String shortCode) {
+        for (long offset : bitmapOffsets(shortCode)) {
+            connection.stringCommands().setBit(BITMAP_KEY_BYTES, offset, true);
+        }
+    }
+
+    public long[] bitmapOffsets(String shortCode) {
+        return enabled ? filter.bitIndexes(shortCode) : new long[0];
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    // Misses are confirmed against the shared bitmaps until resume has reloaded them
+    public void suspend() {
+        confirmingMisses = active;
+    }
+
+    public boolean isConfirmingMisses() {
+        return confirmingMisses;
+    }
+
+    public void resume() {
+        if (!enabled || !loading.compareAndSet(false, true)) {
+            return;
+        }
+        boolean resubscribed = confirmingMisses; // a resync that started before a suspend must not end the confirming
+        loader.execute(() -> {
+            try {
+                load();
+                active = true;
+                if (resubscribed) {
+                    confirmingMisses = false;
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Could not load short code filter, lookups bypass it: {}", e.getMessage());
+            } finally {
+                loading.set(false);
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${shortscale.bloom-filter.resync-interval-ms:300000}")
+    public void resync() {
+        if (active) {
+            resume();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+
+    // The filter is the union of every shard's bitmap; a shard with a missing or mis-sized one is rebuilt from its keys
+    private void load() {
+        List<byte[]> bitmaps = new ArrayList<>();
+        for (RedisShards.Shard shard : shards.all()) {
+            byte[] bitmap = shard.redisTemplate().execute((RedisCallback<byte[]>) connection -> connection.stringCommands().get(BITMAP_KEY_BYTES));
+            if (bitmap != null && bitmap.length == filter.bitSize() / 8) {
+                bitmaps.add(bitmap);
+            } else {
+                rebuild(shard.redisTemplate(), bitmap != null);
+            }
+        }
+        bitmaps.forEach(filter::mergeRedisBitmap);
+        logger.info("Loaded short code filter from {} of {} Redis shards, fill ratio {}", bitmaps.size(), shards.all().size(), filter.fillRatio());
+    }
+
+    private void rebuild(StringRedisTemplate redisTemplate, boolean discardExisting) {
+        BloomFilter rebuilt = new BloomFilter(filter.bitSize(), filter.hashFunctions());
+        long count = 0;
+        ScanOptions options = ScanOptions.scanOptions().count(1000).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                if (key.indexOf(':') < 0) { // mapping keys are bare short codes, internal keys are prefixed
+                    rebuilt.put(key);
+                    filter.put(key);
+                    count++;
+                } else if (key.startsWith(StorageLayout.BUCKET_PREFIX)) {
+                    for (Object shortCode : redisTemplate.opsForHash().keys(key)) {
+                        rebuilt.put((String) shortCode);
+                        filter.put((String) shortCode);
+                        count++;
+                    }
+                }
+            }
+        }
+        byte[] bitmap = rebuilt.toRedisBitmap();
+        // OR into the shared bitmap so bits written by other nodes during the scan are kept
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            if (discardExisting) {
+                connection.keyCommands().del(BITMAP_KEY_BYTES); // sized for a different configuration
+            }
+            connection.stringCommands().set(REBUILD_KEY_BYTES, bitmap);
+            connection.stringCommands().bitOp(RedisStringCommands.BitOperation.OR, BITMAP_KEY_BYTES, BITMAP_KEY_BYTES, REBUILD_KEY_BYTES);
+            connection.keyCommands().del(REBUILD_KEY_BYTES);
+            return null;
+        });
+        logger.info("Rebuilt short code filter from {} keys, fill ratio {}", count, filter.fillRatio());
+    }
+}
@@ -0,0 +1,93 @@
+package com.shortscale.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.shortscale.model.UrlMapping;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+@Component
+public class UrlMappingNearCache {
+
+    public static final String INVALIDATION_CHANNEL = "url-mapping-invalidation";
+
+    private final AsyncCache<String, UrlMapping> cache;
+
+    public UrlMappingNearCache(MeterRegistry meterRegistry,
+                               @Value("${shortscale.near-cache.maximum-size:100000}") long maximumSize,
+                               @Value("${shortscale.near-cache.expire-after-write:30s}") Duration expireAfterWrite) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                // expireAfterWrite bounds staleness if an invalidation message is lost; time-limited links leave
+                // earlier, at their own expiry. Caffeine tracks both in its timing wheel, and the scheduler drops
+                // entries on time instead of on the next access
+                .expireAfter(new Expiry<String, UrlMapping>() {
+                    @Override
+                    public long expireAfterCreate(String shortCode, UrlMapping mapping, long currentTime) {
+                        return timeToLive(mapping, expireAfterWrite).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String shortCode, UrlMapping mapping, long currentTime, long currentDuration) {
+                        return timeToLive(mapping, expireAfterWrite).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(String shortCode, UrlMapping mapping, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .scheduler(Scheduler.systemScheduler())
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "urlNearCache");
+    }
+
+    public UrlMapping get(String shortCode, Function<String, UrlMapping> loader) {
+        // The mapping function only installs a future; the Redis call runs outside the map's bin lock,
+        // so a loading virtual thread never blocks on I/O while pinned to its carrier
+        CompletableFuture<UrlMapping> created = new CompletableFuture<>();
+        CompletableFuture<UrlMapping> future = cache.get(shortCode, (key, executor) -> created);
+        if (future == created) {
+            try {
+                // Null results complete the future without caching, so misses always fall through to Redis
+                created.complete(loader.apply(shortCode));
+            } catch (RuntimeException e) {
+                created.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    public CompletableFuture<UrlMapping> getAsync(String shortCode, Function<String, CompletableFuture<UrlMapping>> loader) {
+        // Concurrent misses share the pending load; null and failed results are dropped by the cache
+        return cache.get(shortCode, (key, executor) -> loader.apply(key));
+    }
+
+    public void invalidate(String shortCode) {
+        cache.synchronous().invalidate(shortCode);
+    }
+
+    private static Duration timeToLive(UrlMapping mapping, Duration expireAfterWrite) {
+        if (mapping.getExpiresAt() == null) {
+            return expireAfterWrite;
+        }
+        Duration remaining = Duration.between(LocalDateTime.now(), mapping.getExpiresAt());
+        return remaining.isNegative() ? Duration.ZERO : remaining.compareTo(expireAfterWrite) < 0 ? remaining : expireAfterWrite;
+    }
+}
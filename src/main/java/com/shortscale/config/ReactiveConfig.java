@@ -0,0 +1,26 @@
+package com.shortscale.config;
+
+import com.shortscale.api.dto.AnalyticsEvent;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.kafka.sender.KafkaSender;
+import reactor.kafka.sender.SenderOptions;
+
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveConfig {
+
+    // Tomcat is on the classpath for the servlet edition and would otherwise be picked to host WebFlux
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    @Bean
+    public KafkaSender<String, AnalyticsEvent> kafkaSender(KafkaProperties kafkaProperties) {
+        return KafkaSender.create(SenderOptions.create(kafkaProperties.buildProducerProperties(null)));
+    }
+}
@@ -3,26 +3,63 @@ package com.shortscale.config;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.shortscale.model.UrlMapping;
+import com.shortscale.repository.RedisShards;
+import com.shortscale.repository.UrlMappingSerializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 @Configuration
 public class RedisConfig {
 
     @Bean
-    public RedisTemplate<String, UrlMapping> redisTemplate(RedisConnectionFactory connectionFactory, ObjectMapper objectMapper) {
+    public RedisTemplate<String, UrlMapping> redisTemplate(RedisConnectionFactory connectionFactory, UrlMappingSerializer urlMappingSerializer) {
         RedisTemplate<String, UrlMapping> template = new RedisTemplate<>();
         template.setConnectionFactory(connectionFactory);
         template.setKeySerializer(new StringRedisSerializer());
-        Jackson2JsonRedisSerializer<UrlMapping> serializer = new Jackson2JsonRedisSerializer<>(objectMapper, UrlMapping.class);
-        template.setValueSerializer(serializer);
+        template.setValueSerializer(urlMappingSerializer);
+        template.setHashKeySerializer(StringRedisSerializer.UTF_8);
+        template.setHashValueSerializer(urlMappingSerializer);
         return template;
     }
 
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public ReactiveRedisTemplate<String, UrlMapping> reactiveRedisTemplate(ReactiveRedisConnectionFactory connectionFactory, UrlMappingSerializer urlMappingSerializer) {
+        RedisSerializationContext<String, UrlMapping> context = RedisSerializationContext.<String, UrlMapping>newSerializationContext(new StringRedisSerializer())
+                .value(urlMappingSerializer)
+                .hashKey(StringRedisSerializer.UTF_8)
+                .hashValue(urlMappingSerializer)
+                .build();
+        return new ReactiveRedisTemplate<>(connectionFactory, context);
+    }
+
+    @Bean
+    public UrlMappingSerializer urlMappingSerializer(ObjectMapper objectMapper,
+                                                    @Value("${shortscale.redis.write-json:false}") boolean writeJson) {
+        return new UrlMappingSerializer(objectMapper, writeJson);
+    }
+
+    @Bean
+    public StringRedisTemplate stringRedisTemplate(RedisConnectionFactory connectionFactory) {
+        return new StringRedisTemplate(connectionFactory);
+    }
+
+    @Bean
+    public RedisShards redisShards(StringRedisTemplate stringRedisTemplate,
+                                   @Value("${shortscale.redis.shards:}") String shards,
+                                   @Value("${shortscale.redis.virtual-nodes:160}") int virtualNodes) {
+        return shards.isBlank() ? RedisShards.of(stringRedisTemplate) : RedisShards.connect(shards, virtualNodes);
+    }
+
     @Bean
     public ObjectMapper objectMapper() {
         ObjectMapper objectMapper = new ObjectMapper();
@@ -1,15 +1,14 @@
 package com.shortscale.config;
 
-import io.github.resilience4j.bulkhead.Bulkhead;
-import io.github.resilience4j.bulkhead.BulkheadConfig;
+import com.shortscale.util.BudgetedRetry;
+import com.shortscale.util.RetryBudget;
 import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
-import io.github.resilience4j.ratelimiter.RateLimiter;
-import io.github.resilience4j.ratelimiter.RateLimiterConfig;
-import io.github.resilience4j.retry.Retry;
-import io.github.resilience4j.retry.RetryConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.RedisConnectionFailureException;
 
 import java.time.Duration;
 
@@ -29,40 +28,17 @@ public class ResilienceConfig {
         return CircuitBreaker.of("urlCircuitBreaker", config);
     }
 
+    // Retries the write of a new link, and only what the node's budget allows and the request's deadline leaves time
+    // for. Only a failure to reach Redis is retried: the write was never sent, so it cannot be applied twice
     @Bean
-    public Retry urlRetry() {
-        RetryConfig config = RetryConfig.custom()
-                .maxAttempts(3)
-                .waitDuration(Duration.ofMillis(500))
-                .build();
-        return Retry.of("urlRetry", config);
-    }
-
-    @Bean
-    public Bulkhead urlBulkhead() {
-        BulkheadConfig config = BulkheadConfig.custom()
-                .maxConcurrentCalls(10)
-                .maxWaitDuration(Duration.ofMillis(100))
-                .build();
-        return Bulkhead.of("urlBulkhead", config);
-    }
-
-    @Bean
-    public RateLimiter urlRateLimiter() {
-        RateLimiterConfig config = RateLimiterConfig.custom()
-                .limitForPeriod(100)
-                .limitRefreshPeriod(Duration.ofSeconds(1))
-                .timeoutDuration(Duration.ofMillis(100))
-                .build();
-        return RateLimiter.of("urlRateLimiter", config);
-    }
-
-    @Bean
-    public Retry urlShortenRetry() {
-        RetryConfig config = RetryConfig.custom()
-                .maxAttempts(3)
-                .waitDuration(Duration.ofMillis(500))
-                .build();
-        return Retry.of("urlShortenRetry", config);
+    public BudgetedRetry urlShortenRetry(MeterRegistry meterRegistry,
+                                         @Value("${shortscale.retry.shorten.max-attempts:3}") int maxAttempts,
+                                         @Value("${shortscale.retry.shorten.base-backoff-ms:20}") long baseBackoffMillis,
+                                         @Value("${shortscale.retry.shorten.max-backoff-ms:200}") long maxBackoffMillis,
+                                         @Value("${shortscale.retry.shorten.deadline-ms:1000}") long deadlineMillis,
+                                         @Value("${shortscale.retry.shorten.budget-ratio:0.1}") double budgetRatio,
+                                         @Value("${shortscale.retry.shorten.budget-max-tokens:10}") int budgetMaxTokens) {
+        return new BudgetedRetry("shorten", meterRegistry, maxAttempts, baseBackoffMillis, maxBackoffMillis, deadlineMillis,
+                new RetryBudget(budgetRatio, budgetMaxTokens), e -> e instanceof RedisConnectionFailureException);
     }
 }
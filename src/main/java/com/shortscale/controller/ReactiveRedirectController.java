@@ -0,0 +1,36 @@
+package com.shortscale.controller;
+
+import com.shortscale.service.ReactiveUrlService;
+import com.shortscale.util.AdaptiveConcurrencyLimiter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveRedirectController {
+
+    private final ReactiveUrlService urlService;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    public ReactiveRedirectController(ReactiveUrlService urlService, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.urlService = urlService;
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    @GetMapping("/{shortCode}")
+    public Mono<ResponseEntity<Void>> redirect(@PathVariable String shortCode) {
+        AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquire("redirect");
+        if (permit == null) {
+            return Mono.just(UrlController.overloaded(concurrencyLimiter.getRetryAfterSeconds()));
+        }
+        return urlService.getOriginalUrl(shortCode)
+                .map(originalUrl -> ResponseEntity.status(HttpStatus.FOUND).header("Location", originalUrl).<Void>build())
+                .defaultIfEmpty(ResponseEntity.notFound().build())
+                .doFinally(signal -> permit.close());
+    }
+}
@@ -0,0 +1,94 @@
+package com.shortscale.controller;
+
+import com.google.zxing.WriterException;
+import com.shortscale.api.dto.BulkShortenRequest;
+import com.shortscale.api.dto.BulkShortenResponse;
+import com.shortscale.api.dto.ShortenRequest;
+import com.shortscale.api.dto.ShortenResponse;
+import com.shortscale.service.ReactiveUrlService;
+import com.shortscale.util.AdaptiveConcurrencyLimiter;
+import com.shortscale.util.RateLimiter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequestMapping("/api")
+public class ReactiveUrlController {
+
+    private final ReactiveUrlService urlService;
+    private final RateLimiter rateLimiter;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    public ReactiveUrlController(ReactiveUrlService urlService, RateLimiter rateLimiter, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.urlService = urlService;
+        this.rateLimiter = rateLimiter;
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    @PostMapping("/shorten")
+    public Mono<ResponseEntity<ShortenResponse>> shortenUrl(@RequestBody ShortenRequest request, ServerHttpRequest httpRequest) {
+        return isAllowed("shorten", httpRequest).flatMap(allowed -> {
+            if (!allowed) {
+                return Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).<ShortenResponse>build());
+            }
+            AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquire("shorten");
+            if (permit == null) {
+                return Mono.just(UrlController.<ShortenResponse>overloaded(concurrencyLimiter.getRetryAfterSeconds()));
+            }
+            return urlService.shortenUrl(request)
+                    .map(ResponseEntity::ok)
+                    .onErrorResume(IllegalArgumentException.class, e -> Mono.just(ResponseEntity.badRequest().build()))
+                    .doFinally(signal -> permit.close());
+        });
+    }
+
+    @PostMapping("/shorten/bulk")
+    public Mono<ResponseEntity<BulkShortenResponse>> bulkShortenUrls(@RequestBody BulkShortenRequest request, ServerHttpRequest httpRequest) {
+        return isAllowed("bulk", httpRequest).flatMap(allowed -> {
+            if (!allowed) {
+                return Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).<BulkShortenResponse>build());
+            }
+            return urlService.bulkShortenUrls(request)
+                    .map(ResponseEntity::ok)
+                    .onErrorResume(IllegalArgumentException.class, e -> Mono.just(ResponseEntity.badRequest().build()));
+        });
+    }
+
+    @GetMapping("/analytics/{shortCode}")
+    public Mono<ResponseEntity<Long>> getAnalytics(@PathVariable String shortCode) {
+        return urlService.getClickCount(shortCode).map(ResponseEntity::ok);
+    }
+
+    @GetMapping(value = "/qr/{shortCode}", produces = MediaType.IMAGE_PNG_VALUE)
+    public ResponseEntity<byte[]> getQRCode(@PathVariable String shortCode) {
+        try {
+            return ResponseEntity.ok(UrlController.renderQrCode(shortCode));
+        } catch (WriterException | IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // A distributed check may lease permits from Redis, so it runs off the event loop; a local one never waits
+    private Mono<Boolean> isAllowed(String endpoint, ServerHttpRequest request) {
+        String client = clientIp(request);
+        if (!rateLimiter.isDistributed()) {
+            return Mono.just(rateLimiter.isAllowed(endpoint, client));
+        }
+        return Mono.fromCallable(() -> rateLimiter.isAllowed(endpoint, client)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static String clientIp(ServerHttpRequest request) {
+        InetSocketAddress remoteAddress = request.getRemoteAddress();
+        return remoteAddress != null ? remoteAddress.getHostString() : "unknown";
+    }
+}
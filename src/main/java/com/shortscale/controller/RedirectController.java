@@ -1,6 +1,8 @@
 package com.shortscale.controller;
 
 import com.shortscale.service.UrlService;
+import com.shortscale.util.AdaptiveConcurrencyLimiter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -8,17 +10,27 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RestController;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class RedirectController {
 
     private final UrlService urlService;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
 
-    public RedirectController(UrlService urlService) {
+    public RedirectController(UrlService urlService, AdaptiveConcurrencyLimiter concurrencyLimiter) {
         this.urlService = urlService;
+        this.concurrencyLimiter = concurrencyLimiter;
     }
 
     @GetMapping("/{shortCode}")
     public ResponseEntity<?> redirect(@PathVariable String shortCode) {
-        String originalUrl = urlService.getOriginalUrl(shortCode);
+        AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquire("redirect");
+        if (permit == null) {
+            return UrlController.overloaded(concurrencyLimiter.getRetryAfterSeconds());
+        }
+        String originalUrl;
+        try (permit) {
+            originalUrl = urlService.getOriginalUrl(shortCode);
+        }
         if (originalUrl == null) {
             return ResponseEntity.notFound().build();
         }
@@ -9,9 +9,14 @@ import com.shortscale.api.dto.BulkShortenRequest;
 import com.shortscale.api.dto.BulkShortenResponse;
 import com.shortscale.api.dto.ShortenRequest;
 import com.shortscale.api.dto.ShortenResponse;
+import com.shortscale.service.BulkImportService;
 import com.shortscale.service.UrlService;
+import com.shortscale.util.AdaptiveConcurrencyLimiter;
 import com.shortscale.util.RateLimiter;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -21,24 +26,36 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/api")
 public class UrlController {
 
+    private static final String TEXT_CSV_VALUE = "text/csv";
+
     private final UrlService urlService;
+    private final BulkImportService bulkImportService;
     private final RateLimiter rateLimiter;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
 
-    public UrlController(UrlService urlService, RateLimiter rateLimiter) {
+    public UrlController(UrlService urlService, BulkImportService bulkImportService, RateLimiter rateLimiter,
+                         AdaptiveConcurrencyLimiter concurrencyLimiter) {
         this.urlService = urlService;
+        this.bulkImportService = bulkImportService;
         this.rateLimiter = rateLimiter;
+        this.concurrencyLimiter = concurrencyLimiter;
     }
 
     @PostMapping("/shorten")
     public ResponseEntity<ShortenResponse> shortenUrl(@RequestBody ShortenRequest request, HttpServletRequest httpRequest) {
         String clientIp = httpRequest.getRemoteAddr();
-        if (!rateLimiter.isAllowed(clientIp)) {
+        if (!rateLimiter.isAllowed("shorten", clientIp)) {
             return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
         }
-        try {
+        AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquire("shorten");
+        if (permit == null) {
+            return overloaded(concurrencyLimiter.getRetryAfterSeconds());
+        }
+        try (permit) {
             ShortenResponse response = urlService.shortenUrl(request);
             return ResponseEntity.ok(response);
         } catch (IllegalArgumentException e) {
@@ -49,7 +66,7 @@ public class UrlController {
     @PostMapping("/shorten/bulk")
     public ResponseEntity<BulkShortenResponse> bulkShortenUrls(@RequestBody BulkShortenRequest request, HttpServletRequest httpRequest) {
         String clientIp = httpRequest.getRemoteAddr();
-        if (!rateLimiter.isAllowed(clientIp)) {
+        if (!rateLimiter.isAllowed("bulk", clientIp)) {
             return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
         }
         try {
@@ -60,26 +77,48 @@ public class UrlController {
         }
     }
 
+    // Results are written as NDJSON, one line per row, while the body is still being read
+    @PostMapping(value = "/import", consumes = {MediaType.APPLICATION_NDJSON_VALUE, TEXT_CSV_VALUE})
+    public void importLinks(HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws IOException {
+        String clientIp = httpRequest.getRemoteAddr();
+        if (!rateLimiter.isAllowed("import", clientIp)) {
+            httpResponse.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            return;
+        }
+        BulkImportService.Format format = MediaType.parseMediaType(httpRequest.getContentType()).isCompatibleWith(MediaType.parseMediaType(TEXT_CSV_VALUE))
+                ? BulkImportService.Format.CSV
+                : BulkImportService.Format.NDJSON;
+        httpResponse.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        bulkImportService.importLinks(httpRequest.getInputStream(), format, httpResponse.getOutputStream(), clientIp);
+    }
+
     @GetMapping("/analytics/{shortCode}")
-    public ResponseEntity<Integer> getAnalytics(@PathVariable String shortCode) {
-        int clickCount = urlService.getClickCount(shortCode);
+    public ResponseEntity<Long> getAnalytics(@PathVariable String shortCode) {
+        long clickCount = urlService.getClickCount(shortCode);
         return ResponseEntity.ok(clickCount);
     }
 
     @GetMapping(value = "/qr/{shortCode}", produces = MediaType.IMAGE_PNG_VALUE)
     public ResponseEntity<byte[]> getQRCode(@PathVariable String shortCode) {
         try {
-            String url = "http://localhost:8080/" + shortCode; // Adjust the URL as needed
-            QRCodeWriter qrCodeWriter = new QRCodeWriter();
-            BitMatrix bitMatrix = qrCodeWriter.encode(url, BarcodeFormat.QR_CODE, 200, 200);
-
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            MatrixToImageWriter.writeToStream(bitMatrix, "PNG", byteArrayOutputStream);
-            byte[] qrCodeImage = byteArrayOutputStream.toByteArray();
-
-            return ResponseEntity.ok(qrCodeImage);
+            return ResponseEntity.ok(renderQrCode(shortCode));
         } catch (WriterException | IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
+
+    // Shed by the concurrency limiter: the node is saturated, so the client should back off briefly and retry
+    static <T> ResponseEntity<T> overloaded(long retryAfterSeconds) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds)).build();
+    }
+
+    static byte[] renderQrCode(String shortCode) throws WriterException, IOException {
+        String url = "http://localhost:8080/" + shortCode; // Adjust the URL as needed
+        QRCodeWriter qrCodeWriter = new QRCodeWriter();
+        BitMatrix bitMatrix = qrCodeWriter.encode(url, BarcodeFormat.QR_CODE, 200, 200);
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        MatrixToImageWriter.writeToStream(bitMatrix, "PNG", byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
 }
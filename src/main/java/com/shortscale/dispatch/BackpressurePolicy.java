@@ -0,0 +1,7 @@
+package com.shortscale.dispatch;
+
+public enum BackpressurePolicy {
+    DROP_OLDEST,
+    DROP_NEWEST,
+    BLOCK
+}
@@ -0,0 +1,129 @@
+package com.shortscale.dispatch;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+@Component
+public class SideEffectDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(SideEffectDispatcher.class);
+    private static final long MIN_IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final MpmcRingBuffer<Task> queue;
+    private final BackpressurePolicy policy;
+    private final long blockTimeoutNanos;
+    private final List<Thread> workers = new ArrayList<>();
+    private final Counter droppedCounter;
+    private final Counter failedCounter;
+    private final Timer publishLatency;
+    private volatile boolean running = true;
+
+    public SideEffectDispatcher(MeterRegistry meterRegistry,
+                                @Value("${shortscale.dispatcher.capacity:8192}") int capacity,
+                                @Value("${shortscale.dispatcher.workers:2}") int workerCount,
+                                @Value("${shortscale.dispatcher.policy:DROP_OLDEST}") BackpressurePolicy policy,
+                                @Value("${shortscale.dispatcher.block-timeout:10ms}") Duration blockTimeout) {
+        this.queue = new MpmcRingBuffer<>(capacity);
+        this.policy = policy;
+        this.blockTimeoutNanos = blockTimeout.toNanos();
+        Gauge.builder("side_effect_queue_depth", queue, MpmcRingBuffer::size).register(meterRegistry);
+        this.droppedCounter = Counter.builder("side_effect_dropped_total").tag("policy", policy.name()).register(meterRegistry);
+        this.failedCounter = meterRegistry.counter("side_effect_failed_total");
+        this.publishLatency = Timer.builder("side_effect_publish_latency").publishPercentileHistogram().register(meterRegistry);
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::drainLoop, "side-effect-dispatcher-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    public boolean dispatch(Runnable sideEffect) {
+        Task task = new Task(sideEffect, System.nanoTime());
+        if (queue.offer(task)) {
+            return true;
+        }
+        return switch (policy) {
+            case DROP_NEWEST -> drop();
+            case DROP_OLDEST -> offerDroppingOldest(task);
+            case BLOCK -> offerWithTimeout(task);
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private boolean offerDroppingOldest(Task task) {
+        while (!queue.offer(task)) {
+            if (queue.poll() != null) {
+                droppedCounter.increment();
+            }
+        }
+        return true;
+    }
+
+    private boolean offerWithTimeout(Task task) {
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        long idleNanos = MIN_IDLE_NANOS;
+        while (System.nanoTime() < deadline) {
+            LockSupport.parkNanos(idleNanos);
+            if (queue.offer(task)) {
+                return true;
+            }
+            idleNanos = Math.min(idleNanos * 2, MAX_IDLE_NANOS);
+        }
+        return drop();
+    }
+
+    private boolean drop() {
+        droppedCounter.increment();
+        return false;
+    }
+
+    private void drainLoop() {
+        long idleNanos = MIN_IDLE_NANOS;
+        while (true) {
+            Task task = queue.poll();
+            if (task == null) {
+                if (!running) {
+                    return; // queue drained after shutdown
+                }
+                // Workers back off instead of being signalled, so producers never pay for a wake-up
+                LockSupport.parkNanos(idleNanos);
+                idleNanos = Math.min(idleNanos * 2, MAX_IDLE_NANOS);
+                continue;
+            }
+            idleNanos = MIN_IDLE_NANOS;
+            try {
+                task.sideEffect().run();
+            } catch (RuntimeException e) {
+                failedCounter.increment();
+                logger.warn("Side effect failed: {}", e.getMessage());
+            }
+            publishLatency.record(System.nanoTime() - task.enqueuedAt(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private record Task(Runnable sideEffect, long enqueuedAt) {
+    }
+}
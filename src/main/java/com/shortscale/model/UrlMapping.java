@@ -1,14 +1,15 @@
 package com.shortscale.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import lombok.Data;
 import java.time.LocalDateTime;
 
 @Data
+@JsonIgnoreProperties(ignoreUnknown = true) // legacy values still carry clickCount
 public class UrlMapping {
     private Long id;
     private String shortCode;
     private String originalUrl;
     private LocalDateTime createdAt;
     private LocalDateTime expiresAt;
-    private int clickCount;
 }
@@ -0,0 +1,168 @@
+package com.shortscale.repository;
+
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+// Moves top-level mapping keys into hash buckets. Run once after enabling the bucketed layout, by starting
+// a node with shortscale.storage.migrate=true; it is safe to repeat and to run while nodes keep serving. Sharded, every
+// shard is migrated in turn; a link and its bucket live on the same shard, since both are placed by the short code.
+@Component
+public class BucketMigration implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(BucketMigration.class);
+    private static final int BATCH_SIZE = 1000;
+    // KEYS[1] top-level key, KEYS[2] bucket; ARGV[1] short code, ARGV[2] largest value allowed in a bucket.
+    // Atomic per link, so a concurrent save or delete is never lost; expiring links stay where Redis can expire them
+    private static final byte[] MOVE_SCRIPT = (
+            "local value = redis.call('GET', KEYS[1]) "
+                    + "if not value or redis.call('PTTL', KEYS[1]) ~= -1 or string.len(value) > tonumber(ARGV[2]) then return 0 end "
+                    + "redis.call('HSET', KEYS[2], ARGV[1], value) "
+                    + "redis.call('DEL', KEYS[1]) "
+                    + "return 1").getBytes(StandardCharsets.UTF_8);
+
+    private final RedisShards shards;
+    private final StorageLayout storageLayout;
+    private final boolean migrateOnStartup;
+
+    public BucketMigration(RedisShards shards, StorageLayout storageLayout,
+                           @Value("${shortscale.storage.migrate:false}") boolean migrateOnStartup) {
+        this.shards = shards;
+        this.storageLayout = storageLayout;
+        this.migrateOnStartup = migrateOnStartup;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (migrateOnStartup) {
+            migrate();
+        }
+    }
+
+    public Report migrate() {
+        Report report = new Report();
+        if (!storageLayout.isBucketed()) {
+            logger.warn("shortscale.storage.bucketed is off, nothing to migrate");
+            return report;
+        }
+        report.setLinks(countLinks());
+        report.setUsedMemoryBefore(usedMemory());
+        // A scan is not guaranteed to return every key while the keyspace is being rewritten under it, so passes
+        // repeat until one finds nothing left to move
+        for (RedisShards.Shard shard : shards.all()) {
+            long moved;
+            do {
+                moved = movePass(shard.redisTemplate());
+                report.setMoved(report.getMoved() + moved);
+            } while (moved > 0);
+        }
+        report.setUsedMemoryAfter(usedMemory());
+        logger.info("Moved {} of {} links into buckets; used memory {} -> {} bytes, {} -> {} bytes per link",
+                report.getMoved(), report.getLinks(), report.getUsedMemoryBefore(), report.getUsedMemoryAfter(),
+                report.bytesPerLinkBefore(), report.bytesPerLinkAfter());
+        return report;
+    }
+
+    private long movePass(StringRedisTemplate redisTemplate) {
+        long moved = 0;
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        try (Cursor<String> cursor = scan(redisTemplate)) {
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                if (isMappingKey(key) && storageLayout.bucketKey(key) != null) {
+                    batch.add(key);
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    moved += move(redisTemplate, batch);
+                    batch.clear();
+                }
+            }
+        }
+        return moved + move(redisTemplate, batch);
+    }
+
+    // Counted up front: a scan may return buckets the migration itself creates
+    private long countLinks() {
+        long links = 0;
+        for (RedisShards.Shard shard : shards.all()) {
+            StringRedisTemplate redisTemplate = shard.redisTemplate();
+            try (Cursor<String> cursor = scan(redisTemplate)) {
+                while (cursor.hasNext()) {
+                    String key = cursor.next();
+                    if (isMappingKey(key)) {
+                        links++;
+                    } else if (key.startsWith(StorageLayout.BUCKET_PREFIX)) {
+                        links += redisTemplate.opsForHash().size(key);
+                    }
+                }
+            }
+        }
+        return links;
+    }
+
+    private static Cursor<String> scan(StringRedisTemplate redisTemplate) {
+        return redisTemplate.scan(ScanOptions.scanOptions().count(BATCH_SIZE).build());
+    }
+
+    // Mapping keys are bare short codes; everything else the application stores has a prefix
+    private static boolean isMappingKey(String key) {
+        return key.indexOf(':') < 0;
+    }
+
+    private long move(StringRedisTemplate redisTemplate, List<String> shortCodes) {
+        if (shortCodes.isEmpty()) {
+            return 0;
+        }
+        byte[] maxValueBytes = Integer.toString(storageLayout.getMaxBucketValueBytes()).getBytes(StandardCharsets.UTF_8);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String shortCode : shortCodes) {
+                byte[] key = shortCode.getBytes(StandardCharsets.UTF_8);
+                connection.scriptingCommands().eval(MOVE_SCRIPT, ReturnType.INTEGER, 2,
+                        key, storageLayout.bucketKey(shortCode).getBytes(StandardCharsets.UTF_8), key, maxValueBytes);
+            }
+            return null;
+        });
+        return results.stream().mapToLong(result -> (Long) result).sum();
+    }
+
+    // Summed over all shards
+    public long usedMemory() {
+        long usedMemory = 0;
+        for (RedisShards.Shard shard : shards.all()) {
+            Properties info = shard.redisTemplate().execute((RedisCallback<Properties>) connection -> connection.serverCommands().info("memory"));
+            usedMemory += info != null ? Long.parseLong(info.getProperty("used_memory", "0")) : 0;
+        }
+        return usedMemory;
+    }
+
+    @Data
+    public static class Report {
+        private long links;
+        private long moved;
+        private long usedMemoryBefore;
+        private long usedMemoryAfter;
+
+        // Redis reports memory for the whole instance, so these include counters and other keys as well
+        public long bytesPerLinkBefore() {
+            return links > 0 ? usedMemoryBefore / links : 0;
+        }
+
+        public long bytesPerLinkAfter() {
+            return links > 0 ? usedMemoryAfter / links : 0;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.shortscale.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Reverse index from destination to the short code it was first shortened to, kept in Redis as
+// "dst:{digest}" and fronted by a local cache. Only permanent links are indexed, so an entry stays valid for
+// as long as it exists.
+@Component
+public class DestinationIndex {
+
+    public static final String KEY_PREFIX = "dst:";
+    private static final int DIGEST_BYTES = 16; // 128 bits of SHA-256, 22 characters in base64url
+
+    private final RedisShards shards;
+    private final Cache<String, String> cache;
+    private final boolean enabled;
+
+    public DestinationIndex(RedisShards shards, MeterRegistry meterRegistry,
+                            @Value("${shortscale.dedup.enabled:false}") boolean enabled,
+                            @Value("${shortscale.dedup.cache-size:100000}") long cacheSize) {
+        this.shards = shards;
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "destinationCache");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // The short code already issued for this destination, or null
+    public String find(String digest) {
+        return cache.get(digest, key -> shards.forKey(key).redisTemplate().opsForValue().get(KEY_PREFIX + key));
+    }
+
+    // Points the digest at shortCode unless another request got there first; returns the code that won.
+    // Callers save the mapping before claiming, so the index never refers to a link that does not exist yet
+    public String claim(String digest, String shortCode) {
+        StringRedisTemplate redisTemplate = shards.forKey(digest).redisTemplate();
+        String key = KEY_PREFIX + digest;
+        String indexed = shortCode;
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, shortCode))) {
+            String existing = redisTemplate.opsForValue().get(key);
+            indexed = existing != null ? existing : shortCode;
+        }
+        cache.put(digest, indexed);
+        return indexed;
+    }
+
+    // find for many digests: cached ones locally, the rest with one MGET per shard. Digests without a code are left out
+    public Map<String, String> findAll(Collection<String> digests) {
+        return cache.getAll(digests, missing -> {
+            Map<String, String> found = new ConcurrentHashMap<>();
+            shards.inParallel(shards.partition(new ArrayList<>(missing), digest -> digest), (shard, shardDigests) -> {
+                List<String> shortCodes = shard.redisTemplate().opsForValue().multiGet(shardDigests.stream().map(digest -> KEY_PREFIX + digest).toList());
+                for (int i = 0; i < shardDigests.size(); i++) {
+                    String shortCode = shortCodes != null ? shortCodes.get(i) : null;
+                    if (shortCode != null) {
+                        found.put(shardDigests.get(i), shortCode);
+                    }
+                }
+                return null;
+            });
+            return found;
+        });
+    }
+
+    // claim for many digests: per shard one pipeline of SET NX, then one MGET for the digests another request got first
+    public Map<String, String> claimAll(Map<String, String> shortCodesByDigest) {
+        Map<String, String> indexed = new ConcurrentHashMap<>(shortCodesByDigest);
+        shards.inParallel(shards.partition(shortCodesByDigest.keySet(), digest -> digest), (shard, digests) -> {
+            List<Object> claimed = shard.redisTemplate().executePipelined((RedisCallback<Object>) connection -> {
+                for (String digest : digests) {
+                    connection.stringCommands().setNX(bytes(KEY_PREFIX + digest), bytes(shortCodesByDigest.get(digest)));
+                }
+                return null;
+            });
+            List<String> lost = new ArrayList<>();
+            for (int i = 0; i < digests.size(); i++) {
+                if (!Boolean.TRUE.equals(claimed.get(i))) {
+                    lost.add(digests.get(i));
+                }
+            }
+            if (!lost.isEmpty()) {
+                List<String> winners = shard.redisTemplate().opsForValue().multiGet(lost.stream().map(digest -> KEY_PREFIX + digest).toList());
+                for (int i = 0; i < lost.size(); i++) {
+                    String winner = winners != null ? winners.get(i) : null;
+                    if (winner != null) {
+                        indexed.put(lost.get(i), winner);
+                    }
+                }
+            }
+            return null;
+        });
+        cache.putAll(indexed);
+        return new HashMap<>(indexed);
+    }
+
+    public static String digest(String originalUrl) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(canonicalize(originalUrl).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hash, DIGEST_BYTES));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e); // required of every JVM
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Only rewrites what cannot change where the URL leads: scheme and host case, a default port and an empty
+    // path. Query and fragment are left exactly as given
+    static String canonicalize(String originalUrl) {
+        String url = originalUrl.trim();
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            return url;
+        }
+        if (uri.getScheme() == null || uri.getRawAuthority() == null || uri.getHost() == null) {
+            return url;
+        }
+        String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+        int port = uri.getPort();
+        boolean defaultPort = port == -1 || (scheme.equals("http") && port == 80) || (scheme.equals("https") && port == 443);
+        StringBuilder canonical = new StringBuilder(url.length())
+                .append(scheme).append("://");
+        if (uri.getRawUserInfo() != null) {
+            canonical.append(uri.getRawUserInfo()).append('@');
+        }
+        canonical.append(uri.getHost().toLowerCase(Locale.ROOT));
+        if (!defaultPort) {
+            canonical.append(':').append(port);
+        }
+        String path = uri.getRawPath();
+        canonical.append(path == null || path.isEmpty() ? "/" : path);
+        if (uri.getRawQuery() != null) {
+            canonical.append('?').append(uri.getRawQuery());
+        }
+        if (uri.getRawFragment() != null) {
+            canonical.append('#').append(uri.getRawFragment());
+        }
+        return canonical.toString();
+    }
+}
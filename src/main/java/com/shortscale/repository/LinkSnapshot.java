@@ -0,0 +1,387 @@
+package com.shortscale.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shortscale.analytics.ClickCounter;
+import com.shortscale.model.UrlMapping;
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Portable backup of every link and its click count, independent of the Redis version and storage layout.
+// File: "SSNP", format version, then chunks of [compressed length][raw length][entries][CRC32C of the compressed
+// bytes][deflated entries], closed by [-1][total entries]. An entry is [code length (short)][code UTF-8]
+// [value length (int)][value in UrlMappingSerializer version 1][clicks (long)]. Export and restore hold one chunk
+// per thread in memory. Set shortscale.snapshot.export-path or restore-path to run one on startup. Sharded, export
+// walks every shard and restore writes each link where the current shard list places it.
+@Component
+@ConditionalOnProperty(name = "shortscale.storage.engine", havingValue = "redis", matchIfMissing = true)
+public class LinkSnapshot implements ApplicationRunner {
+
+    static final byte[] MAGIC = {'S', 'S', 'N', 'P'};
+    static final byte FORMAT_VERSION = 1;
+
+    private static final Logger logger = LoggerFactory.getLogger(LinkSnapshot.class);
+    private static final int END_OF_CHUNKS = -1;
+    private static final int CHUNK_HEADER_BYTES = 16;
+
+    private final RedisTemplate<String, UrlMapping> redisTemplate;
+    private final RedisShards shards;
+    private final UrlRepository repository;
+    private final UrlMappingSerializer entryFormat;
+    private final int chunkSize;
+    private final int restoreParallelism;
+    private final String exportPath;
+    private final String restorePath;
+
+    public LinkSnapshot(RedisTemplate<String, UrlMapping> redisTemplate, RedisShards shards, UrlRepository repository, ObjectMapper objectMapper,
+                        @Value("${shortscale.snapshot.chunk-size:1000}") int chunkSize,
+                        @Value("${shortscale.snapshot.restore-parallelism:4}") int restoreParallelism,
+                        @Value("${shortscale.snapshot.export-path:}") String exportPath,
+                        @Value("${shortscale.snapshot.restore-path:}") String restorePath) {
+        this.redisTemplate = redisTemplate;
+        this.shards = shards;
+        this.repository = repository;
+        this.entryFormat = new UrlMappingSerializer(objectMapper, false); // version 1 whatever the store writes
+        this.chunkSize = chunkSize;
+        this.restoreParallelism = restoreParallelism;
+        this.exportPath = exportPath;
+        this.restorePath = restorePath;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (!restorePath.isEmpty()) {
+            restore(Path.of(restorePath), restoreParallelism);
+        }
+        if (!exportPath.isEmpty()) {
+            export(Path.of(exportPath));
+        }
+    }
+
+    public Report export(Path file) throws IOException {
+        long start = System.nanoTime();
+        Report report = new Report();
+        try (ChunkWriter chunk = new ChunkWriter();
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.allocate(MAGIC.length + 1).put(MAGIC).put(FORMAT_VERSION).flip());
+            for (RedisShards.Shard shard : shards.all()) {
+                exportShard(shard.redisTemplate(), chunk, channel, report);
+            }
+            chunk.flush(channel);
+            writeFully(channel, ByteBuffer.allocate(12).putInt(END_OF_CHUNKS).putLong(report.getLinks()).flip());
+            report.setBytes(channel.size());
+        }
+        report.setElapsedMillis((System.nanoTime() - start) / 1_000_000);
+        logger.info("Exported {} links and {} click counters to {} ({} bytes) in {} ms, {} links/s",
+                report.getLinks(), report.getClickCounters(), file, report.getBytes(), report.getElapsedMillis(), report.linksPerSecond());
+        return report;
+    }
+
+    public Report restore(Path file, int parallelism) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Report report = new Report();
+        AtomicLong links = new AtomicLong();
+        AtomicLong clickCounters = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        Semaphore inFlight = new Semaphore(parallelism * 2); // bounds the chunks read ahead of the writers
+        long expectedLinks = -1;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, MAGIC.length + 1);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || header.get() != FORMAT_VERSION) {
+                throw new IOException(file + " is not a version " + FORMAT_VERSION + " link snapshot");
+            }
+            while (true) {
+                int compressedLength = readFully(channel, 4).getInt();
+                if (compressedLength == END_OF_CHUNKS) {
+                    expectedLinks = readFully(channel, 8).getLong();
+                    break;
+                }
+                ByteBuffer chunkHeader = readFully(channel, CHUNK_HEADER_BYTES - 4);
+                int rawLength = chunkHeader.getInt();
+                int entries = chunkHeader.getInt();
+                int checksum = chunkHeader.getInt();
+                byte[] compressed = readFully(channel, compressedLength).array();
+                CRC32C crc = new CRC32C();
+                crc.update(compressed);
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("Corrupt chunk at offset " + (channel.position() - compressedLength - CHUNK_HEADER_BYTES) + " of " + file);
+                }
+                inFlight.acquire();
+                if (failure.get() != null) {
+                    break;
+                }
+                workers.execute(() -> {
+                    try {
+                        clickCounters.addAndGet(restoreChunk(compressed, rawLength, entries));
+                        links.addAndGet(entries);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.HOURS);
+        }
+        if (failure.get() != null) {
+            throw new IOException("Restore from " + file + " failed", failure.get());
+        }
+        if (links.get() != expectedLinks) {
+            throw new IOException("Snapshot " + file + " lists " + expectedLinks + " links but holds " + links.get());
+        }
+        report.setLinks(links.get());
+        report.setClickCounters(clickCounters.get());
+        report.setBytes(file.toFile().length());
+        report.setElapsedMillis((System.nanoTime() - start) / 1_000_000);
+        logger.info("Restored {} links and {} click counters from {} in {} ms with {} threads, {} links/s",
+                report.getLinks(), report.getClickCounters(), file, report.getElapsedMillis(), parallelism, report.linksPerSecond());
+        return report;
+    }
+
+    private void exportShard(StringRedisTemplate shardTemplate, ChunkWriter chunk, FileChannel channel, Report report) throws IOException {
+        try (Cursor<String> cursor = shardTemplate.scan(ScanOptions.scanOptions().count(chunkSize).build())) {
+            List<String> keys = new ArrayList<>(chunkSize);
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                // Mapping keys are bare short codes; of the prefixed keys only buckets hold links
+                if (key.indexOf(':') < 0 || key.startsWith(StorageLayout.BUCKET_PREFIX)) {
+                    keys.add(key);
+                }
+                if (keys.size() == chunkSize) {
+                    exportKeys(shardTemplate, keys, chunk, channel, report);
+                    keys.clear();
+                }
+            }
+            exportKeys(shardTemplate, keys, chunk, channel, report);
+        }
+    }
+
+    // A link's click counter is placed by its short code, so it is on the same shard as the link
+    @SuppressWarnings("unchecked")
+    private void exportKeys(StringRedisTemplate shardTemplate, List<String> keys, ChunkWriter chunk, FileChannel channel, Report report) throws IOException {
+        if (keys.isEmpty()) {
+            return;
+        }
+        // Raw values, so the template's serializer decodes whichever format each one was written in
+        List<Object> values = shardTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                if (key.indexOf(':') < 0) {
+                    connection.stringCommands().get(bytes(key));
+                } else {
+                    connection.hashCommands().hGetAll(bytes(key));
+                }
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+        List<String> shortCodes = new ArrayList<>();
+        List<byte[]> rawValues = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            Object value = values.get(i);
+            if (value instanceof byte[] raw) {
+                shortCodes.add(keys.get(i));
+                rawValues.add(raw);
+            } else if (value instanceof Map<?, ?> bucket) {
+                for (Map.Entry<?, ?> field : bucket.entrySet()) {
+                    shortCodes.add(new String((byte[]) field.getKey(), StandardCharsets.UTF_8));
+                    rawValues.add((byte[]) field.getValue());
+                }
+            }
+        }
+        List<Object> clicks = shardTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String shortCode : shortCodes) {
+                connection.stringCommands().get(bytes(ClickCounter.KEY_PREFIX + shortCode));
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+
+        RedisSerializer<UrlMapping> storedFormat = (RedisSerializer<UrlMapping>) redisTemplate.getValueSerializer();
+        for (int i = 0; i < shortCodes.size(); i++) {
+            UrlMapping mapping = storedFormat.deserialize(rawValues.get(i));
+            if (mapping == null || RedisUrlRepository.isExpired(mapping)) {
+                continue;
+            }
+            long clickCount = clicks.get(i) instanceof byte[] count ? Long.parseLong(new String(count, StandardCharsets.UTF_8)) : 0;
+            chunk.add(shortCodes.get(i), entryFormat.serialize(mapping), clickCount);
+            report.setLinks(report.getLinks() + 1);
+            if (clickCount > 0) {
+                report.setClickCounters(report.getClickCounters() + 1);
+            }
+            if (chunk.entries == chunkSize) {
+                chunk.flush(channel);
+            }
+        }
+    }
+
+    private long restoreChunk(byte[] compressed, int rawLength, int entries) throws IOException, DataFormatException {
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            if (inflater.inflate(raw) != rawLength || !inflater.finished()) {
+                throw new IOException("Chunk does not inflate to its recorded length");
+            }
+        } finally {
+            inflater.end();
+        }
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(raw));
+        List<UrlMapping> mappings = new ArrayList<>(entries);
+        List<Long> clickCounts = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            String shortCode = new String(input.readNBytes(input.readUnsignedShort()), StandardCharsets.UTF_8);
+            UrlMapping mapping = entryFormat.deserialize(input.readNBytes(input.readInt()));
+            long clickCount = input.readLong();
+            if (RedisUrlRepository.isExpired(mapping)) {
+                continue; // ran out between export and restore
+            }
+            mapping.setShortCode(shortCode);
+            mappings.add(mapping);
+            clickCounts.add(clickCount);
+        }
+        repository.saveAll(mappings);
+        Map<UrlMapping, Long> clicked = new IdentityHashMap<>();
+        for (int i = 0; i < mappings.size(); i++) {
+            if (clickCounts.get(i) > 0) {
+                clicked.put(mappings.get(i), clickCounts.get(i));
+            }
+        }
+        shards.inParallel(shards.partition(clicked.keySet(), UrlMapping::getShortCode), (shard, shardMappings) ->
+                shard.redisTemplate().executePipelined((RedisCallback<Object>) connection -> {
+                    for (UrlMapping mapping : shardMappings) {
+                        byte[] key = bytes(ClickCounter.KEY_PREFIX + mapping.getShortCode());
+                        byte[] value = bytes(Long.toString(clicked.get(mapping)));
+                        Duration timeToLive = RedisUrlRepository.timeToLive(mapping);
+                        if (timeToLive != null) {
+                            connection.stringCommands().set(key, value, Expiration.from(timeToLive), RedisStringCommands.SetOption.upsert());
+                        } else {
+                            connection.stringCommands().set(key, value);
+                        }
+                    }
+                    return null;
+                }));
+        return clicked.size();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Snapshot is truncated");
+            }
+        }
+        return buffer.flip();
+    }
+
+    // Entries of the chunk being built; written out compressed once it holds chunkSize entries
+    private static final class ChunkWriter implements AutoCloseable {
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final DataOutputStream output = new DataOutputStream(buffer);
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private int entries;
+
+        void add(String shortCode, byte[] value, long clickCount) throws IOException {
+            byte[] code = bytes(shortCode);
+            output.writeShort(code.length);
+            output.write(code);
+            output.writeInt(value.length);
+            output.write(value);
+            output.writeLong(clickCount);
+            entries++;
+        }
+
+        void flush(FileChannel channel) throws IOException {
+            if (entries == 0) {
+                return;
+            }
+            byte[] raw = buffer.toByteArray();
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] compressed = new byte[raw.length + raw.length / 1000 + 64]; // deflate's worst case is a little over the input
+            int compressedLength = deflater.deflate(compressed);
+            if (!deflater.finished()) {
+                throw new IllegalStateException("Deflated chunk exceeds its buffer");
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(compressed, 0, compressedLength);
+            writeFully(channel, ByteBuffer.allocate(CHUNK_HEADER_BYTES)
+                    .putInt(compressedLength).putInt(raw.length).putInt(entries).putInt((int) crc.getValue()).flip());
+            writeFully(channel, ByteBuffer.wrap(compressed, 0, compressedLength));
+            buffer.reset();
+            entries = 0;
+        }
+
+        @Override
+        public void close() {
+            deflater.end();
+        }
+    }
+
+    @Data
+    public static class Report {
+        private long links;
+        private long clickCounters;
+        private long bytes;
+        private long elapsedMillis;
+
+        public long linksPerSecond() {
+            return elapsedMillis > 0 ? links * 1000 / elapsedMillis : links;
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package com.shortscale.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shortscale.model.UrlMapping;
+import com.shortscale.util.OffHeapLongMap;
+import com.shortscale.util.ShortCodeCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Durable single-node link store. Saves and deletes are appended to the active segment file through a memory map,
+// and reads copy the value out of whichever mapped segment the in-memory index points at (generated codes by id in
+// an OffHeapLongMap, other codes in a map; a location is segment id << 32 | position). Cold links cost disk and
+// page cache, not heap or Redis memory.
+// Record: [length of the rest (int)][CRC32C of what follows it (int)][type (byte)][code length (short)][code]
+// [value in UrlMappingSerializer version 1, puts only]. Startup replays the segments in order to rebuild the index
+// and stops a segment at its first zeroed or torn record. Compaction copies the live records of mostly-dead sealed
+// segments into the active one and deletes their files.
+@Repository
+@ConditionalOnProperty(name = "shortscale.storage.engine", havingValue = "log")
+public class LogStructuredUrlRepository implements UrlRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogStructuredUrlRepository.class);
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int HEADER_BYTES = 4 + 4 + 1 + 2;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte[] NO_VALUE = new byte[0];
+
+    private final UrlMappingSerializer serializer;
+    private final ShortCodeCodec codec;
+    private final Path directory;
+    private final int segmentBytes;
+    private final boolean syncEachWrite;
+    private final double compactionThreshold;
+    private final OffHeapLongMap index;
+    private final Map<String, Long> customIndex = new HashMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Counter compactionsCounter;
+    private Segment active;
+
+    public LogStructuredUrlRepository(ObjectMapper objectMapper, MeterRegistry meterRegistry, ShortCodeCodec codec,
+                                      @Value("${shortscale.storage.log.directory:data/links}") String directory,
+                                      @Value("${shortscale.storage.log.segment-bytes:67108864}") int segmentBytes,
+                                      @Value("${shortscale.storage.log.sync-each-write:false}") boolean syncEachWrite,
+                                      @Value("${shortscale.storage.log.compaction-threshold:0.5}") double compactionThreshold,
+                                      @Value("${shortscale.storage.offheap.initial-capacity:1000000}") long initialCapacity) {
+        this.serializer = new UrlMappingSerializer(objectMapper, false);
+        this.codec = codec;
+        this.directory = Paths.get(directory);
+        this.segmentBytes = segmentBytes;
+        this.syncEachWrite = syncEachWrite;
+        this.compactionThreshold = compactionThreshold;
+        this.index = new OffHeapLongMap(initialCapacity);
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the link log in " + directory, e);
+        }
+        this.compactionsCounter = meterRegistry.counter("log_store_compactions_total");
+        Gauge.builder("log_store_links", this, LogStructuredUrlRepository::size).register(meterRegistry);
+        Gauge.builder("log_store_segments", this, LogStructuredUrlRepository::segmentCount).register(meterRegistry);
+        Gauge.builder("log_store_dead_bytes", this, LogStructuredUrlRepository::deadBytes).register(meterRegistry);
+    }
+
+    @Override
+    public UrlMapping save(UrlMapping urlMapping) {
+        byte[] value = serializer.serialize(urlMapping);
+        lock.writeLock().lock();
+        try {
+            put(urlMapping.getShortCode(), value);
+            if (syncEachWrite) {
+                active.buffer.force();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return urlMapping;
+    }
+
+    // An expired link still in the index does not hold on to its code
+    @Override
+    public boolean saveIfAbsent(UrlMapping urlMapping) {
+        byte[] value = serializer.serialize(urlMapping);
+        lock.writeLock().lock();
+        try {
+            long location = locate(urlMapping.getShortCode());
+            if (location != OffHeapLongMap.MISSING && !RedisUrlRepository.isExpired(serializer.deserialize(readValue(location)))) {
+                return false;
+            }
+            put(urlMapping.getShortCode(), value);
+            if (syncEachWrite) {
+                active.buffer.force();
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveAll(List<UrlMapping> urlMappings) {
+        List<byte[]> values = urlMappings.stream().map(serializer::serialize).toList();
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < urlMappings.size(); i++) {
+                put(urlMappings.get(i).getShortCode(), values.get(i));
+            }
+            if (syncEachWrite) {
+                active.buffer.force();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public UrlMapping findByShortCode(String shortCode) {
+        long location;
+        byte[] value;
+        lock.readLock().lock();
+        try {
+            location = locate(shortCode);
+            value = location != OffHeapLongMap.MISSING ? readValue(location) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (value == null) {
+            return null;
+        }
+        UrlMapping urlMapping = serializer.deserialize(value);
+        if (RedisUrlRepository.isExpired(urlMapping)) {
+            deleteIfUnchanged(shortCode, location);
+            return null;
+        }
+        urlMapping.setShortCode(shortCode); // the key, not stored in the value
+        return urlMapping;
+    }
+
+    @Override
+    public boolean existsByShortCode(String shortCode) {
+        return findByShortCode(shortCode) != null;
+    }
+
+    @Override
+    public void deleteByShortCode(String shortCode) {
+        lock.writeLock().lock();
+        try {
+            long previous = unindex(shortCode);
+            if (previous != OffHeapLongMap.MISSING) {
+                release(previous);
+                append(DELETE, shortCode, NO_VALUE);
+                if (syncEachWrite) {
+                    active.buffer.force();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Rewrites sealed segments whose live records fill less than compaction-threshold of them; returns how many
+    @Scheduled(fixedDelayString = "${shortscale.storage.log.compaction-interval-ms:60000}")
+    public int compact() {
+        List<Segment> candidates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                if (segment != active && segment.liveBytes < compactionThreshold * segment.position) {
+                    candidates.add(segment);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (Segment segment : candidates) {
+            // One segment per lock hold, so reads and writes get in between segments
+            lock.writeLock().lock();
+            try {
+                compact(segment);
+            } catch (IOException e) {
+                logger.warn("Could not delete compacted segment {}: {}", segment.path, e.getMessage());
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return candidates.size();
+    }
+
+    @Scheduled(fixedDelayString = "${shortscale.storage.log.sync-interval-ms:1000}")
+    public void sync() {
+        lock.writeLock().lock();
+        try {
+            active.buffer.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        sync();
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return index.size() + customIndex.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int segmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long deadBytes() {
+        lock.readLock().lock();
+        try {
+            return segments.values().stream().mapToLong(segment -> segment.position - segment.liveBytes).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Tombstones the expired record read at location, unless the code was saved again (or the record moved by
+    // compaction, to be dropped on a later read) since it was read
+    private void deleteIfUnchanged(String shortCode, long location) {
+        lock.writeLock().lock();
+        try {
+            if (locate(shortCode) != location) {
+                return;
+            }
+            release(unindex(shortCode));
+            append(DELETE, shortCode, NO_VALUE);
+            if (syncEachWrite) {
+                active.buffer.force();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void put(String shortCode, byte[] value) {
+        long location = append(PUT, shortCode, value);
+        long previous = index(shortCode, location);
+        if (previous != OffHeapLongMap.MISSING) {
+            release(previous);
+        }
+        segment(location).liveBytes += recordBytes(location);
+    }
+
+    private long append(byte type, String shortCode, byte[] value) {
+        byte[] code = shortCode.getBytes(StandardCharsets.UTF_8);
+        int recordBytes = HEADER_BYTES + code.length + value.length;
+        if (recordBytes > segmentBytes) {
+            throw new IllegalArgumentException("Link of " + recordBytes + " bytes does not fit a " + segmentBytes + "-byte segment");
+        }
+        if (active.position + recordBytes > segmentBytes) {
+            roll();
+        }
+        MappedByteBuffer buffer = active.buffer;
+        int position = active.position;
+        buffer.put(position + 8, type)
+                .putShort(position + 9, (short) code.length)
+                .put(position + HEADER_BYTES, code)
+                .put(position + HEADER_BYTES + code.length, value);
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(position + 8, recordBytes - 8));
+        buffer.putInt(position + 4, (int) crc.getValue()).putInt(position, recordBytes - 4);
+        active.position += recordBytes;
+        return location(active.id, position);
+    }
+
+    private void roll() {
+        active.buffer.force(); // sealed segments are durable; the active one is forced by sync()
+        try {
+            active = openSegment(active.id + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create a new link log segment in " + directory, e);
+        }
+        segments.put(active.id, active);
+    }
+
+    private void compact(Segment segment) throws IOException {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position < segment.position) {
+            int recordBytes = 4 + buffer.getInt(position);
+            String shortCode = readCode(buffer, position);
+            long current = locate(shortCode);
+            if (buffer.get(position + 8) == PUT && current == location(segment.id, position)) {
+                byte[] value = readValue(current);
+                if (RedisUrlRepository.isExpired(serializer.deserialize(value))) {
+                    release(unindex(shortCode));
+                    append(DELETE, shortCode, NO_VALUE); // older segments may still hold earlier versions
+                } else {
+                    put(shortCode, value);
+                }
+            } else if (buffer.get(position + 8) == DELETE && current == OffHeapLongMap.MISSING && segments.firstKey() < segment.id) {
+                append(DELETE, shortCode, NO_VALUE); // still needed while an older segment holds the deleted version
+            }
+            position += recordBytes;
+        }
+        active.buffer.force(); // the copies are durable before the original goes
+        segments.remove(segment.id);
+        Files.delete(segment.path);
+        compactionsCounter.increment();
+        logger.info("Compacted link log segment {}", segment.path.getFileName());
+    }
+
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        List<Integer> ids;
+        try (Stream<Path> files = Files.list(directory)) {
+            ids = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.matches("\\d+\\" + SEGMENT_SUFFIX))
+                    .map(name -> Integer.valueOf(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+        for (int id : ids) {
+            Segment segment = openSegment(id);
+            segments.put(id, segment);
+            replay(segment);
+        }
+        active = segments.isEmpty() ? openSegment(1) : segments.lastEntry().getValue();
+        segments.put(active.id, active);
+        logger.info("Recovered {} links from {} link log segments in {} ms",
+                index.size() + customIndex.size(), ids.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void replay(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + HEADER_BYTES <= segmentBytes) {
+            int length = buffer.getInt(position);
+            if (length < HEADER_BYTES - 4 || position + 4 + length > segmentBytes) {
+                break;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(position + 8, length - 4));
+            int codeLength = buffer.getShort(position + 9);
+            if ((int) crc.getValue() != buffer.getInt(position + 4) || codeLength < 0 || HEADER_BYTES - 4 + codeLength > length) {
+                break;
+            }
+            String shortCode = readCode(buffer, position);
+            long location = location(segment.id, position);
+            long previous = buffer.get(position + 8) == PUT ? index(shortCode, location) : unindex(shortCode);
+            if (previous != OffHeapLongMap.MISSING) {
+                release(previous);
+            }
+            if (buffer.get(position + 8) == PUT) {
+                segment.liveBytes += 4 + length;
+            }
+            position += 4 + length;
+        }
+        segment.position = position;
+        if (position + 4 <= segmentBytes && buffer.getInt(position) != 0) {
+            // A record torn by a crash; clear the tail so it cannot be mistaken for data once writing resumes
+            logger.warn("Discarding a torn record at {} of link log segment {}", position, segment.path.getFileName());
+            for (int i = position; i < segmentBytes; i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        Path path = directory.resolve(String.format("%08d", id) + SEGMENT_SUFFIX);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes)); // the mapping outlives the channel
+        }
+    }
+
+    // The previous location, or MISSING
+    private long index(String shortCode, long location) {
+        long id = codec.decode(shortCode);
+        if (id >= 0) {
+            return index.put(id, location);
+        }
+        Long previous = customIndex.put(shortCode, location);
+        return previous != null ? previous : OffHeapLongMap.MISSING;
+    }
+
+    private long unindex(String shortCode) {
+        long id = codec.decode(shortCode);
+        if (id >= 0) {
+            return index.remove(id);
+        }
+        Long previous = customIndex.remove(shortCode);
+        return previous != null ? previous : OffHeapLongMap.MISSING;
+    }
+
+    private long locate(String shortCode) {
+        long id = codec.decode(shortCode);
+        if (id >= 0) {
+            return index.get(id);
+        }
+        return customIndex.getOrDefault(shortCode, OffHeapLongMap.MISSING);
+    }
+
+    private void release(long location) {
+        segment(location).liveBytes -= recordBytes(location);
+    }
+
+    private Segment segment(long location) {
+        return segments.get((int) (location >>> 32));
+    }
+
+    private int recordBytes(long location) {
+        return 4 + segment(location).buffer.getInt((int) location);
+    }
+
+    private byte[] readValue(long location) {
+        MappedByteBuffer buffer = segment(location).buffer;
+        int position = (int) location;
+        int offset = HEADER_BYTES + buffer.getShort(position + 9);
+        byte[] value = new byte[4 + buffer.getInt(position) - offset];
+        buffer.get(position + offset, value);
+        return value;
+    }
+
+    private static String readCode(MappedByteBuffer buffer, int position) {
+        byte[] code = new byte[buffer.getShort(position + 9)];
+        buffer.get(position + HEADER_BYTES, code);
+        return new String(code, StandardCharsets.UTF_8);
+    }
+
+    private static long location(int segmentId, int position) {
+        return (long) segmentId << 32 | position;
+    }
+
+    private static final class Segment {
+        final int id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        int position;
+        long liveBytes;
+
+        Segment(int id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+}
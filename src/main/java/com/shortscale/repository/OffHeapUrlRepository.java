@@ -0,0 +1,223 @@
+package com.shortscale.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shortscale.model.UrlMapping;
+import com.shortscale.util.OffHeapLongMap;
+import com.shortscale.util.ShortCodeCodec;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-process link store for edge and single-node deployments. Generated codes decode back to their numeric id,
+// which an off-heap index maps to the link's record in append-only off-heap slabs ([length (int)][value in
+// UrlMappingSerializer version 1]), so tens of millions of links add almost nothing for the collector to trace.
+// Codes of any other shape (most custom codes) keep their offsets in an on-heap map. Overwritten and deleted
+// records stay in their slab until restart; offheap_garbage_bytes shows how much.
+@Repository
+@ConditionalOnProperty(name = "shortscale.storage.engine", havingValue = "offheap")
+public class OffHeapUrlRepository implements UrlRepository {
+
+    private final UrlMappingSerializer serializer;
+    private final ShortCodeCodec codec;
+    private final int slabBytes;
+    private final OffHeapLongMap index;
+    private final Map<String, Long> customIndex = new HashMap<>();
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long garbageBytes;
+
+    public OffHeapUrlRepository(ObjectMapper objectMapper, MeterRegistry meterRegistry, ShortCodeCodec codec,
+                                @Value("${shortscale.storage.offheap.initial-capacity:1000000}") long initialCapacity,
+                                @Value("${shortscale.storage.offheap.slab-bytes:67108864}") int slabBytes) {
+        this.serializer = new UrlMappingSerializer(objectMapper, false);
+        this.codec = codec;
+        this.slabBytes = slabBytes;
+        this.index = new OffHeapLongMap(initialCapacity);
+        Gauge.builder("offheap_links", this, OffHeapUrlRepository::size).register(meterRegistry);
+        Gauge.builder("offheap_memory_bytes", this, OffHeapUrlRepository::memoryBytes).register(meterRegistry);
+        Gauge.builder("offheap_garbage_bytes", this, OffHeapUrlRepository::garbageBytes).register(meterRegistry);
+    }
+
+    @Override
+    public UrlMapping save(UrlMapping urlMapping) {
+        byte[] value = serialize(urlMapping);
+        lock.writeLock().lock();
+        try {
+            put(urlMapping.getShortCode(), value);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return urlMapping;
+    }
+
+    // An expired link still in the index does not hold on to its code
+    @Override
+    public boolean saveIfAbsent(UrlMapping urlMapping) {
+        byte[] value = serialize(urlMapping);
+        String shortCode = urlMapping.getShortCode();
+        lock.writeLock().lock();
+        try {
+            byte[] existing = read(offset(shortCode));
+            if (existing != null && !RedisUrlRepository.isExpired(serializer.deserialize(existing))) {
+                return false;
+            }
+            put(shortCode, value);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public UrlMapping findByShortCode(String shortCode) {
+        Long offset;
+        byte[] value;
+        lock.readLock().lock();
+        try {
+            offset = offset(shortCode);
+            value = read(offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (value == null) {
+            return null;
+        }
+        UrlMapping urlMapping = serializer.deserialize(value);
+        if (RedisUrlRepository.isExpired(urlMapping)) {
+            deleteIfUnchanged(shortCode, offset);
+            return null;
+        }
+        urlMapping.setShortCode(shortCode); // the key, not stored in the value
+        return urlMapping;
+    }
+
+    @Override
+    public boolean existsByShortCode(String shortCode) {
+        return findByShortCode(shortCode) != null;
+    }
+
+    @Override
+    public void deleteByShortCode(String shortCode) {
+        long id = codec.decode(shortCode);
+        lock.writeLock().lock();
+        try {
+            if (id >= 0) {
+                release(index.remove(id));
+            } else {
+                release(customIndex.remove(shortCode));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return index.size() + customIndex.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long memoryBytes() {
+        lock.readLock().lock();
+        try {
+            return index.memoryBytes() + (long) slabs.size() * slabBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long garbageBytes() {
+        lock.readLock().lock();
+        try {
+            return garbageBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Removes the expired record read at offset, unless the code was saved again since it was read
+    private void deleteIfUnchanged(String shortCode, long offset) {
+        lock.writeLock().lock();
+        try {
+            if (!Long.valueOf(offset).equals(offset(shortCode))) {
+                return;
+            }
+            long id = codec.decode(shortCode);
+            if (id >= 0) {
+                release(index.remove(id));
+            } else {
+                release(customIndex.remove(shortCode));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private byte[] serialize(UrlMapping urlMapping) {
+        byte[] value = serializer.serialize(urlMapping);
+        if (value.length + 4 > slabBytes) {
+            throw new IllegalArgumentException("Link of " + value.length + " bytes does not fit a " + slabBytes + "-byte slab");
+        }
+        return value;
+    }
+
+    private void put(String shortCode, byte[] value) {
+        long id = codec.decode(shortCode);
+        long offset = append(value);
+        if (id >= 0) {
+            release(index.put(id, offset));
+        } else {
+            release(customIndex.put(shortCode, offset));
+        }
+    }
+
+    private Long offset(String shortCode) {
+        long id = codec.decode(shortCode);
+        if (id < 0) {
+            return customIndex.get(shortCode);
+        }
+        long offset = index.get(id);
+        return offset != OffHeapLongMap.MISSING ? offset : null;
+    }
+
+    private long append(byte[] value) {
+        ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+        if (slab == null || slab.remaining() < value.length + 4) {
+            slab = ByteBuffer.allocateDirect(slabBytes);
+            slabs.add(slab);
+        }
+        long offset = (long) (slabs.size() - 1) * slabBytes + slab.position();
+        slab.putInt(value.length).put(value);
+        return offset;
+    }
+
+    private byte[] read(Long offset) {
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer slab = slabs.get((int) (offset / slabBytes));
+        int position = (int) (offset % slabBytes);
+        byte[] value = new byte[slab.getInt(position)];
+        slab.get(position + 4, value);
+        return value;
+    }
+
+    private void release(Long offset) {
+        if (offset != null && offset != OffHeapLongMap.MISSING) {
+            garbageBytes += 4 + slabs.get((int) (offset / slabBytes)).getInt((int) (offset % slabBytes));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.shortscale.repository;
+
+import com.shortscale.analytics.ClickCounter;
+import com.shortscale.cache.ShortCodeFilter;
+import com.shortscale.cache.UrlMappingNearCache;
+import com.shortscale.model.UrlMapping;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisElementReader;
+import org.springframework.data.redis.serializer.RedisElementWriter;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Sharded, each link goes to the shard that owns its short code on the same ring as RedisUrlRepository, through a
+// pair of reactive templates per shard opened on that shard's connection
+@Repository
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveRedisUrlRepository {
+
+    private static final RedisElementWriter<String> ARGS_WRITER = RedisElementWriter.from(StringRedisSerializer.UTF_8);
+    private static final RedisElementWriter<byte[]> BINARY_ARGS_WRITER = RedisElementWriter.from(RedisSerializer.byteArray());
+    private static final RedisElementReader<Long> COUNT_READER = RedisElementReader.from(new GenericToStringSerializer<>(Long.class));
+
+    private final ReactiveRedisTemplate<String, UrlMapping> redisTemplate;
+    private final RedisShards shards;
+    private final Map<String, ReactiveShard> reactiveShards = new LinkedHashMap<>();
+    private final UrlMappingNearCache nearCache;
+    private final ShortCodeFilter shortCodeFilter;
+    private final StorageLayout storageLayout;
+
+    public ReactiveRedisUrlRepository(ReactiveRedisTemplate<String, UrlMapping> redisTemplate, ReactiveStringRedisTemplate stringRedisTemplate,
+                                      RedisShards shards, UrlMappingNearCache nearCache, ShortCodeFilter shortCodeFilter,
+                                      StorageLayout storageLayout) {
+        this.redisTemplate = redisTemplate;
+        this.shards = shards;
+        this.nearCache = nearCache;
+        this.shortCodeFilter = shortCodeFilter;
+        this.storageLayout = storageLayout;
+        if (!shards.isSharded()) {
+            reactiveShards.put(shards.all().get(0).name(), new ReactiveShard(redisTemplate, stringRedisTemplate));
+            return;
+        }
+        for (RedisShards.Shard shard : shards.all()) {
+            if (!(shard.redisTemplate().getConnectionFactory() instanceof ReactiveRedisConnectionFactory connectionFactory)) {
+                throw new IllegalStateException("Redis shard " + shard.name() + " has no reactive connection");
+            }
+            reactiveShards.put(shard.name(), new ReactiveShard(
+                    new ReactiveRedisTemplate<>(connectionFactory, redisTemplate.getSerializationContext()),
+                    new ReactiveStringRedisTemplate(connectionFactory)));
+        }
+    }
+
+    public Mono<UrlMapping> save(UrlMapping urlMapping) {
+        String shortCode = urlMapping.getShortCode();
+        Duration timeToLive = RedisUrlRepository.timeToLive(urlMapping);
+        ReactiveStringRedisTemplate stringRedisTemplate = forKey(shortCode).stringRedisTemplate();
+        // Issued together on the shared connection, which pipelines them like the blocking repository does
+        return Mono.when(
+                        write(shortCode, urlMapping, timeToLive),
+                        Flux.fromStream(Arrays.stream(shortCodeFilter.bitmapOffsets(shortCode)).boxed())
+                                .flatMap(offset -> stringRedisTemplate.opsForValue().setBit(ShortCodeFilter.BITMAP_KEY, offset, true)),
+                        stringRedisTemplate.convertAndSend(UrlMappingNearCache.INVALIDATION_CHANNEL, shortCode))
+                .then(Mono.fromRunnable(() -> {
+                    shortCodeFilter.add(shortCode);
+                    nearCache.invalidate(shortCode);
+                }))
+                .thenReturn(urlMapping);
+    }
+
+    // Emits false if the code is taken; see RedisUrlRepository.saveIfAbsent
+    public Mono<Boolean> saveIfAbsent(UrlMapping urlMapping) {
+        return Mono.defer(() -> {
+            String shortCode = urlMapping.getShortCode();
+            byte[] value = serializedValue(urlMapping);
+            Duration timeToLive = RedisUrlRepository.timeToLive(urlMapping);
+            String bucketKey = storageLayout.bucketKey(shortCode);
+            boolean inBucket = bucketKey != null && storageLayout.fitsBucket(value, timeToLive != null);
+            return forKey(shortCode).redisTemplate().execute(StorageLayout.CREATE_SCRIPT,
+                            List.of(shortCode, bucketKey != null ? bucketKey : shortCode, ShortCodeFilter.BITMAP_KEY),
+                            RedisUrlRepository.createArgs(shortCode, value, inBucket, timeToLive, shortCodeFilter.bitmapOffsets(shortCode)),
+                            BINARY_ARGS_WRITER, COUNT_READER)
+                    .next()
+                    .map(created -> created > 0)
+                    .doOnNext(created -> {
+                        if (created) {
+                            shortCodeFilter.add(shortCode);
+                            nearCache.invalidate(shortCode);
+                        }
+                    });
+        });
+    }
+
+    // Deferred so the filter is consulted on subscription, after any save composed ahead of the lookup
+    public Mono<UrlMapping> findByShortCode(String shortCode) {
+        return Mono.defer(() -> shortCodeFilter.mightContain(shortCode, forKey(shortCode).stringRedisTemplate()))
+                .flatMap(mightExist -> mightExist
+                        ? Mono.fromFuture(nearCache.getAsync(shortCode, key -> load(key).toFuture()))
+                        : Mono.empty());
+    }
+
+    public Mono<Boolean> existsByShortCode(String shortCode) {
+        ReactiveShard owner = forKey(shortCode);
+        return Mono.defer(() -> shortCodeFilter.mightContain(shortCode, owner.stringRedisTemplate())).flatMap(mightExist -> {
+            if (!mightExist) {
+                return Mono.just(false);
+            }
+            ReactiveRedisTemplate<String, UrlMapping> redisTemplate = owner.redisTemplate();
+            String bucketKey = storageLayout.bucketKey(shortCode);
+            if (bucketKey == null) {
+                return redisTemplate.hasKey(shortCode);
+            }
+            return redisTemplate.execute(StorageLayout.EXISTS_SCRIPT, List.of(shortCode, bucketKey), List.of(shortCode), ARGS_WRITER, COUNT_READER)
+                    .next()
+                    .map(found -> found > 0);
+        });
+    }
+
+    public Mono<Void> deleteByShortCode(String shortCode) {
+        String bucketKey = storageLayout.bucketKey(shortCode);
+        ReactiveShard owner = forKey(shortCode);
+        ReactiveRedisTemplate<String, UrlMapping> redisTemplate = owner.redisTemplate();
+        return Mono.when(
+                        redisTemplate.delete(shortCode, ClickCounter.KEY_PREFIX + shortCode),
+                        bucketKey != null ? redisTemplate.opsForHash().remove(bucketKey, shortCode) : Mono.empty(),
+                        owner.stringRedisTemplate().convertAndSend(UrlMappingNearCache.INVALIDATION_CHANNEL, shortCode))
+                .then(Mono.fromRunnable(() -> nearCache.invalidate(shortCode)));
+    }
+
+    private Mono<?> write(String shortCode, UrlMapping urlMapping, Duration timeToLive) {
+        String bucketKey = storageLayout.bucketKey(shortCode);
+        ReactiveRedisTemplate<String, UrlMapping> redisTemplate = forKey(shortCode).redisTemplate();
+        if (bucketKey != null && storageLayout.fitsBucket(serializedValue(urlMapping), timeToLive != null)) {
+            // an earlier top-level version would otherwise linger
+            return Mono.when(redisTemplate.opsForHash().put(bucketKey, shortCode, urlMapping), redisTemplate.delete(shortCode));
+        }
+        Mono<Boolean> set = timeToLive != null
+                ? redisTemplate.opsForValue().set(shortCode, urlMapping, timeToLive)
+                : redisTemplate.opsForValue().set(shortCode, urlMapping);
+        // lookups check the bucket first
+        return bucketKey != null ? Mono.when(set, redisTemplate.opsForHash().remove(bucketKey, shortCode)) : set;
+    }
+
+    private Mono<UrlMapping> load(String shortCode) {
+        String bucketKey = storageLayout.bucketKey(shortCode);
+        ReactiveRedisTemplate<String, UrlMapping> redisTemplate = forKey(shortCode).redisTemplate();
+        Mono<UrlMapping> value = bucketKey == null
+                ? redisTemplate.opsForValue().get(shortCode)
+                : redisTemplate.execute(StorageLayout.FIND_SCRIPT, List.of(shortCode, bucketKey), List.of(shortCode), ARGS_WRITER,
+                        redisTemplate.getSerializationContext().getValueSerializationPair().getReader()).next();
+        return value
+                .flatMap(urlMapping -> RedisUrlRepository.isExpired(urlMapping)
+                        // Written before links carried a native expiry; clean it up on first sight
+                        ? deleteByShortCode(shortCode).then(Mono.<UrlMapping>empty())
+                        : Mono.just(urlMapping))
+                .doOnNext(urlMapping -> urlMapping.setShortCode(shortCode)); // the key, not stored in the value
+    }
+
+    private ReactiveShard forKey(String shortCode) {
+        return reactiveShards.get(shards.forKey(shortCode).name());
+    }
+
+    private byte[] serializedValue(UrlMapping urlMapping) {
+        ByteBuffer buffer = redisTemplate.getSerializationContext().getValueSerializationPair().write(urlMapping);
+        byte[] value = new byte[buffer.remaining()];
+        buffer.get(value);
+        return value;
+    }
+
+    private record ReactiveShard(ReactiveRedisTemplate<String, UrlMapping> redisTemplate, ReactiveStringRedisTemplate stringRedisTemplate) {
+    }
+}
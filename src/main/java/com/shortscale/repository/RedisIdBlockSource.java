@@ -0,0 +1,62 @@
+package com.shortscale.repository;
+
+import com.shortscale.util.IdBlockSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// The id counter every node leases blocks from. Sharded, it lives on the ring owner of its key and ShardRebalancer
+// moves it with the links. The first lease checks that no other shard still holds it: a counter left behind by a
+// shard list change that was not rebalanced would start again from zero and reissue codes. shortscale.ids.floor
+// lifts a missing or lower counter, so ids start above those issued before they were leased.
+@Component
+public class RedisIdBlockSource implements IdBlockSource {
+
+    public static final String COUNTER_KEY = "ids:short-code";
+
+    // KEYS[1] counter; ARGV[1] block size, ARGV[2] floor
+    private static final RedisScript<Long> LEASE_SCRIPT = new DefaultRedisScript<>(
+            "if tonumber(redis.call('GET', KEYS[1]) or '0') < tonumber(ARGV[2]) then redis.call('SET', KEYS[1], ARGV[2]) end "
+                    + "return redis.call('INCRBY', KEYS[1], ARGV[1])", Long.class);
+
+    private final RedisShards shards;
+    private final String floor;
+    private volatile boolean placementChecked;
+
+    public RedisIdBlockSource(RedisShards shards, @Value("${shortscale.ids.floor:0}") long floor) {
+        this.shards = shards;
+        this.floor = Long.toString(floor);
+    }
+
+    @Override
+    public long lease(long count) {
+        RedisShards.Shard owner = shards.forKey(COUNTER_KEY);
+        if (!placementChecked) {
+            checkPlacement(owner);
+        }
+        Long last = owner.redisTemplate().execute(LEASE_SCRIPT, List.of(COUNTER_KEY), Long.toString(count), floor);
+        if (last == null) {
+            throw new IllegalStateException("Redis returned no id block");
+        }
+        return last;
+    }
+
+    // Raises the counter on target to at least value; how ShardRebalancer merges a counter into its new owner
+    static void raise(StringRedisTemplate target, String value) {
+        target.execute(LEASE_SCRIPT, List.of(COUNTER_KEY), "0", value);
+    }
+
+    private void checkPlacement(RedisShards.Shard owner) {
+        for (RedisShards.Shard shard : shards.all()) {
+            if (shard != owner && Boolean.TRUE.equals(shard.redisTemplate().hasKey(COUNTER_KEY))) {
+                throw new IllegalStateException("Id counter " + COUNTER_KEY + " is on Redis shard " + shard.name()
+                        + " but belongs on " + owner.name() + "; run the shard rebalancer before leasing ids");
+            }
+        }
+        placementChecked = true;
+    }
+}
@@ -0,0 +1,52 @@
+package com.shortscale.repository;
+
+import com.shortscale.util.PermitSource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+// Cluster-wide rate limits as GCRA (generic cell rate algorithm): each key stores only its theoretical arrival
+// time, the moment its allowance would be back to full, in microseconds, and expires once it gets there. Keys are
+// spread over the shards like links. The time comes from the calling node (scripts on Redis before 3.2 cannot
+// write after reading TIME), so node clocks need to be kept in sync.
+@Component
+public class RedisPermitSource implements PermitSource {
+
+    public static final String KEY_PREFIX = "rl:";
+
+    // KEYS[1] arrival time; ARGV[1] now, ARGV[2] interval between permits, ARGV[3] period (all microseconds), ARGV[4] wanted
+    private static final RedisScript<Long> LEASE_SCRIPT = new DefaultRedisScript<>(
+            "local now = tonumber(ARGV[1]) "
+                    + "local interval = tonumber(ARGV[2]) "
+                    + "local period = tonumber(ARGV[3]) "
+                    + "local tat = math.max(tonumber(redis.call('GET', KEYS[1]) or '0'), now) "
+                    + "local free = math.floor((now + period - tat) / interval) "
+                    + "if free < 1 then return -math.max(1, math.ceil((tat + interval - period - now) / 1000)) end "
+                    + "local granted = math.min(free, tonumber(ARGV[4])) "
+                    + "tat = tat + granted * interval "
+                    + "redis.call('SET', KEYS[1], string.format('%.0f', tat), 'PX', math.ceil((tat - now) / 1000) + 1) "
+                    + "return granted", Long.class);
+
+    private final RedisShards shards;
+
+    public RedisPermitSource(RedisShards shards) {
+        this.shards = shards;
+    }
+
+    @Override
+    public long lease(String key, long permits, long periodNanos, int wanted) {
+        long periodMicros = periodNanos / 1_000;
+        long now = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+        String redisKey = KEY_PREFIX + key;
+        Long granted = shards.forKey(redisKey).redisTemplate().execute(LEASE_SCRIPT, List.of(redisKey),
+                Long.toString(now), Long.toString(Math.max(1, periodMicros / permits)), Long.toString(periodMicros), Integer.toString(wanted));
+        if (granted == null) {
+            throw new IllegalStateException("Redis returned no permits");
+        }
+        return granted;
+    }
+}
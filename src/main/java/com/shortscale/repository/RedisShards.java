@@ -0,0 +1,137 @@
+package com.shortscale.repository;
+
+import com.shortscale.util.ConsistentHashRing;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+// The Redis nodes the keyspace is split over. Unsharded (shortscale.redis.shards empty) this is the single node of
+// spring.data.redis. Sharded, each key goes to the node that owns its routing key on a consistent-hash ring:
+// the short code for a link, its bucket entry and its click counter, and the digest for a destination index entry.
+// Each shard holds its own filter bitmap and invalidation channel for the codes it owns. Batches are split per
+// shard and sent to all shards at once
+public class RedisShards implements DisposableBean {
+
+    public record Shard(String name, StringRedisTemplate redisTemplate) {
+    }
+
+    private final List<Shard> shards;
+    private final ConsistentHashRing<Shard> ring;
+    private final ExecutorService executor;
+    private final List<LettuceConnectionFactory> ownedConnections;
+
+    public RedisShards(List<Shard> shards, int virtualNodes) {
+        this(shards, virtualNodes, List.of());
+    }
+
+    private RedisShards(List<Shard> shards, int virtualNodes, List<LettuceConnectionFactory> ownedConnections) {
+        this.shards = List.copyOf(shards);
+        Map<String, Shard> byName = new LinkedHashMap<>();
+        shards.forEach(shard -> byName.put(shard.name(), shard));
+        this.ring = new ConsistentHashRing<>(byName, virtualNodes);
+        this.ownedConnections = ownedConnections;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = shards.size() > 1 ? Executors.newFixedThreadPool(shards.size(), runnable -> {
+            Thread thread = new Thread(runnable, "redis-shard-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    public static RedisShards of(StringRedisTemplate redisTemplate) {
+        return new RedisShards(List.of(new Shard("default", redisTemplate)), 1);
+    }
+
+    // nodes: comma-separated host:port; the name of each shard is its host:port, so ring positions survive reordering
+    public static RedisShards connect(String nodes, int virtualNodes) {
+        List<Shard> shards = new ArrayList<>();
+        List<LettuceConnectionFactory> connections = new ArrayList<>();
+        for (String node : nodes.split(",")) {
+            String address = node.trim();
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Redis shard '" + address + "' is not host:port");
+            }
+            LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(address.substring(0, colon),
+                    Integer.parseInt(address.substring(colon + 1)));
+            connectionFactory.afterPropertiesSet();
+            connectionFactory.start();
+            connections.add(connectionFactory);
+            StringRedisTemplate redisTemplate = new StringRedisTemplate(connectionFactory);
+            redisTemplate.afterPropertiesSet();
+            shards.add(new Shard(address, redisTemplate));
+        }
+        return new RedisShards(shards, virtualNodes, connections);
+    }
+
+    public boolean isSharded() {
+        return shards.size() > 1;
+    }
+
+    public List<Shard> all() {
+        return shards;
+    }
+
+    public Shard forKey(String routingKey) {
+        return shards.size() == 1 ? shards.get(0) : ring.nodeFor(routingKey);
+    }
+
+    // items grouped by the shard owning each one's routing key, keeping their order within a shard
+    public <T> Map<Shard, List<T>> partition(Collection<T> items, Function<T, String> routingKey) {
+        Map<Shard, List<T>> parts = new LinkedHashMap<>();
+        for (T item : items) {
+            parts.computeIfAbsent(forKey(routingKey.apply(item)), shard -> new ArrayList<>()).add(item);
+        }
+        return parts;
+    }
+
+    // Runs work for every part at once, one thread per shard, and waits for all of them. The first failure is
+    // rethrown once every part has finished
+    public <T, R> Map<Shard, R> inParallel(Map<Shard, List<T>> parts, BiFunction<Shard, List<T>, R> work) {
+        Map<Shard, R> results = new LinkedHashMap<>();
+        if (executor == null || parts.size() < 2) {
+            parts.forEach((shard, items) -> results.put(shard, work.apply(shard, items)));
+            return results;
+        }
+        Map<Shard, Future<R>> futures = new LinkedHashMap<>();
+        parts.forEach((shard, items) -> futures.put(shard, executor.submit(() -> work.apply(shard, items))));
+        RuntimeException failure = null;
+        for (Map.Entry<Shard, Future<R>> future : futures.entrySet()) {
+            try {
+                results.put(future.getKey(), future.getValue().get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for Redis shard " + future.getKey().name(), e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        ownedConnections.forEach(LettuceConnectionFactory::destroy);
+    }
+}
@@ -1,27 +1,320 @@
 package com.shortscale.repository;
 
+import com.shortscale.analytics.ClickCounter;
+import com.shortscale.cache.ShortCodeFilter;
+import com.shortscale.cache.UrlMappingNearCache;
 import com.shortscale.model.UrlMapping;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.stereotype.Repository;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 @Repository
-public class RedisUrlRepository {
-    private final RedisTemplate<String, UrlMapping> redisTemplate;
+@ConditionalOnProperty(name = "shortscale.storage.engine", havingValue = "redis", matchIfMissing = true)
+public class RedisUrlRepository implements UrlRepository {
+    private static final Duration MIN_TIME_TO_LIVE = Duration.ofMillis(1);
+    private static final int SAVE_BATCH_SIZE = 1000; // bounds the commands and replies buffered per pipeline
+    private static final byte[] INVALIDATION_CHANNEL = UrlMappingNearCache.INVALIDATION_CHANNEL.getBytes(StandardCharsets.UTF_8);
+
+    private final RedisShards shards;
+    private final Map<RedisShards.Shard, RedisTemplate<String, UrlMapping>> templates = new HashMap<>();
+    private final UrlMappingNearCache nearCache;
+    private final ShortCodeFilter shortCodeFilter;
+    private final StorageLayout storageLayout;
 
-    public RedisUrlRepository(RedisTemplate<String, UrlMapping> redisTemplate) {
-        this.redisTemplate = redisTemplate;
+    public RedisUrlRepository(RedisTemplate<String, UrlMapping> redisTemplate, RedisShards shards, UrlMappingNearCache nearCache,
+                              ShortCodeFilter shortCodeFilter, StorageLayout storageLayout) {
+        this.shards = shards;
+        for (RedisShards.Shard shard : shards.all()) {
+            templates.put(shard, shardTemplate(redisTemplate, shard));
+        }
+        this.nearCache = nearCache;
+        this.shortCodeFilter = shortCodeFilter;
+        this.storageLayout = storageLayout;
     }
 
+    @Override
     public UrlMapping save(UrlMapping urlMapping) {
-        redisTemplate.opsForValue().set(urlMapping.getShortCode(), urlMapping);
+        String shortCode = urlMapping.getShortCode();
+        // Value, filter bits and the invalidation for other nodes go out in one round trip
+        template(shortCode).executePipelined((RedisCallback<Object>) connection -> {
+            write(connection, urlMapping);
+            return null;
+        });
+        shortCodeFilter.add(shortCode);
+        nearCache.invalidate(shortCode);
         return urlMapping;
     }
 
+    // The check, the write, the filter bits and the invalidation run as one script, so two requests for the same
+    // code cannot both find it free, and creating a link still takes a single round trip
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean saveIfAbsent(UrlMapping urlMapping) {
+        String shortCode = urlMapping.getShortCode();
+        RedisTemplate<String, UrlMapping> redisTemplate = template(shortCode);
+        byte[] value = ((RedisSerializer<UrlMapping>) redisTemplate.getValueSerializer()).serialize(urlMapping);
+        Duration timeToLive = timeToLive(urlMapping);
+        String bucketKey = storageLayout.bucketKey(shortCode);
+        boolean inBucket = bucketKey != null && storageLayout.fitsBucket(value, timeToLive != null);
+        Long created = redisTemplate.execute(StorageLayout.CREATE_SCRIPT, RedisSerializer.byteArray(), new GenericToStringSerializer<>(Long.class),
+                List.of(shortCode, bucketKey != null ? bucketKey : shortCode, ShortCodeFilter.BITMAP_KEY),
+                createArgs(shortCode, value, inBucket, timeToLive, shortCodeFilter.bitmapOffsets(shortCode)).toArray());
+        if (created == null || created == 0) {
+            return false;
+        }
+        shortCodeFilter.add(shortCode);
+        nearCache.invalidate(shortCode);
+        return true;
+    }
+
+    // Same writes as save, pipelined per batch instead of per mapping, to all shards at once
+    @Override
+    public void saveAll(List<UrlMapping> urlMappings) {
+        shards.inParallel(shards.partition(urlMappings, UrlMapping::getShortCode), (shard, mappings) -> {
+            for (int from = 0; from < mappings.size(); from += SAVE_BATCH_SIZE) {
+                List<UrlMapping> batch = mappings.subList(from, Math.min(mappings.size(), from + SAVE_BATCH_SIZE));
+                templates.get(shard).executePipelined((RedisCallback<Object>) connection -> {
+                    batch.forEach(urlMapping -> write(connection, urlMapping));
+                    return null;
+                });
+            }
+            return null;
+        });
+        for (UrlMapping urlMapping : urlMappings) {
+            shortCodeFilter.add(urlMapping.getShortCode());
+            nearCache.invalidate(urlMapping.getShortCode());
+        }
+    }
+
+    // The script of saveIfAbsent for every mapping, pipelined per batch to all shards at once. Each batch loads the
+    // script first and then sends only its SHA1
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> saveAllIfAbsent(List<UrlMapping> urlMappings) {
+        Set<String> taken = ConcurrentHashMap.newKeySet();
+        byte[] script = bytes(StorageLayout.CREATE_SCRIPT.getScriptAsString());
+        byte[] sha = bytes(StorageLayout.CREATE_SCRIPT.getSha1());
+        byte[] bitmapKey = bytes(ShortCodeFilter.BITMAP_KEY);
+        shards.inParallel(shards.partition(urlMappings, UrlMapping::getShortCode), (shard, mappings) -> {
+            RedisTemplate<String, UrlMapping> redisTemplate = templates.get(shard);
+            RedisSerializer<UrlMapping> serializer = (RedisSerializer<UrlMapping>) redisTemplate.getValueSerializer();
+            for (int from = 0; from < mappings.size(); from += SAVE_BATCH_SIZE) {
+                List<UrlMapping> batch = mappings.subList(from, Math.min(mappings.size(), from + SAVE_BATCH_SIZE));
+                List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    connection.scriptingCommands().scriptLoad(script);
+                    for (UrlMapping urlMapping : batch) {
+                        String shortCode = urlMapping.getShortCode();
+                        byte[] value = serializer.serialize(urlMapping);
+                        Duration timeToLive = timeToLive(urlMapping);
+                        String bucketKey = storageLayout.bucketKey(shortCode);
+                        boolean inBucket = bucketKey != null && storageLayout.fitsBucket(value, timeToLive != null);
+                        List<byte[]> keysAndArgs = new ArrayList<>(List.of(bytes(shortCode), bytes(bucketKey != null ? bucketKey : shortCode), bitmapKey));
+                        keysAndArgs.addAll(createArgs(shortCode, value, inBucket, timeToLive, shortCodeFilter.bitmapOffsets(shortCode)));
+                        connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 3, keysAndArgs.toArray(new byte[0][]));
+                    }
+                    return null;
+                }, RedisSerializer.byteArray());
+                for (int i = 0; i < batch.size(); i++) {
+                    if (!Long.valueOf(1).equals(results.get(i + 1))) {
+                        taken.add(batch.get(i).getShortCode());
+                    }
+                }
+            }
+            return null;
+        });
+        for (UrlMapping urlMapping : urlMappings) {
+            if (!taken.contains(urlMapping.getShortCode())) {
+                shortCodeFilter.add(urlMapping.getShortCode());
+                nearCache.invalidate(urlMapping.getShortCode());
+            }
+        }
+        return taken;
+    }
+
+    @Override
     public UrlMapping findByShortCode(String shortCode) {
-        return redisTemplate.opsForValue().get(shortCode);
+        if (!shortCodeFilter.mightContain(shortCode)) {
+            return null;
+        }
+        return nearCache.get(shortCode, this::load);
     }
 
+    @Override
     public boolean existsByShortCode(String shortCode) {
-        return redisTemplate.hasKey(shortCode);
+        if (!shortCodeFilter.mightContain(shortCode)) {
+            return false;
+        }
+        RedisTemplate<String, UrlMapping> redisTemplate = template(shortCode);
+        String bucketKey = storageLayout.bucketKey(shortCode);
+        if (bucketKey == null) {
+            return redisTemplate.hasKey(shortCode);
+        }
+        Long found = redisTemplate.execute(StorageLayout.EXISTS_SCRIPT, StringRedisSerializer.UTF_8, new GenericToStringSerializer<>(Long.class),
+                List.of(shortCode, bucketKey), shortCode);
+        return found != null && found > 0;
+    }
+
+    // The codes among shortCodes that are taken, checked in one pipelined round trip per shard. The filter is not
+    // consulted: confirming each of its misses would cost a round trip per code
+    @Override
+    public Set<String> findExistingShortCodes(Collection<String> shortCodes) {
+        if (shortCodes.isEmpty()) {
+            return Set.of();
+        }
+        Set<String> existing = new HashSet<>();
+        shards.inParallel(shards.partition(shortCodes, shortCode -> shortCode), (shard, codes) -> {
+            List<Object> results = templates.get(shard).executePipelined((RedisCallback<Object>) connection -> {
+                for (String shortCode : codes) {
+                    connection.keyCommands().exists(bytes(shortCode));
+                    String bucketKey = storageLayout.bucketKey(shortCode);
+                    if (bucketKey != null) {
+                        connection.hashCommands().hExists(bytes(bucketKey), bytes(shortCode));
+                    }
+                }
+                return null;
+            });
+            int position = 0;
+            for (String shortCode : codes) {
+                boolean found = Boolean.TRUE.equals(results.get(position++));
+                if (storageLayout.bucketKey(shortCode) != null) {
+                    found |= Boolean.TRUE.equals(results.get(position++));
+                }
+                if (found) {
+                    synchronized (existing) {
+                        existing.add(shortCode);
+                    }
+                }
+            }
+            return null;
+        });
+        return existing;
+    }
+
+    @Override
+    public void deleteByShortCode(String shortCode) {
+        byte[] key = shortCode.getBytes(StandardCharsets.UTF_8);
+        String bucketKey = storageLayout.bucketKey(shortCode);
+        template(shortCode).executePipelined((RedisCallback<Object>) connection -> {
+            connection.keyCommands().del(key, bytes(ClickCounter.KEY_PREFIX + shortCode));
+            if (bucketKey != null) {
+                connection.hashCommands().hDel(bytes(bucketKey), key);
+            }
+            connection.publish(INVALIDATION_CHANNEL, key);
+            return null;
+        });
+        nearCache.invalidate(shortCode);
+    }
+
+    @SuppressWarnings("unchecked")
+    private UrlMapping load(String shortCode) {
+        RedisTemplate<String, UrlMapping> redisTemplate = template(shortCode);
+        String bucketKey = storageLayout.bucketKey(shortCode);
+        UrlMapping urlMapping = bucketKey == null
+                ? redisTemplate.opsForValue().get(shortCode)
+                : redisTemplate.execute(StorageLayout.FIND_SCRIPT, StringRedisSerializer.UTF_8,
+                        (RedisSerializer<UrlMapping>) redisTemplate.getValueSerializer(), List.of(shortCode, bucketKey), shortCode);
+        if (urlMapping != null && isExpired(urlMapping)) {
+            // Written before links carried a native expiry; clean it up on first sight
+            deleteByShortCode(shortCode);
+            return null;
+        }
+        if (urlMapping != null) {
+            urlMapping.setShortCode(shortCode); // the key, not stored in the value
+        }
+        return urlMapping;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void write(RedisConnection connection, UrlMapping urlMapping) {
+        String shortCode = urlMapping.getShortCode();
+        byte[] key = bytes(shortCode);
+        byte[] value = ((RedisSerializer<UrlMapping>) template(shortCode).getValueSerializer()).serialize(urlMapping);
+        Duration timeToLive = timeToLive(urlMapping);
+        String bucketKey = storageLayout.bucketKey(shortCode);
+        if (bucketKey != null && storageLayout.fitsBucket(value, timeToLive != null)) {
+            connection.hashCommands().hSet(bytes(bucketKey), key, value);
+            connection.keyCommands().del(key); // an earlier top-level version would otherwise linger
+        } else {
+            if (timeToLive != null) {
+                // Redis evicts the link itself; the click counter picks up the same expiry when it is flushed
+                connection.stringCommands().set(key, value, Expiration.from(timeToLive), RedisStringCommands.SetOption.upsert());
+            } else {
+                connection.stringCommands().set(key, value);
+            }
+            if (bucketKey != null) {
+                connection.hashCommands().hDel(bytes(bucketKey), key); // lookups check the bucket first
+            }
+        }
+        shortCodeFilter.addToBitmap(connection, shortCode);
+        connection.publish(INVALIDATION_CHANNEL, key);
+    }
+
+    private RedisTemplate<String, UrlMapping> template(String shortCode) {
+        return templates.get(shards.forKey(shortCode));
+    }
+
+    // The application's template for the node it is bound to, a copy with the same serializers for other shards
+    private static RedisTemplate<String, UrlMapping> shardTemplate(RedisTemplate<String, UrlMapping> redisTemplate, RedisShards.Shard shard) {
+        if (shard.redisTemplate().getConnectionFactory() == redisTemplate.getConnectionFactory()) {
+            return redisTemplate;
+        }
+        RedisTemplate<String, UrlMapping> template = new RedisTemplate<>();
+        template.setConnectionFactory(shard.redisTemplate().getConnectionFactory());
+        template.setKeySerializer(redisTemplate.getKeySerializer());
+        template.setValueSerializer(redisTemplate.getValueSerializer());
+        template.setHashKeySerializer(redisTemplate.getHashKeySerializer());
+        template.setHashValueSerializer(redisTemplate.getHashValueSerializer());
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ARGV of StorageLayout.CREATE_SCRIPT
+    static List<byte[]> createArgs(String shortCode, byte[] value, boolean inBucket, Duration timeToLive, long[] bitmapOffsets) {
+        List<byte[]> args = new ArrayList<>(5 + bitmapOffsets.length);
+        args.add(bytes(shortCode));
+        args.add(value);
+        args.add(bytes(inBucket ? "bucket" : "key"));
+        args.add(bytes(timeToLive != null ? Long.toString(timeToLive.toMillis()) : "0"));
+        args.add(INVALIDATION_CHANNEL);
+        for (long offset : bitmapOffsets) {
+            args.add(bytes(Long.toString(offset)));
+        }
+        return args;
+    }
+
+    static boolean isExpired(UrlMapping urlMapping) {
+        return urlMapping.getExpiresAt() != null && LocalDateTime.now().isAfter(urlMapping.getExpiresAt());
+    }
+
+    static Duration timeToLive(UrlMapping urlMapping) {
+        if (urlMapping.getExpiresAt() == null) {
+            return null;
+        }
+        Duration remaining = Duration.between(LocalDateTime.now(), urlMapping.getExpiresAt());
+        return remaining.compareTo(MIN_TIME_TO_LIVE) > 0 ? remaining : MIN_TIME_TO_LIVE;
     }
 }
@@ -0,0 +1,206 @@
+package com.shortscale.repository;
+
+import com.shortscale.analytics.ClickCounter;
+import com.shortscale.cache.ShortCodeFilter;
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Moves keys to the shard that owns them after shortscale.redis.shards changes. Every shard is scanned and only keys
+// whose owner on the new ring is another shard move: links, click counters and destination index entries whole
+// (DUMP, RESTORE on the owner, DEL), bucket entries field by field, and the id counter by raising the owner's copy
+// to it. Growing from N to N+1 shards moves about 1/(N+1)
+// of the keys, all onto the new shard. Run it by starting one node with shortscale.redis.rebalance=true before the
+// others serve traffic with the new shard list; it is safe to repeat.
+@Component
+@ConditionalOnProperty(name = "shortscale.storage.engine", havingValue = "redis", matchIfMissing = true)
+public class ShardRebalancer implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardRebalancer.class);
+    private static final int BATCH_SIZE = 1000;
+
+    private final RedisShards shards;
+    private final ShortCodeFilter shortCodeFilter;
+    private final boolean rebalanceOnStartup;
+
+    public ShardRebalancer(RedisShards shards, ShortCodeFilter shortCodeFilter,
+                           @Value("${shortscale.redis.rebalance:false}") boolean rebalanceOnStartup) {
+        this.shards = shards;
+        this.shortCodeFilter = shortCodeFilter;
+        this.rebalanceOnStartup = rebalanceOnStartup;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (rebalanceOnStartup) {
+            rebalance();
+        }
+    }
+
+    public Report rebalance() {
+        long start = System.nanoTime();
+        Report report = new Report();
+        if (!shards.isSharded()) {
+            logger.warn("shortscale.redis.shards lists fewer than two nodes, nothing to rebalance");
+            return report;
+        }
+        for (RedisShards.Shard shard : shards.all()) {
+            long movedBefore = report.getMoved();
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            try (Cursor<String> cursor = shard.redisTemplate().scan(ScanOptions.scanOptions().count(BATCH_SIZE).build())) {
+                while (cursor.hasNext()) {
+                    String key = cursor.next();
+                    report.setScanned(report.getScanned() + 1);
+                    if (key.startsWith(StorageLayout.BUCKET_PREFIX)) {
+                        report.setMoved(report.getMoved() + moveBucketEntries(shard, key));
+                        continue;
+                    }
+                    if (key.equals(RedisIdBlockSource.COUNTER_KEY)) {
+                        report.setMoved(report.getMoved() + moveCounter(shard));
+                        continue;
+                    }
+                    String routingKey = routingKey(key);
+                    if (routingKey != null && shards.forKey(routingKey) != shard) {
+                        batch.add(key);
+                    }
+                    if (batch.size() == BATCH_SIZE) {
+                        report.setMoved(report.getMoved() + moveKeys(shard, batch));
+                        batch.clear();
+                    }
+                }
+            }
+            report.setMoved(report.getMoved() + moveKeys(shard, batch));
+            logger.info("Moved {} keys and bucket entries off Redis shard {}", report.getMoved() - movedBefore, shard.name());
+        }
+        report.setElapsedMillis((System.nanoTime() - start) / 1_000_000);
+        logger.info("Rebalanced {} shards: scanned {} keys, moved {} in {} ms",
+                shards.all().size(), report.getScanned(), report.getMoved(), report.getElapsedMillis());
+        return report;
+    }
+
+    // The key its owner is placed by, or null for keys every shard keeps its own copy of (the filter bitmap)
+    static String routingKey(String key) {
+        if (key.indexOf(':') < 0) {
+            return key; // a link, stored under its short code
+        }
+        if (key.startsWith(ClickCounter.KEY_PREFIX)) {
+            return key.substring(ClickCounter.KEY_PREFIX.length());
+        }
+        if (key.startsWith(DestinationIndex.KEY_PREFIX)) {
+            return key.substring(DestinationIndex.KEY_PREFIX.length());
+        }
+        return null;
+    }
+
+    private long moveKeys(RedisShards.Shard source, List<String> keys) {
+        long moved = 0;
+        for (Map.Entry<RedisShards.Shard, List<String>> part : shards.partition(keys, ShardRebalancer::routingKey).entrySet()) {
+            moved += moveKeys(source.redisTemplate(), part.getKey().redisTemplate(), part.getValue());
+        }
+        return moved;
+    }
+
+    private long moveKeys(StringRedisTemplate source, StringRedisTemplate target, List<String> keys) {
+        List<Object> dumps = source.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.keyCommands().dump(bytes(key));
+                connection.keyCommands().pTtl(bytes(key));
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+        List<Object> present = target.executePipelined((RedisCallback<Object>) connection -> {
+            keys.forEach(key -> connection.keyCommands().exists(bytes(key)));
+            return null;
+        });
+        long[] moved = new long[1];
+        target.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < keys.size(); i++) {
+                // Gone in the meantime, or already written on the owner by a node using the new shard list
+                if (!(dumps.get(2 * i) instanceof byte[] dump) || Boolean.TRUE.equals(present.get(i))) {
+                    continue;
+                }
+                long timeToLive = dumps.get(2 * i + 1) instanceof Long millis && millis > 0 ? millis : 0;
+                connection.keyCommands().restore(bytes(keys.get(i)), timeToLive, dump);
+                if (keys.get(i).indexOf(':') < 0) {
+                    shortCodeFilter.addToBitmap(connection, keys.get(i));
+                }
+                moved[0]++;
+            }
+            return null;
+        });
+        source.executePipelined((RedisCallback<Object>) connection -> {
+            keys.forEach(key -> connection.keyCommands().del(bytes(key)));
+            return null;
+        });
+        return moved[0];
+    }
+
+    // Unlike a link, the owner's copy does not win: the higher counter does, so no id is issued twice
+    private long moveCounter(RedisShards.Shard source) {
+        RedisShards.Shard owner = shards.forKey(RedisIdBlockSource.COUNTER_KEY);
+        String value = source.redisTemplate().opsForValue().get(RedisIdBlockSource.COUNTER_KEY);
+        if (owner == source || value == null) {
+            return 0;
+        }
+        RedisIdBlockSource.raise(owner.redisTemplate(), value);
+        source.redisTemplate().delete(RedisIdBlockSource.COUNTER_KEY);
+        return 1;
+    }
+
+    // A bucket is split by code: each shard has its own "u:N" holding the entries it owns
+    private long moveBucketEntries(RedisShards.Shard source, String bucketKey) {
+        byte[] bucket = bytes(bucketKey);
+        Map<byte[], byte[]> entries = source.redisTemplate().execute((RedisCallback<Map<byte[], byte[]>>) connection ->
+                connection.hashCommands().hGetAll(bucket));
+        if (entries == null || entries.isEmpty()) {
+            return 0;
+        }
+        Map<RedisShards.Shard, List<Map.Entry<byte[], byte[]>>> parts =
+                shards.partition(entries.entrySet(), entry -> new String(entry.getKey(), StandardCharsets.UTF_8));
+        long moved = 0;
+        for (Map.Entry<RedisShards.Shard, List<Map.Entry<byte[], byte[]>>> part : parts.entrySet()) {
+            if (part.getKey() == source) {
+                continue;
+            }
+            List<Map.Entry<byte[], byte[]>> misplaced = part.getValue();
+            // HSETNX: an entry written on the owner since the shard list changed is newer than this one
+            part.getKey().redisTemplate().executePipelined((RedisCallback<Object>) connection -> {
+                for (Map.Entry<byte[], byte[]> entry : misplaced) {
+                    connection.hashCommands().hSetNX(bucket, entry.getKey(), entry.getValue());
+                    shortCodeFilter.addToBitmap(connection, new String(entry.getKey(), StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+            source.redisTemplate().execute((RedisCallback<Object>) connection ->
+                    connection.hashCommands().hDel(bucket, misplaced.stream().map(Map.Entry::getKey).toArray(byte[][]::new)));
+            moved += misplaced.size();
+        }
+        return moved;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Data
+    public static class Report {
+        private long scanned;
+        private long moved; // keys and bucket entries
+        private long elapsedMillis;
+    }
+}
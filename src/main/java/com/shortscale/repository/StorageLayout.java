@@ -0,0 +1,78 @@
+package com.shortscale.repository;
+
+import com.shortscale.model.UrlMapping;
+import com.shortscale.util.Base62;
+import com.shortscale.util.ShortCodeCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+// Where a mapping lives. In the bucketed layout, permanent links are fields of small hashes "u:{id / bucketSize}"
+// that Redis keeps in its compact listpack encoding, the id being the one the code was made from, so ids issued
+// together share a bucket. Links with an expiry and values too large for a listpack stay top-level keys so Redis can
+// still expire them, and so do custom codes, unless they are canonical base62: such a code cannot be told apart from
+// one issued before fixed-width codes and is bucketed by its base62 value like those.
+@Component
+public class StorageLayout {
+
+    public static final String BUCKET_PREFIX = "u:";
+
+    // KEYS[1] top-level key, KEYS[2] bucket, ARGV[1] short code. A link can sit in either place, so both are
+    // checked in one round trip; the bucket first, since that is where most links live
+    static final RedisScript<UrlMapping> FIND_SCRIPT = new DefaultRedisScript<>(
+            "local value = redis.call('HGET', KEYS[2], ARGV[1]) "
+                    + "if value then return value end "
+                    + "return redis.call('GET', KEYS[1])", UrlMapping.class);
+    static final RedisScript<Long> EXISTS_SCRIPT = new DefaultRedisScript<>(
+            "return redis.call('HEXISTS', KEYS[2], ARGV[1]) + redis.call('EXISTS', KEYS[1])", Long.class);
+    // KEYS[3] filter bitmap, ARGV as built by RedisUrlRepository.createArgs. Writes the link only if it is in neither
+    // place, then sets its filter bits and publishes the invalidation. Without a bucket KEYS[2] is the link key itself,
+    // which HEXISTS only reaches once EXISTS has found it missing
+    static final RedisScript<Long> CREATE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 or redis.call('HEXISTS', KEYS[2], ARGV[1]) == 1 then return 0 end "
+                    + "if ARGV[3] == 'bucket' then redis.call('HSET', KEYS[2], ARGV[1], ARGV[2]) "
+                    + "elseif ARGV[4] ~= '0' then redis.call('SET', KEYS[1], ARGV[2], 'PX', ARGV[4]) "
+                    + "else redis.call('SET', KEYS[1], ARGV[2]) end "
+                    + "for i = 6, #ARGV do redis.call('SETBIT', KEYS[3], ARGV[i], 1) end "
+                    + "redis.call('PUBLISH', ARGV[5], ARGV[1]) "
+                    + "return 1", Long.class);
+
+    private final ShortCodeCodec codec;
+    private final boolean bucketed;
+    private final long bucketSize;
+    private final int maxBucketValueBytes;
+
+    public StorageLayout(ShortCodeCodec codec, @Value("${shortscale.storage.bucketed:false}") boolean bucketed,
+                         @Value("${shortscale.storage.bucket-size:100}") long bucketSize,
+                         @Value("${shortscale.storage.max-bucket-value-bytes:512}") int maxBucketValueBytes) {
+        this.codec = codec;
+        this.bucketed = bucketed;
+        this.bucketSize = bucketSize;
+        this.maxBucketValueBytes = maxBucketValueBytes;
+    }
+
+    public boolean isBucketed() {
+        return bucketed;
+    }
+
+    public int getMaxBucketValueBytes() {
+        return maxBucketValueBytes;
+    }
+
+    // The hash this code's mapping may live in, or null when it can only ever be a top-level key
+    public String bucketKey(String shortCode) {
+        if (!bucketed) {
+            return null;
+        }
+        long id = codec.decode(shortCode);
+        if (id < 0) {
+            id = Base62.decode(shortCode); // issued before fixed-width codes
+        }
+        return id < 0 ? null : BUCKET_PREFIX + id / bucketSize;
+    }
+
+    public boolean fitsBucket(byte[] value, boolean expiring) {
+        return !expiring && value.length <= maxBucketValueBytes;
+    }
+}
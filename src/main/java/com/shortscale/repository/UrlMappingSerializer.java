@@ -0,0 +1,160 @@
+package com.shortscale.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shortscale.model.UrlMapping;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+// Version 1 layout: [0x01][flags][id varint][createdAt varint][expiresAt varint][url length varint][url UTF-8].
+// Fields flagged absent are skipped. Timestamps are epoch millis of the local date-time read as UTC (millisecond
+// precision), and expiresAt is stored relative to createdAt. The short code is the key and is not stored.
+// Legacy JSON values start with '{' and are still read.
+public class UrlMappingSerializer implements RedisSerializer<UrlMapping> {
+
+    static final byte VERSION_1 = 0x01;
+
+    private static final byte JSON_START = '{';
+    private static final int HAS_ID = 1;
+    private static final int HAS_CREATED_AT = 1 << 1;
+    private static final int HAS_EXPIRES_AT = 1 << 2;
+    private static final int HAS_URL = 1 << 3;
+
+    private final Jackson2JsonRedisSerializer<UrlMapping> jsonSerializer;
+    private final boolean writeJson;
+
+    public UrlMappingSerializer(ObjectMapper objectMapper) {
+        this(objectMapper, false);
+    }
+
+    // writeJson keeps producing the legacy format while nodes that cannot read version 1 are still running
+    public UrlMappingSerializer(ObjectMapper objectMapper, boolean writeJson) {
+        this.jsonSerializer = new Jackson2JsonRedisSerializer<>(objectMapper, UrlMapping.class);
+        this.writeJson = writeJson;
+    }
+
+    @Override
+    public byte[] serialize(UrlMapping mapping) {
+        if (mapping == null) {
+            return null;
+        }
+        if (writeJson) {
+            return jsonSerializer.serialize(mapping);
+        }
+        byte[] url = mapping.getOriginalUrl() != null ? mapping.getOriginalUrl().getBytes(StandardCharsets.UTF_8) : null;
+        long createdAt = mapping.getCreatedAt() != null ? toEpochMilli(mapping.getCreatedAt()) : 0;
+        int flags = (mapping.getId() != null ? HAS_ID : 0)
+                | (mapping.getCreatedAt() != null ? HAS_CREATED_AT : 0)
+                | (mapping.getExpiresAt() != null ? HAS_EXPIRES_AT : 0)
+                | (url != null ? HAS_URL : 0);
+
+        byte[] buffer = new byte[2 + 3 * 10 + 5 + (url != null ? url.length : 0)];
+        buffer[0] = VERSION_1;
+        buffer[1] = (byte) flags;
+        int position = 2;
+        if (mapping.getId() != null) {
+            position = writeVarLong(buffer, position, zigZag(mapping.getId()));
+        }
+        if (mapping.getCreatedAt() != null) {
+            position = writeVarLong(buffer, position, zigZag(createdAt));
+        }
+        if (mapping.getExpiresAt() != null) {
+            position = writeVarLong(buffer, position, zigZag(toEpochMilli(mapping.getExpiresAt()) - createdAt));
+        }
+        if (url != null) {
+            position = writeVarLong(buffer, position, url.length);
+            System.arraycopy(url, 0, buffer, position, url.length);
+            position += url.length;
+        }
+        return position == buffer.length ? buffer : Arrays.copyOf(buffer, position);
+    }
+
+    @Override
+    public UrlMapping deserialize(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] == JSON_START) {
+            return jsonSerializer.deserialize(bytes);
+        }
+        if (bytes[0] != VERSION_1 || bytes.length < 2) {
+            throw new SerializationException("Unknown UrlMapping format " + bytes[0]);
+        }
+        try {
+            int flags = bytes[1];
+            Reader reader = new Reader(bytes, 2);
+            UrlMapping mapping = new UrlMapping();
+            if ((flags & HAS_ID) != 0) {
+                mapping.setId(unZigZag(reader.readVarLong()));
+            }
+            long createdAt = 0;
+            if ((flags & HAS_CREATED_AT) != 0) {
+                createdAt = unZigZag(reader.readVarLong());
+                mapping.setCreatedAt(fromEpochMilli(createdAt));
+            }
+            if ((flags & HAS_EXPIRES_AT) != 0) {
+                mapping.setExpiresAt(fromEpochMilli(createdAt + unZigZag(reader.readVarLong())));
+            }
+            if ((flags & HAS_URL) != 0) {
+                int length = (int) reader.readVarLong();
+                mapping.setOriginalUrl(new String(bytes, reader.position, length, StandardCharsets.UTF_8));
+            }
+            return mapping;
+        } catch (IndexOutOfBoundsException e) {
+            throw new SerializationException("Truncated UrlMapping value", e);
+        }
+    }
+
+    private static long toEpochMilli(LocalDateTime dateTime) {
+        return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static LocalDateTime fromEpochMilli(long epochMilli) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochMilli, 1000), (int) Math.floorMod(epochMilli, 1000) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int writeVarLong(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new SerializationException("Malformed varint in UrlMapping value");
+        }
+    }
+}
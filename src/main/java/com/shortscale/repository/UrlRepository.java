@@ -0,0 +1,37 @@
+package com.shortscale.repository;
+
+import com.shortscale.model.UrlMapping;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Link storage engine, chosen with shortscale.storage.engine: redis (default), offheap or log
+public interface UrlRepository {
+
+    UrlMapping save(UrlMapping urlMapping);
+
+    // Stores the mapping only if its code is free, checked and written in one atomic step; false if it was taken
+    boolean saveIfAbsent(UrlMapping urlMapping);
+
+    UrlMapping findByShortCode(String shortCode);
+
+    boolean existsByShortCode(String shortCode);
+
+    void deleteByShortCode(String shortCode);
+
+    default void saveAll(List<UrlMapping> urlMappings) {
+        urlMappings.forEach(this::save);
+    }
+
+    // saveIfAbsent for each mapping; returns the codes that were taken, whose mappings were not stored
+    default Set<String> saveAllIfAbsent(List<UrlMapping> urlMappings) {
+        return urlMappings.stream().filter(urlMapping -> !saveIfAbsent(urlMapping)).map(UrlMapping::getShortCode).collect(Collectors.toSet());
+    }
+
+    // The codes among shortCodes that are taken
+    default Set<String> findExistingShortCodes(Collection<String> shortCodes) {
+        return shortCodes.stream().filter(this::existsByShortCode).collect(Collectors.toSet());
+    }
+}
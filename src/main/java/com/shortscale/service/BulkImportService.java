@@ -0,0 +1,338 @@
+package com.shortscale.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.shortscale.api.dto.BulkShortenRequest;
+import com.shortscale.api.dto.ImportResult;
+import com.shortscale.api.dto.ShortenRequest;
+import com.shortscale.api.dto.ShortenResponse;
+import com.shortscale.util.AdaptiveConcurrencyLimiter;
+import com.shortscale.util.RateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Imports link files of any size: rows are read, shortened and answered one chunk at a time, so memory stays
+// at one chunk however long the body is and results reach the client while it is still uploading. A row longer than
+// max-row-length is skipped unread and reported. Each chunk costs the client a permit of the "import-chunk" rate
+// limit and holds an "import" concurrency permit while it is shortened; a chunk refused either is reported and ends
+// the import, and the client resumes from its first line
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class BulkImportService {
+
+    public enum Format { NDJSON, CSV }
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkImportService.class);
+    private static final List<String> CSV_COLUMNS = List.of("originalurl", "customshortcode", "ttlseconds");
+    private static final byte[] NEWLINE = {'\n'};
+
+    private final UrlService urlService;
+    private final RateLimiter rateLimiter;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final ObjectReader requestReader;
+    private final ObjectWriter resultWriter;
+    private final int chunkSize;
+    private final int maxRowLength;
+    private final AtomicInteger activeImports = new AtomicInteger();
+    private final Counter createdCounter;
+    private final Counter failedCounter;
+    private final Timer chunkLatency;
+
+    public BulkImportService(UrlService urlService, ObjectMapper objectMapper, MeterRegistry meterRegistry, RateLimiter rateLimiter,
+                             AdaptiveConcurrencyLimiter concurrencyLimiter,
+                             @Value("${shortscale.import.chunk-size:1000}") int chunkSize,
+                             @Value("${shortscale.import.max-row-length:65536}") int maxRowLength) {
+        this.urlService = urlService;
+        this.rateLimiter = rateLimiter;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.requestReader = objectMapper.readerFor(ShortenRequest.class);
+        this.resultWriter = objectMapper.writerFor(ImportResult.class);
+        this.chunkSize = chunkSize;
+        this.maxRowLength = maxRowLength;
+        Gauge.builder("url_import_active", activeImports, AtomicInteger::get).register(meterRegistry);
+        // Throughput is the rate of these two
+        this.createdCounter = meterRegistry.counter("url_import_rows_total", "result", "ok");
+        this.failedCounter = meterRegistry.counter("url_import_rows_total", "result", "error");
+        this.chunkLatency = Timer.builder("url_import_chunk_latency").publishPercentileHistogram().register(meterRegistry);
+    }
+
+    // client is the key the rate limiter charges each chunk to
+    public void importLinks(InputStream body, Format format, OutputStream output, String client) throws IOException {
+        activeImports.incrementAndGet();
+        long start = System.nanoTime();
+        long rows = 0;
+        try {
+            RowReader reader = new RowReader(new InputStreamReader(body, StandardCharsets.UTF_8), maxRowLength);
+            Map<String, Integer> csvColumns = null;
+            List<Row> chunk = new ArrayList<>(chunkSize);
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.next()) != null) {
+                lineNumber++;
+                if (reader.tooLong()) {
+                    chunk.add(new Row(lineNumber, null, failure(null, "Row is longer than " + maxRowLength + " characters")));
+                } else {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    if (format == Format.CSV && csvColumns == null) {
+                        csvColumns = headerColumns(line);
+                        if (csvColumns != null) {
+                            continue;
+                        }
+                        csvColumns = defaultCsvColumns();
+                    }
+                    chunk.add(parse(lineNumber, line, format, csvColumns));
+                }
+                if (chunk.size() == chunkSize) {
+                    rows += chunk.size();
+                    if (!process(chunk, output, client)) {
+                        return;
+                    }
+                    chunk.clear();
+                }
+            }
+            rows += chunk.size();
+            process(chunk, output, client);
+        } finally {
+            activeImports.decrementAndGet();
+            logger.info("Imported {} rows in {} ms", rows, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    // False when the chunk was refused, its rows reported as such
+    private boolean process(List<Row> chunk, OutputStream output, String client) throws IOException {
+        if (chunk.isEmpty()) {
+            return true;
+        }
+        if (!rateLimiter.isAllowed("import-chunk", client)) {
+            refuse(chunk, output, "Rate limit exceeded, import stopped");
+            return false;
+        }
+        AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquire("import");
+        if (permit == null) {
+            refuse(chunk, output, "Overloaded, import stopped");
+            return false;
+        }
+        List<ShortenRequest> requests = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            if (row.request() != null) {
+                requests.add(row.request());
+            }
+        }
+        BulkShortenRequest bulkRequest = new BulkShortenRequest();
+        bulkRequest.setRequests(requests);
+        List<ShortenResponse> responses;
+        try (permit) {
+            responses = requests.isEmpty()
+                    ? List.of()
+                    : chunkLatency.record(() -> urlService.bulkShortenUrls(bulkRequest).getResponses());
+        }
+
+        int next = 0;
+        for (Row row : chunk) {
+            write(output, row.lineNumber(), row.request() != null ? responses.get(next++) : row.failure());
+        }
+        output.flush(); // each chunk's results go out before the next chunk is read
+        return true;
+    }
+
+    private void refuse(List<Row> chunk, OutputStream output, String error) throws IOException {
+        for (Row row : chunk) {
+            write(output, row.lineNumber(), row.request() != null ? failure(row.request().getOriginalUrl(), error) : row.failure());
+        }
+        output.flush();
+    }
+
+    private void write(OutputStream output, long lineNumber, ShortenResponse response) throws IOException {
+        (response.getError() == null ? createdCounter : failedCounter).increment();
+        output.write(resultWriter.writeValueAsBytes(new ImportResult(lineNumber, response)));
+        output.write(NEWLINE);
+    }
+
+    private Row parse(long lineNumber, String line, Format format, Map<String, Integer> csvColumns) {
+        ShortenRequest request;
+        try {
+            request = format == Format.NDJSON ? requestReader.readValue(line) : csvRequest(parseCsvLine(line), csvColumns);
+        } catch (JsonProcessingException e) {
+            return new Row(lineNumber, null, failure(null, "Malformed row: " + e.getOriginalMessage()));
+        } catch (IllegalArgumentException e) {
+            return new Row(lineNumber, null, failure(null, "Malformed row: " + e.getMessage()));
+        }
+        if (request.getOriginalUrl() == null || request.getOriginalUrl().isBlank()) {
+            return new Row(lineNumber, null, failure(request.getOriginalUrl(), "originalUrl is required"));
+        }
+        return new Row(lineNumber, request, null);
+    }
+
+    private static ShortenRequest csvRequest(List<String> fields, Map<String, Integer> columns) {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl(field(fields, columns.get("originalurl")));
+        request.setCustomShortCode(field(fields, columns.get("customshortcode")));
+        String ttlSeconds = field(fields, columns.get("ttlseconds"));
+        if (ttlSeconds != null) {
+            try {
+                request.setTtlSeconds(Integer.valueOf(ttlSeconds.trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("ttlSeconds is not a number");
+            }
+        }
+        return request;
+    }
+
+    private static String field(List<String> fields, Integer column) {
+        if (column == null || column >= fields.size() || fields.get(column).isEmpty()) {
+            return null;
+        }
+        return fields.get(column);
+    }
+
+    // Column positions if the line is a header naming at least originalUrl, otherwise null
+    private static Map<String, Integer> headerColumns(String line) {
+        List<String> header;
+        try {
+            header = parseCsvLine(line);
+        } catch (IllegalArgumentException e) {
+            return null; // reported as a malformed row
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            String name = header.get(i).trim().toLowerCase(Locale.ROOT);
+            if (CSV_COLUMNS.contains(name)) {
+                columns.put(name, i);
+            }
+        }
+        return columns.containsKey("originalurl") ? columns : null;
+    }
+
+    private static Map<String, Integer> defaultCsvColumns() {
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < CSV_COLUMNS.size(); i++) {
+            columns.put(CSV_COLUMNS.get(i), i);
+        }
+        return columns;
+    }
+
+    // RFC 4180 fields on one line: comma separated, optionally double-quoted with "" for a quote
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c != '\r') {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static ShortenResponse failure(String originalUrl, String error) {
+        ShortenResponse response = new ShortenResponse();
+        response.setOriginalUrl(originalUrl);
+        response.setError(error);
+        return response;
+    }
+
+    private record Row(long lineNumber, ShortenRequest request, ShortenResponse failure) {
+    }
+
+    // Lines as BufferedReader.readLine splits them on \n, but holding at most maxLength characters of one: the rest
+    // of a longer line is read past and dropped, and tooLong() reports it
+    static final class RowReader {
+
+        private final Reader reader;
+        private final int maxLength;
+        private final char[] buffer = new char[8192];
+        private final StringBuilder line = new StringBuilder();
+        private int position;
+        private int limit;
+        private boolean tooLong;
+
+        RowReader(Reader reader, int maxLength) {
+            this.reader = reader;
+            this.maxLength = maxLength;
+        }
+
+        String next() throws IOException {
+            line.setLength(0);
+            tooLong = false;
+            boolean read = false;
+            while (true) {
+                if (position == limit) {
+                    limit = reader.read(buffer, 0, buffer.length);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return read ? finish() : null;
+                    }
+                }
+                read = true;
+                int start = position;
+                while (position < limit && buffer[position] != '\n') {
+                    position++;
+                }
+                // one extra character, so a \r before the newline fits
+                int room = maxLength + 1 - line.length();
+                line.append(buffer, start, Math.min(position - start, room));
+                tooLong |= position - start > room;
+                if (position < limit) {
+                    position++; // the newline
+                    return finish();
+                }
+            }
+        }
+
+        boolean tooLong() {
+            return tooLong;
+        }
+
+        private String finish() {
+            if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+                line.setLength(line.length() - 1);
+            }
+            tooLong |= line.length() > maxLength;
+            return tooLong ? "" : line.toString();
+        }
+    }
+}
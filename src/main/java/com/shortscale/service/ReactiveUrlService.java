@@ -0,0 +1,190 @@
+package com.shortscale.service;
+
+import com.shortscale.analytics.AnalyticsBroadcaster;
+import com.shortscale.analytics.ClickCounter;
+import com.shortscale.api.dto.*;
+import com.shortscale.cache.LastKnownGoodStore;
+import com.shortscale.model.UrlMapping;
+import com.shortscale.repository.ReactiveRedisUrlRepository;
+import com.shortscale.util.HashGenerator;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.kafka.sender.KafkaSender;
+import reactor.kafka.sender.SenderRecord;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUrlService {
+
+    private final ReactiveRedisUrlRepository repository;
+    private final HashGenerator hashGenerator;
+    private final ClickCounter clickCounter;
+    private final AnalyticsBroadcaster analyticsBroadcaster;
+    private final KafkaSender<String, AnalyticsEvent> kafkaSender;
+    private final CircuitBreaker circuitBreaker;
+    private final LastKnownGoodStore lastKnownGood;
+    private final int bulkConcurrency;
+    private final Counter urlShortenedCounter;
+    private final Counter urlClickedCounter;
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveUrlService.class);
+    private static final Duration REFRESH_TIMEOUT = Duration.ofSeconds(5);
+
+    public ReactiveUrlService(ReactiveRedisUrlRepository repository, HashGenerator hashGenerator, ClickCounter clickCounter, AnalyticsBroadcaster analyticsBroadcaster,
+                              KafkaSender<String, AnalyticsEvent> kafkaSender, CircuitBreaker urlCircuitBreaker, LastKnownGoodStore lastKnownGood,
+                              MeterRegistry meterRegistry, @Value("${shortscale.bulk.reactive-concurrency:16}") int bulkConcurrency) {
+        this.repository = repository;
+        this.hashGenerator = hashGenerator;
+        this.clickCounter = clickCounter;
+        this.analyticsBroadcaster = analyticsBroadcaster;
+        this.kafkaSender = kafkaSender;
+        this.circuitBreaker = urlCircuitBreaker;
+        this.lastKnownGood = lastKnownGood;
+        this.bulkConcurrency = bulkConcurrency;
+        this.urlShortenedCounter = meterRegistry.counter("url_shortened_total");
+        this.urlClickedCounter = meterRegistry.counter("url_clicked_total");
+        // Links served stale are reloaded once the breaker lets calls through again, without blocking a thread on each.
+        // Each reload is one of the breaker's trial calls, so a Redis that is still failing opens it again and stops the refresh
+        urlCircuitBreaker.getEventPublisher().onStateTransition(event -> {
+            if (event.getStateTransition().getToState() == CircuitBreaker.State.HALF_OPEN) {
+                lastKnownGood.refreshReactively(shortCode -> repository.findByShortCode(shortCode)
+                                .timeout(REFRESH_TIMEOUT)
+                                .transformDeferred(CircuitBreakerOperator.of(urlCircuitBreaker)))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .subscribe();
+            }
+        });
+    }
+
+    public Mono<ShortenResponse> shortenUrl(ShortenRequest request) {
+        return resolveShortCode(request.getCustomShortCode())
+                .flatMap(shortCode -> {
+                    UrlMapping urlMapping = new UrlMapping();
+                    urlMapping.setId(System.currentTimeMillis()); // simple ID
+                    urlMapping.setShortCode(shortCode);
+                    urlMapping.setOriginalUrl(request.getOriginalUrl());
+                    urlMapping.setCreatedAt(LocalDateTime.now());
+                    if (request.getTtlSeconds() != null && request.getTtlSeconds() > 0) {
+                        urlMapping.setExpiresAt(LocalDateTime.now().plusSeconds(request.getTtlSeconds()));
+                    }
+                    return create(urlMapping, request.getCustomShortCode() != null && !request.getCustomShortCode().isEmpty());
+                })
+                .map(urlMapping -> {
+                    ShortenResponse response = new ShortenResponse();
+                    response.setShortUrl("http://localhost:8080/" + urlMapping.getShortCode()); // assuming port 8080
+                    response.setOriginalUrl(request.getOriginalUrl());
+                    response.setShortCode(urlMapping.getShortCode());
+
+                    publish(new AnalyticsEvent(urlMapping.getShortCode(), urlMapping.getCreatedAt(), "shorten", null, null));
+                    urlShortenedCounter.increment();
+                    logger.info("Shortened URL: {} to {}", request.getOriginalUrl(), response.getShortUrl());
+                    return response;
+                })
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker));
+    }
+
+    // Empty when the link is unknown or expired. When Redis is unavailable, the last known destination if the link
+    // resolved recently (same fallback as UrlService)
+    public Mono<String> getOriginalUrl(String shortCode) {
+        return repository.findByShortCode(shortCode)
+                .doOnNext(urlMapping -> {
+                    lastKnownGood.record(shortCode, urlMapping);
+                    clickCounter.increment(shortCode);
+                    analyticsBroadcaster.recordClick(shortCode);
+                    publish(new AnalyticsEvent(shortCode, LocalDateTime.now(), "click", null, null));
+                    urlClickedCounter.increment();
+                })
+                .map(UrlMapping::getOriginalUrl)
+                .switchIfEmpty(Mono.fromRunnable(() -> lastKnownGood.forget(shortCode)))
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+                .onErrorResume(throwable -> {
+                    String originalUrl = lastKnownGood.getStale(shortCode);
+                    if (originalUrl == null) {
+                        logger.error("Circuit breaker fallback for getOriginalUrl: {}", throwable.getMessage());
+                    }
+                    return Mono.justOrEmpty(originalUrl);
+                });
+    }
+
+    public Mono<Long> getClickCount(String shortCode) {
+        // Off the hot path; the counter also folds in clicks that have not been flushed yet
+        return Mono.fromCallable(() -> clickCounter.getClickCount(shortCode)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // Up to bulkConcurrency items are shortened at once, with results in request order. An item that cannot be
+    // shortened gets an error in its own result instead of failing the rest, as in the servlet edition
+    public Mono<BulkShortenResponse> bulkShortenUrls(BulkShortenRequest request) {
+        if (request.getRequests() == null) {
+            return Mono.error(new IllegalArgumentException("Bulk request has no requests"));
+        }
+        return Flux.fromIterable(request.getRequests())
+                .flatMapSequential(item -> shortenUrl(item).onErrorResume(e -> Mono.just(failure(item, e))), bulkConcurrency)
+                .collectList()
+                .map(responses -> {
+                    BulkShortenResponse response = new BulkShortenResponse();
+                    response.setResponses(responses);
+                    return response;
+                });
+    }
+
+    // Checked and written atomically, so of two requests racing for a custom code exactly one gets it. Generated codes
+    // are written the same way, since an older custom code of the same width may hold one; it gets a fresh code
+    private Mono<UrlMapping> create(UrlMapping urlMapping, boolean custom) {
+        return repository.saveIfAbsent(urlMapping)
+                .flatMap(created -> {
+                    if (created) {
+                        return Mono.just(urlMapping);
+                    }
+                    if (custom) {
+                        return Mono.error(new IllegalArgumentException("Custom short code already exists"));
+                    }
+                    return resolveShortCode(null).flatMap(shortCode -> {
+                        urlMapping.setShortCode(shortCode);
+                        return create(urlMapping, false);
+                    });
+                });
+    }
+
+    private static ShortenResponse failure(ShortenRequest request, Throwable error) {
+        ShortenResponse response = new ShortenResponse();
+        response.setOriginalUrl(request.getOriginalUrl());
+        if (error instanceof IllegalArgumentException) {
+            response.setError(error.getMessage());
+        } else {
+            logger.warn("Failed to shorten {} in a bulk request: {}", request.getOriginalUrl(), error.getMessage());
+            response.setError("Could not shorten this URL, try again later");
+        }
+        return response;
+    }
+
+    private Mono<String> resolveShortCode(String customShortCode) {
+        if (customShortCode == null || customShortCode.isEmpty()) {
+            // Waits on Redis whenever the id block runs out before the next one is leased, so never on the event loop
+            return Mono.fromSupplier(hashGenerator::generateShortCode).subscribeOn(Schedulers.boundedElastic());
+        }
+        if (!UrlService.CUSTOM_SHORT_CODE.matcher(customShortCode).matches()) {
+            return Mono.error(new IllegalArgumentException("Custom short code may only contain letters, digits, '-' and '_'"));
+        }
+        return Mono.just(customShortCode);
+    }
+
+    private void publish(AnalyticsEvent event) {
+        // Fire and forget; the sender's own I/O thread does the work, so the request never waits on Kafka
+        kafkaSender.send(Mono.just(SenderRecord.create(new ProducerRecord<String, AnalyticsEvent>("url-analytics", event), event.getShortCode())))
+                .subscribe(result -> { }, e -> logger.warn("Failed to publish {} event for {}: {}", event.getAction(), event.getShortCode(), e.getMessage()));
+    }
+}
@@ -1,79 +1,134 @@
 package com.shortscale.service;
 
+import com.shortscale.analytics.AnalyticsBroadcaster;
+import com.shortscale.analytics.ClickCounter;
 import com.shortscale.api.dto.*;
+import com.shortscale.cache.LastKnownGoodStore;
+import com.shortscale.dispatch.SideEffectDispatcher;
 import com.shortscale.model.UrlMapping;
-import com.shortscale.repository.RedisUrlRepository;
+import com.shortscale.repository.DestinationIndex;
+import com.shortscale.repository.UrlRepository;
+import com.shortscale.util.BudgetedRetry;
 import com.shortscale.util.HashGenerator;
-import io.github.resilience4j.bulkhead.annotation.Bulkhead;
-import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
-import io.github.resilience4j.ratelimiter.annotation.RateLimiter;
-import io.github.resilience4j.retry.annotation.Retry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.redis.RedisConnectionFailureException;
 import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 @Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class UrlService {
 
-    private final RedisUrlRepository repository;
+    private final UrlRepository repository;
     private final HashGenerator hashGenerator;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final ClickCounter clickCounter;
+    private final SideEffectDispatcher sideEffectDispatcher;
+    private final AnalyticsBroadcaster analyticsBroadcaster;
     private final KafkaTemplate<String, AnalyticsEvent> kafkaTemplate;
+    private final DestinationIndex destinationIndex;
+    private final LastKnownGoodStore lastKnownGood;
+    private final CircuitBreaker circuitBreaker;
+    private final BudgetedRetry shortenRetry;
     private final Counter urlShortenedCounter;
     private final Counter urlClickedCounter;
+    private final Counter dedupHitCounter;
+    private final Counter dedupMissCounter;
 
     private static final Logger logger = LoggerFactory.getLogger(UrlService.class);
+    // Keeps custom codes apart from internal Redis keys, which always contain ':'
+    static final Pattern CUSTOM_SHORT_CODE = Pattern.compile("[0-9A-Za-z_-]{1,64}");
 
-    public UrlService(RedisUrlRepository repository, HashGenerator hashGenerator, SimpMessagingTemplate messagingTemplate, KafkaTemplate<String, AnalyticsEvent> kafkaTemplate, MeterRegistry meterRegistry) {
+    public UrlService(UrlRepository repository, HashGenerator hashGenerator, ClickCounter clickCounter, SideEffectDispatcher sideEffectDispatcher, AnalyticsBroadcaster analyticsBroadcaster, KafkaTemplate<String, AnalyticsEvent> kafkaTemplate, DestinationIndex destinationIndex,
+                      LastKnownGoodStore lastKnownGood, CircuitBreaker urlCircuitBreaker, BudgetedRetry urlShortenRetry, MeterRegistry meterRegistry) {
         this.repository = repository;
         this.hashGenerator = hashGenerator;
-        this.messagingTemplate = messagingTemplate;
+        this.clickCounter = clickCounter;
+        this.sideEffectDispatcher = sideEffectDispatcher;
+        this.analyticsBroadcaster = analyticsBroadcaster;
         this.kafkaTemplate = kafkaTemplate;
+        this.destinationIndex = destinationIndex;
+        this.lastKnownGood = lastKnownGood;
+        this.circuitBreaker = urlCircuitBreaker;
+        this.shortenRetry = urlShortenRetry;
         this.urlShortenedCounter = meterRegistry.counter("url_shortened_total");
         this.urlClickedCounter = meterRegistry.counter("url_clicked_total");
+        this.dedupHitCounter = meterRegistry.counter("url_dedup_total", "result", "hit");
+        this.dedupMissCounter = meterRegistry.counter("url_dedup_total", "result", "miss");
+        // Links served stale are reloaded off the request path once the breaker lets calls through again. Each reload is
+        // one of the breaker's trial calls, so a Redis that is still failing opens it again and stops the refresh
+        urlCircuitBreaker.getEventPublisher().onStateTransition(event -> {
+            if (event.getStateTransition().getToState() == CircuitBreaker.State.HALF_OPEN) {
+                lastKnownGood.refresh(shortCode -> urlCircuitBreaker.executeSupplier(() -> repository.findByShortCode(shortCode)));
+            }
+        });
     }
 
-    @Retry(name = "urlShortenRetry")
-    @CircuitBreaker(name = "urlCircuitBreaker")
-    @RateLimiter(name = "urlRateLimiter")
-    @Bulkhead(name = "urlBulkhead")
     public ShortenResponse shortenUrl(ShortenRequest request) {
         String shortCode = request.getCustomShortCode();
-        if (shortCode == null || shortCode.isEmpty()) {
+        boolean custom = shortCode != null && !shortCode.isEmpty();
+        String digest = null;
+        if (!custom) {
+            // Custom codes and expiring links are always new links; any other repeat of a destination gets its first code
+            if (destinationIndex.isEnabled() && !isExpiring(request)) {
+                digest = DestinationIndex.digest(request.getOriginalUrl());
+                String existing = destinationIndex.find(digest);
+                if (existing != null) {
+                    dedupHitCounter.increment();
+                    return response(existing, request.getOriginalUrl());
+                }
+            }
             shortCode = hashGenerator.generateShortCode();
         } else {
-            if (repository.existsByShortCode(shortCode)) {
-                throw new IllegalArgumentException("Custom short code already exists");
+            if (!CUSTOM_SHORT_CODE.matcher(shortCode).matches()) {
+                throw new IllegalArgumentException("Custom short code may only contain letters, digits, '-' and '_'");
             }
         }
 
-        UrlMapping urlMapping = new UrlMapping();
-        urlMapping.setId(System.currentTimeMillis()); // simple ID
-        urlMapping.setShortCode(shortCode);
-        urlMapping.setOriginalUrl(request.getOriginalUrl());
-        urlMapping.setCreatedAt(LocalDateTime.now());
-        if (request.getTtlSeconds() != null && request.getTtlSeconds() > 0) {
-            urlMapping.setExpiresAt(LocalDateTime.now().plusSeconds(request.getTtlSeconds()));
+        UrlMapping urlMapping = newMapping(shortCode, request);
+        // Checked and written atomically, so of two requests racing for a custom code exactly one gets it. Generated
+        // codes are written the same way, since an older custom code of the same width may hold one; it gets a fresh code
+        while (!store(urlMapping)) {
+            if (custom) {
+                throw new IllegalArgumentException("Custom short code already exists");
+            }
+            shortCode = hashGenerator.generateShortCode();
+            urlMapping.setShortCode(shortCode);
         }
-        urlMapping.setClickCount(0);
 
-        repository.save(urlMapping);
+        if (digest != null) {
+            String indexed = destinationIndex.claim(digest, shortCode);
+            if (!indexed.equals(shortCode)) {
+                // A concurrent request for the same destination indexed its code first; use that one
+                repository.deleteByShortCode(shortCode);
+                dedupHitCounter.increment();
+                return response(indexed, request.getOriginalUrl());
+            }
+            dedupMissCounter.increment();
+        }
 
-        ShortenResponse response = new ShortenResponse();
-        response.setShortUrl("http://localhost:8080/" + shortCode); // assuming port 8080
-        response.setOriginalUrl(request.getOriginalUrl());
-        response.setShortCode(shortCode);
+        ShortenResponse response = response(shortCode, request.getOriginalUrl());
 
-        // Send Kafka event
-        kafkaTemplate.send("url-analytics", new AnalyticsEvent(shortCode, LocalDateTime.now(), "shorten", null, null));
+        // Send Kafka event; the producer can block on metadata inside a monitor, so keep it off request threads
+        String createdCode = shortCode;
+        LocalDateTime createdAt = urlMapping.getCreatedAt();
+        sideEffectDispatcher.dispatch(() -> kafkaTemplate.send("url-analytics", new AnalyticsEvent(createdCode, createdAt, "shorten", null, null)));
         urlShortenedCounter.increment(); // Increment the shorten URL counter
 
         logger.info("Shortened URL: {} to {}", request.getOriginalUrl(), response.getShortUrl());
@@ -81,39 +136,253 @@ public class UrlService {
         return response;
     }
 
-    @CircuitBreaker(name = "urlCircuitBreaker", fallbackMethod = "fallbackGetOriginalUrl")
+    // Only the write is retried, and only while it cannot have reached Redis (see the urlShortenRetry bean). A write that
+    // failed after being sent may still have been applied: it was if the code now holds this very link, and otherwise
+    // the failure is thrown rather than writing again
+    private boolean store(UrlMapping urlMapping) {
+        try {
+            return shortenRetry.execute(() -> repository.saveIfAbsent(urlMapping));
+        } catch (RuntimeException e) {
+            if (e instanceof RedisConnectionFailureException) {
+                throw e;
+            }
+            UrlMapping stored;
+            try {
+                stored = repository.findByShortCode(urlMapping.getShortCode());
+            } catch (RuntimeException readFailure) {
+                throw e;
+            }
+            if (!isSameLink(stored, urlMapping)) {
+                throw e;
+            }
+            logger.info("Write of {} failed after it was applied: {}", urlMapping.getShortCode(), e.getMessage());
+            return true;
+        }
+    }
+
+    // Stored values keep timestamps to the millisecond
+    private static boolean isSameLink(UrlMapping stored, UrlMapping written) {
+        return stored != null
+                && Objects.equals(stored.getId(), written.getId())
+                && Objects.equals(stored.getOriginalUrl(), written.getOriginalUrl())
+                && stored.getCreatedAt() != null
+                && stored.getCreatedAt().truncatedTo(ChronoUnit.MILLIS).equals(written.getCreatedAt().truncatedTo(ChronoUnit.MILLIS));
+    }
+
+    // Guarded by the urlCircuitBreaker bean itself, like the reactive edition
     public String getOriginalUrl(String shortCode) {
+        try {
+            return circuitBreaker.executeSupplier(() -> resolve(shortCode));
+        } catch (RuntimeException e) {
+            return fallbackGetOriginalUrl(shortCode, e);
+        }
+    }
+
+    private String resolve(String shortCode) {
         UrlMapping urlMapping = repository.findByShortCode(shortCode);
         if (urlMapping == null) {
-            return null;
-        }
-        if (urlMapping.getExpiresAt() != null && LocalDateTime.now().isAfter(urlMapping.getExpiresAt())) {
-            return null; // expired
+            lastKnownGood.forget(shortCode);
+            return null; // unknown, or expired and evicted by Redis
         }
-        urlMapping.setClickCount(urlMapping.getClickCount() + 1);
-        repository.save(urlMapping); // update click count
-        // Send real-time update
-        messagingTemplate.convertAndSend("/topic/analytics", Map.of("shortCode", shortCode, "clickCount", urlMapping.getClickCount()));
-        // Send Kafka event
-        kafkaTemplate.send("url-analytics", new AnalyticsEvent(shortCode, LocalDateTime.now(), "click", null, null));
+        lastKnownGood.record(shortCode, urlMapping);
+        clickCounter.increment(shortCode, urlMapping.getExpiresAt()); // flushed to Redis in batches, no write on the redirect path
+        analyticsBroadcaster.recordClick(shortCode); // coalesced into one real-time update per link per tick
+        LocalDateTime clickedAt = LocalDateTime.now();
+        // Producer calls run on the dispatcher so they never delay the redirect
+        sideEffectDispatcher.dispatch(() -> kafkaTemplate.send("url-analytics", new AnalyticsEvent(shortCode, clickedAt, "click", null, null)));
         urlClickedCounter.increment(); // Increment the clicked URL counter
         return urlMapping.getOriginalUrl();
     }
 
-    public String fallbackGetOriginalUrl(String shortCode, Throwable throwable) {
-        logger.error("Circuit breaker fallback for getOriginalUrl: {}", throwable.getMessage());
-        return null; // or some default
+    // Redis failed or the breaker is open: answer with the link's last known destination if it resolved recently
+    private String fallbackGetOriginalUrl(String shortCode, Throwable throwable) {
+        String originalUrl = lastKnownGood.getStale(shortCode);
+        if (originalUrl == null) {
+            logger.error("Circuit breaker fallback for getOriginalUrl: {}", throwable.getMessage());
+        }
+        return originalUrl;
     }
 
-    @Cacheable(value = "urlMappings", key = "#shortCode")
-    public int getClickCount(String shortCode) {
-        UrlMapping urlMapping = repository.findByShortCode(shortCode);
-        return urlMapping != null ? urlMapping.getClickCount() : 0;
+    public long getClickCount(String shortCode) {
+        return clickCounter.getClickCount(shortCode);
     }
 
+    // The whole batch is validated, allocated, written and published at once, in a few round trips however many
+    // items it holds. An item that cannot be shortened gets an error in its own result instead of failing the rest
     public BulkShortenResponse bulkShortenUrls(BulkShortenRequest request) {
+        List<ShortenRequest> requests = request.getRequests();
+        if (requests == null) {
+            throw new IllegalArgumentException("Bulk request has no requests");
+        }
+        int size = requests.size();
+        ShortenResponse[] results = new ShortenResponse[size];
+        String[] shortCodes = new String[size];
+
+        Map<String, Integer> customShortCodes = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            String shortCode = requests.get(i).getCustomShortCode();
+            if (shortCode == null || shortCode.isEmpty()) {
+                continue;
+            }
+            if (!CUSTOM_SHORT_CODE.matcher(shortCode).matches()) {
+                results[i] = failure(requests.get(i), "Custom short code may only contain letters, digits, '-' and '_'");
+            } else if (customShortCodes.putIfAbsent(shortCode, i) != null) {
+                results[i] = failure(requests.get(i), "Custom short code already exists");
+            } else {
+                shortCodes[i] = shortCode;
+            }
+        }
+        for (String shortCode : repository.findExistingShortCodes(customShortCodes.keySet())) {
+            int i = customShortCodes.get(shortCode);
+            results[i] = failure(requests.get(i), "Custom short code already exists");
+            shortCodes[i] = null;
+        }
+
+        // Repeats of a destination, whether already indexed or earlier in this batch, resolve to one code
+        String[] digests = new String[size];
+        Map<String, Integer> firstByDigest = new HashMap<>();
+        if (destinationIndex.isEnabled()) {
+            for (int i = 0; i < size; i++) {
+                ShortenRequest item = requests.get(i);
+                if (results[i] == null && shortCodes[i] == null && !isExpiring(item)) {
+                    digests[i] = DestinationIndex.digest(item.getOriginalUrl());
+                    firstByDigest.putIfAbsent(digests[i], i);
+                }
+            }
+            Map<String, String> indexed = destinationIndex.findAll(firstByDigest.keySet());
+            for (int i = 0; i < size; i++) {
+                if (digests[i] != null && indexed.containsKey(digests[i])) {
+                    shortCodes[i] = indexed.get(digests[i]);
+                    results[i] = response(shortCodes[i], requests.get(i).getOriginalUrl());
+                    dedupHitCounter.increment();
+                }
+            }
+        }
+
+        List<Integer> toGenerate = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (results[i] == null && shortCodes[i] == null && (digests[i] == null || firstByDigest.get(digests[i]) == i)) {
+                toGenerate.add(i);
+            }
+        }
+        List<String> generated = hashGenerator.generateShortCodes(toGenerate.size());
+        for (int n = 0; n < toGenerate.size(); n++) {
+            shortCodes[toGenerate.get(n)] = generated.get(n);
+        }
+
+        List<Integer> toWrite = new ArrayList<>();
+        UrlMapping[] newMappings = new UrlMapping[size];
+        for (int i = 0; i < size; i++) {
+            if (results[i] != null || shortCodes[i] == null) {
+                continue; // failed, deduplicated, or waiting for an earlier item with the same destination
+            }
+            newMappings[i] = newMapping(shortCodes[i], requests.get(i));
+            toWrite.add(i);
+        }
+        // Every code is written only if free, like a single link's. A generated code held by an older custom code is
+        // replaced by a fresh one, and a custom code taken since the check above fails its item
+        List<UrlMapping> urlMappings = new ArrayList<>();
+        while (!toWrite.isEmpty()) {
+            Set<String> taken = repository.saveAllIfAbsent(toWrite.stream().map(i -> newMappings[i]).toList());
+            List<Integer> toReallocate = new ArrayList<>();
+            for (int i : toWrite) {
+                if (!taken.contains(shortCodes[i])) {
+                    urlMappings.add(newMappings[i]);
+                } else if (Integer.valueOf(i).equals(customShortCodes.get(shortCodes[i]))) {
+                    results[i] = failure(requests.get(i), "Custom short code already exists");
+                } else {
+                    toReallocate.add(i);
+                }
+            }
+            List<String> reallocated = toReallocate.isEmpty() ? List.of() : hashGenerator.generateShortCodes(toReallocate.size());
+            for (int n = 0; n < toReallocate.size(); n++) {
+                int i = toReallocate.get(n);
+                shortCodes[i] = reallocated.get(n);
+                newMappings[i].setShortCode(shortCodes[i]);
+            }
+            toWrite = toReallocate;
+        }
+        Map<String, String> claims = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            if (digests[i] != null && newMappings[i] != null && results[i] == null) {
+                claims.put(digests[i], shortCodes[i]);
+            }
+        }
+
+        Set<String> created = new HashSet<>();
+        urlMappings.forEach(urlMapping -> created.add(urlMapping.getShortCode()));
+        if (!claims.isEmpty()) {
+            Map<String, String> indexed = destinationIndex.claimAll(claims);
+            for (Map.Entry<String, String> claim : claims.entrySet()) {
+                String winner = indexed.get(claim.getKey());
+                int i = firstByDigest.get(claim.getKey());
+                if (!winner.equals(claim.getValue())) {
+                    // A concurrent request indexed this destination first; use its code
+                    repository.deleteByShortCode(claim.getValue());
+                    created.remove(claim.getValue());
+                    shortCodes[i] = winner;
+                    dedupHitCounter.increment();
+                } else {
+                    dedupMissCounter.increment();
+                }
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            if (shortCodes[i] == null) {
+                shortCodes[i] = shortCodes[firstByDigest.get(digests[i])];
+                dedupHitCounter.increment();
+            }
+            results[i] = response(shortCodes[i], requests.get(i).getOriginalUrl());
+        }
+
+        List<AnalyticsEvent> events = urlMappings.stream()
+                .filter(urlMapping -> created.contains(urlMapping.getShortCode()))
+                .map(urlMapping -> new AnalyticsEvent(urlMapping.getShortCode(), urlMapping.getCreatedAt(), "shorten", null, null))
+                .toList();
+        // One dispatcher task for the batch; the producer groups the sends into batches of its own
+        if (!events.isEmpty()) {
+            sideEffectDispatcher.dispatch(() -> events.forEach(event -> kafkaTemplate.send("url-analytics", event)));
+        }
+        urlShortenedCounter.increment(events.size());
+        logger.info("Bulk shortened {} URLs, {} new links", size, events.size());
+
         BulkShortenResponse response = new BulkShortenResponse();
-        response.setResponses(request.getRequests().stream().map(this::shortenUrl).toList());
+        response.setResponses(Arrays.asList(results));
         return response;
     }
+
+    private static ShortenResponse response(String shortCode, String originalUrl) {
+        ShortenResponse response = new ShortenResponse();
+        response.setShortUrl("http://localhost:8080/" + shortCode); // assuming port 8080
+        response.setOriginalUrl(originalUrl);
+        response.setShortCode(shortCode);
+        return response;
+    }
+
+    private static ShortenResponse failure(ShortenRequest request, String error) {
+        ShortenResponse response = new ShortenResponse();
+        response.setOriginalUrl(request.getOriginalUrl());
+        response.setError(error);
+        return response;
+    }
+
+    private static UrlMapping newMapping(String shortCode, ShortenRequest request) {
+        UrlMapping urlMapping = new UrlMapping();
+        urlMapping.setId(System.currentTimeMillis()); // simple ID
+        urlMapping.setShortCode(shortCode);
+        urlMapping.setOriginalUrl(request.getOriginalUrl());
+        urlMapping.setCreatedAt(LocalDateTime.now());
+        if (isExpiring(request)) {
+            urlMapping.setExpiresAt(LocalDateTime.now().plusSeconds(request.getTtlSeconds()));
+        }
+        return urlMapping;
+    }
+
+    private static boolean isExpiring(ShortenRequest request) {
+        return request.getTtlSeconds() != null && request.getTtlSeconds() > 0;
+    }
 }
@@ -0,0 +1,174 @@
+package com.shortscale.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Caps the calls in flight per operation ("shorten", "redirect", "import") and adapts each cap to the latency of the calls
+// it admits, which is the time they spend on Redis round trips and handing events to Kafka. Every window-ms the
+// window's average latency is compared with a slow long-run average: while the two stay within tolerance the
+// limit grows by about its square root, and once recent calls get slower (Redis degraded, queues building up)
+// the limit shrinks in proportion. A call over the limit is refused at once instead of waiting for a slot.
+// Windows in which fewer than half the permits were used say nothing about the limit and leave it unchanged.
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    private static final int LONG_WINDOWS = 50; // windows the long-run average spans
+
+    private final MeterRegistry meterRegistry;
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final long windowNanos;
+    private final long retryAfterSeconds;
+    private final LongSupplier clock;
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AdaptiveConcurrencyLimiter(MeterRegistry meterRegistry,
+                                      @Value("${shortscale.concurrency.initial-limit:20}") int initialLimit,
+                                      @Value("${shortscale.concurrency.min-limit:4}") int minLimit,
+                                      @Value("${shortscale.concurrency.max-limit:1000}") int maxLimit,
+                                      @Value("${shortscale.concurrency.tolerance:1.5}") double tolerance,
+                                      @Value("${shortscale.concurrency.smoothing:0.2}") double smoothing,
+                                      @Value("${shortscale.concurrency.window-ms:100}") long windowMillis,
+                                      @Value("${shortscale.concurrency.retry-after-seconds:1}") long retryAfterSeconds) {
+        this(meterRegistry, initialLimit, minLimit, maxLimit, tolerance, smoothing, windowMillis, retryAfterSeconds, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyLimiter(MeterRegistry meterRegistry, int initialLimit, int minLimit, int maxLimit, double tolerance,
+                               double smoothing, long windowMillis, long retryAfterSeconds, LongSupplier clock) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Concurrency limits must satisfy 1 <= min-limit <= initial-limit <= max-limit");
+        }
+        if (tolerance < 1 || smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("Concurrency tolerance must be at least 1 and smoothing in (0, 1]");
+        }
+        this.meterRegistry = meterRegistry;
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.clock = clock;
+    }
+
+    // Null when the operation is at its limit; otherwise the caller must close the permit once the call is done
+    public Permit tryAcquire(String operation) {
+        return operation(operation).tryAcquire();
+    }
+
+    public int limit(String operation) {
+        return (int) operation(operation).limit;
+    }
+
+    public int inFlight(String operation) {
+        return operation(operation).inFlight.get();
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    private Operation operation(String name) {
+        Operation operation = operations.get(name);
+        return operation != null ? operation : operations.computeIfAbsent(name, Operation::new);
+    }
+
+    public final class Permit implements AutoCloseable {
+
+        private final Operation operation;
+        private final long startedAt;
+
+        private Permit(Operation operation, long startedAt) {
+            this.operation = operation;
+            this.startedAt = startedAt;
+        }
+
+        @Override
+        public void close() {
+            operation.release(startedAt);
+        }
+    }
+
+    private final class Operation {
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger peakInFlight = new AtomicInteger();
+        private final LongAdder latencyNanos = new LongAdder();
+        private final LongAdder samples = new LongAdder();
+        private final AtomicLong windowStart = new AtomicLong(clock.getAsLong());
+        private final Counter shedCounter;
+        private volatile double limit = initialLimit;
+        private volatile double longLatency; // only written by the thread that closes a window
+
+        Operation(String name) {
+            this.shedCounter = meterRegistry.counter("concurrency_shed_total", "operation", name);
+            Gauge.builder("concurrency_limit", this, operation -> (int) operation.limit).tag("operation", name).register(meterRegistry);
+            Gauge.builder("concurrency_in_flight", inFlight, AtomicInteger::get).tag("operation", name).register(meterRegistry);
+        }
+
+        Permit tryAcquire() {
+            int current;
+            do {
+                current = inFlight.get();
+                if (current >= (int) limit) {
+                    shedCounter.increment();
+                    return null;
+                }
+            } while (!inFlight.compareAndSet(current, current + 1));
+            if (current + 1 > peakInFlight.get()) {
+                peakInFlight.accumulateAndGet(current + 1, Math::max);
+            }
+            return new Permit(this, clock.getAsLong());
+        }
+
+        void release(long startedAt) {
+            long now = clock.getAsLong();
+            inFlight.decrementAndGet();
+            latencyNanos.add(now - startedAt);
+            samples.increment();
+            long started = windowStart.get();
+            if (now - started >= windowNanos && windowStart.compareAndSet(started, now)) {
+                adapt();
+            }
+        }
+
+        private void adapt() {
+            long count = samples.sumThenReset();
+            double latency = (double) latencyNanos.sumThenReset() / Math.max(count, 1);
+            int peak = peakInFlight.getAndSet(inFlight.get());
+            if (count == 0 || latency <= 0) {
+                return;
+            }
+            double longLatency = this.longLatency == 0 ? latency : this.longLatency + (latency - this.longLatency) / LONG_WINDOWS;
+            if (longLatency > 2 * latency) {
+                longLatency *= 0.95; // recovering: let the average come down faster than it would on its own
+            }
+            this.longLatency = longLatency;
+
+            double limit = this.limit;
+            if (peak < limit / 2) {
+                return;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * longLatency / latency));
+            double target = limit * gradient + Math.sqrt(limit);
+            this.limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - smoothing) + target * smoothing));
+        }
+    }
+}
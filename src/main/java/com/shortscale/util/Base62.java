@@ -0,0 +1,52 @@
+package com.shortscale.util;
+
+// Variable-width base62 of the codes issued before ShortCodeCodec; decode still places those links
+public final class Base62 {
+
+    static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+    private static final int BASE = ALPHABET.length();
+    private static final int MAX_CANONICAL_LENGTH = 10; // 62^10 still fits in a long
+
+    private Base62() {
+    }
+
+    public static String encode(long num) {
+        char[] digits = new char[11];
+        int start = digits.length;
+        while (num > 0) {
+            digits[--start] = ALPHABET.charAt((int) (num % BASE));
+            num /= BASE;
+        }
+        return new String(digits, start, digits.length - start);
+    }
+
+    // The number encode() would have produced this string from, or -1 if it is not such a string
+    // (empty, too long, a leading '0', or characters outside the alphabet)
+    public static long decode(String value) {
+        if (value.isEmpty() || value.length() > MAX_CANONICAL_LENGTH || value.charAt(0) == '0') {
+            return -1;
+        }
+        long num = 0;
+        for (int i = 0; i < value.length(); i++) {
+            int digit = digit(value.charAt(i));
+            if (digit < 0) {
+                return -1;
+            }
+            num = num * BASE + digit;
+        }
+        return num;
+    }
+
+    private static int digit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A' + 10;
+        }
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 36;
+        }
+        return -1;
+    }
+}
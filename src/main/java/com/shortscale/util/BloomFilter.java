@@ -0,0 +1,137 @@
+package com.shortscale.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class BloomFilter {
+
+    private final long bitSize;
+    private final int hashFunctions;
+    private final AtomicLongArray words;
+    private final AtomicLong bitCount = new AtomicLong();
+
+    public BloomFilter(long bitSize, int hashFunctions) {
+        if (bitSize < 64 || hashFunctions < 1) {
+            throw new IllegalArgumentException("Bloom filter needs at least 64 bits and one hash function");
+        }
+        this.bitSize = (bitSize + 63) & ~63L; // whole words, so the Redis bitmap is whole bytes too
+        this.hashFunctions = hashFunctions;
+        this.words = new AtomicLongArray(Math.toIntExact(this.bitSize >>> 6));
+    }
+
+    public static BloomFilter create(long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid Bloom filter sizing");
+        }
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int hashes = Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+        return new BloomFilter(bits, hashes);
+    }
+
+    public boolean put(String value) {
+        long h1 = hash(value);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        boolean changed = false;
+        for (int i = 0; i < hashFunctions; i++) {
+            changed |= setBit(index(h1, h2, i));
+        }
+        return changed;
+    }
+
+    public boolean mightContain(String value) {
+        long h1 = hash(value);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < hashFunctions; i++) {
+            long index = index(h1, h2, i);
+            if ((words.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long[] bitIndexes(String value) {
+        long h1 = hash(value);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        long[] indexes = new long[hashFunctions];
+        for (int i = 0; i < hashFunctions; i++) {
+            indexes[i] = index(h1, h2, i);
+        }
+        return indexes;
+    }
+
+    public long bitSize() {
+        return bitSize;
+    }
+
+    public int hashFunctions() {
+        return hashFunctions;
+    }
+
+    public double fillRatio() {
+        return (double) bitCount.get() / bitSize;
+    }
+
+    // Redis bitmaps number bits from the most significant bit of each byte
+    public byte[] toRedisBitmap() {
+        byte[] bytes = new byte[(int) (bitSize >>> 3)];
+        for (int w = 0; w < words.length(); w++) {
+            long word = words.get(w);
+            for (int b = 0; b < 8; b++) {
+                bytes[w * 8 + b] = (byte) (Integer.reverse((int) (word >>> (b * 8)) & 0xFF) >>> 24);
+            }
+        }
+        return bytes;
+    }
+
+    public void mergeRedisBitmap(byte[] bytes) {
+        int length = Math.min(bytes.length, (int) (bitSize >>> 3));
+        for (int i = 0; i < length; i++) {
+            int reversed = Integer.reverse(bytes[i] & 0xFF) >>> 24;
+            if (reversed == 0) {
+                continue;
+            }
+            for (int bit = 0; bit < 8; bit++) {
+                if ((reversed & (1 << bit)) != 0) {
+                    setBit((long) i * 8 + bit);
+                }
+            }
+        }
+    }
+
+    private boolean setBit(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        while (true) {
+            long current = words.get(word);
+            if ((current & mask) != 0) {
+                return false;
+            }
+            if (words.compareAndSet(word, current, current | mask)) {
+                bitCount.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    private long index(long h1, long h2, int i) {
+        return Math.floorMod(h1 + i * h2, bitSize);
+    }
+
+    private static long hash(String value) {
+        long h = 0xCBF29CE484222325L; // FNV-1a over chars, finished with a strong mixer
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,97 @@
+package com.shortscale.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// Retries a call with exponential backoff and full jitter (a random wait between zero and base * 2^(retry - 1),
+// capped at maxBackoff), so failing callers spread out instead of retrying in lock-step. A retry needs a token from
+// the node's RetryBudget, and is skipped when the wait plus another attempt as long as the last one would end past
+// the request's deadline. Either way the last failure is thrown as it is.
+public class BudgetedRetry {
+
+    private final int maxAttempts;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private final long deadlineNanos;
+    private final RetryBudget budget;
+    private final Predicate<RuntimeException> retryable;
+    private final LongSupplier clock;
+    private final Sleeper sleeper;
+    private final LongUnaryOperator jitter;
+    private final Counter allowedCounter;
+    private final Counter deniedCounter;
+    private final Counter deadlineCounter;
+
+    public BudgetedRetry(String name, MeterRegistry meterRegistry, int maxAttempts, long baseBackoffMillis, long maxBackoffMillis,
+                         long deadlineMillis, RetryBudget budget, Predicate<RuntimeException> retryable) {
+        this(name, meterRegistry, maxAttempts, baseBackoffMillis, maxBackoffMillis, deadlineMillis, budget, retryable,
+                System::nanoTime, TimeUnit.NANOSECONDS::sleep, bound -> ThreadLocalRandom.current().nextLong(bound + 1));
+    }
+
+    BudgetedRetry(String name, MeterRegistry meterRegistry, int maxAttempts, long baseBackoffMillis, long maxBackoffMillis,
+                  long deadlineMillis, RetryBudget budget, Predicate<RuntimeException> retryable, LongSupplier clock,
+                  Sleeper sleeper, LongUnaryOperator jitter) {
+        if (maxAttempts < 1 || baseBackoffMillis < 0 || maxBackoffMillis < baseBackoffMillis) {
+            throw new IllegalArgumentException("Retry needs at least one attempt and base-backoff-ms <= max-backoff-ms");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffNanos = TimeUnit.MILLISECONDS.toNanos(baseBackoffMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        this.budget = budget;
+        this.retryable = retryable;
+        this.clock = clock;
+        this.sleeper = sleeper;
+        this.jitter = jitter;
+        this.allowedCounter = meterRegistry.counter("retry_budget_total", "budget", name, "result", "allowed");
+        this.deniedCounter = meterRegistry.counter("retry_budget_total", "budget", name, "result", "denied");
+        this.deadlineCounter = meterRegistry.counter("retry_deadline_skipped_total", "budget", name);
+        Gauge.builder("retry_budget_tokens", budget, RetryBudget::tokens).tag("budget", name).register(meterRegistry);
+    }
+
+    public <T> T execute(Supplier<T> call) {
+        long deadline = clock.getAsLong() + deadlineNanos;
+        for (int attempt = 1; ; attempt++) {
+            long started = clock.getAsLong();
+            try {
+                T result = call.get();
+                budget.deposit();
+                return result;
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts || !retryable.test(e)) {
+                    throw e;
+                }
+                long now = clock.getAsLong();
+                long backoff = jitter.applyAsLong(Math.min(maxBackoffNanos, baseBackoffNanos << Math.min(attempt - 1, 30)));
+                if (now + backoff + (now - started) > deadline) {
+                    deadlineCounter.increment();
+                    throw e;
+                }
+                if (!budget.tryWithdraw()) {
+                    deniedCounter.increment();
+                    throw e;
+                }
+                allowedCounter.increment();
+                try {
+                    sleeper.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface Sleeper {
+        void sleep(long nanos) throws InterruptedException;
+    }
+}
@@ -0,0 +1,45 @@
+package com.shortscale.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Consistent-hash ring: every node is placed at virtualNodes points derived from its name, and a key belongs to
+// the first point at or after its hash, wrapping around. Points depend only on node names, so adding a node takes
+// over about 1/N of the keys, all from existing nodes, and no key moves between the nodes that were already there
+public class ConsistentHashRing<T> {
+
+    private final NavigableMap<Long, T> points = new TreeMap<>();
+
+    public ConsistentHashRing(Map<String, T> nodesByName, int virtualNodes) {
+        if (nodesByName.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A ring needs at least one node and one point per node");
+        }
+        nodesByName.forEach((name, node) -> {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.putIfAbsent(hash(name + "#" + i), node);
+            }
+        });
+    }
+
+    public T nodeFor(String key) {
+        Map.Entry<Long, T> point = points.ceilingEntry(hash(key));
+        return (point != null ? point : points.firstEntry()).getValue();
+    }
+
+    // 64-bit FNV-1a over the UTF-8 bytes, finished with the murmur3 mixer so that similar keys land far apart
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
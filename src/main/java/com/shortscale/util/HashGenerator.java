@@ -1,25 +1,35 @@
 package com.shortscale.util;
 
 import org.springframework.stereotype.Component;
-import java.util.concurrent.atomic.AtomicLong;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @Component
 public class HashGenerator {
-    private static final String BASE62 = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
-    private static final int BASE = BASE62.length();
-    private final AtomicLong counter = new AtomicLong(1);
+    private final IdAllocator idAllocator;
+    private final ShortCodeCodec codec;
+
+    public HashGenerator(IdAllocator idAllocator, ShortCodeCodec codec) {
+        this.idAllocator = idAllocator;
+        this.codec = codec;
+    }
 
     public String generateShortCode() {
-        long id = counter.getAndIncrement();
-        return encode(id);
+        long id = idAllocator.next();
+        return codec.encode(id);
     }
 
-    private String encode(long num) {
-        StringBuilder sb = new StringBuilder();
-        while (num > 0) {
-            sb.append(BASE62.charAt((int) (num % BASE)));
-            num /= BASE;
+    // One contiguous block of ids for a whole batch
+    public List<String> generateShortCodes(int count) {
+        List<String> shortCodes = new ArrayList<>(count);
+        if (count == 0) {
+            return shortCodes;
+        }
+        long first = idAllocator.allocate(count);
+        for (int i = 0; i < count; i++) {
+            shortCodes.add(codec.encode(first + i));
         }
-        return sb.reverse().toString();
+        return shortCodes;
     }
 }
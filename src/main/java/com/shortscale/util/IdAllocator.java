@@ -0,0 +1,181 @@
+package com.shortscale.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Hands out ids from blocks leased from a shared IdBlockSource. Within a block ids come from a lock-free cursor;
+// once half of it is used the next block is leased in the background, so in steady state allocation never waits
+// on the source. Blocks are sized to last about lease-target-ms at the rate the previous one was used. A restart
+// abandons what is left of its block: ids have gaps but never repeat.
+@Component
+public class IdAllocator {
+
+    private final IdBlockSource source;
+    private final long minBlockSize;
+    private final long maxBlockSize;
+    private final long leaseTargetNanos;
+    private final Counter leasesCounter;
+    private final Counter waitsCounter;
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "id-block-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile Block current = new Block(0, 0); // leased on first use, so startup does not need Redis
+    private volatile CompletableFuture<Block> next;
+    private volatile long blockSize;
+
+    public IdAllocator(IdBlockSource source, MeterRegistry meterRegistry,
+                       @Value("${shortscale.ids.min-block-size:100}") long minBlockSize,
+                       @Value("${shortscale.ids.max-block-size:100000}") long maxBlockSize,
+                       @Value("${shortscale.ids.lease-target-ms:5000}") long leaseTargetMillis) {
+        this.source = source;
+        this.minBlockSize = minBlockSize;
+        this.maxBlockSize = maxBlockSize;
+        this.leaseTargetNanos = TimeUnit.MILLISECONDS.toNanos(leaseTargetMillis);
+        this.blockSize = minBlockSize;
+        this.leasesCounter = meterRegistry.counter("id_leases_total");
+        this.waitsCounter = meterRegistry.counter("id_lease_waits_total");
+        Gauge.builder("id_block_size", this, IdAllocator::getBlockSize).register(meterRegistry);
+    }
+
+    public long next() {
+        return allocate(1);
+    }
+
+    // The first of count consecutive ids
+    public long allocate(int count) {
+        while (true) {
+            Block block = current;
+            if (block.end > 0 && count > block.end - block.first) {
+                waitsCounter.increment(); // a batch larger than a block gets its own lease
+                return lease(count).first;
+            }
+            long first = block.cursor.getAndAdd(count);
+            if (first + count <= block.end) {
+                if (first + count > block.prefetchAt && block.prefetched.compareAndSet(false, true)) {
+                    long size = nextBlockSize(block);
+                    next = CompletableFuture.supplyAsync(() -> lease(size), prefetcher);
+                }
+                return first;
+            }
+            advance(block);
+        }
+    }
+
+    public long getBlockSize() {
+        return blockSize;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetcher.shutdownNow();
+    }
+
+    // The lock only guards the hand-over; waiting for a lease happens outside it. Threads that find the block
+    // exhausted share one pending lease, and the first to get it installs it
+    private void advance(Block exhausted) {
+        CompletableFuture<Block> pending;
+        boolean alreadyLeasing;
+        lock.lock();
+        try {
+            if (current != exhausted) {
+                return; // another thread already moved on
+            }
+            pending = next;
+            alreadyLeasing = pending != null && !pending.isCompletedExceptionally();
+            if (!alreadyLeasing) {
+                long size = nextBlockSize(exhausted);
+                pending = CompletableFuture.supplyAsync(() -> lease(size), prefetcher);
+                next = pending;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!alreadyLeasing || !pending.isDone()) {
+            waitsCounter.increment();
+        }
+        Block block;
+        try {
+            block = pending.join();
+        } catch (CompletionException e) {
+            clearNext(pending);
+            if (alreadyLeasing) {
+                return; // the caller comes back and leases afresh; fails the allocation if the source is still unreachable
+            }
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        lock.lock();
+        try {
+            if (current == exhausted) {
+                block.startedAt = System.nanoTime(); // a prefetched block is only used from now on
+                current = block;
+            }
+            if (next == pending) {
+                next = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void clearNext(CompletableFuture<Block> failed) {
+        lock.lock();
+        try {
+            if (next == failed) {
+                next = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Enough ids for leaseTargetNanos at the rate this block is being used
+    private long nextBlockSize(Block block) {
+        if (block.end == 0) {
+            return blockSize;
+        }
+        long used = Math.min(block.cursor.get(), block.end) - block.first;
+        long elapsed = Math.max(1, System.nanoTime() - block.startedAt);
+        long size = (long) Math.min(maxBlockSize, Math.max(minBlockSize, (double) used * leaseTargetNanos / elapsed));
+        blockSize = size;
+        return size;
+    }
+
+    private Block lease(long count) {
+        long last = source.lease(count);
+        leasesCounter.increment();
+        return new Block(last - count + 1, last + 1);
+    }
+
+    // Ids [first, end); the cursor may run past end when threads race for the last ids
+    private static final class Block {
+        final long first;
+        final long end;
+        final long prefetchAt;
+        volatile long startedAt = System.nanoTime();
+        final AtomicLong cursor;
+        final AtomicBoolean prefetched = new AtomicBoolean();
+
+        Block(long first, long end) {
+            this.first = first;
+            this.end = end;
+            this.prefetchAt = first + (end - first) / 2;
+            this.cursor = new AtomicLong(first);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.shortscale.util;
+
+// Where IdAllocator leases its blocks: a counter shared by every node, so no two nodes or restarts get the same ids
+@FunctionalInterface
+public interface IdBlockSource {
+
+    // Reserves count ids and returns the last one; the block is [last - count + 1, last]
+    long lease(long count);
+}
@@ -0,0 +1,49 @@
+package com.shortscale.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-key counters that are drained in batches. Draining must be done by one thread at a time.
+// Each key is a LongAdder, so threads adding to the same hot key spread over striped cells instead of one CAS target
+public class KeyedAccumulator {
+
+    private final Map<String, LongAdder> cells = new ConcurrentHashMap<>();
+
+    public void add(String key, long delta) {
+        LongAdder cell = cells.get(key);
+        if (cell == null) {
+            cell = cells.computeIfAbsent(key, k -> new LongAdder());
+        }
+        cell.add(delta);
+        // Retired by a drain meanwhile: whatever the drain did not collect from it is moved to the key's live cell.
+        // sumThenReset takes each stripe once, so a delta is collected either here or by the drain, never by both
+        if (cells.get(key) != cell) {
+            long stranded = cell.sumThenReset();
+            if (stranded != 0) {
+                add(key, stranded);
+            }
+        }
+    }
+
+    public long pending(String key) {
+        LongAdder cell = cells.get(key);
+        return cell != null ? cell.sum() : 0;
+    }
+
+    public Map<String, Long> drain() {
+        Map<String, Long> batch = new HashMap<>();
+        for (Map.Entry<String, LongAdder> entry : cells.entrySet()) {
+            LongAdder cell = entry.getValue();
+            long delta = cell.sumThenReset();
+            if (delta == 0 && cells.remove(entry.getKey(), cell)) {
+                delta = cell.sumThenReset(); // idle since the last drain; adds that raced with the removal
+            }
+            if (delta != 0) {
+                batch.put(entry.getKey(), delta);
+            }
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,173 @@
+package com.shortscale.util;
+
+import java.nio.ByteBuffer;
+
+// Open-addressing map from non-negative long keys to non-negative long values, held in direct memory so its
+// entries are invisible to the garbage collector. Linear probing with backward-shift deletion keeps lookups free
+// of tombstones. Slots are [key + 1][value], so freshly allocated (zeroed) memory reads as empty.
+// Not thread-safe: callers serialize writes and exclude them from reads.
+public class OffHeapLongMap {
+
+    public static final long MISSING = -1;
+
+    private static final int SLOT_BYTES = 16;
+    private static final int PAGE_SHIFT = 20; // 16 MB pages, so no single buffer comes near the 2 GB limit
+    private static final long PAGE_SLOTS = 1L << PAGE_SHIFT;
+    private static final double MAX_LOAD = 0.7;
+
+    private ByteBuffer[] pages;
+    private long capacity;
+    private long mask;
+    private long size;
+
+    public OffHeapLongMap(long expectedEntries) {
+        allocate(tableSizeFor((long) (Math.max(expectedEntries, 8) / MAX_LOAD) + 1));
+    }
+
+    public long get(long key) {
+        long stored = stored(key);
+        for (long slot = home(stored); ; slot = (slot + 1) & mask) {
+            long found = keyAt(slot);
+            if (found == 0) {
+                return MISSING;
+            }
+            if (found == stored) {
+                return valueAt(slot);
+            }
+        }
+    }
+
+    // The previous value, or MISSING
+    public long put(long key, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Values must not be negative");
+        }
+        long stored = stored(key);
+        if (size + 1 > capacity * MAX_LOAD) {
+            resize(capacity * 2);
+        }
+        for (long slot = home(stored); ; slot = (slot + 1) & mask) {
+            long found = keyAt(slot);
+            if (found == 0) {
+                write(slot, stored, value);
+                size++;
+                return MISSING;
+            }
+            if (found == stored) {
+                long previous = valueAt(slot);
+                write(slot, stored, value);
+                return previous;
+            }
+        }
+    }
+
+    // The removed value, or MISSING
+    public long remove(long key) {
+        long stored = stored(key);
+        long slot = home(stored);
+        while (true) {
+            long found = keyAt(slot);
+            if (found == 0) {
+                return MISSING;
+            }
+            if (found == stored) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        long removed = valueAt(slot);
+        // Pull later entries of the probe run back into the gap, so every entry stays reachable from its home slot
+        long gap = slot;
+        for (long next = (gap + 1) & mask; ; next = (next + 1) & mask) {
+            long found = keyAt(next);
+            if (found == 0) {
+                break;
+            }
+            if (((next - home(found)) & mask) >= ((next - gap) & mask)) {
+                write(gap, found, valueAt(next));
+                gap = next;
+            }
+        }
+        write(gap, 0, 0);
+        size--;
+        return removed;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    public long memoryBytes() {
+        return capacity * SLOT_BYTES;
+    }
+
+    private void resize(long newCapacity) {
+        ByteBuffer[] oldPages = pages;
+        long oldCapacity = capacity;
+        allocate(newCapacity);
+        for (long slot = 0; slot < oldCapacity; slot++) {
+            ByteBuffer page = oldPages[(int) (slot >>> PAGE_SHIFT)];
+            int position = (int) (slot & (PAGE_SLOTS - 1)) * SLOT_BYTES;
+            long stored = page.getLong(position);
+            if (stored != 0) {
+                long target = home(stored);
+                while (keyAt(target) != 0) {
+                    target = (target + 1) & mask;
+                }
+                write(target, stored, page.getLong(position + 8));
+            }
+        }
+    }
+
+    private void allocate(long newCapacity) {
+        int pageSlots = (int) Math.min(newCapacity, PAGE_SLOTS);
+        ByteBuffer[] newPages = new ByteBuffer[(int) (newCapacity / pageSlots)];
+        for (int i = 0; i < newPages.length; i++) {
+            newPages[i] = ByteBuffer.allocateDirect(pageSlots * SLOT_BYTES);
+        }
+        pages = newPages;
+        capacity = newCapacity;
+        mask = newCapacity - 1;
+    }
+
+    private long keyAt(long slot) {
+        return pages[(int) (slot >>> PAGE_SHIFT)].getLong((int) (slot & (PAGE_SLOTS - 1)) * SLOT_BYTES);
+    }
+
+    private long valueAt(long slot) {
+        return pages[(int) (slot >>> PAGE_SHIFT)].getLong((int) (slot & (PAGE_SLOTS - 1)) * SLOT_BYTES + 8);
+    }
+
+    private void write(long slot, long stored, long value) {
+        ByteBuffer page = pages[(int) (slot >>> PAGE_SHIFT)];
+        int position = (int) (slot & (PAGE_SLOTS - 1)) * SLOT_BYTES;
+        page.putLong(position, stored);
+        page.putLong(position + 8, value);
+    }
+
+    private long home(long stored) {
+        // murmur3 finalizer, so sequential ids spread over the table instead of forming one long run
+        long h = stored;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h & mask;
+    }
+
+    private static long stored(long key) {
+        if (key < 0 || key == Long.MAX_VALUE) {
+            throw new IllegalArgumentException("Keys must be between 0 and Long.MAX_VALUE - 1");
+        }
+        return key + 1;
+    }
+
+    private static long tableSizeFor(long slots) {
+        return Long.highestOneBit(slots - 1) << 1;
+    }
+}
@@ -0,0 +1,10 @@
+package com.shortscale.util;
+
+// Where RateLimiter leases permits in distributed mode: one rate per key, shared by every node
+@FunctionalInterface
+public interface PermitSource {
+
+    // Takes up to wanted of key's permits under a limit of permits per period. Returns how many were taken or,
+    // when none is free, minus the milliseconds until one will be
+    long lease(String key, long permits, long periodNanos, int wanted);
+}
@@ -0,0 +1,21 @@
+package com.shortscale.util;
+
+// How RateLimiter decides whether a key may make another request. A key's whole state is one long, so a decision
+// is a single compare-and-set; a key seen for the first time has state 0. Times are nanoseconds on a monotonic clock.
+public interface RateLimitAlgorithm {
+
+    // The state after taking one permit at now, or state itself if none is free
+    long acquire(long state, long now);
+
+    // Whether the key has used more than half of its allowance at now, so that forgetting its state would hand it
+    // back a real burst
+    boolean isBusy(long state, long now);
+
+    static RateLimitAlgorithm create(String name, long permits, long periodNanos) {
+        return switch (name) {
+            case "token-bucket" -> new TokenBucket(permits, periodNanos);
+            case "sliding-window" -> new SlidingWindowCounter(permits, periodNanos);
+            default -> throw new IllegalArgumentException("Unknown rate limit algorithm '" + name + "'");
+        };
+    }
+}
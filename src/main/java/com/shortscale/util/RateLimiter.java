@@ -1,54 +1,301 @@
 package com.shortscale.util;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Supplier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
 
+// Per-client request limits for the API endpoints. Each endpoint has its own limit, "permits/period" from
+// shortscale.rate-limit.endpoints ("shorten=10/1m,bulk=2/1m") or the default, and its own keys. A key's state
+// is one AtomicLong updated by compare-and-set, so concurrent requests never lock.
+// Keys live in two generations that rotate every period (at least idle-eviction-ms), or early once max-keys new
+// keys have arrived. A key not seen for a whole generation is dropped with it; after that long it would be allowed
+// a full burst again anyway. A key that has used more than half of its allowance is carried into the new generation
+// instead (at most half of max-keys of them), so a spray of new keys cannot rotate a client over its limit back to
+// a full burst. Memory is bounded by the keys active in the last two generations.
+// In distributed mode the limit is shared by all nodes through the PermitSource. Each node leases a few permits
+// of a key at a time and serves them locally until they run out or lease-ttl-ms passes, so most requests never
+// wait on Redis. If Redis fails, on-failure decides: "local" falls back to this node's own limit, "deny" refuses.
 @Component
 public class RateLimiter {
-    private final Map<String, RequestInfo> requestCounts = new ConcurrentHashMap<>();
-    private final int maxRequests = 10; // per minute
-    private final long windowSeconds = 60;
-    private final Supplier<LocalDateTime> currentTime;
 
-    public RateLimiter() {
-        this(LocalDateTime::now);
+    private static final Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+    private static final long REDIS_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1); // after a failure, Redis is skipped this long
+    private static final int LEASE_COUNT_BITS = 20;
+    private static final long LEASE_COUNT_MASK = (1L << LEASE_COUNT_BITS) - 1;
+
+    private final MeterRegistry meterRegistry;
+    private final PermitSource permitSource;
+    private final String algorithm;
+    private final Limit defaultLimit;
+    private final Map<String, Limit> endpointLimits;
+    private final long idleEvictionNanos;
+    private final long maxKeys;
+    private final boolean distributed;
+    private final int leaseSize;
+    private final long leaseTtlMillis;
+    private final boolean failOpen;
+    private final LongSupplier clock;
+    private final long origin;
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private volatile long redisRetryAt;
+
+    @Autowired
+    public RateLimiter(MeterRegistry meterRegistry, PermitSource permitSource,
+                       @Value("${shortscale.rate-limit.algorithm:token-bucket}") String algorithm,
+                       @Value("${shortscale.rate-limit.default:10/1m}") String defaultLimit,
+                       @Value("${shortscale.rate-limit.endpoints:}") String endpointLimits,
+                       @Value("${shortscale.rate-limit.idle-eviction-ms:60000}") long idleEvictionMillis,
+                       @Value("${shortscale.rate-limit.max-keys:1000000}") long maxKeys,
+                       @Value("${shortscale.rate-limit.mode:local}") String mode,
+                       @Value("${shortscale.rate-limit.lease-size:10}") int leaseSize,
+                       @Value("${shortscale.rate-limit.lease-ttl-ms:1000}") long leaseTtlMillis,
+                       @Value("${shortscale.rate-limit.on-failure:local}") String onFailure) {
+        this(meterRegistry, permitSource, algorithm, defaultLimit, endpointLimits, idleEvictionMillis, maxKeys, mode, leaseSize,
+                leaseTtlMillis, onFailure, System::nanoTime);
+    }
+
+    RateLimiter(MeterRegistry meterRegistry, String algorithm, String defaultLimit, String endpointLimits,
+                long idleEvictionMillis, long maxKeys, LongSupplier clock) {
+        this(meterRegistry, null, algorithm, defaultLimit, endpointLimits, idleEvictionMillis, maxKeys, "local", 1, 0, "local", clock);
+    }
+
+    RateLimiter(MeterRegistry meterRegistry, PermitSource permitSource, String algorithm, String defaultLimit, String endpointLimits,
+                long idleEvictionMillis, long maxKeys, String mode, int leaseSize, long leaseTtlMillis, String onFailure, LongSupplier clock) {
+        if (!mode.equals("local") && !mode.equals("distributed")) {
+            throw new IllegalArgumentException("Unknown rate limit mode '" + mode + "'");
+        }
+        if (!onFailure.equals("local") && !onFailure.equals("deny")) {
+            throw new IllegalArgumentException("Unknown rate limit failure behavior '" + onFailure + "'");
+        }
+        this.meterRegistry = meterRegistry;
+        this.permitSource = permitSource;
+        this.algorithm = algorithm;
+        this.defaultLimit = Limit.parse(defaultLimit);
+        this.endpointLimits = parseEndpointLimits(endpointLimits);
+        this.idleEvictionNanos = TimeUnit.MILLISECONDS.toNanos(idleEvictionMillis);
+        this.maxKeys = maxKeys;
+        this.distributed = mode.equals("distributed");
+        this.leaseSize = leaseSize;
+        this.leaseTtlMillis = leaseTtlMillis;
+        this.failOpen = onFailure.equals("local");
+        this.clock = clock;
+        this.origin = clock.getAsLong() - 1; // keeps every time positive, so a fresh state of 0 lies in the past
+        RateLimitAlgorithm.create(algorithm, this.defaultLimit.permits(), this.defaultLimit.periodNanos()); // fail at startup
+        this.endpointLimits.keySet().forEach(this::endpoint);
+    }
+
+    public boolean isAllowed(String endpoint, String key) {
+        return endpoint(endpoint).tryAcquire(key, clock.getAsLong() - origin);
+    }
+
+    // Whether isAllowed may wait on the PermitSource
+    public boolean isDistributed() {
+        return distributed;
+    }
+
+    public long trackedKeys(String endpoint) {
+        Endpoint state = endpoint(endpoint);
+        return state.local.size() + state.leases.size();
+    }
+
+    private Endpoint endpoint(String name) {
+        Endpoint endpoint = endpoints.get(name);
+        return endpoint != null ? endpoint : endpoints.computeIfAbsent(name, Endpoint::new);
+    }
+
+    private static Map<String, Limit> parseEndpointLimits(String spec) {
+        Map<String, Limit> limits = new HashMap<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int equals = entry.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Rate limit '" + entry.trim() + "' is not endpoint=permits/period");
+            }
+            limits.put(entry.substring(0, equals).trim(), Limit.parse(entry.substring(equals + 1)));
+        }
+        return limits;
     }
 
-    public RateLimiter(Supplier<LocalDateTime> currentTime) {
-        this.currentTime = currentTime;
+    record Limit(long permits, long periodNanos) {
+
+        static Limit parse(String spec) {
+            int slash = spec.indexOf('/');
+            if (slash <= 0) {
+                throw new IllegalArgumentException("Rate limit '" + spec.trim() + "' is not permits/period");
+            }
+            return new Limit(Long.parseLong(spec.substring(0, slash).trim()),
+                    DurationStyle.detectAndParse(spec.substring(slash + 1).trim()).toNanos());
+        }
     }
 
-    public boolean isAllowed(String key) {
-        LocalDateTime now = currentTime.get();
-        RequestInfo info = requestCounts.get(key);
-        if (info == null) {
-            requestCounts.put(key, new RequestInfo(1, now));
-            return true;
+    private final class Endpoint {
+        final String name;
+        final Limit limit;
+        final RateLimitAlgorithm algorithm;
+        final int leaseSize;
+        final KeyTable local;
+        final KeyTable leases;
+        final Counter limitedCounter;
+        final Counter leasesCounter;
+        final Counter fallbacksCounter;
+
+        Endpoint(String name) {
+            this.name = name;
+            this.limit = endpointLimits.getOrDefault(name, defaultLimit);
+            this.algorithm = RateLimitAlgorithm.create(RateLimiter.this.algorithm, limit.permits(), limit.periodNanos());
+            // A tenth of the limit at most, so one node cannot hold most of a client's allowance
+            this.leaseSize = (int) Math.max(1, Math.min(RateLimiter.this.leaseSize, limit.permits() / 10));
+            long now = clock.getAsLong() - origin;
+            long generationNanos = Math.max(limit.periodNanos(), idleEvictionNanos);
+            this.local = new KeyTable(generationNanos, now, algorithm);
+            this.leases = new KeyTable(generationNanos, now, null); // the source keeps the limit; a lease is only a cache
+            this.limitedCounter = meterRegistry.counter("rate_limited_total", "endpoint", name);
+            this.leasesCounter = meterRegistry.counter("rate_limit_leases_total", "endpoint", name);
+            this.fallbacksCounter = meterRegistry.counter("rate_limit_fallbacks_total", "endpoint", name);
+            Gauge.builder("rate_limiter_keys", this, endpoint -> endpoint.local.size() + endpoint.leases.size())
+                    .tag("endpoint", name).register(meterRegistry);
+        }
+
+        boolean tryAcquire(String key, long now) {
+            boolean allowed = distributed ? tryLease(key, now) : tryLocal(key, now);
+            if (!allowed) {
+                limitedCounter.increment();
+            }
+            return allowed;
         }
-        long secondsSince = ChronoUnit.SECONDS.between(info.timestamp, now);
-        if (secondsSince > windowSeconds) {
-            requestCounts.put(key, new RequestInfo(1, now));
-            return true;
+
+        private boolean tryLocal(String key, long now) {
+            AtomicLong state = local.state(key, now);
+            while (true) {
+                long before = state.get();
+                long after = algorithm.acquire(before, now);
+                if (after == before) {
+                    return false;
+                }
+                if (state.compareAndSet(before, after)) {
+                    return true;
+                }
+            }
         }
-        if (info.count >= maxRequests) {
+
+        // The lease state packs the millisecond it is valid until with the permits left. Permits left at 0 before
+        // that millisecond means the source refused, and asking again is pointless until then; a state of 0 is
+        // no lease at all.
+        private boolean tryLease(String key, long now) {
+            AtomicLong lease = leases.state(key, now);
+            long nowMillis = now / 1_000_000;
+            while (true) {
+                long state = lease.get();
+                long remaining = state & LEASE_COUNT_MASK;
+                if (nowMillis >= state >>> LEASE_COUNT_BITS) {
+                    break;
+                }
+                if (remaining == 0) {
+                    return false;
+                }
+                if (lease.compareAndSet(state, remaining == 1 ? 0 : state - 1)) {
+                    return true;
+                }
+            }
+            if (now < redisRetryAt) {
+                return fallback(key, now);
+            }
+            long granted;
+            try {
+                granted = permitSource.lease(name + ":" + key, limit.permits(), limit.periodNanos(), leaseSize);
+            } catch (RuntimeException e) {
+                redisRetryAt = now + REDIS_RETRY_NANOS;
+                logger.warn("Distributed rate limit unavailable, {} for {} ms: {}", failOpen ? "limiting locally" : "denying requests",
+                        TimeUnit.NANOSECONDS.toMillis(REDIS_RETRY_NANOS), e.getMessage());
+                return fallback(key, now);
+            }
+            leasesCounter.increment();
+            // Concurrent leases for the same key overwrite each other's spare permits; dropping them only under-uses the limit
+            if (granted > 0) {
+                lease.set(granted == 1 ? 0 : (nowMillis + leaseTtlMillis) << LEASE_COUNT_BITS | Math.min(granted - 1, LEASE_COUNT_MASK));
+                return true;
+            }
+            lease.set((nowMillis - granted) << LEASE_COUNT_BITS);
             return false;
         }
-        info.count++;
-        return true;
+
+        private boolean fallback(String key, long now) {
+            fallbacksCounter.increment();
+            return failOpen && tryLocal(key, now);
+        }
     }
 
-    private static class RequestInfo {
-        int count;
-        LocalDateTime timestamp;
+    private record Generations(Map<String, AtomicLong> current, Map<String, AtomicLong> previous, long startedAt) {
+    }
+
+    private final class KeyTable {
+        final long generationNanos;
+        final RateLimitAlgorithm keepBusy;
+        final AtomicReference<Generations> generations;
+
+        KeyTable(long generationNanos, long now, RateLimitAlgorithm keepBusy) {
+            this.generationNanos = generationNanos;
+            this.keepBusy = keepBusy;
+            this.generations = new AtomicReference<>(new Generations(new ConcurrentHashMap<>(), Map.of(), now));
+        }
+
+        AtomicLong state(String key, long now) {
+            Generations current = generations.get();
+            if (now - current.startedAt() >= generationNanos) {
+                current = rotate(current, now);
+            }
+            AtomicLong state = current.current().get(key);
+            return state != null ? state : admit(current, key, now);
+        }
+
+        long size() {
+            Generations current = generations.get();
+            return current.current().size() + current.previous().size();
+        }
+
+        // A key seen in the last generation keeps its state; a new one may force an early rotation to stay bounded
+        private AtomicLong admit(Generations current, String key, long now) {
+            AtomicLong state = current.previous().get(key);
+            if (state == null && current.current().size() >= maxKeys) {
+                current = rotate(current, now);
+            }
+            AtomicLong admitted = state != null ? state : new AtomicLong();
+            AtomicLong existing = current.current().putIfAbsent(key, admitted);
+            return existing != null ? existing : admitted;
+        }
 
-        RequestInfo(int count, LocalDateTime timestamp) {
-            this.count = count;
-            this.timestamp = timestamp;
+        // A request still holding the old generations may add a key to the map that just became previous; it is
+        // found there and carried over on its next request
+        private Generations rotate(Generations expected, long now) {
+            Map<String, AtomicLong> carried = new ConcurrentHashMap<>();
+            if (keepBusy != null) {
+                for (Map.Entry<String, AtomicLong> entry : expected.previous().entrySet()) {
+                    if (carried.size() >= maxKeys / 2) {
+                        break;
+                    }
+                    if (keepBusy.isBusy(entry.getValue().get(), now) && !expected.current().containsKey(entry.getKey())) {
+                        carried.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            Generations next = new Generations(carried, expected.current(), now);
+            return generations.compareAndSet(expected, next) ? next : generations.get();
         }
     }
 }
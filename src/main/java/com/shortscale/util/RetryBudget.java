@@ -0,0 +1,50 @@
+package com.shortscale.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Caps retries at a fraction of successful calls: every success deposits ratio of a token, up to maxTokens, and
+// every retry withdraws a whole one. When a dependency starts failing, successes stop paying for retries and the
+// node falls back to single attempts after at most maxTokens retries, instead of multiplying the load on it.
+// Tokens are kept in thousandths in one AtomicLong, so deposits and withdrawals never lock.
+public class RetryBudget {
+
+    private static final long UNIT = 1_000;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+
+    public RetryBudget(double ratio, int maxTokens) {
+        if (ratio <= 0 || ratio > 1 || maxTokens < 1) {
+            throw new IllegalArgumentException("Retry budget needs a ratio in (0, 1] and at least one token");
+        }
+        this.deposit = Math.round(ratio * UNIT);
+        this.capacity = maxTokens * UNIT;
+        this.balance = new AtomicLong(capacity); // starts full, so a fresh node can retry
+    }
+
+    public void deposit() {
+        long current;
+        do {
+            current = balance.get();
+            if (current == capacity) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(capacity, current + deposit)));
+    }
+
+    public boolean tryWithdraw() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < UNIT) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - UNIT));
+        return true;
+    }
+
+    public double tokens() {
+        return (double) balance.get() / UNIT;
+    }
+}
@@ -0,0 +1,150 @@
+package com.shortscale.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Generated short codes: the id goes through a keyed permutation (a four-round Feistel network over 48 bits,
+// cycle-walked into the 62^8 possible codes) and is written as exactly WIDTH base62 characters. Consecutive ids
+// give unrelated codes, so they cannot be enumerated, yet every code maps back to exactly one id. Encoding into a
+// caller's buffer and decoding allocate nothing.
+@Component
+public class ShortCodeCodec {
+
+    public static final int WIDTH = 8;
+    public static final long MAX_ID = 218_340_105_584_895L; // 62^8 - 1
+
+    private static final int BASE = 62;
+    private static final int HALF_BITS = 24;
+    private static final long HALF_MASK = (1L << HALF_BITS) - 1;
+    private static final byte[] DIGITS = Base62.ALPHABET.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < DIGITS.length; i++) {
+            VALUES[DIGITS[i]] = (byte) i;
+        }
+    }
+
+    private final int[] roundKeys = new int[4];
+
+    // Changing the key changes the code of every id, so it must stay fixed once codes have been issued
+    public ShortCodeCodec(@Value("${shortscale.codes.key:2685821657736338717}") long key) {
+        long state = key;
+        for (int i = 0; i < roundKeys.length; i++) {
+            state += 0x9e3779b97f4a7c15L; // splitmix64
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            roundKeys[i] = (int) (z ^ (z >>> 31));
+        }
+    }
+
+    public String encode(long id) {
+        byte[] code = new byte[WIDTH];
+        encode(id, code, 0);
+        return new String(code, StandardCharsets.US_ASCII);
+    }
+
+    public void encode(long id, byte[] destination, int offset) {
+        long value = scramble(id);
+        for (int i = WIDTH - 1; i >= 0; i--) {
+            destination[offset + i] = DIGITS[(int) (value % BASE)];
+            value /= BASE;
+        }
+    }
+
+    public void encode(long id, char[] destination, int offset) {
+        long value = scramble(id);
+        for (int i = WIDTH - 1; i >= 0; i--) {
+            destination[offset + i] = (char) DIGITS[(int) (value % BASE)];
+            value /= BASE;
+        }
+    }
+
+    // The id this code was generated from, or -1 if it is not WIDTH base62 characters
+    public long decode(CharSequence code) {
+        if (code.length() != WIDTH) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < WIDTH; i++) {
+            char c = code.charAt(i);
+            int digit = c < VALUES.length ? VALUES[c] : -1;
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * BASE + digit;
+        }
+        return unscramble(value);
+    }
+
+    public long decode(byte[] code, int offset) {
+        long value = 0;
+        for (int i = 0; i < WIDTH; i++) {
+            byte b = code[offset + i];
+            int digit = b >= 0 ? VALUES[b] : -1;
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * BASE + digit;
+        }
+        return unscramble(value);
+    }
+
+    // The permutation is over 2^48 values; applying it again until the result fits keeps it a bijection on 0..MAX_ID
+    private long scramble(long id) {
+        if (id < 0 || id > MAX_ID) {
+            throw new IllegalArgumentException("Id " + id + " is outside 0.." + MAX_ID);
+        }
+        long value = permute(id);
+        while (value > MAX_ID) {
+            value = permute(value);
+        }
+        return value;
+    }
+
+    private long unscramble(long value) {
+        long id = invert(value);
+        while (id > MAX_ID) {
+            id = invert(id);
+        }
+        return id;
+    }
+
+    private long permute(long value) {
+        long left = value >>> HALF_BITS;
+        long right = value & HALF_MASK;
+        for (int roundKey : roundKeys) {
+            long mixed = left ^ round(right, roundKey);
+            left = right;
+            right = mixed;
+        }
+        return left << HALF_BITS | right;
+    }
+
+    private long invert(long value) {
+        long left = value >>> HALF_BITS;
+        long right = value & HALF_MASK;
+        for (int i = roundKeys.length - 1; i >= 0; i--) {
+            long previous = right ^ round(left, roundKeys[i]);
+            right = left;
+            left = previous;
+        }
+        return left << HALF_BITS | right;
+    }
+
+    // murmur3's 32-bit finalizer over the half and the round key, cut to a half
+    private static long round(long half, int roundKey) {
+        int h = (int) half * 0x9e3779b1 ^ roundKey;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & HALF_MASK;
+    }
+}
@@ -0,0 +1,57 @@
+package com.shortscale.util;
+
+// Counts permits in fixed windows of one period and weighs the previous window's count by how much of it still
+// overlaps the period ending now, which smooths the double burst a plain fixed window allows at its edges.
+// The state packs the window number (low 24 bits, enough to tell the current window from the previous and older
+// ones), the previous window's count and the current one's (20 bits each).
+public class SlidingWindowCounter implements RateLimitAlgorithm {
+
+    public static final long MAX_PERMITS = (1 << 20) - 1;
+
+    private static final long COUNT_MASK = MAX_PERMITS;
+    private static final long WINDOW_MASK = (1L << 24) - 1;
+
+    private final long permits;
+    private final long period;
+
+    public SlidingWindowCounter(long permits, long periodNanos) {
+        if (permits < 1 || permits > MAX_PERMITS || periodNanos < 1) {
+            throw new IllegalArgumentException("Cannot grant " + permits + " permits per " + periodNanos + " ns");
+        }
+        this.permits = permits;
+        this.period = periodNanos;
+    }
+
+    @Override
+    public long acquire(long state, long now) {
+        long window = now / period;
+        long previous = state >>> 20 & COUNT_MASK;
+        long current = state & COUNT_MASK;
+        long age = (window - (state >>> 40)) & WINDOW_MASK;
+        if (age == 1) {
+            previous = current;
+            current = 0;
+        } else if (age != 0) {
+            previous = 0;
+            current = 0;
+        }
+        if (previous * overlap(now, window) + current + 1 > permits) {
+            return state;
+        }
+        return (window & WINDOW_MASK) << 40 | previous << 20 | current + 1;
+    }
+
+    @Override
+    public boolean isBusy(long state, long now) {
+        long window = now / period;
+        long age = (window - (state >>> 40)) & WINDOW_MASK;
+        long previous = age == 0 ? state >>> 20 & COUNT_MASK : age == 1 ? state & COUNT_MASK : 0;
+        long current = age == 0 ? state & COUNT_MASK : 0;
+        return 2 * (previous * overlap(now, window) + current) > permits;
+    }
+
+    // The share of the previous window the period ending now still covers
+    private double overlap(long now, long window) {
+        return (double) (period - (now - window * period)) / period;
+    }
+}
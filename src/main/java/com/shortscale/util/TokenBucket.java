@@ -0,0 +1,29 @@
+package com.shortscale.util;
+
+// A bucket of permits that refills evenly over the period. The state is the time at which the bucket is full
+// again: every permit taken pushes it one refill interval further out, and a permit is free as long as that stays
+// within one period of now. Bursts of up to permits are allowed after a quiet period.
+public class TokenBucket implements RateLimitAlgorithm {
+
+    private final long interval;
+    private final long period;
+
+    public TokenBucket(long permits, long periodNanos) {
+        if (permits < 1 || periodNanos < permits) {
+            throw new IllegalArgumentException("Cannot grant " + permits + " permits per " + periodNanos + " ns");
+        }
+        this.interval = periodNanos / permits;
+        this.period = periodNanos;
+    }
+
+    @Override
+    public long acquire(long state, long now) {
+        long fullAt = Math.max(state, now) + interval;
+        return fullAt - now <= period ? fullAt : state;
+    }
+
+    @Override
+    public boolean isBusy(long state, long now) {
+        return state - now > period / 2;
+    }
+}
@@ -0,0 +1,102 @@
+package com.shortscale.analytics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+
+public class AnalyticsBroadcasterTest {
+
+    private final SimpMessagingTemplate messagingTemplate = Mockito.mock(SimpMessagingTemplate.class);
+    private final ClickCounter clickCounter = Mockito.mock(ClickCounter.class);
+
+    @Test
+    public void shouldSendOneCoalescedUpdatePerLinkPerTick() {
+        AnalyticsBroadcaster broadcaster = new AnalyticsBroadcaster(messagingTemplate, clickCounter, new SimpleMeterRegistry(), 100, 1_000);
+        Mockito.when(clickCounter.getClickCounts(anyList())).thenReturn(Map.of("abc", 42L));
+
+        for (int i = 0; i < 1000; i++) {
+            broadcaster.recordClick("abc");
+        }
+        broadcaster.broadcast();
+
+        Map<String, Object> update = Map.of("shortCode", "abc", "clickCount", 42L, "delta", 1000L);
+        Mockito.verify(messagingTemplate).convertAndSend("/topic/analytics/abc", (Object) update);
+        Mockito.verify(messagingTemplate).convertAndSend("/topic/analytics", (Object) update); // same shape as before, once per tick
+        Mockito.verifyNoMoreInteractions(messagingTemplate);
+    }
+
+    @Test
+    public void shouldNotSendAnythingWithoutClicks() {
+        AnalyticsBroadcaster broadcaster = new AnalyticsBroadcaster(messagingTemplate, clickCounter, new SimpleMeterRegistry(), 100, 1_000);
+
+        broadcaster.broadcast();
+
+        Mockito.verifyNoInteractions(messagingTemplate, clickCounter);
+    }
+
+    @Test
+    public void shouldBoundLinksPerTickAndCarryOverTheRest() {
+        AnalyticsBroadcaster broadcaster = new AnalyticsBroadcaster(messagingTemplate, clickCounter, new SimpleMeterRegistry(), 2, 1_000);
+        Mockito.when(clickCounter.getClickCounts(anyList())).thenReturn(Map.of());
+
+        broadcaster.recordClick("a");
+        broadcaster.recordClick("b");
+        broadcaster.recordClick("c");
+        broadcaster.broadcast();
+
+        Mockito.verify(messagingTemplate, Mockito.times(2)).convertAndSend(eq("/topic/analytics"), any(Object.class));
+        Mockito.verify(messagingTemplate, Mockito.never()).convertAndSend(eq("/topic/analytics/c"), any(Object.class));
+
+        Mockito.clearInvocations(messagingTemplate);
+        broadcaster.broadcast();
+
+        Mockito.verify(messagingTemplate).convertAndSend(eq("/topic/analytics"), any(Object.class));
+        Mockito.verify(messagingTemplate).convertAndSend(eq("/topic/analytics/c"), any(Object.class));
+    }
+
+    @Test
+    public void shouldDropTheOldestLinksWhenTheBacklogIsFull() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        AnalyticsBroadcaster broadcaster = new AnalyticsBroadcaster(messagingTemplate, clickCounter, meterRegistry, 100, 3);
+        Mockito.when(clickCounter.getClickCounts(anyList())).thenThrow(new IllegalStateException("redis down"));
+
+        for (int i = 0; i < 10; i++) {
+            broadcaster.recordClick("code" + i);
+            broadcaster.broadcast();
+        }
+
+        Mockito.reset(clickCounter);
+        Mockito.when(clickCounter.getClickCounts(anyList())).thenReturn(Map.of());
+        broadcaster.broadcast();
+
+        Mockito.verify(messagingTemplate, Mockito.times(3)).convertAndSend(eq("/topic/analytics"), any(Object.class));
+        Mockito.verify(messagingTemplate).convertAndSend(eq("/topic/analytics/code9"), any(Object.class));
+        Mockito.verify(messagingTemplate, Mockito.never()).convertAndSend(eq("/topic/analytics/code0"), any(Object.class));
+        assertEquals(7, meterRegistry.get("analytics_updates_dropped_total").counter().count());
+    }
+
+    @Test
+    public void shouldKeepDeltasWhenCountsAreUnavailable() {
+        AnalyticsBroadcaster broadcaster = new AnalyticsBroadcaster(messagingTemplate, clickCounter, new SimpleMeterRegistry(), 100, 1_000);
+        Mockito.when(clickCounter.getClickCounts(anyList()))
+                .thenThrow(new IllegalStateException("redis down"))
+                .thenReturn(Map.of("abc", 3L));
+
+        broadcaster.recordClick("abc");
+        broadcaster.recordClick("abc");
+        broadcaster.broadcast();
+        Mockito.verifyNoInteractions(messagingTemplate);
+
+        broadcaster.recordClick("abc");
+        broadcaster.broadcast();
+
+        Mockito.verify(messagingTemplate).convertAndSend("/topic/analytics/abc",
+                (Object) Map.of("shortCode", "abc", "clickCount", 3L, "delta", 3L));
+    }
+}
@@ -0,0 +1,244 @@
+package com.shortscale.analytics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.shortscale.model.UrlMapping;
+import com.shortscale.repository.OffHeapUrlRepository;
+import com.shortscale.repository.RedisShards;
+import com.shortscale.repository.StorageLayout;
+import com.shortscale.util.ShortCodeCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClickCounterTest {
+
+    private static final int PORT = 6391;
+    private static final StorageLayout FLAT = new StorageLayout(new ShortCodeCodec(0), false, 100, 512);
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+
+    @BeforeAll
+    static void startRedis() {
+        redisServer = new RedisServer(PORT);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory("localhost", PORT);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void flushRedis() {
+        redisTemplate.execute(connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        }, true);
+    }
+
+    @Test
+    public void shouldAccumulateClicksLocallyUntilFlushed() {
+        createLink("abc");
+        ClickCounter clickCounter = new ClickCounter(RedisShards.of(redisTemplate), FLAT, "redis");
+
+        clickCounter.increment("abc");
+        clickCounter.increment("abc");
+
+        assertNull(redisTemplate.opsForValue().get("clicks:abc"));
+        assertEquals(2, clickCounter.getClickCount("abc"));
+
+        clickCounter.flush();
+
+        assertEquals("2", redisTemplate.opsForValue().get("clicks:abc"));
+        assertEquals(2, clickCounter.getClickCount("abc"));
+    }
+
+    @Test
+    public void shouldAddToExistingCounterOnEachFlush() {
+        createLink("abc");
+        createLink("def");
+        ClickCounter clickCounter = new ClickCounter(RedisShards.of(redisTemplate), FLAT, "redis");
+
+        clickCounter.increment("abc");
+        clickCounter.flush();
+        clickCounter.increment("abc");
+        clickCounter.increment("def");
+        clickCounter.flush();
+        clickCounter.flush();
+
+        assertEquals("2", redisTemplate.opsForValue().get("clicks:abc"));
+        assertEquals("1", redisTemplate.opsForValue().get("clicks:def"));
+    }
+
+    @Test
+    public void shouldNotLoseConcurrentClicks() throws InterruptedException {
+        createLink("hot");
+        ClickCounter clickCounter = new ClickCounter(RedisShards.of(redisTemplate), FLAT, "redis");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        for (int i = 0; i < 8; i++) {
+            executor.submit(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    clickCounter.increment("hot");
+                    if (j % 250 == 0) {
+                        clickCounter.flush();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        clickCounter.shutdown();
+
+        assertEquals("8000", redisTemplate.opsForValue().get("clicks:hot"));
+    }
+
+    @Test
+    public void shouldExpireCounterTogetherWithLink() {
+        redisTemplate.opsForValue().set("temp", "{}", Duration.ofSeconds(60));
+        ClickCounter clickCounter = new ClickCounter(RedisShards.of(redisTemplate), FLAT, "redis");
+
+        clickCounter.increment("temp");
+        clickCounter.flush();
+
+        assertEquals("1", redisTemplate.opsForValue().get("clicks:temp"));
+        long ttl = redisTemplate.getExpire("clicks:temp", TimeUnit.SECONDS);
+        assertTrue(ttl > 0 && ttl <= 60);
+    }
+
+    @Test
+    public void shouldDropClicksForExpiredOrDeletedLink() {
+        ClickCounter clickCounter = new ClickCounter(RedisShards.of(redisTemplate), FLAT, "redis");
+
+        clickCounter.increment("gone");
+        clickCounter.flush();
+
+        assertNull(redisTemplate.opsForValue().get("clicks:gone"));
+        assertEquals(0, clickCounter.getClickCount("gone"));
+    }
+
+    @Test
+    public void shouldCountClicksForLinkStoredInBucket() {
+        StorageLayout bucketed = new StorageLayout(new ShortCodeCodec(0), true, 100, 512);
+        redisTemplate.opsForHash().put(bucketed.bucketKey("abc"), "abc", "{}");
+        ClickCounter clickCounter = new ClickCounter(RedisShards.of(redisTemplate), bucketed, "redis");
+
+        clickCounter.increment("abc");
+        clickCounter.flush();
+
+        assertEquals("1", redisTemplate.opsForValue().get("clicks:abc"));
+        assertEquals(-1, redisTemplate.getExpire("clicks:abc"));
+    }
+
+    @Test
+    public void shouldCountClicksOnLinksStoredInProcess() {
+        OffHeapUrlRepository repository = new OffHeapUrlRepository(new ObjectMapper().registerModule(new JavaTimeModule()),
+                new SimpleMeterRegistry(), new ShortCodeCodec(0), 16, 4096);
+        repository.save(mapping("abc", null));
+        repository.save(mapping("temp", LocalDateTime.now().plusSeconds(60)));
+        ClickCounter clickCounter = new ClickCounter(RedisShards.of(redisTemplate), FLAT, "offheap");
+
+        for (String shortCode : List.of("abc", "abc", "temp")) {
+            clickCounter.increment(shortCode, repository.findByShortCode(shortCode).getExpiresAt()); // as a redirect does
+        }
+        clickCounter.flush();
+
+        assertEquals(2, clickCounter.getClickCount("abc"));
+        assertEquals(1, clickCounter.getClickCount("temp"));
+        assertEquals(-1, redisTemplate.getExpire("clicks:abc"));
+        long ttl = redisTemplate.getExpire("clicks:temp", TimeUnit.SECONDS);
+        assertTrue(ttl > 0 && ttl <= 60);
+    }
+
+    @Test
+    public void shouldDropClicksOnInProcessLinksThatExpiredBeforeTheFlush() {
+        ClickCounter clickCounter = new ClickCounter(RedisShards.of(redisTemplate), FLAT, "offheap");
+
+        clickCounter.increment("brief", LocalDateTime.now().minusSeconds(1));
+        clickCounter.flush();
+
+        assertNull(redisTemplate.opsForValue().get("clicks:brief"));
+    }
+
+    @Test
+    public void shouldReloadTheScriptWhenRedisLostIt() {
+        createLink("abc");
+        ClickCounter clickCounter = new ClickCounter(RedisShards.of(redisTemplate), FLAT, "redis");
+        clickCounter.increment("abc");
+        clickCounter.flush();
+
+        redisTemplate.execute(connection -> {
+            connection.scriptingCommands().scriptFlush(); // as a restarted or failed-over shard
+            return null;
+        }, true);
+        clickCounter.increment("abc");
+        clickCounter.flush(); // NOSCRIPT, kept for the next flush
+        clickCounter.flush();
+
+        assertEquals("2", redisTemplate.opsForValue().get("clicks:abc"));
+    }
+
+    @Test
+    public void shouldMoveLegacyClickCountsIntoCounters() {
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        redisTemplate.opsForValue().set("old", "{\"id\":1,\"originalUrl\":\"https://old.example.com\",\"clickCount\":7}");
+        redisTemplate.opsForValue().set("temp", "{\"originalUrl\":\"https://temp.example.com\",\"clickCount\":3}", Duration.ofSeconds(60));
+        redisTemplate.opsForHash().put("u:0", "1C", "{\"id\":74,\"originalUrl\":\"https://bucketed.example.com\",\"clickCount\":2}");
+        redisTemplate.opsForValue().set("clicks:old", "1"); // counted since the upgrade
+        ClickCountMigration migration = new ClickCountMigration(RedisShards.of(redisTemplate), objectMapper, false);
+
+        assertEquals(3, migration.migrate());
+        assertEquals(0, migration.migrate());
+
+        assertEquals("8", redisTemplate.opsForValue().get("clicks:old"));
+        assertEquals("3", redisTemplate.opsForValue().get("clicks:temp"));
+        assertEquals("2", redisTemplate.opsForValue().get("clicks:1C"));
+        assertEquals("{\"id\":1,\"originalUrl\":\"https://old.example.com\"}", redisTemplate.opsForValue().get("old"));
+        assertFalse(((String) redisTemplate.opsForHash().get("u:0", "1C")).contains("clickCount"));
+        long ttl = redisTemplate.getExpire("clicks:temp", TimeUnit.SECONDS);
+        assertTrue(ttl > 0 && ttl <= 60);
+        assertTrue(redisTemplate.getExpire("temp", TimeUnit.SECONDS) > 0);
+    }
+
+    @Test
+    public void shouldReturnZeroForUnknownShortCode() {
+        ClickCounter clickCounter = new ClickCounter(RedisShards.of(redisTemplate), FLAT, "redis");
+
+        assertEquals(0, clickCounter.getClickCount("unknown"));
+    }
+
+    private void createLink(String shortCode) {
+        redisTemplate.opsForValue().set(shortCode, "{}");
+    }
+
+    private static UrlMapping mapping(String shortCode, LocalDateTime expiresAt) {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setShortCode(shortCode);
+        mapping.setOriginalUrl("https://" + shortCode + ".example.com");
+        mapping.setCreatedAt(LocalDateTime.now());
+        mapping.setExpiresAt(expiresAt);
+        return mapping;
+    }
+}
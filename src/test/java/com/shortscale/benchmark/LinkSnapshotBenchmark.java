@@ -0,0 +1,112 @@
+package com.shortscale.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.shortscale.cache.ShortCodeFilter;
+import com.shortscale.cache.UrlMappingNearCache;
+import com.shortscale.model.UrlMapping;
+import com.shortscale.repository.LinkSnapshot;
+import com.shortscale.repository.RedisShards;
+import com.shortscale.repository.RedisUrlRepository;
+import com.shortscale.repository.StorageLayout;
+import com.shortscale.repository.UrlMappingSerializer;
+import com.shortscale.util.Base62;
+import com.shortscale.util.ShortCodeCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import redis.embedded.RedisServer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+// Export and restore throughput of LinkSnapshot against a local Redis: writes permanent links (every tenth with
+// a click counter), exports them, flushes Redis and restores the file.
+// Usage: LinkSnapshotBenchmark [links] [restore-parallelism] [chunk-size]
+public class LinkSnapshotBenchmark {
+
+    private static final int PORT = 6402;
+
+    public static void main(String[] args) throws Exception {
+        int links = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int chunkSize = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+        RedisServer redisServer = RedisServer.builder().port(PORT).setting("maxmemory 4gb").build();
+        redisServer.start();
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory("localhost", PORT);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        Path file = Files.createTempFile("links", ".snap");
+        try {
+            ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+            UrlMappingSerializer serializer = new UrlMappingSerializer(objectMapper);
+            StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+            stringRedisTemplate.afterPropertiesSet();
+            RedisTemplate<String, UrlMapping> redisTemplate = new RedisTemplate<>();
+            redisTemplate.setConnectionFactory(connectionFactory);
+            redisTemplate.setKeySerializer(new StringRedisSerializer());
+            redisTemplate.setValueSerializer(serializer);
+            redisTemplate.setHashKeySerializer(StringRedisSerializer.UTF_8);
+            redisTemplate.setHashValueSerializer(serializer);
+            redisTemplate.afterPropertiesSet();
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            RedisShards shards = RedisShards.of(stringRedisTemplate);
+            RedisUrlRepository repository = new RedisUrlRepository(redisTemplate, shards,
+                    new UrlMappingNearCache(meterRegistry, 10_000, Duration.ofSeconds(30)),
+                    new ShortCodeFilter(shards, meterRegistry, true, links, 0.01),
+                    new StorageLayout(new ShortCodeCodec(0), false, 100, 512));
+            LinkSnapshot snapshot = new LinkSnapshot(redisTemplate, shards, repository, objectMapper, chunkSize, parallelism, "", "");
+
+            long firstId = 1_000_000_000L; // codes of realistic length
+            for (int batch = 0; batch < links; batch += 10_000) {
+                int from = batch;
+                int to = Math.min(links, batch + 10_000);
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (int i = from; i < to; i++) {
+                        long id = firstId + i;
+                        byte[] code = Base62.encode(id).getBytes(StandardCharsets.UTF_8);
+                        connection.stringCommands().set(code, serializer.serialize(sampleMapping(id)));
+                        if (i % 10 == 0) {
+                            connection.stringCommands().set(("clicks:" + Base62.encode(id)).getBytes(StandardCharsets.UTF_8),
+                                    Long.toString(i).getBytes(StandardCharsets.UTF_8));
+                        }
+                    }
+                    return null;
+                });
+            }
+
+            LinkSnapshot.Report exported = snapshot.export(file);
+            System.out.printf("links=%d chunk-size=%d restore-parallelism=%d cpus=%d java=%s%n", links, chunkSize, parallelism,
+                    Runtime.getRuntime().availableProcessors(), System.getProperty("java.version"));
+            System.out.printf("export  %d links %d click counters in %.1f s = %d links/s, file %.1f MB (%.1f B/link)%n",
+                    exported.getLinks(), exported.getClickCounters(), exported.getElapsedMillis() / 1000.0, exported.linksPerSecond(),
+                    exported.getBytes() / 1e6, (double) exported.getBytes() / exported.getLinks());
+
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.serverCommands().flushAll();
+                return null;
+            });
+            LinkSnapshot.Report restored = snapshot.restore(file, parallelism);
+            System.out.printf("restore %d links %d click counters in %.1f s = %d links/s%n",
+                    restored.getLinks(), restored.getClickCounters(), restored.getElapsedMillis() / 1000.0, restored.linksPerSecond());
+        } finally {
+            Files.deleteIfExists(file);
+            connectionFactory.destroy();
+            redisServer.stop();
+        }
+    }
+
+    private static UrlMapping sampleMapping(long id) {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setId(id);
+        mapping.setOriginalUrl("https://www.example.com/articles/" + id + "/how-to-scale-a-url-shortener");
+        mapping.setCreatedAt(LocalDateTime.now());
+        return mapping;
+    }
+}
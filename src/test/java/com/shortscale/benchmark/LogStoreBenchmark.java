@@ -0,0 +1,176 @@
+package com.shortscale.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.shortscale.cache.ShortCodeFilter;
+import com.shortscale.cache.UrlMappingNearCache;
+import com.shortscale.model.UrlMapping;
+import com.shortscale.repository.LogStructuredUrlRepository;
+import com.shortscale.repository.RedisShards;
+import com.shortscale.repository.RedisUrlRepository;
+import com.shortscale.repository.StorageLayout;
+import com.shortscale.repository.UrlMappingSerializer;
+import com.shortscale.repository.UrlRepository;
+import com.shortscale.util.ShortCodeCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import redis.embedded.RedisServer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Single-threaded random lookup latency and restart recovery time of the link log store against a local Redis
+// loading its RDB file. Near cache and short code filter are off, so every Redis lookup is a round trip.
+// Usage: LogStoreBenchmark [links] [lookups]
+public class LogStoreBenchmark {
+
+    private static final ShortCodeCodec CODEC = new ShortCodeCodec(0);
+    private static final int PORT = 6403;
+    private static final long FIRST_ID = 1_000_000_000L; // codes of realistic length
+
+    public static void main(String[] args) throws Exception {
+        int links = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        Path workDirectory = Files.createTempDirectory("log-store-benchmark");
+        try {
+            System.out.printf("links=%d lookups=%d cpus=%d java=%s%n", links, lookups, Runtime.getRuntime().availableProcessors(),
+                    System.getProperty("java.version"));
+            benchmarkLogStore(objectMapper, workDirectory.resolve("log"), links, lookups);
+            benchmarkRedis(objectMapper, workDirectory.resolve("redis"), links, lookups);
+        } finally {
+            try (Stream<Path> files = Files.walk(workDirectory)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static void benchmarkLogStore(ObjectMapper objectMapper, Path directory, int links, int lookups) {
+        LogStructuredUrlRepository repository = openLogStore(objectMapper, directory, links);
+        List<UrlMapping> batch = new ArrayList<>();
+        for (int i = 0; i < links; i++) {
+            batch.add(sampleMapping(FIRST_ID + i));
+            if (batch.size() == 10_000) {
+                repository.saveAll(batch);
+                batch.clear();
+            }
+        }
+        repository.saveAll(batch);
+        report("log store", repository, links, lookups);
+        repository.close();
+
+        long start = System.nanoTime();
+        repository = openLogStore(objectMapper, directory, links);
+        System.out.printf("log store recovery %d ms (%d links, %d segments)%n", (System.nanoTime() - start) / 1_000_000,
+                repository.size(), repository.segmentCount());
+        report("log store after recovery", repository, links, lookups);
+        repository.close();
+    }
+
+    private static void benchmarkRedis(ObjectMapper objectMapper, Path directory, int links, int lookups) throws Exception {
+        Files.createDirectories(directory);
+        RedisServer redisServer = redisServer(directory);
+        redisServer.start();
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory("localhost", PORT);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        try {
+            UrlMappingSerializer serializer = new UrlMappingSerializer(objectMapper);
+            StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+            stringRedisTemplate.afterPropertiesSet();
+            for (int batch = 0; batch < links; batch += 10_000) {
+                int from = batch;
+                int to = Math.min(links, batch + 10_000);
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (int i = from; i < to; i++) {
+                        long id = FIRST_ID + i;
+                        connection.stringCommands().set(CODEC.encode(id).getBytes(StandardCharsets.UTF_8), serializer.serialize(sampleMapping(id)));
+                    }
+                    return null;
+                });
+            }
+            report("redis", redisRepository(connectionFactory, stringRedisTemplate, serializer), links, lookups);
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.serverCommands().save();
+                return null;
+            });
+        } finally {
+            connectionFactory.destroy();
+            redisServer.stop();
+        }
+
+        long start = System.nanoTime();
+        redisServer = redisServer(directory);
+        redisServer.start(); // returns once the RDB file is loaded and the server accepts connections
+        System.out.printf("redis recovery %d ms (RDB %.1f MB)%n", (System.nanoTime() - start) / 1_000_000,
+                Files.size(directory.resolve("dump.rdb")) / 1e6);
+        redisServer.stop();
+    }
+
+    private static void report(String name, UrlRepository repository, int links, int lookups) {
+        Random random = new Random(42);
+        for (int i = 0; i < lookups / 10; i++) { // warm-up
+            repository.findByShortCode(CODEC.encode(FIRST_ID + random.nextInt(links)));
+        }
+        long[] latencies = new long[lookups];
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            long lookupStart = System.nanoTime();
+            if (repository.findByShortCode(CODEC.encode(FIRST_ID + random.nextInt(links))) == null) {
+                throw new IllegalStateException("Link missing from " + name);
+            }
+            latencies[i] = System.nanoTime() - lookupStart;
+        }
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        System.out.printf("%s lookups %.0f/s p50=%.1fus p99=%.1fus p99.9=%.1fus%n", name, lookups / (elapsed / 1e9),
+                latencies[lookups / 2] / 1e3, latencies[(int) (lookups * 0.99)] / 1e3, latencies[(int) (lookups * 0.999)] / 1e3);
+    }
+
+    private static LogStructuredUrlRepository openLogStore(ObjectMapper objectMapper, Path directory, int links) {
+        return new LogStructuredUrlRepository(objectMapper, new SimpleMeterRegistry(), CODEC, directory.toString(), 64 << 20, false, 0.5, links);
+    }
+
+    private static RedisUrlRepository redisRepository(LettuceConnectionFactory connectionFactory, StringRedisTemplate stringRedisTemplate,
+                                                      UrlMappingSerializer serializer) {
+        RedisTemplate<String, UrlMapping> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(serializer);
+        template.setHashKeySerializer(StringRedisSerializer.UTF_8);
+        template.setHashValueSerializer(serializer);
+        template.afterPropertiesSet();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RedisShards shards = RedisShards.of(stringRedisTemplate);
+        return new RedisUrlRepository(template, shards, new UrlMappingNearCache(meterRegistry, 0, Duration.ofSeconds(30)),
+                new ShortCodeFilter(shards, meterRegistry, false, 1_000, 0.01), new StorageLayout(CODEC, false, 100, 512));
+    }
+
+    private static RedisServer redisServer(Path directory) {
+        return RedisServer.builder().port(PORT).setting("dir " + directory).setting("dbfilename dump.rdb").setting("save \"\"").build();
+    }
+
+    private static UrlMapping sampleMapping(long id) {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setId(id);
+        mapping.setShortCode(CODEC.encode(id));
+        mapping.setOriginalUrl("https://www.example.com/articles/" + id + "/how-to-scale-a-url-shortener");
+        mapping.setCreatedAt(LocalDateTime.now());
+        return mapping;
+    }
+}
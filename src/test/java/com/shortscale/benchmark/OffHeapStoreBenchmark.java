@@ -0,0 +1,75 @@
+package com.shortscale.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.shortscale.model.UrlMapping;
+import com.shortscale.repository.OffHeapUrlRepository;
+import com.shortscale.util.ShortCodeCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Heap, direct memory and GC time of the off-heap engine holding many links, and its lookup rate.
+// Usage: OffHeapStoreBenchmark [links] [lookups]
+public class OffHeapStoreBenchmark {
+
+    private static final ShortCodeCodec CODEC = new ShortCodeCodec(0);
+
+    public static void main(String[] args) {
+        int links = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+        long heapBefore = usedHeapAfterGc();
+        OffHeapUrlRepository repository = new OffHeapUrlRepository(new ObjectMapper().registerModule(new JavaTimeModule()),
+                new SimpleMeterRegistry(), CODEC, 1_000_000, 64 << 20);
+
+        long firstId = 1_000_000_000L; // codes of realistic length
+        long gcBefore = gcMillis();
+        long start = System.nanoTime();
+        for (int i = 0; i < links; i++) {
+            long id = firstId + i;
+            UrlMapping mapping = new UrlMapping();
+            mapping.setId(id);
+            mapping.setShortCode(CODEC.encode(id));
+            mapping.setOriginalUrl("https://www.example.com/articles/" + id + "/how-to-scale-a-url-shortener");
+            mapping.setCreatedAt(LocalDateTime.now());
+            repository.save(mapping);
+        }
+        long saveNanos = System.nanoTime() - start;
+        long saveGc = gcMillis() - gcBefore;
+
+        gcBefore = gcMillis();
+        start = System.nanoTime();
+        long found = 0;
+        for (int i = 0; i < lookups; i++) {
+            if (repository.findByShortCode(CODEC.encode(firstId + ThreadLocalRandom.current().nextInt(links))) != null) {
+                found++;
+            }
+        }
+        long lookupNanos = System.nanoTime() - start;
+        long lookupGc = gcMillis() - gcBefore;
+
+        System.out.printf("links=%d java=%s max-heap=%d MB%n", repository.size(), System.getProperty("java.version"),
+                Runtime.getRuntime().maxMemory() >> 20);
+        System.out.printf("save    %.0f links/s, GC %d ms%n", links / (saveNanos / 1e9), saveGc);
+        System.out.printf("lookup  %.0f lookups/s (%d found), GC %d ms%n", lookups / (lookupNanos / 1e9), found, lookupGc);
+        System.out.printf("heap retained %.1f MB, off-heap %.1f MB (%.1f B/link)%n", (usedHeapAfterGc() - heapBefore) / 1e6,
+                repository.memoryBytes() / 1e6, (double) repository.memoryBytes() / links);
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,115 @@
+package com.shortscale.benchmark;
+
+import com.shortscale.util.RateLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+// Decisions per second with 64 threads checking a mix of hot keys (a few busy clients) and cold keys (a long tail
+// of clients seen once or twice), and the heap the limiter holds afterwards. "before" is the previous limiter:
+// a map that never forgets a key, a LocalDateTime per check and an unsynchronized counter.
+// Usage: RateLimiterBenchmark [threads] [seconds] [hot-share-percent]
+public class RateLimiterBenchmark {
+
+    private static final int HOT_KEYS = 64;
+    private static final int COLD_KEYS = 50_000_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int hotShare = args.length > 2 ? Integer.parseInt(args[2]) : 90;
+
+        System.out.printf("threads=%d seconds=%d hot-share=%d%% java=%s cpus=%d%n", threads, seconds, hotShare,
+                System.getProperty("java.version"), Runtime.getRuntime().availableProcessors());
+        LegacyRateLimiter legacy = new LegacyRateLimiter();
+        run("before", (endpoint, key) -> legacy.isAllowed(key), threads, seconds, hotShare);
+        for (String algorithm : new String[]{"token-bucket", "sliding-window"}) {
+            RateLimiter rateLimiter = new RateLimiter(new SimpleMeterRegistry(), null, algorithm, "10/1m", "", 5_000, 1_000_000,
+                    "local", 10, 1_000, "local");
+            run(algorithm, rateLimiter::isAllowed, threads, seconds, hotShare);
+            System.out.printf("  tracked keys %d%n", rateLimiter.trackedKeys("shorten"));
+        }
+    }
+
+    private static void run(String name, BiPredicate<String, String> limiter, int threads, int seconds, int hotShare)
+            throws InterruptedException {
+        long heapBefore = usedHeapAfterGc();
+        LongAdder decisions = new LongAdder();
+        LongAdder allowed = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                    long count = 0;
+                    long granted = 0;
+                    while ((count & 1023) != 0 || System.nanoTime() < deadline) {
+                        String key = random.nextInt(100) < hotShare
+                                ? "10.0.0." + random.nextInt(HOT_KEYS)
+                                : "10." + random.nextInt(COLD_KEYS);
+                        if (limiter.test("shorten", key)) {
+                            granted++;
+                        }
+                        count++;
+                    }
+                    decisions.add(count);
+                    allowed.add(granted);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        done.await();
+        double elapsed = (System.nanoTime() - started) / 1e9;
+        System.out.printf("%-15s %,.0f decisions/s, %.1f%% allowed, heap retained %.1f MB%n", name, decisions.sum() / elapsed,
+                100.0 * allowed.sum() / decisions.sum(), (usedHeapAfterGc() - heapBefore) / 1e6);
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static final class LegacyRateLimiter {
+        private final Map<String, RequestInfo> requestCounts = new ConcurrentHashMap<>();
+
+        boolean isAllowed(String key) {
+            LocalDateTime now = LocalDateTime.now();
+            RequestInfo info = requestCounts.get(key);
+            if (info == null || ChronoUnit.SECONDS.between(info.timestamp, now) > 60) {
+                requestCounts.put(key, new RequestInfo(now));
+                return true;
+            }
+            if (info.count >= 10) {
+                return false;
+            }
+            info.count++;
+            return true;
+        }
+
+        private static final class RequestInfo {
+            int count = 1;
+            final LocalDateTime timestamp;
+
+            RequestInfo(LocalDateTime timestamp) {
+                this.timestamp = timestamp;
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.shortscale.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.shortscale.cache.ShortCodeFilter;
+import com.shortscale.cache.UrlMappingNearCache;
+import com.shortscale.model.UrlMapping;
+import com.shortscale.repository.RedisShards;
+import com.shortscale.repository.RedisUrlRepository;
+import com.shortscale.repository.StorageLayout;
+import com.shortscale.repository.UrlMappingSerializer;
+import com.shortscale.util.ShortCodeCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import redis.embedded.RedisServer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Redirect lookups at high concurrency against a local Redis behind a proxy that adds a fixed delay
+// to every response, comparing a Tomcat-sized platform pool with one virtual thread per request.
+// Usage: RedirectThroughputBenchmark <platform|virtual> [concurrency] [redis delay ms] [seconds]
+// The virtual mode needs a Java 21 runtime.
+public class RedirectThroughputBenchmark {
+
+    private static final int REDIS_PORT = 6399;
+    private static final int PROXY_PORT = 6400;
+    private static final int PLATFORM_THREADS = 200; // server.tomcat.threads.max default
+    private static final int LINKS = 1_000;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "platform";
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        long delayMs = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 15;
+
+        RedisServer redisServer = new RedisServer(REDIS_PORT);
+        redisServer.start();
+        LatencyProxy proxy = new LatencyProxy(PROXY_PORT, REDIS_PORT, delayMs);
+        proxy.start();
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory("localhost", PROXY_PORT);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        try {
+            RedisUrlRepository repository = repository(connectionFactory);
+            for (int i = 0; i < LINKS; i++) {
+                UrlMapping mapping = new UrlMapping();
+                mapping.setShortCode("bench" + i);
+                mapping.setOriginalUrl("https://example.com/" + i);
+                mapping.setCreatedAt(LocalDateTime.now());
+                repository.save(mapping);
+            }
+
+            ExecutorService executor = "virtual".equals(mode) ? virtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(PLATFORM_THREADS);
+            run(repository, executor, concurrency, 3); // warm-up
+            long[] latenciesNanos = new long[1 << 22];
+            LongAdder completed = new LongAdder();
+            long elapsed = run(repository, executor, concurrency, seconds, completed, latenciesNanos);
+            executor.shutdownNow();
+
+            int samples = (int) Math.min(completed.sum(), latenciesNanos.length);
+            long[] sorted = Arrays.copyOf(latenciesNanos, samples);
+            Arrays.sort(sorted);
+            System.out.printf("mode=%s concurrency=%d redisDelay=%dms java=%s%n", mode, concurrency, delayMs, System.getProperty("java.version"));
+            System.out.printf("throughput=%.0f req/s p50=%.1fms p99=%.1fms%n",
+                    completed.sum() / (elapsed / 1e9),
+                    sorted[samples / 2] / 1e6,
+                    sorted[(int) (samples * 0.99)] / 1e6);
+        } finally {
+            connectionFactory.destroy();
+            proxy.stop();
+            redisServer.stop();
+        }
+    }
+
+    private static void run(RedisUrlRepository repository, ExecutorService executor, int concurrency, int seconds) throws InterruptedException {
+        run(repository, executor, concurrency, seconds, new LongAdder(), new long[1]);
+    }
+
+    // Closed loop: each of the in-flight requests is replaced as soon as it completes
+    private static long run(RedisUrlRepository repository, ExecutorService executor, int concurrency, int seconds,
+                            LongAdder completed, long[] latenciesNanos) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        Semaphore inFlight = new Semaphore(concurrency);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long request = 0;
+        while (System.nanoTime() < end) {
+            if (!inFlight.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                continue;
+            }
+            String shortCode = "bench" + (request++ % LINKS);
+            long submitted = System.nanoTime();
+            executor.execute(() -> {
+                try {
+                    if (running.get() && repository.findByShortCode(shortCode) != null) {
+                        long count = completed.sum();
+                        if (count < latenciesNanos.length) {
+                            latenciesNanos[(int) count] = System.nanoTime() - submitted;
+                        }
+                        completed.increment();
+                    }
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+        running.set(false);
+        long elapsed = System.nanoTime() - start;
+        inFlight.acquire(concurrency);
+        return elapsed;
+    }
+
+    private static RedisUrlRepository repository(LettuceConnectionFactory connectionFactory) {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        RedisTemplate<String, UrlMapping> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new UrlMappingSerializer(objectMapper));
+        template.afterPropertiesSet();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        // Near cache and filter out of the way so every lookup pays the Redis round trip
+        UrlMappingNearCache nearCache = new UrlMappingNearCache(meterRegistry, 0, Duration.ofMillis(1));
+        RedisShards shards = RedisShards.of(new StringRedisTemplate(connectionFactory));
+        ShortCodeFilter filter = new ShortCodeFilter(shards, meterRegistry, false, LINKS, 0.01);
+        return new RedisUrlRepository(template, shards, nearCache, filter, new StorageLayout(new ShortCodeCodec(0), false, 100, 512));
+    }
+
+    private static ExecutorService virtualThreadPerTaskExecutor() throws ReflectiveOperationException {
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+
+    // Forwards bytes unchanged, holding back every chunk Redis sends for a fixed delay.
+    // Chunks are released in arrival order, so replies stay pipelined as they are on a real network.
+    private static class LatencyProxy {
+
+        private final int port;
+        private final int targetPort;
+        private final long delayMs;
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        private ServerSocket serverSocket;
+
+        LatencyProxy(int port, int targetPort, long delayMs) {
+            this.port = port;
+            this.targetPort = targetPort;
+            this.delayMs = delayMs;
+        }
+
+        void start() throws Exception {
+            serverSocket = new ServerSocket(port);
+            Thread acceptor = new Thread(() -> {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket client = serverSocket.accept();
+                        Socket server = new Socket("localhost", targetPort);
+                        client.setTcpNoDelay(true);
+                        server.setTcpNoDelay(true);
+                        pump(client.getInputStream(), server.getOutputStream(), 0);
+                        pump(server.getInputStream(), client.getOutputStream(), delayMs);
+                    } catch (Exception e) {
+                        return;
+                    }
+                }
+            }, "latency-proxy");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private void pump(InputStream in, OutputStream out, long delay) {
+            Thread pump = new Thread(() -> {
+                byte[] buffer = new byte[64 * 1024];
+                try {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        byte[] chunk = Arrays.copyOf(buffer, read);
+                        if (delay == 0) {
+                            out.write(chunk);
+                            out.flush();
+                            continue;
+                        }
+                        scheduler.schedule(() -> {
+                            try {
+                                out.write(chunk);
+                                out.flush();
+                            } catch (Exception ignored) {
+                                // connection closed
+                            }
+                        }, delay, TimeUnit.MILLISECONDS);
+                    }
+                } catch (Exception ignored) {
+                    // connection closed
+                }
+            }, "latency-proxy-pump");
+            pump.setDaemon(true);
+            pump.start();
+        }
+
+        void stop() throws Exception {
+            serverSocket.close();
+            scheduler.shutdownNow();
+        }
+    }
+}
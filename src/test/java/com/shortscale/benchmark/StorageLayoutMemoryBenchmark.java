@@ -0,0 +1,79 @@
+package com.shortscale.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.shortscale.model.UrlMapping;
+import com.shortscale.repository.BucketMigration;
+import com.shortscale.repository.RedisShards;
+import com.shortscale.repository.StorageLayout;
+import com.shortscale.repository.UrlMappingSerializer;
+import com.shortscale.util.Base62;
+import com.shortscale.util.ShortCodeCodec;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+// Redis memory per link for the flat layout (one key per link) and the bucketed layout, measured by writing
+// permanent links as top-level keys and running the migration over them.
+// Usage: StorageLayoutMemoryBenchmark [links] [bucket-size]
+public class StorageLayoutMemoryBenchmark {
+
+    private static final int PORT = 6401;
+
+    public static void main(String[] args) {
+        int links = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int bucketSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        RedisServer redisServer = RedisServer.builder()
+                .port(PORT)
+                .setting("hash-max-ziplist-entries " + Math.max(128, bucketSize))
+                .setting("hash-max-ziplist-value 512")
+                .build();
+        redisServer.start();
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory("localhost", PORT);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        try {
+            StringRedisTemplate redisTemplate = new StringRedisTemplate(connectionFactory);
+            redisTemplate.afterPropertiesSet();
+            UrlMappingSerializer serializer = new UrlMappingSerializer(new ObjectMapper().registerModule(new JavaTimeModule()));
+            BucketMigration migration = new BucketMigration(RedisShards.of(redisTemplate), new StorageLayout(new ShortCodeCodec(0), true, bucketSize, 512), false);
+            long emptyMemory = migration.usedMemory();
+
+            long firstId = 1_000_000_000L; // codes of realistic length
+            for (int batch = 0; batch < links; batch += 10_000) {
+                int from = batch;
+                int to = Math.min(links, batch + 10_000);
+                redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (int i = from; i < to; i++) {
+                        long id = firstId + i;
+                        connection.stringCommands().set(Base62.encode(id).getBytes(StandardCharsets.UTF_8), serializer.serialize(sampleMapping(id)));
+                    }
+                    return null;
+                });
+            }
+
+            BucketMigration.Report report = migration.migrate();
+            System.out.printf("links=%d bucket-size=%d value=%d B%n", report.getLinks(), bucketSize,
+                    serializer.serialize(sampleMapping(firstId)).length);
+            System.out.printf("flat     used_memory=%d B  %.1f B/link%n", report.getUsedMemoryBefore(),
+                    (double) (report.getUsedMemoryBefore() - emptyMemory) / report.getLinks());
+            System.out.printf("bucketed used_memory=%d B  %.1f B/link (moved %d)%n", report.getUsedMemoryAfter(),
+                    (double) (report.getUsedMemoryAfter() - emptyMemory) / report.getLinks(), report.getMoved());
+        } finally {
+            connectionFactory.destroy();
+            redisServer.stop();
+        }
+    }
+
+    private static UrlMapping sampleMapping(long id) {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setId(id);
+        mapping.setOriginalUrl("https://www.example.com/articles/" + id + "/how-to-scale-a-url-shortener");
+        mapping.setCreatedAt(LocalDateTime.now());
+        return mapping;
+    }
+}
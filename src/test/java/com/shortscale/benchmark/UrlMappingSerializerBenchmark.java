@@ -0,0 +1,68 @@
+package com.shortscale.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.shortscale.model.UrlMapping;
+import com.shortscale.repository.UrlMappingSerializer;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+
+// Bytes per value, and time and allocation per decode (the redirect path) and encode, for the binary
+// UrlMapping layout against the JSON serializer it replaces.
+// Usage: UrlMappingSerializerBenchmark [iterations]
+public class UrlMappingSerializerBenchmark {
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        UrlMapping mapping = new UrlMapping();
+        mapping.setId(System.currentTimeMillis());
+        mapping.setShortCode("aZ3kP9q");
+        mapping.setOriginalUrl("https://www.example.com/articles/2024/06/how-to-scale-a-url-shortener?utm_source=newsletter");
+        mapping.setCreatedAt(LocalDateTime.now());
+        mapping.setExpiresAt(mapping.getCreatedAt().plusDays(30));
+
+        run("json", new Jackson2JsonRedisSerializer<>(objectMapper, UrlMapping.class), mapping, iterations);
+        run("binary", new UrlMappingSerializer(objectMapper), mapping, iterations);
+    }
+
+    private static void run(String name, RedisSerializer<UrlMapping> serializer, UrlMapping mapping, int iterations) {
+        byte[] value = serializer.serialize(mapping);
+        for (int i = 0; i < iterations / 5; i++) { // warm-up
+            consume(serializer.deserialize(serializer.serialize(mapping)));
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            consume(serializer.deserialize(value));
+        }
+        long decodeNanos = System.nanoTime() - start;
+        long decodeAllocated = allocatedBytes() - allocatedBefore;
+
+        allocatedBefore = allocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += serializer.serialize(mapping).length;
+        }
+        long encodeNanos = System.nanoTime() - start;
+        long encodeAllocated = allocatedBytes() - allocatedBefore;
+
+        System.out.printf("%-6s bytes=%d decode=%.0f ns/op %.0f B/op  encode=%.0f ns/op %.0f B/op%n", name, value.length,
+                (double) decodeNanos / iterations, (double) decodeAllocated / iterations,
+                (double) encodeNanos / iterations, (double) encodeAllocated / iterations);
+    }
+
+    private static long sink;
+
+    private static void consume(UrlMapping mapping) {
+        sink += mapping.getOriginalUrl().length();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
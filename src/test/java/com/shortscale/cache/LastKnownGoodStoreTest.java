@@ -0,0 +1,162 @@
+package com.shortscale.cache;
+
+import com.shortscale.model.UrlMapping;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LastKnownGoodStoreTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void shouldServeRecordedLinksAndCountThem() {
+        LastKnownGoodStore store = new LastKnownGoodStore(meterRegistry, 100, "");
+        store.record("abc", mapping("abc", "https://example.com/a", null));
+
+        assertEquals("https://example.com/a", store.getStale("abc"));
+        assertNull(store.getStale("xyz"));
+        assertEquals(1, meterRegistry.get("url_redirect_stale_total").counter().count());
+        assertEquals(1, meterRegistry.get("last_known_good_links").gauge().value());
+    }
+
+    @Test
+    public void shouldNeverServeForgottenOrExpiredLinks() {
+        LastKnownGoodStore store = new LastKnownGoodStore(meterRegistry, 100, "");
+        store.record("gone", mapping("gone", "https://example.com/gone", null));
+        store.record("expired", mapping("expired", "https://example.com/expired", LocalDateTime.now().minusSeconds(1)));
+        store.record("changed", mapping("changed", "https://example.com/old", null));
+        store.record("changed", mapping("changed", "https://example.com/new", null));
+
+        store.forget("gone");
+
+        assertNull(store.getStale("gone"));
+        assertNull(store.getStale("expired"));
+        assertEquals("https://example.com/new", store.getStale("changed"));
+    }
+
+    @Test
+    public void shouldStayBounded() {
+        LastKnownGoodStore store = new LastKnownGoodStore(meterRegistry, 100, "");
+
+        for (int i = 0; i < 1_000; i++) {
+            store.record("code" + i, mapping("code" + i, "https://example.com/" + i, null));
+        }
+
+        assertTrue(store.size() <= 100, "size " + store.size());
+    }
+
+    @Test
+    public void shouldRefreshLinksServedStale() throws Exception {
+        LastKnownGoodStore store = new LastKnownGoodStore(meterRegistry, 100, "");
+        store.record("moved", mapping("moved", "https://example.com/old", null));
+        store.record("deleted", mapping("deleted", "https://example.com/deleted", null));
+        store.record("unserved", mapping("unserved", "https://example.com/unserved", null));
+        store.getStale("moved");
+        store.getStale("deleted");
+        List<String> loaded = new ArrayList<>();
+
+        int refreshed = store.refresh(shortCode -> {
+            loaded.add(shortCode);
+            return shortCode.equals("moved") ? mapping("moved", "https://example.com/new", null) : null;
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, refreshed);
+        assertFalse(loaded.contains("unserved"));
+        assertEquals("https://example.com/new", store.getStale("moved"));
+        assertNull(store.getStale("deleted"));
+    }
+
+    @Test
+    public void shouldKeepLinksToRefreshWhenRedisIsStillDown() throws Exception {
+        LastKnownGoodStore store = new LastKnownGoodStore(meterRegistry, 100, "");
+        store.record("abc", mapping("abc", "https://example.com/a", null));
+        store.getStale("abc");
+
+        int refreshed = store.refresh(shortCode -> {
+            throw new IllegalStateException("redis down");
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(0, refreshed);
+        assertEquals(1, store.refresh(shortCode -> mapping(shortCode, "https://example.com/b", null)).get(5, TimeUnit.SECONDS));
+        assertEquals("https://example.com/b", store.getStale("abc"));
+    }
+
+    @Test
+    public void shouldRefreshReactivelyAndStopAtTheFirstFailure() {
+        LastKnownGoodStore store = new LastKnownGoodStore(meterRegistry, 100, "");
+        store.record("moved", mapping("moved", "https://example.com/old", null));
+        store.record("deleted", mapping("deleted", "https://example.com/deleted", null));
+        store.getStale("moved");
+        store.getStale("deleted");
+
+        StepVerifier.create(store.refreshReactively(shortCode -> Mono.error(new IllegalStateException("redis down"))))
+                .expectNext(0)
+                .verifyComplete();
+        StepVerifier.create(store.refreshReactively(shortCode -> shortCode.equals("moved")
+                        ? Mono.just(mapping("moved", "https://example.com/new", null))
+                        : Mono.empty()))
+                .expectNext(2)
+                .verifyComplete();
+
+        assertEquals("https://example.com/new", store.getStale("moved"));
+        assertNull(store.getStale("deleted"));
+    }
+
+    @Test
+    public void shouldSpillToDiskAndReloadOnStartup(@TempDir Path directory) {
+        Path file = directory.resolve("lkg/links.bin");
+        LocalDateTime expiresAt = LocalDateTime.now().plusHours(1).withNano(0);
+        LastKnownGoodStore store = new LastKnownGoodStore(meterRegistry, 100, file.toString());
+        store.record("abc", mapping("abc", "https://example.com/ä", null));
+        store.record("tmp", mapping("tmp", "https://example.com/tmp", expiresAt));
+        store.record("old", mapping("old", "https://example.com/old", LocalDateTime.now().minusMinutes(1)));
+        store.close();
+
+        LastKnownGoodStore reloaded = new LastKnownGoodStore(new SimpleMeterRegistry(), 100, file.toString());
+
+        assertEquals(3, reloaded.size());
+        assertEquals("https://example.com/ä", reloaded.getStale("abc"));
+        assertEquals("https://example.com/tmp", reloaded.getStale("tmp"));
+        assertNull(reloaded.getStale("old"));
+        assertFalse(Files.exists(directory.resolve("lkg/links.bin.tmp")));
+    }
+
+    @Test
+    public void shouldStartEmptyFromAMissingOrForeignFile(@TempDir Path directory) throws Exception {
+        assertEquals(0, new LastKnownGoodStore(meterRegistry, 100, directory.resolve("missing.bin").toString()).size());
+
+        Path foreign = directory.resolve("foreign.bin");
+        Files.writeString(foreign, "not a store");
+        assertEquals(0, new LastKnownGoodStore(new SimpleMeterRegistry(), 100, foreign.toString()).size());
+
+        Path truncated = directory.resolve("truncated.bin");
+        LastKnownGoodStore store = new LastKnownGoodStore(new SimpleMeterRegistry(), 100, truncated.toString());
+        store.record("abc", mapping("abc", "https://example.com/a", null));
+        store.record("def", mapping("def", "https://example.com/d", null));
+        store.spill();
+        byte[] bytes = Files.readAllBytes(truncated);
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 4));
+        assertEquals(1, new LastKnownGoodStore(new SimpleMeterRegistry(), 100, truncated.toString()).size());
+    }
+
+    private static UrlMapping mapping(String shortCode, String originalUrl, LocalDateTime expiresAt) {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setShortCode(shortCode);
+        mapping.setOriginalUrl(originalUrl);
+        mapping.setExpiresAt(expiresAt);
+        return mapping;
+    }
+}
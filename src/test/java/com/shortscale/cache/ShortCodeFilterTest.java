@@ -0,0 +1,170 @@
+package com.shortscale.cache;
+
+import com.shortscale.repository.RedisShards;
+import com.shortscale.repository.StorageLayout;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import reactor.test.StepVerifier;
+import redis.embedded.RedisServer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShortCodeFilterTest {
+
+    private static final int PORT = 6392;
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+
+    @BeforeAll
+    static void startRedis() {
+        redisServer = new RedisServer(PORT);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory("localhost", PORT);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void flushRedis() {
+        redisTemplate.execute(connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        }, true);
+    }
+
+    @Test
+    public void shouldLetEverythingThroughUntilLoaded() {
+        ShortCodeFilter filter = newFilter(new SimpleMeterRegistry());
+
+        assertFalse(filter.isActive());
+        assertTrue(filter.mightContain("anything"));
+    }
+
+    @Test
+    public void shouldRebuildFromKeyspaceAndRejectUnknownCodes() throws InterruptedException {
+        redisTemplate.opsForValue().set("abc", "{}");
+        redisTemplate.opsForValue().set("clicks:zzz", "1");
+        redisTemplate.opsForHash().put(StorageLayout.BUCKET_PREFIX + "0", "bkt", "{}");
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ShortCodeFilter filter = newFilter(meterRegistry);
+
+        activate(filter);
+
+        assertTrue(filter.mightContain("abc"));
+        assertTrue(filter.mightContain("bkt"));
+        int rejected = 0;
+        for (int i = 0; i < 100; i++) {
+            if (!filter.mightContain("missing" + i)) {
+                rejected++;
+            }
+        }
+        assertTrue(rejected > 90);
+        assertEquals(rejected, meterRegistry.get("bloom_filter_rejections_total").counter().count());
+        assertTrue(redisTemplate.hasKey(ShortCodeFilter.BITMAP_KEY));
+    }
+
+    @Test
+    public void shouldShareCodesThroughRedisBitmap() throws InterruptedException {
+        ShortCodeFilter writer = newFilter(new SimpleMeterRegistry());
+        activate(writer);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            writer.addToBitmap(connection, "shared");
+            return null;
+        });
+
+        ShortCodeFilter reader = newFilter(new SimpleMeterRegistry());
+        activate(reader);
+
+        assertTrue(reader.mightContain("shared"));
+    }
+
+    @Test
+    public void shouldRejectALocalMissWithoutAskingRedis() throws InterruptedException {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ShortCodeFilter reader = newFilter(meterRegistry);
+        activate(reader);
+        ReactiveStringRedisTemplate reactiveTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+        // created on another node; the shared bitmap has it, but a subscribed node waits for the invalidation message
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            newFilter(new SimpleMeterRegistry()).addToBitmap(connection, "just-created");
+            return null;
+        });
+
+        assertFalse(reader.mightContain("just-created"));
+        StepVerifier.create(reader.mightContain("just-created", reactiveTemplate)).expectNext(false).verifyComplete();
+        assertEquals(0, meterRegistry.get("bloom_filter_shared_hits_total").counter().count());
+        assertEquals(2, meterRegistry.get("bloom_filter_rejections_total").counter().count());
+    }
+
+    @Test
+    public void shouldConfirmMissesAgainstTheSharedBitmapWhileResubscribing() throws InterruptedException {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ShortCodeFilter reader = newFilter(meterRegistry);
+        activate(reader);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            newFilter(new SimpleMeterRegistry()).addToBitmap(connection, "created-elsewhere");
+            return null;
+        });
+
+        reader.suspend();
+
+        assertTrue(reader.isConfirmingMisses());
+        assertTrue(reader.mightContain("created-elsewhere"));
+        assertEquals(1, meterRegistry.get("bloom_filter_shared_hits_total").counter().count());
+        assertFalse(reader.mightContain("never-created"));
+
+        reader.resume();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (reader.isConfirmingMisses() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(reader.isConfirmingMisses());
+        redisTemplate.delete(ShortCodeFilter.BITMAP_KEY);
+        assertTrue(reader.mightContain("created-elsewhere")); // now known locally
+    }
+
+    @Test
+    public void shouldConfirmMissesWithoutBlockingInTheReactiveEdition() throws InterruptedException {
+        ShortCodeFilter reader = newFilter(new SimpleMeterRegistry());
+        activate(reader);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            newFilter(new SimpleMeterRegistry()).addToBitmap(connection, "just-created");
+            return null;
+        });
+        ReactiveStringRedisTemplate reactiveTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+
+        reader.suspend();
+
+        StepVerifier.create(reader.mightContain("just-created", reactiveTemplate)).expectNext(true).verifyComplete();
+        StepVerifier.create(reader.mightContain("never-created", reactiveTemplate)).expectNext(false).verifyComplete();
+    }
+
+    private ShortCodeFilter newFilter(SimpleMeterRegistry meterRegistry) {
+        return new ShortCodeFilter(RedisShards.of(redisTemplate), meterRegistry, true, 1_000, 0.01);
+    }
+
+    private void activate(ShortCodeFilter filter) throws InterruptedException {
+        filter.resume();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!filter.isActive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(filter.isActive());
+    }
+}
@@ -0,0 +1,157 @@
+package com.shortscale.cache;
+
+import com.shortscale.model.UrlMapping;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UrlMappingNearCacheTest {
+
+    @Test
+    public void shouldServeRepeatedLookupsFromCache() {
+        UrlMappingNearCache nearCache = new UrlMappingNearCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 5; i++) {
+            UrlMapping mapping = nearCache.get("abc", key -> {
+                loads.incrementAndGet();
+                return mapping(key);
+            });
+            assertEquals("https://example.com", mapping.getOriginalUrl());
+        }
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void shouldReloadAfterInvalidation() {
+        UrlMappingNearCache nearCache = new UrlMappingNearCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+        AtomicInteger loads = new AtomicInteger();
+
+        nearCache.get("abc", key -> {
+            loads.incrementAndGet();
+            return mapping(key);
+        });
+        nearCache.invalidate("abc");
+        nearCache.get("abc", key -> {
+            loads.incrementAndGet();
+            return mapping(key);
+        });
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void shouldNotCacheMisses() {
+        UrlMappingNearCache nearCache = new UrlMappingNearCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+        AtomicInteger loads = new AtomicInteger();
+
+        assertNull(nearCache.get("missing", key -> {
+            loads.incrementAndGet();
+            return null;
+        }));
+        assertNull(nearCache.get("missing", key -> {
+            loads.incrementAndGet();
+            return null;
+        }));
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void shouldLoadOnceForConcurrentMisses() throws Exception {
+        UrlMappingNearCache nearCache = new UrlMappingNearCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        Future<UrlMapping> first = executor.submit(() -> nearCache.get("abc", key -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return mapping(key);
+        }));
+        assertTrue(loading.await(1, TimeUnit.SECONDS));
+        Future<UrlMapping> second = executor.submit(() -> nearCache.get("abc", key -> {
+            loads.incrementAndGet();
+            return mapping(key);
+        }));
+        release.countDown();
+
+        assertEquals("https://example.com", first.get(1, TimeUnit.SECONDS).getOriginalUrl());
+        assertEquals("https://example.com", second.get(1, TimeUnit.SECONDS).getOriginalUrl());
+        assertEquals(1, loads.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldPropagateLoaderFailureWithoutCachingIt() {
+        UrlMappingNearCache nearCache = new UrlMappingNearCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+
+        assertThrows(IllegalStateException.class, () -> nearCache.get("abc", key -> {
+            throw new IllegalStateException("redis down");
+        }));
+
+        assertEquals("https://example.com", nearCache.get("abc", this::mapping).getOriginalUrl());
+    }
+
+    @Test
+    public void shouldDropExpiringEntryAtLinkExpiry() throws InterruptedException {
+        UrlMappingNearCache nearCache = new UrlMappingNearCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+        AtomicInteger loads = new AtomicInteger();
+        Function<String, UrlMapping> loader = key -> {
+            loads.incrementAndGet();
+            UrlMapping mapping = mapping(key);
+            mapping.setExpiresAt(LocalDateTime.now().plusNanos(200_000_000));
+            return mapping;
+        };
+
+        nearCache.get("abc", loader);
+        nearCache.get("abc", loader);
+        assertEquals(1, loads.get());
+
+        Thread.sleep(300);
+        nearCache.get("abc", loader);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void shouldReportHitsAndMisses() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UrlMappingNearCache nearCache = new UrlMappingNearCache(meterRegistry, 100, Duration.ofMinutes(1));
+
+        nearCache.get("abc", this::mapping);
+        nearCache.get("abc", this::mapping);
+
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "urlNearCache").tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "urlNearCache").tag("result", "miss").functionCounter().count());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private UrlMapping mapping(String shortCode) {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setShortCode(shortCode);
+        mapping.setOriginalUrl("https://example.com");
+        return mapping;
+    }
+}
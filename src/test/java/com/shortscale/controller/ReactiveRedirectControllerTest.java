@@ -0,0 +1,65 @@
+package com.shortscale.controller;
+
+import com.shortscale.service.ReactiveUrlService;
+import com.shortscale.util.AdaptiveConcurrencyLimiter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@WebFluxTest(ReactiveRedirectController.class)
+public class ReactiveRedirectControllerTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @MockBean
+    private ReactiveUrlService urlService;
+
+    @MockBean
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private final AdaptiveConcurrencyLimiter.Permit permit = mock(AdaptiveConcurrencyLimiter.Permit.class);
+
+    @BeforeEach
+    void admitCalls() {
+        when(concurrencyLimiter.tryAcquire("redirect")).thenReturn(permit);
+    }
+
+    @Test
+    public void shouldRedirectToOriginalUrlWhenFound() {
+        when(urlService.getOriginalUrl("abc")).thenReturn(Mono.just("https://example.com"));
+
+        webTestClient.get().uri("/abc").exchange()
+                .expectStatus().isFound()
+                .expectHeader().valueEquals("Location", "https://example.com");
+        verify(permit).close();
+    }
+
+    @Test
+    public void shouldReturnNotFoundWhenShortCodeNotExists() {
+        when(urlService.getOriginalUrl("abc")).thenReturn(Mono.empty());
+
+        webTestClient.get().uri("/abc").exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    public void shouldShedWithRetryAfterWhenOverloaded() {
+        when(concurrencyLimiter.tryAcquire("redirect")).thenReturn(null);
+        when(concurrencyLimiter.getRetryAfterSeconds()).thenReturn(1L);
+
+        webTestClient.get().uri("/abc").exchange()
+                .expectStatus().isEqualTo(503)
+                .expectHeader().valueEquals("Retry-After", "1");
+        verify(urlService, never()).getOriginalUrl("abc");
+    }
+}
@@ -0,0 +1,87 @@
+package com.shortscale.controller;
+
+import com.shortscale.api.dto.ShortenResponse;
+import com.shortscale.service.ReactiveUrlService;
+import com.shortscale.util.AdaptiveConcurrencyLimiter;
+import com.shortscale.util.RateLimiter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@WebFluxTest(ReactiveUrlController.class)
+public class ReactiveUrlControllerTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @MockBean
+    private ReactiveUrlService urlService;
+
+    @MockBean
+    private RateLimiter rateLimiter;
+
+    @MockBean
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private final AdaptiveConcurrencyLimiter.Permit permit = mock(AdaptiveConcurrencyLimiter.Permit.class);
+
+    @BeforeEach
+    void admitCalls() {
+        when(concurrencyLimiter.tryAcquire("shorten")).thenReturn(permit);
+        ShortenResponse response = new ShortenResponse();
+        response.setShortCode("abc123");
+        when(urlService.shortenUrl(any())).thenReturn(Mono.just(response));
+    }
+
+    @Test
+    public void shouldShortenWithinTheRateLimit() {
+        when(rateLimiter.isAllowed(eq("shorten"), anyString())).thenReturn(true);
+
+        shorten().expectStatus().isOk().expectBody().jsonPath("$.shortCode").isEqualTo("abc123");
+        verify(permit).close();
+    }
+
+    @Test
+    public void shouldRefuseClientsOverTheRateLimit() {
+        when(rateLimiter.isAllowed(eq("shorten"), anyString())).thenReturn(false);
+
+        shorten().expectStatus().isEqualTo(429);
+        verify(urlService, never()).shortenUrl(any());
+    }
+
+    @Test
+    public void shouldCheckDistributedLimitsOffTheEventLoop() {
+        AtomicReference<String> checkedOn = new AtomicReference<>();
+        when(rateLimiter.isDistributed()).thenReturn(true);
+        when(rateLimiter.isAllowed(eq("shorten"), anyString())).thenAnswer(invocation -> {
+            checkedOn.set(Thread.currentThread().getName());
+            return true;
+        });
+
+        shorten().expectStatus().isOk();
+        assertTrue(checkedOn.get().startsWith("boundedElastic"), checkedOn.get());
+    }
+
+    private WebTestClient.ResponseSpec shorten() {
+        return webTestClient.post().uri("/api/shorten")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"originalUrl\":\"https://example.com\"}")
+                .exchange();
+    }
+}
@@ -1,12 +1,17 @@
 package com.shortscale.controller;
 
 import com.shortscale.service.UrlService;
+import com.shortscale.util.AdaptiveConcurrencyLimiter;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.test.web.servlet.MockMvc;
 
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
@@ -21,6 +26,16 @@ public class RedirectControllerTest {
     @MockBean
     private UrlService urlService;
 
+    @MockBean
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private final AdaptiveConcurrencyLimiter.Permit permit = mock(AdaptiveConcurrencyLimiter.Permit.class);
+
+    @BeforeEach
+    void admitCalls() {
+        when(concurrencyLimiter.tryAcquire("redirect")).thenReturn(permit);
+    }
+
     @Test
     public void shouldRedirectToOriginalUrlWhenFound() throws Exception {
         when(urlService.getOriginalUrl("abc")).thenReturn("https://example.com");
@@ -28,6 +43,7 @@ public class RedirectControllerTest {
         mockMvc.perform(get("/abc"))
                 .andExpect(status().isFound())
                 .andExpect(header().string("Location", "https://example.com"));
+        verify(permit).close();
     }
 
     @Test
@@ -37,4 +53,15 @@ public class RedirectControllerTest {
         mockMvc.perform(get("/abc"))
                 .andExpect(status().isNotFound());
     }
+
+    @Test
+    public void shouldShedWithRetryAfterWhenOverloaded() throws Exception {
+        when(concurrencyLimiter.tryAcquire("redirect")).thenReturn(null);
+        when(concurrencyLimiter.getRetryAfterSeconds()).thenReturn(1L);
+
+        mockMvc.perform(get("/abc"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+        verify(urlService, never()).getOriginalUrl("abc");
+    }
 }
@@ -7,8 +7,11 @@ import com.shortscale.api.dto.BulkShortenRequest;
 import com.shortscale.api.dto.BulkShortenResponse;
 import com.shortscale.api.dto.ShortenRequest;
 import com.shortscale.api.dto.ShortenResponse;
+import com.shortscale.service.BulkImportService;
 import com.shortscale.service.UrlService;
+import com.shortscale.util.AdaptiveConcurrencyLimiter;
 import com.shortscale.util.RateLimiter;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.MockedConstruction;
 import org.mockito.Mockito;
@@ -35,12 +38,23 @@ public class UrlControllerTest {
     @MockBean
     private UrlService urlService;
 
+    @MockBean
+    private BulkImportService bulkImportService;
+
     @MockBean
     private RateLimiter rateLimiter;
 
+    @MockBean
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
     @Autowired
     private ObjectMapper objectMapper;
 
+    @BeforeEach
+    void admitCalls() {
+        when(concurrencyLimiter.tryAcquire(any())).thenReturn(Mockito.mock(AdaptiveConcurrencyLimiter.Permit.class));
+    }
+
     @Test
     public void shouldShortenUrlSuccessfully() throws Exception {
         ShortenRequest request = new ShortenRequest();
@@ -50,7 +64,7 @@ public class UrlControllerTest {
         response.setOriginalUrl("https://example.com");
         response.setShortCode("abc");
 
-        when(rateLimiter.isAllowed(any())).thenReturn(true);
+        when(rateLimiter.isAllowed(any(), any())).thenReturn(true);
         when(urlService.shortenUrl(any(ShortenRequest.class))).thenReturn(response);
 
         mockMvc.perform(post("/api/shorten")
@@ -65,7 +79,7 @@ public class UrlControllerTest {
         ShortenRequest request = new ShortenRequest();
         request.setOriginalUrl("https://example.com");
 
-        when(rateLimiter.isAllowed(any())).thenReturn(false);
+        when(rateLimiter.isAllowed(any(), any())).thenReturn(false);
 
         mockMvc.perform(post("/api/shorten")
                 .contentType(MediaType.APPLICATION_JSON)
@@ -73,12 +87,29 @@ public class UrlControllerTest {
                 .andExpect(status().isTooManyRequests());
     }
 
+    @Test
+    public void shouldShedWithRetryAfterWhenOverloaded() throws Exception {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl("https://example.com");
+
+        when(rateLimiter.isAllowed(any(), any())).thenReturn(true);
+        when(concurrencyLimiter.tryAcquire("shorten")).thenReturn(null);
+        when(concurrencyLimiter.getRetryAfterSeconds()).thenReturn(2L);
+
+        mockMvc.perform(post("/api/shorten")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "2"));
+        Mockito.verifyNoInteractions(urlService);
+    }
+
     @Test
     public void shouldReturnBadRequestWhenInvalid() throws Exception {
         ShortenRequest request = new ShortenRequest();
         request.setOriginalUrl("invalid");
 
-        when(rateLimiter.isAllowed(any())).thenReturn(true);
+        when(rateLimiter.isAllowed(any(), any())).thenReturn(true);
         when(urlService.shortenUrl(any(ShortenRequest.class))).thenThrow(new IllegalArgumentException());
 
         mockMvc.perform(post("/api/shorten")
@@ -99,7 +130,7 @@ public class UrlControllerTest {
         srResp.setShortUrl("http://localhost:8080/abc");
         response.setResponses(List.of(srResp));
 
-        when(rateLimiter.isAllowed(any())).thenReturn(true);
+        when(rateLimiter.isAllowed(any(), any())).thenReturn(true);
         when(urlService.bulkShortenUrls(any(BulkShortenRequest.class))).thenReturn(response);
 
         mockMvc.perform(post("/api/shorten/bulk")
@@ -115,7 +146,7 @@ public class UrlControllerTest {
         sr.setOriginalUrl("https://example.com");
         request.setRequests(List.of(sr));
 
-        when(rateLimiter.isAllowed(any())).thenReturn(false);
+        when(rateLimiter.isAllowed(any(), any())).thenReturn(false);
 
         mockMvc.perform(post("/api/shorten/bulk")
                 .contentType(MediaType.APPLICATION_JSON)
@@ -130,7 +161,7 @@ public class UrlControllerTest {
         sr.setOriginalUrl("invalid");
         request.setRequests(List.of(sr));
 
-        when(rateLimiter.isAllowed(any())).thenReturn(true);
+        when(rateLimiter.isAllowed(any(), any())).thenReturn(true);
         when(urlService.bulkShortenUrls(any(BulkShortenRequest.class))).thenThrow(new IllegalArgumentException());
 
         mockMvc.perform(post("/api/shorten/bulk")
@@ -139,9 +170,36 @@ public class UrlControllerTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    public void shouldStreamImportResults() throws Exception {
+        when(rateLimiter.isAllowed(any(), any())).thenReturn(true);
+        Mockito.doAnswer(invocation -> {
+            invocation.<java.io.OutputStream>getArgument(2).write("{\"line\":1,\"shortCode\":\"abc\"}\n".getBytes());
+            return null;
+        }).when(bulkImportService).importLinks(any(), eq(BulkImportService.Format.CSV), any(), any());
+
+        mockMvc.perform(post("/api/import")
+                .contentType("text/csv")
+                .content("originalUrl\nhttps://example.com\n"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string("{\"line\":1,\"shortCode\":\"abc\"}\n"));
+    }
+
+    @Test
+    public void shouldReturnTooManyRequestsForImportWhenRateLimited() throws Exception {
+        when(rateLimiter.isAllowed(any(), any())).thenReturn(false);
+
+        mockMvc.perform(post("/api/import")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .content("{\"originalUrl\":\"https://example.com\"}\n"))
+                .andExpect(status().isTooManyRequests());
+        Mockito.verifyNoInteractions(bulkImportService);
+    }
+
     @Test
     public void shouldReturnClickCountForAnalytics() throws Exception {
-        when(urlService.getClickCount("abc")).thenReturn(5);
+        when(urlService.getClickCount("abc")).thenReturn(5L);
 
         mockMvc.perform(get("/api/analytics/abc"))
                 .andExpect(status().isOk())
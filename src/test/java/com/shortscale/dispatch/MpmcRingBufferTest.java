@@ -0,0 +1,83 @@
+package com.shortscale.dispatch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MpmcRingBufferTest {
+
+    @Test
+    public void shouldRoundCapacityUpToPowerOfTwo() {
+        assertEquals(8, new MpmcRingBuffer<>(5).capacity());
+        assertEquals(8, new MpmcRingBuffer<>(8).capacity());
+    }
+
+    @Test
+    public void shouldPollInFifoOrder() {
+        MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<>(4);
+        buffer.offer(1);
+        buffer.offer(2);
+        buffer.offer(3);
+
+        assertEquals(1, buffer.poll());
+        assertEquals(2, buffer.poll());
+        assertEquals(3, buffer.poll());
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void shouldRejectOfferWhenFull() {
+        MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<>(2);
+
+        assertTrue(buffer.offer(1));
+        assertTrue(buffer.offer(2));
+        assertFalse(buffer.offer(3));
+        assertEquals(2, buffer.size());
+
+        buffer.poll();
+        assertTrue(buffer.offer(3));
+    }
+
+    @Test
+    public void shouldDeliverEveryElementExactlyOnceUnderContention() throws InterruptedException {
+        MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<>(64);
+        Set<Integer> received = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        int producers = 4;
+        int perProducer = 10_000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers * 2);
+
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            executor.submit(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(base + i)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+        }
+        for (int c = 0; c < producers; c++) {
+            executor.submit(() -> {
+                while (received.size() < producers * perProducer) {
+                    Integer value = buffer.poll();
+                    if (value != null && !received.add(value)) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(20, TimeUnit.SECONDS));
+
+        assertEquals(producers * perProducer, received.size());
+        assertEquals(0, duplicates.get());
+    }
+}
@@ -0,0 +1,108 @@
+package com.shortscale.dispatch;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SideEffectDispatcherTest {
+
+    @Test
+    public void shouldRunSideEffectsOffTheCallingThread() throws Exception {
+        SideEffectDispatcher dispatcher = new SideEffectDispatcher(new SimpleMeterRegistry(), 16, 1, BackpressurePolicy.DROP_NEWEST, Duration.ofMillis(10));
+        CountDownLatch done = new CountDownLatch(1);
+        List<String> threads = new CopyOnWriteArrayList<>();
+
+        assertTrue(dispatcher.dispatch(() -> {
+            threads.add(Thread.currentThread().getName());
+            done.countDown();
+        }));
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(threads.get(0).startsWith("side-effect-dispatcher-"));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void shouldDropNewestWhenFull() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        SideEffectDispatcher dispatcher = new SideEffectDispatcher(meterRegistry, 2, 1, BackpressurePolicy.DROP_NEWEST, Duration.ofMillis(10));
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> executed = new CopyOnWriteArrayList<>();
+
+        dispatcher.dispatch(() -> await(release)); // occupies the single worker
+        Thread.sleep(50);
+        dispatcher.dispatch(() -> executed.add(1));
+        dispatcher.dispatch(() -> executed.add(2));
+        assertFalse(dispatcher.dispatch(() -> executed.add(3)));
+        release.countDown();
+        dispatcher.shutdown();
+
+        assertEquals(List.of(1, 2), executed);
+        assertEquals(1.0, meterRegistry.get("side_effect_dropped_total").counter().count());
+    }
+
+    @Test
+    public void shouldDropOldestWhenFull() throws Exception {
+        SideEffectDispatcher dispatcher = new SideEffectDispatcher(new SimpleMeterRegistry(), 2, 1, BackpressurePolicy.DROP_OLDEST, Duration.ofMillis(10));
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> executed = new CopyOnWriteArrayList<>();
+
+        dispatcher.dispatch(() -> await(release));
+        Thread.sleep(50);
+        dispatcher.dispatch(() -> executed.add(1));
+        dispatcher.dispatch(() -> executed.add(2));
+        assertTrue(dispatcher.dispatch(() -> executed.add(3)));
+        release.countDown();
+        dispatcher.shutdown();
+
+        assertEquals(List.of(2, 3), executed);
+    }
+
+    @Test
+    public void shouldBlockUntilSpaceOrTimeout() throws Exception {
+        SideEffectDispatcher dispatcher = new SideEffectDispatcher(new SimpleMeterRegistry(), 2, 1, BackpressurePolicy.BLOCK, Duration.ofMillis(20));
+        CountDownLatch release = new CountDownLatch(1);
+
+        dispatcher.dispatch(() -> await(release));
+        Thread.sleep(50);
+        dispatcher.dispatch(() -> { });
+        dispatcher.dispatch(() -> { });
+
+        long start = System.nanoTime();
+        assertFalse(dispatcher.dispatch(() -> { }));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+
+        release.countDown();
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void shouldRecordPublishLatencyAndSurviveFailures() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        SideEffectDispatcher dispatcher = new SideEffectDispatcher(meterRegistry, 16, 1, BackpressurePolicy.DROP_NEWEST, Duration.ofMillis(10));
+
+        dispatcher.dispatch(() -> {
+            throw new IllegalStateException("broker down");
+        });
+        dispatcher.dispatch(() -> { });
+        dispatcher.shutdown();
+
+        assertEquals(2, meterRegistry.get("side_effect_publish_latency").timer().count());
+        assertEquals(1.0, meterRegistry.get("side_effect_failed_total").counter().count());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
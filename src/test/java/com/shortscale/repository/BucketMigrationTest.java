@@ -0,0 +1,174 @@
+package com.shortscale.repository;
+
+import com.shortscale.cache.ShortCodeFilter;
+import com.shortscale.model.UrlMapping;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import redis.embedded.RedisServer;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {"shortscale.storage.bucketed=true", "shortscale.storage.bucket-size=100"})
+public class BucketMigrationTest {
+
+    private static final int PORT = 6394;
+
+    private static RedisServer redisServer;
+
+    @BeforeAll
+    static void startRedis() {
+        redisServer = RedisServer.builder()
+                .port(PORT)
+                .setting("hash-max-ziplist-entries 128")
+                .setting("hash-max-ziplist-value 512")
+                .build();
+        redisServer.start();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.host", () -> "localhost");
+        registry.add("spring.data.redis.port", () -> PORT);
+    }
+
+    @Autowired
+    private BucketMigration bucketMigration;
+
+    @Autowired
+    private RedisUrlRepository repository;
+
+    @Autowired
+    private ShortCodeFilter shortCodeFilter;
+
+    @Autowired
+    private RedisTemplate<String, UrlMapping> redisTemplate;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @BeforeEach
+    void flushRedis() {
+        stringRedisTemplate.execute(connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        }, true);
+    }
+
+    @Test
+    public void shouldStoreGeneratedLinksInBuckets() {
+        repository.save(mapping("1C", null)); // id 74, bucket u:0
+
+        assertTrue(stringRedisTemplate.opsForHash().hasKey("u:0", "1C"));
+        assertFalse(stringRedisTemplate.hasKey("1C"));
+        assertEquals("https://1C.example.com", repository.findByShortCode("1C").getOriginalUrl());
+        assertEquals("1C", repository.findByShortCode("1C").getShortCode());
+        assertTrue(repository.existsByShortCode("1C"));
+
+        repository.deleteByShortCode("1C");
+
+        assertFalse(stringRedisTemplate.opsForHash().hasKey("u:0", "1C"));
+        assertNull(repository.findByShortCode("1C"));
+        assertFalse(repository.existsByShortCode("1C"));
+    }
+
+    @Test
+    public void shouldKeepExpiringAndCustomLinksTopLevel() {
+        repository.save(mapping("1D", LocalDateTime.now().plusSeconds(60)));
+        repository.save(mapping("my-link", null));
+
+        long ttl = stringRedisTemplate.getExpire("1D", TimeUnit.SECONDS);
+        assertTrue(ttl > 0 && ttl <= 60);
+        assertTrue(stringRedisTemplate.hasKey("my-link"));
+        assertFalse(stringRedisTemplate.hasKey("u:0"));
+        assertNotNull(repository.findByShortCode("1D"));
+        assertNotNull(repository.findByShortCode("my-link"));
+    }
+
+    @Test
+    public void shouldBucketACustomCodeThatIsCanonicalBase62() {
+        // Indistinguishable from a code issued before fixed-width codes, so it is bucketed by its base62 value
+        assertTrue(repository.saveIfAbsent(mapping("abc", null))); // 140716, bucket u:1407
+
+        assertTrue(stringRedisTemplate.opsForHash().hasKey("u:1407", "abc"));
+        assertFalse(stringRedisTemplate.hasKey("abc"));
+        assertFalse(repository.saveIfAbsent(mapping("abc", null)));
+        assertEquals("https://abc.example.com", repository.findByShortCode("abc").getOriginalUrl());
+
+        repository.deleteByShortCode("abc");
+
+        assertFalse(stringRedisTemplate.opsForHash().hasKey("u:1407", "abc"));
+        assertNull(repository.findByShortCode("abc"));
+    }
+
+    @Test
+    public void shouldMoveLinkOutOfBucketWhenItGainsAnExpiry() {
+        repository.save(mapping("1E", null));
+        assertTrue(stringRedisTemplate.opsForHash().hasKey("u:0", "1E"));
+
+        repository.save(mapping("1E", LocalDateTime.now().plusSeconds(60)));
+
+        assertFalse(stringRedisTemplate.opsForHash().hasKey("u:0", "1E"));
+        assertTrue(stringRedisTemplate.hasKey("1E"));
+        assertNotNull(repository.findByShortCode("1E").getExpiresAt());
+    }
+
+    @Test
+    public void shouldMigratePermanentTopLevelLinksIntoBuckets() {
+        // As the flat layout wrote them
+        redisTemplate.opsForValue().set("1F", mapping("1F", null));
+        redisTemplate.opsForValue().set("252", mapping("252", null)); // id 8000, bucket u:80
+        redisTemplate.opsForValue().set("1G", mapping("1G", LocalDateTime.now().plusSeconds(60)), Duration.ofSeconds(60));
+        redisTemplate.opsForValue().set("my-link", mapping("my-link", null));
+        stringRedisTemplate.opsForValue().set("clicks:1F", "5");
+        repository.save(mapping("1H", null)); // already bucketed
+
+        BucketMigration.Report report = bucketMigration.migrate();
+
+        assertEquals(5, report.getLinks());
+        assertEquals(2, report.getMoved());
+        assertTrue(report.getUsedMemoryBefore() > 0 && report.getUsedMemoryAfter() > 0);
+        assertTrue(stringRedisTemplate.opsForHash().hasKey("u:0", "1F"));
+        assertTrue(stringRedisTemplate.opsForHash().hasKey("u:80", "252"));
+        assertFalse(stringRedisTemplate.hasKey("1F"));
+        assertFalse(stringRedisTemplate.hasKey("252"));
+        assertTrue(stringRedisTemplate.hasKey("1G"));
+        assertTrue(stringRedisTemplate.hasKey("my-link"));
+        assertEquals("5", stringRedisTemplate.opsForValue().get("clicks:1F"));
+
+        shortCodeFilter.add("1F");
+        shortCodeFilter.add("252");
+        assertEquals("https://1F.example.com", repository.findByShortCode("1F").getOriginalUrl());
+        assertEquals("https://252.example.com", repository.findByShortCode("252").getOriginalUrl());
+
+        assertEquals(0, bucketMigration.migrate().getMoved());
+    }
+
+    private static UrlMapping mapping(String shortCode, LocalDateTime expiresAt) {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setId(1L);
+        mapping.setShortCode(shortCode);
+        mapping.setOriginalUrl("https://" + shortCode + ".example.com");
+        mapping.setCreatedAt(LocalDateTime.now());
+        mapping.setExpiresAt(expiresAt);
+        return mapping;
+    }
+}
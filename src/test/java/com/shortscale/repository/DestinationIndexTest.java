@@ -0,0 +1,110 @@
+package com.shortscale.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DestinationIndexTest {
+
+    private static final int PORT = 6395;
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+
+    @BeforeAll
+    static void startRedis() {
+        redisServer = new RedisServer(PORT);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory("localhost", PORT);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void flushRedis() {
+        redisTemplate.execute(connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        }, true);
+    }
+
+    @Test
+    public void shouldCanonicalizeOnlyWhatCannotChangeTheDestination() {
+        assertEquals("https://example.com/", DestinationIndex.canonicalize(" HTTPS://Example.COM "));
+        assertEquals("https://example.com/", DestinationIndex.canonicalize("https://example.com:443"));
+        assertEquals("http://example.com/a", DestinationIndex.canonicalize("http://example.com:80/a"));
+        assertEquals("http://example.com:8080/a", DestinationIndex.canonicalize("http://example.com:8080/a"));
+        assertEquals("https://example.com/Path?B=2&a=1#Top", DestinationIndex.canonicalize("https://EXAMPLE.com/Path?B=2&a=1#Top"));
+        assertEquals("not a url", DestinationIndex.canonicalize("not a url"));
+    }
+
+    @Test
+    public void shouldProduceFixedWidthDigestForEquivalentUrls() {
+        String digest = DestinationIndex.digest("https://example.com");
+
+        assertEquals(22, digest.length());
+        assertEquals(digest, DestinationIndex.digest("HTTPS://EXAMPLE.COM:443/"));
+        assertNotEquals(digest, DestinationIndex.digest("https://example.com/other"));
+        assertEquals(22, DestinationIndex.digest("https://example.com/" + "x".repeat(2000)).length());
+    }
+
+    @Test
+    public void shouldFindCodeAfterClaim() {
+        DestinationIndex index = new DestinationIndex(RedisShards.of(redisTemplate), new SimpleMeterRegistry(), true, 100);
+        String digest = DestinationIndex.digest("https://example.com");
+        assertNull(index.find(digest));
+
+        assertEquals("abc", index.claim(digest, "abc"));
+
+        assertEquals("abc", index.find(digest));
+        assertEquals("abc", redisTemplate.opsForValue().get("dst:" + digest));
+        // another node sees it through Redis
+        assertEquals("abc", new DestinationIndex(RedisShards.of(redisTemplate), new SimpleMeterRegistry(), true, 100).find(digest));
+    }
+
+    @Test
+    public void shouldKeepFirstCodeWhenClaimedTwice() {
+        DestinationIndex index = new DestinationIndex(RedisShards.of(redisTemplate), new SimpleMeterRegistry(), true, 100);
+        DestinationIndex otherNode = new DestinationIndex(RedisShards.of(redisTemplate), new SimpleMeterRegistry(), true, 100);
+        String digest = DestinationIndex.digest("https://example.com");
+
+        assertEquals("first", index.claim(digest, "first"));
+        assertEquals("first", otherNode.claim(digest, "second"));
+        assertEquals("first", otherNode.find(digest));
+    }
+
+    @Test
+    public void shouldFindAndClaimManyDigestsAtOnce() {
+        DestinationIndex index = new DestinationIndex(RedisShards.of(redisTemplate), new SimpleMeterRegistry(), true, 100);
+        String first = DestinationIndex.digest("https://example.com/1");
+        String second = DestinationIndex.digest("https://example.com/2");
+        String third = DestinationIndex.digest("https://example.com/3");
+        index.claim(first, "one");
+
+        assertEquals(Map.of(first, "one"), index.findAll(List.of(first, second, third)));
+
+        DestinationIndex otherNode = new DestinationIndex(RedisShards.of(redisTemplate), new SimpleMeterRegistry(), true, 100);
+        Map<String, String> indexed = otherNode.claimAll(Map.of(first, "late", second, "two"));
+
+        assertEquals(Map.of(first, "one", second, "two"), indexed);
+        assertEquals(Map.of(first, "one", second, "two"), index.findAll(List.of(first, second, third)));
+    }
+}
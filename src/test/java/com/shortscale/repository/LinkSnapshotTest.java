@@ -0,0 +1,158 @@
+package com.shortscale.repository;
+
+import com.shortscale.model.UrlMapping;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = "shortscale.snapshot.chunk-size=100")
+public class LinkSnapshotTest {
+
+    private static final int PORT = 6396;
+
+    private static RedisServer redisServer;
+
+    @BeforeAll
+    static void startRedis() {
+        redisServer = new RedisServer(PORT);
+        redisServer.start();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.host", () -> "localhost");
+        registry.add("spring.data.redis.port", () -> PORT);
+    }
+
+    @TempDir
+    Path tempDir;
+
+    @Autowired
+    private LinkSnapshot linkSnapshot;
+
+    @Autowired
+    private RedisUrlRepository repository;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @BeforeEach
+    void flushRedis() {
+        flushAll();
+    }
+
+    @Test
+    public void shouldRestoreExportedLinksAndClickCounts() throws Exception {
+        List<UrlMapping> mappings = new ArrayList<>();
+        for (int i = 0; i < 250; i++) { // several chunks
+            mappings.add(mapping("snap" + i, null));
+        }
+        mappings.add(mapping("snapexp", LocalDateTime.now().plusSeconds(120)));
+        repository.saveAll(mappings);
+        stringRedisTemplate.opsForValue().set("clicks:snap7", "42");
+        // Legacy JSON values are exported in the current format
+        stringRedisTemplate.opsForValue().set("snaplegacy", "{\"id\":7,\"originalUrl\":\"https://snaplegacy.example.com\"}");
+        stringRedisTemplate.opsForValue().set("unrelated:key", "x");
+        Path file = tempDir.resolve("links.snap");
+
+        LinkSnapshot.Report exported = linkSnapshot.export(file);
+
+        assertEquals(252, exported.getLinks());
+        assertEquals(1, exported.getClickCounters());
+        assertEquals(Files.size(file), exported.getBytes());
+
+        flushAll();
+        LinkSnapshot.Report restored = linkSnapshot.restore(file, 3);
+
+        assertEquals(252, restored.getLinks());
+        assertEquals(1, restored.getClickCounters());
+        assertEquals("https://snap0.example.com", repository.findByShortCode("snap0").getOriginalUrl());
+        assertEquals("https://snap249.example.com", repository.findByShortCode("snap249").getOriginalUrl());
+        assertEquals("https://snaplegacy.example.com", repository.findByShortCode("snaplegacy").getOriginalUrl());
+        byte[] restoredValue = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get("snaplegacy".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(UrlMappingSerializer.VERSION_1, restoredValue[0]);
+        assertEquals("42", stringRedisTemplate.opsForValue().get("clicks:snap7"));
+        long ttl = stringRedisTemplate.getExpire("snapexp", TimeUnit.SECONDS);
+        assertTrue(ttl > 0 && ttl <= 120);
+        assertFalse(stringRedisTemplate.hasKey("unrelated:key"));
+    }
+
+    @Test
+    public void shouldRejectCorruptSnapshot() throws Exception {
+        repository.save(mapping("corrupt", null));
+        Path file = tempDir.resolve("corrupt.snap");
+        linkSnapshot.export(file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[5 + 16 + 2] ^= 0x55; // inside the first chunk's compressed payload
+        Files.write(file, bytes);
+
+        IOException e = assertThrows(IOException.class, () -> linkSnapshot.restore(file, 1));
+        assertTrue(e.getMessage().startsWith("Corrupt chunk"));
+    }
+
+    @Test
+    public void shouldRejectTruncatedSnapshot() throws Exception {
+        repository.save(mapping("truncated", null));
+        Path file = tempDir.resolve("truncated.snap");
+        linkSnapshot.export(file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 12)); // without the end marker
+
+        assertThrows(IOException.class, () -> linkSnapshot.restore(file, 1));
+    }
+
+    @Test
+    public void shouldRejectFileThatIsNotASnapshot() throws Exception {
+        Path file = tempDir.resolve("other.txt");
+        Files.writeString(file, "originalUrl\nhttps://example.com\n");
+
+        IOException e = assertThrows(IOException.class, () -> linkSnapshot.restore(file, 1));
+        assertTrue(e.getMessage().contains("not a version 1 link snapshot"));
+    }
+
+    private void flushAll() {
+        stringRedisTemplate.execute(connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        }, true);
+    }
+
+    private static UrlMapping mapping(String shortCode, LocalDateTime expiresAt) {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setId(7L);
+        mapping.setShortCode(shortCode);
+        mapping.setOriginalUrl("https://" + shortCode + ".example.com");
+        mapping.setCreatedAt(LocalDateTime.now());
+        mapping.setExpiresAt(expiresAt);
+        return mapping;
+    }
+}
@@ -0,0 +1,181 @@
+package com.shortscale.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.shortscale.model.UrlMapping;
+import com.shortscale.util.ShortCodeCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogStructuredUrlRepositoryTest {
+
+    private static final ShortCodeCodec CODEC = new ShortCodeCodec(0);
+    private static final int SEGMENT_BYTES = 4096;
+
+    @TempDir
+    Path directory;
+
+    private LogStructuredUrlRepository repository;
+
+    @AfterEach
+    void closeRepository() {
+        if (repository != null) {
+            repository.close();
+        }
+    }
+
+    @Test
+    public void shouldSaveFindAndDeleteLinks() {
+        repository = open();
+        repository.save(mapping(CODEC.encode(1_000_000_000L), null));
+        repository.save(mapping("my-custom_code", null));
+
+        assertEquals("https://" + CODEC.encode(1_000_000_000L) + ".example.com",
+                repository.findByShortCode(CODEC.encode(1_000_000_000L)).getOriginalUrl());
+        assertEquals("my-custom_code", repository.findByShortCode("my-custom_code").getShortCode());
+        assertNull(repository.findByShortCode("missing"));
+
+        repository.deleteByShortCode("my-custom_code");
+
+        assertFalse(repository.existsByShortCode("my-custom_code"));
+        assertEquals(1, repository.size());
+    }
+
+    @Test
+    public void shouldCreateOnlyIfShortCodeIsFree() {
+        repository = open();
+        UrlMapping taken = mapping("taken", null);
+        taken.setOriginalUrl("https://second.example.com");
+
+        assertTrue(repository.saveIfAbsent(mapping("taken", null)));
+        assertFalse(repository.saveIfAbsent(taken));
+        repository.save(mapping("lapsed", LocalDateTime.now().minusSeconds(1)));
+        assertTrue(repository.saveIfAbsent(mapping("lapsed", null)));
+        repository.close();
+
+        repository = open();
+
+        assertEquals("https://taken.example.com", repository.findByShortCode("taken").getOriginalUrl());
+        assertNull(repository.findByShortCode("lapsed").getExpiresAt());
+    }
+
+    @Test
+    public void shouldRecoverLinksAndDeletesAfterRestart() {
+        repository = open();
+        for (long id = 1; id <= 500; id++) { // several segments
+            repository.save(mapping(CODEC.encode(id), null));
+        }
+        UrlMapping replacement = mapping(CODEC.encode(3), null);
+        replacement.setOriginalUrl("https://replaced.example.com");
+        repository.save(replacement);
+        repository.deleteByShortCode(CODEC.encode(7));
+        repository.close();
+
+        repository = open();
+
+        assertTrue(repository.segmentCount() > 1);
+        assertEquals(499, repository.size());
+        assertEquals("https://replaced.example.com", repository.findByShortCode(CODEC.encode(3)).getOriginalUrl());
+        assertNull(repository.findByShortCode(CODEC.encode(7)));
+        assertEquals("https://" + CODEC.encode(500) + ".example.com", repository.findByShortCode(CODEC.encode(500)).getOriginalUrl());
+    }
+
+    @Test
+    public void shouldDiscardATornRecordOnRecovery() throws IOException {
+        repository = open();
+        repository.save(mapping("first", null));
+        repository.save(mapping("second", null));
+        repository.close();
+        Path segment = segmentFiles().get(0);
+        int secondRecord = 4 + 4 + 1 + 2 + "first".length() + new UrlMappingSerializer(new ObjectMapper()).serialize(mapping("first", null)).length;
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(secondRecord + 20);
+            file.write(0x55); // a write that never completed
+        }
+
+        repository = open();
+
+        assertEquals("https://first.example.com", repository.findByShortCode("first").getOriginalUrl());
+        assertNull(repository.findByShortCode("second"));
+        repository.save(mapping("third", null));
+        repository.close();
+        repository = open();
+        assertEquals("https://third.example.com", repository.findByShortCode("third").getOriginalUrl());
+        assertEquals(2, repository.size());
+    }
+
+    @Test
+    public void shouldCompactMostlyDeadSegments() throws IOException {
+        repository = open();
+        repository.save(mapping("gone", LocalDateTime.now().plusNanos(1_000_000)));
+        for (long id = 1; id <= 300; id++) {
+            repository.save(mapping(CODEC.encode(id), null));
+        }
+        for (long id = 1; id <= 300; id++) {
+            if (id % 10 != 0) {
+                repository.deleteByShortCode(CODEC.encode(id));
+            }
+        }
+        for (long id = 301; id <= 400; id++) {
+            repository.save(mapping(CODEC.encode(id), null));
+        }
+        long deadBefore = repository.deadBytes();
+        int filesBefore = segmentFiles().size();
+
+        assertTrue(repository.compact() > 0);
+
+        assertTrue(repository.deadBytes() < deadBefore);
+        assertTrue(segmentFiles().size() < filesBefore);
+        repository.close();
+        repository = open();
+        assertEquals(130, repository.size());
+        assertNull(repository.findByShortCode(CODEC.encode(11)));
+        assertNull(repository.findByShortCode("gone"));
+        assertEquals("https://" + CODEC.encode(20) + ".example.com", repository.findByShortCode(CODEC.encode(20)).getOriginalUrl());
+        assertEquals("https://" + CODEC.encode(400) + ".example.com", repository.findByShortCode(CODEC.encode(400)).getOriginalUrl());
+    }
+
+    @Test
+    public void shouldSaveBatchesAndRejectOversizedLinks() {
+        repository = open();
+        repository.saveAll(List.of(mapping("one", null), mapping("two", null)));
+        UrlMapping huge = mapping("huge", null);
+        huge.setOriginalUrl("https://example.com/" + "x".repeat(SEGMENT_BYTES));
+
+        assertEquals(2, repository.findExistingShortCodes(List.of("one", "two", "three")).size());
+        assertThrows(IllegalArgumentException.class, () -> repository.save(huge));
+    }
+
+    private LogStructuredUrlRepository open() {
+        return new LogStructuredUrlRepository(new ObjectMapper().registerModule(new JavaTimeModule()), new SimpleMeterRegistry(), CODEC,
+                directory.toString(), SEGMENT_BYTES, false, 0.5, 16);
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static UrlMapping mapping(String shortCode, LocalDateTime expiresAt) {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setId(7L);
+        mapping.setShortCode(shortCode);
+        mapping.setOriginalUrl("https://" + shortCode + ".example.com");
+        mapping.setCreatedAt(LocalDateTime.of(2026, 1, 1, 0, 0));
+        mapping.setExpiresAt(expiresAt);
+        return mapping;
+    }
+}
@@ -0,0 +1,127 @@
+package com.shortscale.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.shortscale.model.UrlMapping;
+import com.shortscale.util.ShortCodeCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapUrlRepositoryTest {
+
+    private static final ShortCodeCodec CODEC = new ShortCodeCodec(0);
+
+    private SimpleMeterRegistry meterRegistry;
+    private OffHeapUrlRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        repository = new OffHeapUrlRepository(new ObjectMapper().registerModule(new JavaTimeModule()), meterRegistry, CODEC, 16, 4096);
+    }
+
+    @Test
+    public void shouldSaveAndFindGeneratedAndCustomCodes() {
+        repository.save(mapping(CODEC.encode(1_000_000_000L), null));
+        repository.save(mapping("my-custom_code", null));
+
+        UrlMapping found = repository.findByShortCode(CODEC.encode(1_000_000_000L));
+        assertEquals("https://" + CODEC.encode(1_000_000_000L) + ".example.com", found.getOriginalUrl());
+        assertEquals(CODEC.encode(1_000_000_000L), found.getShortCode());
+        assertEquals(7L, found.getId());
+        assertEquals("https://my-custom_code.example.com", repository.findByShortCode("my-custom_code").getOriginalUrl());
+        assertNull(repository.findByShortCode("missing"));
+        assertNull(repository.findByShortCode("0abc")); // not a generated code, so looked up among custom codes
+        assertEquals(2, repository.size());
+    }
+
+    @Test
+    public void shouldHoldLinksAcrossManySlabsAndIndexResizes() {
+        for (long id = 1; id <= 5_000; id++) {
+            repository.save(mapping(CODEC.encode(id), null));
+        }
+
+        for (long id = 1; id <= 5_000; id++) {
+            assertEquals("https://" + CODEC.encode(id) + ".example.com", repository.findByShortCode(CODEC.encode(id)).getOriginalUrl());
+        }
+        assertEquals(5_000, meterRegistry.get("offheap_links").gauge().value());
+        assertTrue(repository.memoryBytes() > 5 * 4096);
+    }
+
+    @Test
+    public void shouldReplaceAndDeleteLinks() {
+        repository.save(mapping("abc", null));
+        UrlMapping replacement = mapping("abc", null);
+        replacement.setOriginalUrl("https://replaced.example.com");
+        repository.save(replacement);
+
+        assertEquals("https://replaced.example.com", repository.findByShortCode("abc").getOriginalUrl());
+        assertTrue(repository.garbageBytes() > 0);
+
+        repository.deleteByShortCode("abc");
+        repository.deleteByShortCode("never-saved");
+
+        assertFalse(repository.existsByShortCode("abc"));
+        assertEquals(0, repository.size());
+    }
+
+    @Test
+    public void shouldDropExpiredLinksOnRead() {
+        repository.save(mapping("gone", LocalDateTime.now().minusSeconds(1)));
+        repository.save(mapping("later", LocalDateTime.now().plusMinutes(5)));
+
+        assertNull(repository.findByShortCode("gone"));
+        assertFalse(repository.existsByShortCode("gone"));
+        assertTrue(repository.existsByShortCode("later"));
+        assertEquals(1, repository.size());
+    }
+
+    @Test
+    public void shouldSaveBatchesAndReportTakenCodes() {
+        repository.saveAll(List.of(mapping("one", null), mapping("two", null)));
+
+        assertEquals(Set.of("one", "two"), repository.findExistingShortCodes(List.of("one", "two", "three")));
+    }
+
+    @Test
+    public void shouldCreateOnlyIfShortCodeIsFree() {
+        UrlMapping taken = mapping("taken", null);
+        taken.setOriginalUrl("https://second.example.com");
+
+        assertTrue(repository.saveIfAbsent(mapping("taken", null)));
+        assertFalse(repository.saveIfAbsent(taken));
+        assertTrue(repository.saveIfAbsent(mapping(CODEC.encode(42), null)));
+        assertFalse(repository.saveIfAbsent(mapping(CODEC.encode(42), null)));
+        repository.save(mapping("lapsed", LocalDateTime.now().minusSeconds(1)));
+        assertTrue(repository.saveIfAbsent(mapping("lapsed", null)));
+
+        assertEquals("https://taken.example.com", repository.findByShortCode("taken").getOriginalUrl());
+        assertNull(repository.findByShortCode("lapsed").getExpiresAt());
+        assertEquals(3, repository.size());
+    }
+
+    @Test
+    public void shouldRejectLinksLargerThanASlab() {
+        UrlMapping mapping = mapping("huge", null);
+        mapping.setOriginalUrl("https://example.com/" + "x".repeat(5_000));
+
+        assertThrows(IllegalArgumentException.class, () -> repository.save(mapping));
+    }
+
+    private static UrlMapping mapping(String shortCode, LocalDateTime expiresAt) {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setId(7L);
+        mapping.setShortCode(shortCode);
+        mapping.setOriginalUrl("https://" + shortCode + ".example.com");
+        mapping.setCreatedAt(LocalDateTime.now());
+        mapping.setExpiresAt(expiresAt);
+        return mapping;
+    }
+}
@@ -0,0 +1,108 @@
+package com.shortscale.repository;
+
+import com.shortscale.model.UrlMapping;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import reactor.test.StepVerifier;
+import redis.embedded.RedisServer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = "spring.main.web-application-type=reactive")
+public class ReactiveRedisUrlRepositoryTest {
+
+    private static final int PORT = 6393;
+
+    private static RedisServer redisServer;
+
+    @BeforeAll
+    static void startRedis() {
+        redisServer = new RedisServer(PORT);
+        redisServer.start();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.host", () -> "localhost");
+        registry.add("spring.data.redis.port", () -> PORT);
+    }
+
+    @Autowired
+    private ReactiveRedisUrlRepository repository;
+
+    @Autowired
+    private RedisUrlRepository blockingRepository;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    public void shouldSaveAndFindUrlMapping() {
+        StepVerifier.create(repository.save(mapping("rabc", "https://example.com")).then(repository.findByShortCode("rabc")))
+                .assertNext(result -> assertEquals("https://example.com", result.getOriginalUrl()))
+                .verifyComplete();
+    }
+
+    @Test
+    public void shouldShareStorageFormatWithBlockingRepository() {
+        repository.save(mapping("rshared", "https://example.com/reactive")).block();
+
+        assertEquals("https://example.com/reactive", blockingRepository.findByShortCode("rshared").getOriginalUrl());
+    }
+
+    @Test
+    public void shouldCompleteEmptyForUnknownShortCode() {
+        StepVerifier.create(repository.findByShortCode("rmissing")).verifyComplete();
+    }
+
+    @Test
+    public void shouldCheckIfShortCodeExists() {
+        repository.save(mapping("rexists", "https://example.com")).block();
+
+        StepVerifier.create(repository.existsByShortCode("rexists")).expectNext(true).verifyComplete();
+        StepVerifier.create(repository.existsByShortCode("rnope")).expectNext(false).verifyComplete();
+    }
+
+    @Test
+    public void shouldInvalidateNearCacheOnUpdateAndDelete() {
+        repository.save(mapping("rupdate", "https://example.com/v1")).block();
+        repository.findByShortCode("rupdate").block();
+        repository.save(mapping("rupdate", "https://example.com/v2")).block();
+
+        assertEquals("https://example.com/v2", repository.findByShortCode("rupdate").block().getOriginalUrl());
+
+        repository.deleteByShortCode("rupdate").block();
+
+        StepVerifier.create(repository.findByShortCode("rupdate")).verifyComplete();
+        assertFalse(stringRedisTemplate.hasKey("rupdate"));
+    }
+
+    @Test
+    public void shouldCreateOnlyIfShortCodeIsFree() {
+        StepVerifier.create(repository.saveIfAbsent(mapping("rclaim", "https://example.com/first"))).expectNext(true).verifyComplete();
+        StepVerifier.create(repository.saveIfAbsent(mapping("rclaim", "https://example.com/second"))).expectNext(false).verifyComplete();
+
+        assertEquals("https://example.com/first", blockingRepository.findByShortCode("rclaim").getOriginalUrl());
+    }
+
+    private UrlMapping mapping(String shortCode, String originalUrl) {
+        UrlMapping urlMapping = new UrlMapping();
+        urlMapping.setId(1L);
+        urlMapping.setShortCode(shortCode);
+        urlMapping.setOriginalUrl(originalUrl);
+        return urlMapping;
+    }
+}
@@ -0,0 +1,80 @@
+package com.shortscale.repository;
+
+import com.shortscale.util.IdAllocator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RedisIdBlockSourceTest {
+
+    private static final int PORT = 6404;
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+
+    @BeforeAll
+    static void startRedis() {
+        redisServer = new RedisServer(PORT);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory("localhost", PORT);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void flushRedis() {
+        redisTemplate.execute(connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        }, true);
+    }
+
+    @Test
+    public void shouldLeaseConsecutiveBlocks() {
+        RedisIdBlockSource source = new RedisIdBlockSource(RedisShards.of(redisTemplate), 0);
+
+        assertEquals(100, source.lease(100));
+        assertEquals(150, source.lease(50));
+        assertEquals("150", redisTemplate.opsForValue().get(RedisIdBlockSource.COUNTER_KEY));
+    }
+
+    @Test
+    public void shouldStartAboveFloor() {
+        redisTemplate.opsForValue().set(RedisIdBlockSource.COUNTER_KEY, "10");
+        RedisIdBlockSource source = new RedisIdBlockSource(RedisShards.of(redisTemplate), 1_000);
+
+        assertEquals(1_100, source.lease(100));
+        assertEquals(1_200, new RedisIdBlockSource(RedisShards.of(redisTemplate), 500).lease(100));
+    }
+
+    @Test
+    public void shouldNotReissueIdsAfterRestart() {
+        Set<Long> ids = new HashSet<>();
+        for (int restart = 0; restart < 3; restart++) {
+            IdAllocator allocator = new IdAllocator(new RedisIdBlockSource(RedisShards.of(redisTemplate), 0),
+                    new SimpleMeterRegistry(), 100, 1_000, 5_000);
+            for (int i = 0; i < 250; i++) {
+                assertTrue(ids.add(allocator.next()));
+            }
+            allocator.shutdown();
+        }
+    }
+}
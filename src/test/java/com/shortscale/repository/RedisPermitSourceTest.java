@@ -0,0 +1,97 @@
+package com.shortscale.repository;
+
+import com.shortscale.util.RateLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RedisPermitSourceTest {
+
+    private static final int PORT = 6408;
+    private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private static RedisServer redisServer;
+    private static final List<LettuceConnectionFactory> connectionFactories = new ArrayList<>();
+
+    @BeforeAll
+    static void startRedis() {
+        redisServer = new RedisServer(PORT);
+        redisServer.start();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        connectionFactories.forEach(LettuceConnectionFactory::destroy);
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void flushRedis() {
+        redisTemplate().execute(connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        }, true);
+    }
+
+    @Test
+    public void shouldGrantUpToTheLimitThenReportTheWait() {
+        RedisPermitSource source = new RedisPermitSource(RedisShards.of(redisTemplate()));
+
+        assertEquals(4, source.lease("shorten:ip1", 10, MINUTE, 4));
+        assertEquals(4, source.lease("shorten:ip1", 10, MINUTE, 4));
+        assertEquals(2, source.lease("shorten:ip1", 10, MINUTE, 4));
+        long wait = source.lease("shorten:ip1", 10, MINUTE, 4);
+
+        assertTrue(wait < 0 && wait >= -6_000, "wait " + wait); // one permit every 6 seconds
+        assertEquals(4, source.lease("shorten:ip2", 10, MINUTE, 4));
+    }
+
+    @Test
+    public void shouldExpireStateOnceTheAllowanceIsFull() {
+        StringRedisTemplate redisTemplate = redisTemplate();
+        RedisPermitSource source = new RedisPermitSource(RedisShards.of(redisTemplate));
+
+        source.lease("shorten:ip1", 10, MINUTE, 5);
+
+        Long timeToLive = redisTemplate.getExpire(RedisPermitSource.KEY_PREFIX + "shorten:ip1", TimeUnit.MILLISECONDS);
+        assertTrue(timeToLive != null && timeToLive > 29_000 && timeToLive <= 30_001, "ttl " + timeToLive);
+    }
+
+    @Test
+    public void shouldShareOneLimitAcrossInstances() {
+        List<RateLimiter> instances = new ArrayList<>();
+        for (int i = 0; i < 3; i++) { // each with its own connection, as separate nodes would have
+            instances.add(new RateLimiter(new SimpleMeterRegistry(), new RedisPermitSource(RedisShards.of(redisTemplate())),
+                    "token-bucket", "10/1m", "shorten=30/1m", 60_000, 1_000_000, "distributed", 10, 10_000, "deny"));
+        }
+
+        int allowed = 0;
+        for (int i = 0; i < 300; i++) {
+            if (instances.get(i % 3).isAllowed("shorten", "ip1")) {
+                allowed++;
+            }
+        }
+
+        assertEquals(30, allowed);
+        assertTrue(instances.get(0).isAllowed("shorten", "ip2"));
+    }
+
+    private static StringRedisTemplate redisTemplate() {
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory("localhost", PORT);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        connectionFactories.add(connectionFactory);
+        return new StringRedisTemplate(connectionFactory);
+    }
+}
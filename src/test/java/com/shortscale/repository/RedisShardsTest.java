@@ -0,0 +1,328 @@
+package com.shortscale.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.shortscale.analytics.ClickCounter;
+import com.shortscale.cache.ShortCodeFilter;
+import com.shortscale.cache.UrlMappingNearCache;
+import com.shortscale.model.UrlMapping;
+import com.shortscale.util.Base62;
+import com.shortscale.util.ShortCodeCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import redis.embedded.RedisServer;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RedisShardsTest {
+
+    private static final int[] PORTS = {6405, 6406, 6407};
+    private static final String TWO_NODES = "localhost:6405,localhost:6406";
+    private static final String THREE_NODES = "localhost:6405,localhost:6406,localhost:6407";
+    private static final StorageLayout BUCKETED = new StorageLayout(new ShortCodeCodec(0), true, 100, 512);
+
+    private static final List<RedisServer> redisServers = new ArrayList<>();
+
+    private final List<RedisShards> opened = new ArrayList<>();
+
+    @BeforeAll
+    static void startRedis() {
+        for (int port : PORTS) {
+            RedisServer redisServer = new RedisServer(port);
+            redisServer.start();
+            redisServers.add(redisServer);
+        }
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        redisServers.forEach(RedisServer::stop);
+    }
+
+    @BeforeEach
+    void flushRedis() {
+        for (RedisShards.Shard shard : connect(THREE_NODES).all()) {
+            shard.redisTemplate().execute(connection -> {
+                connection.serverCommands().flushAll();
+                return null;
+            }, true);
+        }
+    }
+
+    @AfterEach
+    void closeShards() {
+        opened.forEach(RedisShards::destroy);
+        opened.clear();
+    }
+
+    @Test
+    public void shouldStoreEachLinkOnlyOnItsOwningShard() {
+        RedisShards shards = connect(TWO_NODES);
+        RedisUrlRepository repository = repository(shards);
+        List<UrlMapping> links = links(300);
+
+        repository.saveAll(links.subList(0, 200));
+        links.subList(200, 300).forEach(repository::save);
+
+        Map<String, Integer> linksPerShard = new HashMap<>();
+        for (UrlMapping link : links) {
+            String shortCode = link.getShortCode();
+            RedisShards.Shard owner = shards.forKey(shortCode);
+            linksPerShard.merge(owner.name(), 1, Integer::sum);
+            for (RedisShards.Shard shard : shards.all()) {
+                assertEquals(shard == owner, isStoredOn(shard, shortCode), shortCode + " on " + shard.name());
+            }
+            assertEquals(link.getOriginalUrl(), repository.findByShortCode(shortCode).getOriginalUrl());
+        }
+        assertEquals(2, linksPerShard.size());
+        assertEquals(300, repository.findExistingShortCodes(links.stream().map(UrlMapping::getShortCode).toList()).size());
+    }
+
+    @Test
+    public void shouldCreateLinksOnlyOnceOnTheirOwningShard() {
+        RedisShards shards = connect(TWO_NODES);
+        RedisUrlRepository repository = repository(shards);
+        List<UrlMapping> links = links(100);
+        links.subList(0, 50).forEach(repository::save);
+
+        for (UrlMapping link : links) {
+            assertEquals(links.indexOf(link) >= 50, repository.saveIfAbsent(link), link.getShortCode());
+            assertFalse(repository.saveIfAbsent(link), link.getShortCode());
+        }
+
+        for (UrlMapping link : links) {
+            String shortCode = link.getShortCode();
+            for (RedisShards.Shard shard : shards.all()) {
+                assertEquals(shard == shards.forKey(shortCode), isStoredOn(shard, shortCode), shortCode + " on " + shard.name());
+            }
+            assertEquals(link.getOriginalUrl(), repository(shards).findByShortCode(shortCode).getOriginalUrl());
+        }
+    }
+
+    @Test
+    public void shouldServeLinksReactivelyFromTheirOwningShard() {
+        RedisShards shards = connect(TWO_NODES);
+        ReactiveRedisUrlRepository repository = reactiveRepository(shards);
+        List<UrlMapping> links = links(60);
+        links.subList(0, 30).forEach(link -> repository.save(link).block());
+        links.subList(30, 60).forEach(link -> assertTrue(repository.saveIfAbsent(link).block(), link.getShortCode()));
+
+        Map<String, Integer> linksPerShard = new HashMap<>();
+        for (UrlMapping link : links) {
+            String shortCode = link.getShortCode();
+            RedisShards.Shard owner = shards.forKey(shortCode);
+            linksPerShard.merge(owner.name(), 1, Integer::sum);
+            for (RedisShards.Shard shard : shards.all()) {
+                assertEquals(shard == owner, isStoredOn(shard, shortCode), shortCode + " on " + shard.name());
+            }
+            assertEquals(link.getOriginalUrl(), reactiveRepository(shards).findByShortCode(shortCode).block().getOriginalUrl());
+            assertTrue(repository.existsByShortCode(shortCode).block(), shortCode);
+            assertEquals(link.getOriginalUrl(), repository(shards).findByShortCode(shortCode).getOriginalUrl());
+        }
+        assertEquals(2, linksPerShard.size());
+
+        repository.deleteByShortCode(links.get(0).getShortCode()).block();
+        assertFalse(isStoredOn(shards.forKey(links.get(0).getShortCode()), links.get(0).getShortCode()));
+    }
+
+    @Test
+    public void shouldFlushClicksToOwningShard() {
+        RedisShards shards = connect(TWO_NODES);
+        RedisUrlRepository repository = repository(shards);
+        List<UrlMapping> links = links(50);
+        repository.saveAll(links);
+        ClickCounter clickCounter = new ClickCounter(shards, BUCKETED, "redis");
+
+        links.forEach(link -> clickCounter.increment(link.getShortCode()));
+        clickCounter.increment("custom-1");
+        clickCounter.flush();
+
+        for (UrlMapping link : links) {
+            String counterKey = ClickCounter.KEY_PREFIX + link.getShortCode();
+            assertEquals("1", shards.forKey(link.getShortCode()).redisTemplate().opsForValue().get(counterKey));
+        }
+        Map<String, Long> counts = clickCounter.getClickCounts(links.stream().map(UrlMapping::getShortCode).toList());
+        assertTrue(counts.values().stream().allMatch(count -> count == 1));
+    }
+
+    @Test
+    public void shouldClaimDestinationsOnTheShardOwningTheDigest() {
+        RedisShards shards = connect(TWO_NODES);
+        DestinationIndex index = new DestinationIndex(shards, new SimpleMeterRegistry(), true, 0);
+        Map<String, String> claims = new HashMap<>();
+        for (int i = 0; i < 40; i++) {
+            claims.put(DestinationIndex.digest("https://example.com/" + i), Base62.encode(i));
+        }
+
+        index.claimAll(claims);
+
+        claims.forEach((digest, shortCode) -> assertEquals(shortCode,
+                shards.forKey(digest).redisTemplate().opsForValue().get(DestinationIndex.KEY_PREFIX + digest)));
+        assertEquals(claims, new DestinationIndex(shards, new SimpleMeterRegistry(), true, 0).findAll(claims.keySet()));
+    }
+
+    @Test
+    public void shouldMoveOnlyKeysOwnedByAddedShard() {
+        RedisShards twoShards = connect(TWO_NODES);
+        RedisUrlRepository repository = repository(twoShards);
+        List<UrlMapping> links = links(600);
+        repository.saveAll(links);
+        ClickCounter clickCounter = new ClickCounter(twoShards, BUCKETED, "redis");
+        links.forEach(link -> clickCounter.increment(link.getShortCode()));
+        clickCounter.flush();
+
+        RedisShards threeShards = connect(THREE_NODES);
+        RedisShards.Shard added = threeShards.all().get(2);
+        long expectedMoves = 0;
+        for (UrlMapping link : links) {
+            RedisShards.Shard owner = threeShards.forKey(link.getShortCode());
+            if (owner == added) {
+                expectedMoves += 2; // the link and its click counter
+            } else {
+                assertEquals(twoShards.forKey(link.getShortCode()).name(), owner.name(), "moved between existing shards");
+            }
+        }
+
+        ShardRebalancer.Report report = new ShardRebalancer(threeShards, filter(threeShards), true).rebalance();
+
+        assertTrue(expectedMoves > 0);
+        assertEquals(expectedMoves, report.getMoved());
+        RedisUrlRepository rebalanced = repository(threeShards);
+        ClickCounter rebalancedClicks = new ClickCounter(threeShards, BUCKETED, "redis");
+        for (UrlMapping link : links) {
+            String shortCode = link.getShortCode();
+            RedisShards.Shard owner = threeShards.forKey(shortCode);
+            for (RedisShards.Shard shard : threeShards.all()) {
+                assertEquals(shard == owner, isStoredOn(shard, shortCode), shortCode + " on " + shard.name());
+            }
+            assertEquals(link.getOriginalUrl(), rebalanced.findByShortCode(shortCode).getOriginalUrl());
+            assertEquals(1, rebalancedClicks.getClickCount(shortCode));
+        }
+        assertEquals(0, new ShardRebalancer(threeShards, filter(threeShards), true).rebalance().getMoved());
+    }
+
+    @Test
+    public void shouldMoveTheIdCounterToItsOwnerKeepingTheHighest() {
+        RedisShards shards = connect(THREE_NODES);
+        RedisShards.Shard owner = shards.forKey(RedisIdBlockSource.COUNTER_KEY);
+        long highest = 0;
+        for (RedisShards.Shard shard : shards.all()) {
+            long value = shard == owner ? 100 : 1_000 + shards.all().indexOf(shard);
+            shard.redisTemplate().opsForValue().set(RedisIdBlockSource.COUNTER_KEY, Long.toString(value));
+            highest = Math.max(highest, value);
+        }
+
+        assertThrows(IllegalStateException.class, () -> new RedisIdBlockSource(shards, 0).lease(10));
+
+        assertEquals(2, new ShardRebalancer(shards, filter(shards), true).rebalance().getMoved());
+        for (RedisShards.Shard shard : shards.all()) {
+            assertEquals(shard == owner, shard.redisTemplate().hasKey(RedisIdBlockSource.COUNTER_KEY), shard.name());
+        }
+        assertEquals(highest + 10, new RedisIdBlockSource(shards, 0).lease(10));
+    }
+
+    @Test
+    public void shouldKeepExpiryOfMovedLinks() {
+        RedisShards twoShards = connect(TWO_NODES);
+        List<UrlMapping> links = links(60);
+        links.forEach(link -> link.setExpiresAt(link.getCreatedAt().plusHours(1)));
+        repository(twoShards).saveAll(links);
+
+        RedisShards threeShards = connect(THREE_NODES);
+        new ShardRebalancer(threeShards, filter(threeShards), true).rebalance();
+
+        StringRedisTemplate added = threeShards.all().get(2).redisTemplate();
+        List<UrlMapping> moved = links.stream().filter(link -> threeShards.forKey(link.getShortCode()) == threeShards.all().get(2)).toList();
+        assertFalse(moved.isEmpty());
+        for (UrlMapping link : moved) {
+            Long timeToLive = added.getExpire(link.getShortCode());
+            assertTrue(timeToLive != null && timeToLive > 3000 && timeToLive <= 3600, link.getShortCode() + " ttl " + timeToLive);
+        }
+    }
+
+    @Test
+    public void shouldSendEverythingToSingleShard() {
+        RedisShards single = connect("localhost:6405");
+
+        assertFalse(single.isSharded());
+        assertSame(single.all().get(0), single.forKey("abc"));
+        assertEquals(0, new ShardRebalancer(single, filter(single), true).rebalance().getMoved());
+        assertThrows(IllegalArgumentException.class, () -> RedisShards.connect("localhost", 160));
+    }
+
+    private RedisShards connect(String nodes) {
+        RedisShards shards = RedisShards.connect(nodes, 160);
+        opened.add(shards);
+        return shards;
+    }
+
+    // Generated codes with and without a bucket entry (expiring links stay top-level keys) and custom codes
+    private static List<UrlMapping> links(int count) {
+        List<UrlMapping> links = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            UrlMapping link = new UrlMapping();
+            link.setShortCode(i % 5 == 0 ? "custom-" + i : Base62.encode(1_000_000 + i));
+            link.setOriginalUrl("https://example.com/" + i);
+            link.setCreatedAt(LocalDateTime.now());
+            links.add(link);
+        }
+        return links;
+    }
+
+    private static boolean isStoredOn(RedisShards.Shard shard, String shortCode) {
+        StringRedisTemplate redisTemplate = shard.redisTemplate();
+        String bucketKey = BUCKETED.bucketKey(shortCode);
+        return Boolean.TRUE.equals(redisTemplate.hasKey(shortCode))
+                || bucketKey != null && redisTemplate.opsForHash().hasKey(bucketKey, shortCode);
+    }
+
+    private static RedisUrlRepository repository(RedisShards shards) {
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        UrlMappingSerializer serializer = new UrlMappingSerializer(objectMapper);
+        RedisTemplate<String, UrlMapping> redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(shards.all().get(0).redisTemplate().getConnectionFactory());
+        redisTemplate.setKeySerializer(new StringRedisSerializer());
+        redisTemplate.setValueSerializer(serializer);
+        redisTemplate.setHashKeySerializer(StringRedisSerializer.UTF_8);
+        redisTemplate.setHashValueSerializer(serializer);
+        redisTemplate.afterPropertiesSet();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        return new RedisUrlRepository(redisTemplate, shards, new UrlMappingNearCache(meterRegistry, 0, Duration.ofSeconds(30)),
+                filter(shards), BUCKETED);
+    }
+
+    private static ReactiveRedisUrlRepository reactiveRepository(RedisShards shards) {
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        UrlMappingSerializer serializer = new UrlMappingSerializer(objectMapper);
+        ReactiveRedisConnectionFactory connectionFactory = (ReactiveRedisConnectionFactory) shards.all().get(0).redisTemplate().getConnectionFactory();
+        RedisSerializationContext<String, UrlMapping> context = RedisSerializationContext.<String, UrlMapping>newSerializationContext(new StringRedisSerializer())
+                .value(serializer)
+                .hashKey(StringRedisSerializer.UTF_8)
+                .hashValue(serializer)
+                .build();
+        return new ReactiveRedisUrlRepository(new ReactiveRedisTemplate<>(connectionFactory, context), new ReactiveStringRedisTemplate(connectionFactory),
+                shards, new UrlMappingNearCache(new SimpleMeterRegistry(), 0, Duration.ofSeconds(30)), filter(shards), BUCKETED);
+    }
+
+    private static ShortCodeFilter filter(RedisShards shards) {
+        return new ShortCodeFilter(shards, new SimpleMeterRegistry(), true, 1_000, 0.01);
+    }
+}
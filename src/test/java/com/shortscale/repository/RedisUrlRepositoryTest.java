@@ -1,16 +1,26 @@
 package com.shortscale.repository;
 
+import com.shortscale.cache.UrlMappingNearCache;
 import com.shortscale.model.UrlMapping;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 import redis.embedded.RedisServer;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -41,6 +51,12 @@ public class RedisUrlRepositoryTest {
     @Autowired
     private RedisUrlRepository repository;
 
+    @Autowired
+    private RedisTemplate<String, UrlMapping> redisTemplate;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
     @Test
     public void shouldSaveUrlMapping() {
         UrlMapping urlMapping = new UrlMapping();
@@ -86,7 +102,6 @@ public class RedisUrlRepositoryTest {
         mapping.setShortCode("test123");
         mapping.setOriginalUrl("https://example.com");
         mapping.setCreatedAt(LocalDateTime.now());
-        mapping.setClickCount(0);
 
         repository.save(mapping);
 
@@ -104,10 +119,212 @@ public class RedisUrlRepositoryTest {
         mapping.setShortCode("exists");
         mapping.setOriginalUrl("https://exists.com");
         mapping.setCreatedAt(LocalDateTime.now());
-        mapping.setClickCount(0);
 
         repository.save(mapping);
 
         assertTrue(repository.existsByShortCode("exists"));
     }
+
+    @Test
+    public void shouldReturnUpdatedMappingAfterSave() {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setShortCode("updated");
+        mapping.setOriginalUrl("https://before.com");
+        repository.save(mapping);
+        assertEquals("https://before.com", repository.findByShortCode("updated").getOriginalUrl());
+
+        mapping.setOriginalUrl("https://after.com");
+        repository.save(mapping);
+
+        assertEquals("https://after.com", repository.findByShortCode("updated").getOriginalUrl());
+    }
+
+    @Test
+    public void shouldEvictNearCacheWhenAnotherNodeInvalidates() throws InterruptedException {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setShortCode("remote");
+        mapping.setOriginalUrl("https://before.com");
+        repository.save(mapping);
+        assertEquals("https://before.com", repository.findByShortCode("remote").getOriginalUrl());
+
+        // Simulate a write from another node: update Redis directly and publish the invalidation
+        mapping.setOriginalUrl("https://after.com");
+        redisTemplate.opsForValue().set("remote", mapping);
+        stringRedisTemplate.convertAndSend(UrlMappingNearCache.INVALIDATION_CHANNEL, "remote");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"https://after.com".equals(repository.findByShortCode("remote").getOriginalUrl())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals("https://after.com", repository.findByShortCode("remote").getOriginalUrl());
+    }
+
+    @Test
+    public void shouldDeleteUrlMapping() {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setShortCode("deleted");
+        mapping.setOriginalUrl("https://deleted.com");
+        repository.save(mapping);
+        assertNotNull(repository.findByShortCode("deleted"));
+
+        repository.deleteByShortCode("deleted");
+
+        assertNull(repository.findByShortCode("deleted"));
+        assertFalse(repository.existsByShortCode("deleted"));
+    }
+
+    @Test
+    public void shouldWriteExpiringLinkWithNativeTtl() {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setShortCode("expiring");
+        mapping.setOriginalUrl("https://expiring.com");
+        mapping.setExpiresAt(LocalDateTime.now().plusSeconds(60));
+
+        repository.save(mapping);
+
+        long ttl = stringRedisTemplate.getExpire("expiring", TimeUnit.SECONDS);
+        assertTrue(ttl > 0 && ttl <= 60);
+    }
+
+    @Test
+    public void shouldWritePermanentLinkWithoutTtl() {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setShortCode("permanent");
+        mapping.setOriginalUrl("https://permanent.com");
+
+        repository.save(mapping);
+
+        assertEquals(-1, stringRedisTemplate.getExpire("permanent", TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldDropExpiredLinkOnceRedisEvictsIt() throws InterruptedException {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setShortCode("shortlived");
+        mapping.setOriginalUrl("https://shortlived.com");
+        mapping.setExpiresAt(LocalDateTime.now().plusNanos(300_000_000));
+        repository.save(mapping);
+        assertNotNull(repository.findByShortCode("shortlived"));
+
+        Thread.sleep(500);
+
+        assertFalse(stringRedisTemplate.hasKey("shortlived"));
+        assertNull(repository.findByShortCode("shortlived"));
+    }
+
+    @Test
+    public void shouldRemoveLegacyExpiredMappingOnRead() {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setShortCode("legacy");
+        mapping.setOriginalUrl("https://legacy.com");
+        repository.save(mapping);
+        mapping.setExpiresAt(LocalDateTime.now().minusSeconds(1));
+        // Rewritten without a native expiry, as links were stored before they carried one
+        redisTemplate.opsForValue().set("legacy", mapping);
+        stringRedisTemplate.opsForValue().set("clicks:legacy", "3");
+
+        assertNull(repository.findByShortCode("legacy"));
+        assertFalse(stringRedisTemplate.hasKey("legacy"));
+        assertFalse(stringRedisTemplate.hasKey("clicks:legacy"));
+    }
+
+    @Test
+    public void shouldSaveAllAndFindExistingShortCodes() {
+        java.util.List<UrlMapping> mappings = new java.util.ArrayList<>();
+        for (int i = 0; i < 2500; i++) { // spans several pipelines
+            UrlMapping mapping = new UrlMapping();
+            mapping.setShortCode("bulk" + i);
+            mapping.setOriginalUrl("https://bulk.example.com/" + i);
+            mappings.add(mapping);
+        }
+
+        repository.saveAll(mappings);
+
+        assertEquals("https://bulk.example.com/0", repository.findByShortCode("bulk0").getOriginalUrl());
+        assertEquals("https://bulk.example.com/2499", repository.findByShortCode("bulk2499").getOriginalUrl());
+        assertEquals(java.util.Set.of("bulk7", "bulk2000"),
+                repository.findExistingShortCodes(java.util.List.of("bulk7", "bulk2000", "notsaved", "nope-1")));
+    }
+
+    @Test
+    public void shouldSaveAllOnlyWhereShortCodesAreFree() {
+        UrlMapping existing = new UrlMapping();
+        existing.setShortCode("held1234");
+        existing.setOriginalUrl("https://existing.com");
+        repository.saveIfAbsent(existing);
+        java.util.List<UrlMapping> mappings = new java.util.ArrayList<>();
+        for (int i = 0; i < 1500; i++) { // spans two pipelines
+            UrlMapping mapping = new UrlMapping();
+            mapping.setShortCode(i == 1200 ? "held1234" : "free" + i);
+            mapping.setOriginalUrl("https://free.example.com/" + i);
+            mappings.add(mapping);
+        }
+
+        assertEquals(java.util.Set.of("held1234"), repository.saveAllIfAbsent(mappings));
+
+        assertEquals("https://existing.com", repository.findByShortCode("held1234").getOriginalUrl());
+        assertEquals("https://free.example.com/0", repository.findByShortCode("free0").getOriginalUrl());
+        assertEquals("https://free.example.com/1499", repository.findByShortCode("free1499").getOriginalUrl());
+    }
+
+    @Test
+    public void shouldCreateOnlyIfShortCodeIsFree() {
+        UrlMapping first = new UrlMapping();
+        first.setShortCode("claimed");
+        first.setOriginalUrl("https://first.com");
+        UrlMapping second = new UrlMapping();
+        second.setShortCode("claimed");
+        second.setOriginalUrl("https://second.com");
+
+        assertTrue(repository.saveIfAbsent(first));
+        assertFalse(repository.saveIfAbsent(second));
+
+        assertEquals("https://first.com", repository.findByShortCode("claimed").getOriginalUrl());
+        assertEquals(-1, stringRedisTemplate.getExpire("claimed", TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldCreateExpiringLinkWithNativeTtl() {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setShortCode("claimed-expiring");
+        mapping.setOriginalUrl("https://expiring.com");
+        mapping.setExpiresAt(LocalDateTime.now().plusSeconds(60));
+
+        assertTrue(repository.saveIfAbsent(mapping));
+
+        long ttl = stringRedisTemplate.getExpire("claimed-expiring", TimeUnit.SECONDS);
+        assertTrue(ttl > 0 && ttl <= 60);
+        assertTrue(repository.existsByShortCode("claimed-expiring"));
+    }
+
+    @Test
+    public void shouldLetExactlyOneConcurrentCreateWin() throws Exception {
+        int contenders = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(contenders);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < contenders; i++) {
+            UrlMapping mapping = new UrlMapping();
+            mapping.setShortCode("contested");
+            mapping.setOriginalUrl("https://contender.com/" + i);
+            results.add(executor.submit(() -> {
+                start.await();
+                return repository.saveIfAbsent(mapping);
+            }));
+        }
+        start.countDown();
+
+        int winner = -1;
+        for (int i = 0; i < contenders; i++) {
+            if (results.get(i).get(5, TimeUnit.SECONDS)) {
+                assertEquals(-1, winner, "more than one create succeeded");
+                winner = i;
+            }
+        }
+        executor.shutdown();
+
+        assertTrue(winner >= 0);
+        assertEquals("https://contender.com/" + winner, repository.findByShortCode("contested").getOriginalUrl());
+    }
 }
@@ -0,0 +1,94 @@
+package com.shortscale.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.shortscale.model.UrlMapping;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UrlMappingSerializerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private final UrlMappingSerializer serializer = new UrlMappingSerializer(objectMapper);
+
+    @Test
+    public void shouldRoundTripAllFieldsExceptShortCode() {
+        UrlMapping mapping = mapping();
+
+        UrlMapping result = serializer.deserialize(serializer.serialize(mapping));
+
+        assertEquals(mapping.getId(), result.getId());
+        assertEquals(mapping.getOriginalUrl(), result.getOriginalUrl());
+        assertEquals(mapping.getCreatedAt(), result.getCreatedAt());
+        assertEquals(mapping.getExpiresAt(), result.getExpiresAt());
+        assertNull(result.getShortCode());
+    }
+
+    @Test
+    public void shouldRoundTripMissingFields() {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setOriginalUrl("https://example.com/ünïcode?q=1");
+
+        UrlMapping result = serializer.deserialize(serializer.serialize(mapping));
+
+        assertNull(result.getId());
+        assertNull(result.getCreatedAt());
+        assertNull(result.getExpiresAt());
+        assertEquals("https://example.com/ünïcode?q=1", result.getOriginalUrl());
+    }
+
+    @Test
+    public void shouldBeMuchSmallerThanJson() {
+        UrlMapping mapping = mapping();
+        byte[] json = new Jackson2JsonRedisSerializer<>(objectMapper, UrlMapping.class).serialize(mapping);
+        byte[] binary = serializer.serialize(mapping);
+
+        assertEquals(UrlMappingSerializer.VERSION_1, binary[0]);
+        assertTrue(binary.length < json.length / 2, binary.length + " vs " + json.length);
+    }
+
+    @Test
+    public void shouldReadLegacyJsonValues() {
+        byte[] json = ("{\"id\":7,\"shortCode\":\"abc\",\"originalUrl\":\"https://example.com\",\"clickCount\":3,"
+                + "\"createdAt\":\"2024-05-01T10:15:30.123456\",\"expiresAt\":null}").getBytes(StandardCharsets.UTF_8);
+
+        UrlMapping result = serializer.deserialize(json);
+
+        assertEquals(7L, result.getId());
+        assertEquals("abc", result.getShortCode());
+        assertEquals("https://example.com", result.getOriginalUrl());
+        assertEquals(LocalDateTime.of(2024, 5, 1, 10, 15, 30, 123_456_000), result.getCreatedAt());
+    }
+
+    @Test
+    public void shouldWriteJsonWhenConfiguredForRollingUpgrade() {
+        byte[] bytes = new UrlMappingSerializer(objectMapper, true).serialize(mapping());
+
+        assertEquals('{', bytes[0]);
+        assertEquals("https://example.com/some/long/path", serializer.deserialize(bytes).getOriginalUrl());
+    }
+
+    @Test
+    public void shouldRejectUnknownOrTruncatedValues() {
+        assertThrows(SerializationException.class, () -> serializer.deserialize(new byte[]{0x7F, 0}));
+        byte[] binary = serializer.serialize(mapping());
+        assertThrows(SerializationException.class, () -> serializer.deserialize(Arrays.copyOf(binary, binary.length - 5)));
+    }
+
+    private UrlMapping mapping() {
+        UrlMapping mapping = new UrlMapping();
+        mapping.setId(1_718_000_000_000L);
+        mapping.setShortCode("abc123");
+        mapping.setOriginalUrl("https://example.com/some/long/path");
+        mapping.setCreatedAt(LocalDateTime.of(2024, 6, 10, 8, 30, 15, 250_000_000));
+        mapping.setExpiresAt(LocalDateTime.of(2024, 6, 11, 8, 30, 15, 250_000_000));
+        return mapping;
+    }
+}
@@ -0,0 +1,253 @@
+package com.shortscale.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shortscale.api.dto.BulkShortenRequest;
+import com.shortscale.api.dto.BulkShortenResponse;
+import com.shortscale.api.dto.ShortenRequest;
+import com.shortscale.api.dto.ShortenResponse;
+import com.shortscale.util.AdaptiveConcurrencyLimiter;
+import com.shortscale.util.RateLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BulkImportServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<List<ShortenRequest>> chunks = new ArrayList<>();
+    private UrlService urlService;
+    private RateLimiter rateLimiter;
+    private SimpleMeterRegistry meterRegistry;
+    private BulkImportService importService;
+
+    @BeforeEach
+    void setUp() {
+        urlService = Mockito.mock(UrlService.class);
+        // Echoes each request as a link named after its URL, or as an error when the URL says so
+        Mockito.when(urlService.bulkShortenUrls(Mockito.any())).thenAnswer(invocation -> {
+            BulkShortenRequest request = invocation.getArgument(0);
+            chunks.add(new ArrayList<>(request.getRequests()));
+            List<ShortenResponse> responses = new ArrayList<>();
+            for (ShortenRequest item : request.getRequests()) {
+                ShortenResponse response = new ShortenResponse();
+                response.setOriginalUrl(item.getOriginalUrl());
+                if (item.getOriginalUrl().contains("fail")) {
+                    response.setError("failed");
+                } else {
+                    response.setShortCode(item.getCustomShortCode() != null ? item.getCustomShortCode() : "c" + chunks.size());
+                }
+                responses.add(response);
+            }
+            BulkShortenResponse bulkResponse = new BulkShortenResponse();
+            bulkResponse.setResponses(responses);
+            return bulkResponse;
+        });
+        meterRegistry = new SimpleMeterRegistry();
+        rateLimiter = Mockito.mock(RateLimiter.class);
+        Mockito.when(rateLimiter.isAllowed(Mockito.eq("import-chunk"), Mockito.anyString())).thenReturn(true);
+        importService = new BulkImportService(urlService, objectMapper, meterRegistry, rateLimiter, limiter(20), 2, 1_000);
+    }
+
+    @Test
+    public void shouldImportNdjsonInChunks() throws IOException {
+        String body = """
+                {"originalUrl":"https://a.com"}
+                {"originalUrl":"https://b.com","customShortCode":"bee"}
+
+                {"originalUrl":"https://c.com","ttlSeconds":60}
+                {"originalUrl":"https://fail.com"}
+                {"originalUrl":"https://d.com"}
+                """;
+
+        List<JsonNode> results = importBody(body, BulkImportService.Format.NDJSON);
+
+        assertEquals(5, results.size());
+        assertEquals(List.of(1L, 2L, 4L, 5L, 6L), results.stream().map(result -> result.get("line").asLong()).toList());
+        assertEquals("bee", results.get(1).get("shortCode").asText());
+        assertEquals("failed", results.get(3).get("error").asText());
+        assertFalse(results.get(0).has("error"));
+        assertEquals(List.of(2, 2, 1), chunks.stream().map(List::size).toList());
+        assertEquals(60, chunks.get(1).get(0).getTtlSeconds());
+        assertEquals(4, meterRegistry.counter("url_import_rows_total", "result", "ok").count());
+        assertEquals(1, meterRegistry.counter("url_import_rows_total", "result", "error").count());
+    }
+
+    @Test
+    public void shouldReportMalformedRowsWithoutStoppingTheImport() throws IOException {
+        String body = """
+                {"originalUrl":"https://a.com"}
+                {not json
+                {"customShortCode":"nourl"}
+                {"originalUrl":"https://b.com"}
+                """;
+
+        List<JsonNode> results = importBody(body, BulkImportService.Format.NDJSON);
+
+        assertEquals(4, results.size());
+        assertTrue(results.get(1).get("error").asText().startsWith("Malformed row"));
+        assertEquals("originalUrl is required", results.get(2).get("error").asText());
+        assertEquals("https://b.com", results.get(3).get("originalUrl").asText());
+        assertEquals(List.of(1, 1), chunks.stream().map(List::size).toList());
+    }
+
+    @Test
+    public void shouldImportCsvWithHeader() throws IOException {
+        String body = """
+                ttlSeconds,originalUrl,customShortCode
+                ,https://a.com,alpha
+                60,"https://b.com/?q=""x"",y",
+                soon,https://c.com,
+                """;
+
+        List<JsonNode> results = importBody(body, BulkImportService.Format.CSV);
+
+        assertEquals(3, results.size());
+        assertEquals("alpha", results.get(0).get("shortCode").asText());
+        assertEquals(2, results.get(0).get("line").asLong());
+        assertEquals("https://b.com/?q=\"x\",y", chunks.get(0).get(1).getOriginalUrl());
+        assertEquals(60, chunks.get(0).get(1).getTtlSeconds());
+        assertNull(chunks.get(0).get(1).getCustomShortCode());
+        assertTrue(results.get(2).get("error").asText().contains("ttlSeconds"));
+    }
+
+    @Test
+    public void shouldImportCsvWithoutHeaderInDefaultColumnOrder() throws IOException {
+        List<JsonNode> results = importBody("https://a.com,alpha\nhttps://b.com\n", BulkImportService.Format.CSV);
+
+        assertEquals(2, results.size());
+        assertEquals("alpha", results.get(0).get("shortCode").asText());
+        assertEquals("https://b.com", chunks.get(0).get(1).getOriginalUrl());
+    }
+
+    @Test
+    public void shouldWriteEachChunkBeforeReadingTheNext() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        List<Integer> writtenWhenReading = new ArrayList<>();
+        byte[] body = "{\"originalUrl\":\"https://a.com\"}\n".repeat(5).getBytes(StandardCharsets.UTF_8);
+        InputStream input = new ByteArrayInputStream(body) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                writtenWhenReading.add(output.size());
+                return super.read(buffer, offset, Math.min(length, 32)); // one row per read
+            }
+
+            @Override
+            public synchronized int available() {
+                return 0; // as for a network stream, so the reader does not drain the body ahead of time
+            }
+        };
+
+        importService.importLinks(input, BulkImportService.Format.NDJSON, output, "client");
+
+        // Results of the first chunk were out before the fourth row was read
+        assertTrue(writtenWhenReading.get(3) > 0);
+        assertEquals(0, (int) writtenWhenReading.get(0));
+    }
+
+    @Test
+    public void shouldSkipRowsOverTheLengthCapWithoutBufferingThem() throws IOException {
+        InputStream oversized = new InputStream() {
+            private long remaining = 16L << 20; // 16 MB without a newline
+
+            @Override
+            public int read() {
+                return remaining-- > 0 ? 'x' : -1;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int count = (int) Math.min(length, remaining);
+                Arrays.fill(buffer, offset, offset + count, (byte) 'x');
+                remaining -= count;
+                return count;
+            }
+        };
+        InputStream input = new SequenceInputStream(oversized,
+                new ByteArrayInputStream("\n{\"originalUrl\":\"https://a.com\"}\n".getBytes(StandardCharsets.UTF_8)));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        importService.importLinks(input, BulkImportService.Format.NDJSON, output, "client");
+
+        String[] results = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, results.length);
+        assertEquals("Row is longer than 1000 characters", objectMapper.readTree(results[0]).get("error").asText());
+        assertEquals("https://a.com", objectMapper.readTree(results[1]).get("originalUrl").asText());
+        assertFalse(objectMapper.readTree(results[1]).has("error"));
+    }
+
+    @Test
+    public void shouldReadRowsUpToTheCapAndCrlfEndings() throws IOException {
+        String url = "https://a.com/" + "p".repeat(1_000 - 32);
+        String row = "{\"originalUrl\":\"" + url + "\"}";
+        assertEquals(1_000, row.length());
+
+        List<JsonNode> results = importBody(row + "\r\n" + row + "q\r\n", BulkImportService.Format.NDJSON);
+
+        assertEquals(url, results.get(0).get("originalUrl").asText());
+        assertTrue(results.get(1).get("error").asText().startsWith("Row is longer"));
+    }
+
+    @Test
+    public void shouldStopWhenAChunkIsRateLimited() throws IOException {
+        Mockito.when(rateLimiter.isAllowed("import-chunk", "client")).thenReturn(true, false);
+
+        List<JsonNode> results = importBody("{\"originalUrl\":\"https://a.com\"}\n".repeat(6), BulkImportService.Format.NDJSON);
+
+        assertEquals(4, results.size()); // the third chunk is never read
+        assertEquals(1, chunks.size());
+        assertEquals("Rate limit exceeded, import stopped", results.get(2).get("error").asText());
+        assertEquals(4, results.get(3).get("line").asLong());
+        Mockito.verify(rateLimiter, Mockito.times(2)).isAllowed("import-chunk", "client");
+    }
+
+    @Test
+    public void shouldStopWhenTheImportIsOverConcurrencyLimit() throws IOException {
+        AdaptiveConcurrencyLimiter limiter = limiter(1);
+        importService = new BulkImportService(urlService, objectMapper, meterRegistry, rateLimiter, limiter, 2, 1_000);
+        AdaptiveConcurrencyLimiter.Permit other = limiter.tryAcquire("import"); // another import's chunk
+
+        List<JsonNode> results = importBody("{\"originalUrl\":\"https://a.com\"}\n".repeat(3), BulkImportService.Format.NDJSON);
+
+        assertEquals(2, results.size());
+        assertEquals("Overloaded, import stopped", results.get(0).get("error").asText());
+        assertTrue(chunks.isEmpty());
+        other.close();
+    }
+
+    @Test
+    public void shouldParseQuotedCsvFields() {
+        assertEquals(List.of("a", "b,c", "d\"e", ""), BulkImportService.parseCsvLine("a,\"b,c\",\"d\"\"e\","));
+        assertThrows(IllegalArgumentException.class, () -> BulkImportService.parseCsvLine("\"open"));
+    }
+
+    private List<JsonNode> importBody(String body, BulkImportService.Format format) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        importService.importLinks(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), format, output, "client");
+        List<JsonNode> results = new ArrayList<>();
+        for (String line : output.toString(StandardCharsets.UTF_8).split("\n")) {
+            results.add(objectMapper.readTree(line));
+        }
+        return results;
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(int limit) {
+        return new AdaptiveConcurrencyLimiter(meterRegistry, limit, limit, limit, 1.5, 0.2, 100, 1);
+    }
+}
@@ -0,0 +1,277 @@
+package com.shortscale.service;
+
+import com.shortscale.analytics.AnalyticsBroadcaster;
+import com.shortscale.analytics.ClickCounter;
+import com.shortscale.api.dto.AnalyticsEvent;
+import com.shortscale.api.dto.BulkShortenRequest;
+import com.shortscale.api.dto.ShortenRequest;
+import com.shortscale.api.dto.ShortenResponse;
+import com.shortscale.cache.LastKnownGoodStore;
+import com.shortscale.model.UrlMapping;
+import com.shortscale.repository.ReactiveRedisUrlRepository;
+import com.shortscale.util.HashGenerator;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.kafka.sender.KafkaSender;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ReactiveUrlServiceTest {
+
+    private ReactiveRedisUrlRepository repository;
+    private HashGenerator hashGenerator;
+    private ClickCounter clickCounter;
+    private AnalyticsBroadcaster analyticsBroadcaster;
+    private KafkaSender<String, AnalyticsEvent> kafkaSender;
+    private CircuitBreaker circuitBreaker;
+    private SimpleMeterRegistry meterRegistry;
+    private LastKnownGoodStore lastKnownGood;
+    private ReactiveUrlService urlService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        repository = mock(ReactiveRedisUrlRepository.class);
+        hashGenerator = mock(HashGenerator.class);
+        clickCounter = mock(ClickCounter.class);
+        analyticsBroadcaster = mock(AnalyticsBroadcaster.class);
+        kafkaSender = mock(KafkaSender.class);
+        when(kafkaSender.send(any())).thenReturn(Flux.empty());
+        circuitBreaker = CircuitBreaker.ofDefaults("test");
+        meterRegistry = new SimpleMeterRegistry();
+        lastKnownGood = new LastKnownGoodStore(meterRegistry, 1_000, "");
+        urlService = new ReactiveUrlService(repository, hashGenerator, clickCounter, analyticsBroadcaster, kafkaSender,
+                circuitBreaker, lastKnownGood, meterRegistry, 2);
+    }
+
+    @Test
+    public void shouldShortenUrlWithGeneratedCode() {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl("https://example.com");
+        when(hashGenerator.generateShortCode()).thenReturn("abc");
+        when(repository.saveIfAbsent(any(UrlMapping.class))).thenReturn(Mono.just(true));
+
+        StepVerifier.create(urlService.shortenUrl(request))
+                .expectNextMatches(response -> "abc".equals(response.getShortCode()) && "http://localhost:8080/abc".equals(response.getShortUrl()))
+                .verifyComplete();
+        verify(kafkaSender).send(any());
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    public void shouldReplaceAGeneratedCodeHeldByAnOlderCustomCode() {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl("https://example.com");
+        when(hashGenerator.generateShortCode()).thenReturn("custom12", "fresh123");
+        when(repository.saveIfAbsent(any(UrlMapping.class))).thenReturn(Mono.just(false), Mono.just(true));
+
+        StepVerifier.create(urlService.shortenUrl(request))
+                .expectNextMatches(response -> "fresh123".equals(response.getShortCode()))
+                .verifyComplete();
+    }
+
+    @Test
+    public void shouldShortenUrlWithFreeCustomCode() {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl("https://example.com");
+        request.setCustomShortCode("mine");
+        when(repository.saveIfAbsent(any(UrlMapping.class))).thenReturn(Mono.just(true));
+
+        StepVerifier.create(urlService.shortenUrl(request))
+                .expectNextMatches(response -> "mine".equals(response.getShortCode()))
+                .verifyComplete();
+        verify(repository, never()).existsByShortCode(any());
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    public void shouldRejectExistingCustomShortCode() {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl("https://example.com");
+        request.setCustomShortCode("taken");
+        when(repository.saveIfAbsent(any(UrlMapping.class))).thenReturn(Mono.just(false));
+
+        StepVerifier.create(urlService.shortenUrl(request)).expectError(IllegalArgumentException.class).verify();
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    public void shouldRejectCustomShortCodeWithReservedCharacters() {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl("https://example.com");
+        request.setCustomShortCode("clicks:abc");
+
+        StepVerifier.create(urlService.shortenUrl(request)).expectError(IllegalArgumentException.class).verify();
+        verifyNoInteractions(repository);
+    }
+
+    @Test
+    public void shouldResolveOriginalUrlAndRecordClick() {
+        UrlMapping urlMapping = new UrlMapping();
+        urlMapping.setShortCode("abc");
+        urlMapping.setOriginalUrl("https://example.com");
+        when(repository.findByShortCode("abc")).thenReturn(Mono.just(urlMapping));
+
+        StepVerifier.create(urlService.getOriginalUrl("abc")).expectNext("https://example.com").verifyComplete();
+        verify(clickCounter).increment("abc");
+        verify(analyticsBroadcaster).recordClick("abc");
+        verify(kafkaSender).send(any());
+    }
+
+    @Test
+    public void shouldFallBackToEmptyWhenCircuitIsOpen() {
+        circuitBreaker.transitionToOpenState();
+        when(repository.findByShortCode("abc")).thenReturn(Mono.error(new IllegalStateException("not called")));
+
+        StepVerifier.create(urlService.getOriginalUrl("abc")).verifyComplete();
+    }
+
+    @Test
+    public void shouldFallBackToEmptyWhenRedisFails() {
+        when(repository.findByShortCode("abc")).thenReturn(Mono.error(new IllegalStateException("redis down")));
+
+        StepVerifier.create(urlService.getOriginalUrl("abc")).verifyComplete();
+        Mockito.verifyNoInteractions(clickCounter);
+    }
+
+    @Test
+    public void shouldServeLastKnownDestinationWhileCircuitIsOpen() throws Exception {
+        when(repository.findByShortCode("abc")).thenReturn(Mono.just(mapping("abc", "https://example.com/old")));
+        StepVerifier.create(urlService.getOriginalUrl("abc")).expectNext("https://example.com/old").verifyComplete();
+        when(repository.findByShortCode("xyz")).thenReturn(Mono.error(new IllegalStateException("not called")));
+        circuitBreaker.transitionToOpenState();
+
+        StepVerifier.create(urlService.getOriginalUrl("abc")).expectNext("https://example.com/old").verifyComplete();
+        StepVerifier.create(urlService.getOriginalUrl("xyz")).verifyComplete();
+        assertEquals(1, meterRegistry.get("url_redirect_stale_total").counter().count());
+
+        when(repository.findByShortCode("abc")).thenReturn(Mono.just(mapping("abc", "https://example.com/new")));
+        circuitBreaker.transitionToHalfOpenState(); // reloads "abc" in the background
+
+        waitFor(() -> "https://example.com/new".equals(lastKnownGood.getStale("abc")));
+        verify(repository, times(3)).findByShortCode("abc"); // resolved, refused by the open circuit, refreshed
+        circuitBreaker.transitionToOpenState();
+        StepVerifier.create(urlService.getOriginalUrl("abc")).expectNext("https://example.com/new").verifyComplete();
+    }
+
+    @Test
+    public void shouldRefreshThroughTheBreakerAndStopWhileRedisStillFails() throws Exception {
+        when(repository.findByShortCode("abc")).thenReturn(Mono.just(mapping("abc", "https://example.com/old")));
+        StepVerifier.create(urlService.getOriginalUrl("abc")).expectNext("https://example.com/old").verifyComplete();
+        circuitBreaker.transitionToOpenState();
+        StepVerifier.create(urlService.getOriginalUrl("abc")).expectNext("https://example.com/old").verifyComplete();
+        when(repository.findByShortCode("abc")).thenReturn(Mono.error(new IllegalStateException("redis down")));
+
+        circuitBreaker.transitionToHalfOpenState();
+
+        waitFor(() -> circuitBreaker.getMetrics().getNumberOfFailedCalls() == 1); // the failed reload counts as a trial call
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertEquals("https://example.com/old", lastKnownGood.getStale("abc"));
+
+        when(repository.findByShortCode("abc")).thenReturn(Mono.just(mapping("abc", "https://example.com/new")));
+        circuitBreaker.transitionToOpenState();
+        circuitBreaker.transitionToHalfOpenState(); // "abc" was kept for the next refresh
+
+        waitFor(() -> circuitBreaker.getMetrics().getNumberOfSuccessfulCalls() == 1);
+        waitFor(() -> "https://example.com/new".equals(lastKnownGood.getStale("abc")));
+        assertEquals(0, circuitBreaker.getMetrics().getNumberOfFailedCalls());
+    }
+
+    @Test
+    public void shouldReportPerItemErrorsInBulkRequest() {
+        BulkShortenRequest bulkRequest = new BulkShortenRequest();
+        bulkRequest.setRequests(List.of(bulkItem("https://ok.com", "fine"), bulkItem("https://bad.com", "bad:code"),
+                bulkItem("https://taken.com", "taken"), bulkItem("https://down.com", "down")));
+        when(repository.saveIfAbsent(any(UrlMapping.class))).thenAnswer(invocation -> switch (((UrlMapping) invocation.getArgument(0)).getShortCode()) {
+            case "taken" -> Mono.just(false);
+            case "down" -> Mono.error(new IllegalStateException("redis down"));
+            default -> Mono.just(true);
+        });
+
+        StepVerifier.create(urlService.bulkShortenUrls(bulkRequest))
+                .assertNext(response -> {
+                    List<ShortenResponse> results = response.getResponses();
+                    assertEquals(4, results.size());
+                    assertEquals("fine", results.get(0).getShortCode());
+                    assertNull(results.get(0).getError());
+                    assertEquals("Custom short code may only contain letters, digits, '-' and '_'", results.get(1).getError());
+                    assertEquals("Custom short code already exists", results.get(2).getError());
+                    assertEquals("https://down.com", results.get(3).getOriginalUrl());
+                    assertNotNull(results.get(3).getError());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    public void shouldBoundConcurrentItemsInBulkRequest() {
+        BulkShortenRequest bulkRequest = new BulkShortenRequest();
+        List<ShortenRequest> items = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            items.add(bulkItem("https://example.com/" + i, "code" + i));
+        }
+        bulkRequest.setRequests(items);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(repository.saveIfAbsent(any(UrlMapping.class))).thenAnswer(invocation -> Mono.defer(() -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    return Mono.delay(Duration.ofMillis(20)).thenReturn(true);
+                })
+                .doOnTerminate(inFlight::decrementAndGet));
+
+        StepVerifier.create(urlService.bulkShortenUrls(bulkRequest))
+                .assertNext(response -> assertEquals("code7", response.getResponses().get(7).getShortCode()))
+                .verifyComplete();
+        assertEquals(2, maxInFlight.get());
+    }
+
+    @Test
+    public void shouldNotServeLinksThatNoLongerResolve() {
+        when(repository.findByShortCode("abc")).thenReturn(Mono.just(mapping("abc", "https://example.com")));
+        StepVerifier.create(urlService.getOriginalUrl("abc")).expectNextCount(1).verifyComplete();
+        when(repository.findByShortCode("abc")).thenReturn(Mono.empty());
+        StepVerifier.create(urlService.getOriginalUrl("abc")).verifyComplete();
+
+        circuitBreaker.transitionToOpenState();
+
+        StepVerifier.create(urlService.getOriginalUrl("abc")).verifyComplete();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static ShortenRequest bulkItem(String originalUrl, String customShortCode) {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl(originalUrl);
+        request.setCustomShortCode(customShortCode);
+        return request;
+    }
+
+    private static UrlMapping mapping(String shortCode, String originalUrl) {
+        UrlMapping urlMapping = new UrlMapping();
+        urlMapping.setShortCode(shortCode);
+        urlMapping.setOriginalUrl(originalUrl);
+        return urlMapping;
+    }
+}
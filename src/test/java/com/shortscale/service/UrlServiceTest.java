@@ -1,12 +1,19 @@
 package com.shortscale.service;
 
+import com.shortscale.analytics.AnalyticsBroadcaster;
+import com.shortscale.analytics.ClickCounter;
 import com.shortscale.api.dto.BulkShortenRequest;
 import com.shortscale.api.dto.BulkShortenResponse;
 import com.shortscale.api.dto.ShortenRequest;
 import com.shortscale.api.dto.ShortenResponse;
+import com.shortscale.cache.LastKnownGoodStore;
 import com.shortscale.model.UrlMapping;
-import com.shortscale.repository.RedisUrlRepository;
+import com.shortscale.repository.DestinationIndex;
+import com.shortscale.repository.UrlRepository;
 import com.shortscale.util.HashGenerator;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,12 +22,16 @@ import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
 import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.RedisConnectionFailureException;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.test.context.TestPropertySource;
 
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -33,27 +44,49 @@ public class UrlServiceTest {
     private UrlService urlService;
 
     @MockBean
-    private RedisUrlRepository repository;
+    private UrlRepository repository;
 
     @MockBean
     private HashGenerator hashGenerator;
 
     @MockBean
-    private SimpMessagingTemplate messagingTemplate;
+    private ClickCounter clickCounter;
+
+    @MockBean
+    private AnalyticsBroadcaster analyticsBroadcaster;
 
     @MockBean
     private KafkaTemplate<String, com.shortscale.api.dto.AnalyticsEvent> kafkaTemplate;
 
+    @MockBean
+    private DestinationIndex destinationIndex;
+
     @MockBean
     private RedisConnectionFactory redisConnectionFactory;
 
+    @Autowired
+    private CircuitBreaker urlCircuitBreaker;
+
+    @Autowired
+    private LastKnownGoodStore lastKnownGood;
+
+    @BeforeEach
+    void acceptWrites() {
+        Mockito.when(repository.saveIfAbsent(Mockito.any())).thenReturn(true);
+    }
+
+    @AfterEach
+    void closeCircuit() {
+        urlCircuitBreaker.reset(); // one failure opens it, and the context is shared
+    }
+
     @Test
     public void shouldShortenUrlWithCustomCode() {
         ShortenRequest request = new ShortenRequest();
         request.setOriginalUrl("https://example.com");
         request.setCustomShortCode("abc123");
 
-        Mockito.when(repository.existsByShortCode("abc123")).thenReturn(false);
+        Mockito.when(repository.saveIfAbsent(Mockito.any())).thenReturn(true);
         Mockito.when(hashGenerator.generateShortCode()).thenReturn("generated");
 
         ShortenResponse response = urlService.shortenUrl(request);
@@ -63,7 +96,97 @@ public class UrlServiceTest {
         assertEquals("https://example.com", response.getOriginalUrl());
         assertEquals("abc123", response.getShortCode());
 
-        Mockito.verify(repository).save(Mockito.any());
+        Mockito.verify(repository).saveIfAbsent(Mockito.argThat(urlMapping -> urlMapping.getShortCode().equals("abc123")));
+        Mockito.verify(repository, Mockito.never()).existsByShortCode(Mockito.any());
+        Mockito.verify(repository, Mockito.never()).save(Mockito.any());
+    }
+
+    @Test
+    public void shouldRetryOnlyTheWriteWhenRedisCouldNotBeReached() {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl("https://example.com");
+
+        Mockito.when(hashGenerator.generateShortCode()).thenReturn("first", "second");
+        Mockito.when(repository.saveIfAbsent(Mockito.any()))
+                .thenThrow(new RedisConnectionFailureException("connection refused"))
+                .thenReturn(true);
+
+        ShortenResponse response = urlService.shortenUrl(request);
+
+        assertEquals("first", response.getShortCode());
+        Mockito.verify(hashGenerator, Mockito.times(1)).generateShortCode();
+        Mockito.verify(repository, Mockito.times(2)).saveIfAbsent(Mockito.argThat(urlMapping -> urlMapping.getShortCode().equals("first")));
+    }
+
+    @Test
+    public void shouldTreatAWriteAppliedBeforeItsTimeoutAsDone() {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl("https://example.com");
+        request.setCustomShortCode("abc123");
+        AtomicReference<UrlMapping> written = new AtomicReference<>();
+
+        Mockito.when(repository.saveIfAbsent(Mockito.any())).thenAnswer(invocation -> {
+            written.set(invocation.getArgument(0));
+            throw new QueryTimeoutException("redis timeout");
+        });
+        Mockito.when(repository.findByShortCode("abc123")).thenAnswer(invocation -> {
+            UrlMapping stored = new UrlMapping(); // as read back, to the millisecond
+            stored.setId(written.get().getId());
+            stored.setShortCode("abc123");
+            stored.setOriginalUrl(written.get().getOriginalUrl());
+            stored.setCreatedAt(written.get().getCreatedAt().truncatedTo(ChronoUnit.MILLIS));
+            return stored;
+        });
+
+        assertEquals("abc123", urlService.shortenUrl(request).getShortCode());
+        Mockito.verify(repository, Mockito.times(1)).saveIfAbsent(Mockito.any());
+    }
+
+    @Test
+    public void shouldNotRetryAWriteThatMayHaveBeenSent() {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl("https://example.com");
+        request.setCustomShortCode("abc123");
+
+        Mockito.when(repository.saveIfAbsent(Mockito.any())).thenThrow(new QueryTimeoutException("redis timeout"));
+        UrlMapping other = new UrlMapping();
+        other.setShortCode("abc123");
+        other.setOriginalUrl("https://other.example.com");
+        other.setCreatedAt(LocalDateTime.now());
+        Mockito.when(repository.findByShortCode("abc123")).thenReturn(other);
+
+        assertThrows(QueryTimeoutException.class, () -> urlService.shortenUrl(request));
+        Mockito.verify(repository, Mockito.times(1)).saveIfAbsent(Mockito.any());
+    }
+
+    @Test
+    public void shouldReplaceAGeneratedCodeHeldByAnOlderCustomCode() {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl("https://example.com");
+
+        Mockito.when(hashGenerator.generateShortCode()).thenReturn("custom12", "fresh123");
+        Mockito.when(repository.saveIfAbsent(Mockito.any())).thenReturn(false, true);
+
+        assertEquals("fresh123", urlService.shortenUrl(request).getShortCode());
+        Mockito.verify(repository, Mockito.never()).save(Mockito.any());
+    }
+
+    @Test
+    public void shouldReplaceGeneratedCodesHeldByOlderCustomCodesInBulkRequest() {
+        BulkShortenRequest bulkRequest = new BulkShortenRequest();
+        bulkRequest.setRequests(java.util.List.of(bulkItem("https://one.com", null), bulkItem("https://two.com", null),
+                bulkItem("https://raced.com", "raced")));
+
+        Mockito.when(hashGenerator.generateShortCodes(2)).thenReturn(java.util.List.of("gen1", "custom12"));
+        Mockito.when(hashGenerator.generateShortCodes(1)).thenReturn(java.util.List.of("gen3"));
+        Mockito.when(repository.saveAllIfAbsent(Mockito.anyList())).thenReturn(java.util.Set.of("custom12", "raced"), java.util.Set.of());
+
+        java.util.List<ShortenResponse> results = urlService.bulkShortenUrls(bulkRequest).getResponses();
+
+        assertEquals("gen1", results.get(0).getShortCode());
+        assertEquals("gen3", results.get(1).getShortCode());
+        assertEquals("Custom short code already exists", results.get(2).getError()); // taken after the up-front check
+        Mockito.verify(repository).saveAllIfAbsent(Mockito.argThat(mappings -> mappings.size() == 1 && mappings.get(0).getShortCode().equals("gen3")));
     }
 
     @Test
@@ -79,9 +202,20 @@ public class UrlServiceTest {
         request.setOriginalUrl("https://example.com");
         request.setCustomShortCode("abc123");
 
-        Mockito.when(repository.existsByShortCode("abc123")).thenReturn(true);
+        Mockito.when(repository.saveIfAbsent(Mockito.any())).thenReturn(false);
 
         assertThrows(IllegalArgumentException.class, () -> urlService.shortenUrl(request));
+        Mockito.verify(repository, Mockito.never()).save(Mockito.any());
+    }
+
+    @Test
+    public void shouldRejectCustomShortCodeWithReservedCharacters() {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl("https://example.com");
+        request.setCustomShortCode("clicks:abc");
+
+        assertThrows(IllegalArgumentException.class, () -> urlService.shortenUrl(request));
+        Mockito.verify(repository, Mockito.never()).save(Mockito.any());
     }
 
     @Test
@@ -91,14 +225,14 @@ public class UrlServiceTest {
         request.setCustomShortCode("abc123");
         request.setTtlSeconds(3600);
 
-        Mockito.when(repository.existsByShortCode("abc123")).thenReturn(false);
+        Mockito.when(repository.saveIfAbsent(Mockito.any())).thenReturn(true);
 
         ShortenResponse response = urlService.shortenUrl(request);
 
         assertNotNull(response);
         assertEquals("http://localhost:8080/abc123", response.getShortUrl());
 
-        Mockito.verify(repository).save(Mockito.argThat(urlMapping -> urlMapping.getExpiresAt() != null));
+        Mockito.verify(repository).saveIfAbsent(Mockito.argThat(urlMapping -> urlMapping.getExpiresAt() != null));
     }
 
     @Test
@@ -108,14 +242,14 @@ public class UrlServiceTest {
         request.setCustomShortCode("abc123");
         request.setTtlSeconds(0);
 
-        Mockito.when(repository.existsByShortCode("abc123")).thenReturn(false);
+        Mockito.when(repository.saveIfAbsent(Mockito.any())).thenReturn(true);
 
         ShortenResponse response = urlService.shortenUrl(request);
 
         assertNotNull(response);
         assertEquals("http://localhost:8080/abc123", response.getShortUrl());
 
-        Mockito.verify(repository).save(Mockito.argThat(urlMapping -> urlMapping.getExpiresAt() == null));
+        Mockito.verify(repository).saveIfAbsent(Mockito.argThat(urlMapping -> urlMapping.getExpiresAt() == null));
     }
 
     @Test
@@ -135,53 +269,84 @@ public class UrlServiceTest {
         assertEquals("generated", response.getShortCode());
 
         Mockito.verify(hashGenerator).generateShortCode();
-        Mockito.verify(repository).save(Mockito.any());
+        Mockito.verify(repository).saveIfAbsent(Mockito.any());
     }
 
     @Test
-    public void shouldReturnNullWhenUrlExpired() {
+    public void shouldReturnOriginalUrlAndIncrementClickCount() {
         UrlMapping urlMapping = new UrlMapping();
         urlMapping.setOriginalUrl("https://example.com");
-        urlMapping.setExpiresAt(LocalDateTime.now().minusSeconds(1)); // expired
 
         Mockito.when(repository.findByShortCode("abc123")).thenReturn(urlMapping);
 
         String originalUrl = urlService.getOriginalUrl("abc123");
-        assertNull(originalUrl);
+        assertEquals("https://example.com", originalUrl);
+
+        Mockito.verify(clickCounter).increment("abc123", null);
+        Mockito.verify(repository, Mockito.never()).save(Mockito.any());
+        Mockito.verify(analyticsBroadcaster).recordClick("abc123");
+        Mockito.verify(kafkaTemplate, Mockito.timeout(1000)).send(Mockito.eq("url-analytics"), Mockito.any(com.shortscale.api.dto.AnalyticsEvent.class));
     }
 
     @Test
-    public void shouldReturnOriginalUrlAndIncrementClickCount() {
+    public void shouldServeLastKnownDestinationWhenRedisFails() {
         UrlMapping urlMapping = new UrlMapping();
-        urlMapping.setOriginalUrl("https://example.com");
-        urlMapping.setClickCount(5);
-
-        Mockito.when(repository.findByShortCode("abc123")).thenReturn(urlMapping);
-
-        String originalUrl = urlService.getOriginalUrl("abc123");
-        assertEquals("https://example.com", originalUrl);
-
-        Mockito.verify(repository).save(urlMapping);
-        Mockito.verify(messagingTemplate).convertAndSend(Mockito.eq("/topic/analytics"), Mockito.any(Object.class));
-        Mockito.verify(kafkaTemplate).send(Mockito.eq("url-analytics"), Mockito.any(com.shortscale.api.dto.AnalyticsEvent.class));
+        urlMapping.setShortCode("stale1");
+        urlMapping.setOriginalUrl("https://example.com/stale");
+        Mockito.when(repository.findByShortCode("stale1")).thenReturn(urlMapping);
+        assertEquals("https://example.com/stale", urlService.getOriginalUrl("stale1"));
+
+        Mockito.when(repository.findByShortCode("stale1")).thenThrow(new IllegalStateException("redis down"));
+        Mockito.when(repository.findByShortCode("stale2")).thenThrow(new IllegalStateException("redis down"));
+
+        assertEquals("https://example.com/stale", urlService.getOriginalUrl("stale1"));
+        assertEquals(CircuitBreaker.State.OPEN, urlCircuitBreaker.getState());
+        assertEquals("https://example.com/stale", urlService.getOriginalUrl("stale1"));
+        assertNull(urlService.getOriginalUrl("stale2"));
+        Mockito.verify(repository, Mockito.times(2)).findByShortCode("stale1"); // not called while open
+        Mockito.verify(clickCounter, Mockito.times(1)).increment("stale1", null);
     }
 
     @Test
-    public void shouldReturnClickCount() {
+    public void shouldRefreshStaleLinksAsTrialCallsOfTheBreaker() throws Exception {
         UrlMapping urlMapping = new UrlMapping();
-        urlMapping.setClickCount(10);
+        urlMapping.setShortCode("stale3");
+        urlMapping.setOriginalUrl("https://example.com/old");
+        Mockito.when(repository.findByShortCode("stale3")).thenReturn(urlMapping);
+        assertEquals("https://example.com/old", urlService.getOriginalUrl("stale3"));
+        Mockito.doThrow(new IllegalStateException("redis down")).when(repository).findByShortCode(Mockito.anyString());
+        assertEquals("https://example.com/old", urlService.getOriginalUrl("stale3"));
+        assertEquals(CircuitBreaker.State.OPEN, urlCircuitBreaker.getState());
+
+        urlCircuitBreaker.transitionToHalfOpenState();
+
+        // The failed reload was a trial call: it opens the breaker again and stops the refresh
+        waitFor(() -> urlCircuitBreaker.getState() == CircuitBreaker.State.OPEN);
+        assertEquals(1, urlCircuitBreaker.getMetrics().getNumberOfFailedCalls());
+        assertEquals("https://example.com/old", lastKnownGood.getStale("stale3"));
+
+        UrlMapping moved = new UrlMapping();
+        moved.setOriginalUrl("https://example.com/new");
+        Mockito.doReturn(moved).when(repository).findByShortCode(Mockito.anyString());
+        urlCircuitBreaker.transitionToHalfOpenState(); // "stale3" was kept for the next refresh
+
+        waitFor(() -> "https://example.com/new".equals(lastKnownGood.getStale("stale3")));
+        assertTrue(urlCircuitBreaker.getMetrics().getNumberOfSuccessfulCalls() >= 1);
+    }
 
-        Mockito.when(repository.findByShortCode("abc123")).thenReturn(urlMapping);
+    @Test
+    public void shouldReturnClickCount() {
+        Mockito.when(clickCounter.getClickCount("abc123")).thenReturn(10L);
 
-        int clickCount = urlService.getClickCount("abc123");
+        long clickCount = urlService.getClickCount("abc123");
         assertEquals(10, clickCount);
     }
 
     @Test
     public void shouldReturnZeroWhenShortCodeNotFound() {
-        Mockito.when(repository.findByShortCode("nonexistent")).thenReturn(null);
+        Mockito.when(clickCounter.getClickCount("nonexistent")).thenReturn(0L);
 
-        int clickCount = urlService.getClickCount("nonexistent");
+        long clickCount = urlService.getClickCount("nonexistent");
         assertEquals(0, clickCount);
     }
 
@@ -206,4 +371,143 @@ public class UrlServiceTest {
         assertEquals("http://localhost:8080/code1", response.getResponses().get(0).getShortUrl());
         assertEquals("http://localhost:8080/code2", response.getResponses().get(1).getShortUrl());
     }
+
+    @Test
+    public void shouldReturnExistingCodeForRepeatedDestination() {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl("https://Example.com");
+
+        Mockito.when(destinationIndex.isEnabled()).thenReturn(true);
+        Mockito.when(destinationIndex.find(DestinationIndex.digest("https://example.com/"))).thenReturn("existing");
+
+        ShortenResponse response = urlService.shortenUrl(request);
+
+        assertEquals("existing", response.getShortCode());
+        assertEquals("http://localhost:8080/existing", response.getShortUrl());
+        Mockito.verify(hashGenerator, Mockito.never()).generateShortCode();
+        Mockito.verify(repository, Mockito.never()).save(Mockito.any());
+    }
+
+    @Test
+    public void shouldIndexNewDestination() {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl("https://new.example.com");
+        String digest = DestinationIndex.digest("https://new.example.com");
+
+        Mockito.when(destinationIndex.isEnabled()).thenReturn(true);
+        Mockito.when(hashGenerator.generateShortCode()).thenReturn("generated");
+        Mockito.when(destinationIndex.claim(digest, "generated")).thenReturn("generated");
+
+        ShortenResponse response = urlService.shortenUrl(request);
+
+        assertEquals("generated", response.getShortCode());
+        Mockito.verify(repository).saveIfAbsent(Mockito.any());
+        Mockito.verify(destinationIndex).claim(digest, "generated");
+        Mockito.verify(repository, Mockito.never()).deleteByShortCode(Mockito.any());
+    }
+
+    @Test
+    public void shouldDiscardOwnCodeWhenConcurrentRequestIndexedFirst() {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl("https://race.example.com");
+
+        Mockito.when(destinationIndex.isEnabled()).thenReturn(true);
+        Mockito.when(hashGenerator.generateShortCode()).thenReturn("loser");
+        Mockito.when(destinationIndex.claim(Mockito.anyString(), Mockito.eq("loser"))).thenReturn("winner");
+
+        ShortenResponse response = urlService.shortenUrl(request);
+
+        assertEquals("winner", response.getShortCode());
+        Mockito.verify(repository).deleteByShortCode("loser");
+    }
+
+    @Test
+    public void shouldNotDeduplicateExpiringOrCustomLinks() {
+        ShortenRequest expiring = new ShortenRequest();
+        expiring.setOriginalUrl("https://example.com");
+        expiring.setTtlSeconds(60);
+        ShortenRequest custom = new ShortenRequest();
+        custom.setOriginalUrl("https://example.com");
+        custom.setCustomShortCode("custom");
+
+        Mockito.when(destinationIndex.isEnabled()).thenReturn(true);
+        Mockito.when(hashGenerator.generateShortCode()).thenReturn("generated");
+        Mockito.when(repository.saveIfAbsent(Mockito.any())).thenReturn(true);
+
+        assertEquals("generated", urlService.shortenUrl(expiring).getShortCode());
+        assertEquals("custom", urlService.shortenUrl(custom).getShortCode());
+        Mockito.verify(destinationIndex, Mockito.never()).find(Mockito.any());
+        Mockito.verify(destinationIndex, Mockito.never()).claim(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void shouldReportPerItemErrorsInBulkRequest() {
+        BulkShortenRequest bulkRequest = new BulkShortenRequest();
+        bulkRequest.setRequests(java.util.List.of(
+                bulkItem("https://ok.com", "fine"),
+                bulkItem("https://bad.com", "bad:code"),
+                bulkItem("https://taken.com", "taken"),
+                bulkItem("https://again.com", "fine"),
+                bulkItem("https://generated.com", null)));
+
+        Mockito.when(repository.findExistingShortCodes(Mockito.anyCollection())).thenReturn(java.util.Set.of("taken"));
+        Mockito.when(hashGenerator.generateShortCodes(1)).thenReturn(java.util.List.of("gen1"));
+
+        BulkShortenResponse response = urlService.bulkShortenUrls(bulkRequest);
+
+        java.util.List<ShortenResponse> results = response.getResponses();
+        assertEquals(5, results.size());
+        assertEquals("fine", results.get(0).getShortCode());
+        assertNull(results.get(0).getError());
+        assertNotNull(results.get(1).getError());
+        assertNull(results.get(1).getShortCode());
+        assertEquals("Custom short code already exists", results.get(2).getError());
+        assertEquals("Custom short code already exists", results.get(3).getError());
+        assertEquals("gen1", results.get(4).getShortCode());
+
+        Mockito.verify(repository).findExistingShortCodes(java.util.Set.of("fine", "taken"));
+        Mockito.verify(repository).saveAllIfAbsent(Mockito.argThat(mappings -> mappings.size() == 2));
+        Mockito.verify(repository, Mockito.never()).save(Mockito.any());
+        Mockito.verify(repository, Mockito.never()).existsByShortCode(Mockito.any());
+        Mockito.verify(hashGenerator, Mockito.never()).generateShortCode();
+        Mockito.verify(kafkaTemplate, Mockito.timeout(1000).times(2)).send(Mockito.eq("url-analytics"), Mockito.any(com.shortscale.api.dto.AnalyticsEvent.class));
+    }
+
+    @Test
+    public void shouldDeduplicateDestinationsInBulkRequest() {
+        BulkShortenRequest bulkRequest = new BulkShortenRequest();
+        bulkRequest.setRequests(java.util.List.of(
+                bulkItem("https://indexed.com", null),
+                bulkItem("https://new.com", null),
+                bulkItem("https://NEW.com/", null)));
+        String indexedDigest = DestinationIndex.digest("https://indexed.com");
+        String newDigest = DestinationIndex.digest("https://new.com");
+
+        Mockito.when(destinationIndex.isEnabled()).thenReturn(true);
+        Mockito.when(destinationIndex.findAll(Mockito.anyCollection())).thenReturn(java.util.Map.of(indexedDigest, "old"));
+        Mockito.when(hashGenerator.generateShortCodes(1)).thenReturn(java.util.List.of("gen1"));
+        Mockito.when(destinationIndex.claimAll(java.util.Map.of(newDigest, "gen1"))).thenReturn(java.util.Map.of(newDigest, "gen1"));
+
+        BulkShortenResponse response = urlService.bulkShortenUrls(bulkRequest);
+
+        assertEquals("old", response.getResponses().get(0).getShortCode());
+        assertEquals("gen1", response.getResponses().get(1).getShortCode());
+        assertEquals("gen1", response.getResponses().get(2).getShortCode());
+        Mockito.verify(repository).saveAllIfAbsent(Mockito.argThat(mappings -> mappings.size() == 1));
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static ShortenRequest bulkItem(String originalUrl, String customShortCode) {
+        ShortenRequest request = new ShortenRequest();
+        request.setOriginalUrl(originalUrl);
+        request.setCustomShortCode(customShortCode);
+        return request;
+    }
 }
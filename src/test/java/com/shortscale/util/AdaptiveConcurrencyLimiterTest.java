@@ -0,0 +1,137 @@
+package com.shortscale.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLong clock = new AtomicLong(1_000_000 * MILLISECOND);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void shouldShedCallsOverTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = limiter(4);
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            permits.add(limiter.tryAcquire("shorten"));
+        }
+
+        assertNull(limiter.tryAcquire("shorten"));
+        assertEquals(4, meterRegistry.get("concurrency_in_flight").tag("operation", "shorten").gauge().value());
+        assertEquals(1, meterRegistry.get("concurrency_shed_total").tag("operation", "shorten").counter().count());
+
+        permits.remove(0).close();
+
+        assertNotNull(limiter.tryAcquire("shorten"));
+        assertNotNull(limiter.tryAcquire("redirect")); // a limit of its own
+    }
+
+    @Test
+    public void shouldGrowWhileLatencyHolds() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10);
+
+        for (int i = 0; i < 20; i++) {
+            saturate(limiter, "shorten", 10);
+        }
+
+        assertTrue(limiter.limit("shorten") > 20, "limit " + limiter.limit("shorten"));
+        assertEquals(limiter.limit("shorten"), meterRegistry.get("concurrency_limit").tag("operation", "shorten").gauge().value());
+    }
+
+    @Test
+    public void shouldShrinkWhenLatencyRises() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10);
+        for (int i = 0; i < 20; i++) {
+            saturate(limiter, "redirect", 10);
+        }
+        int settled = limiter.limit("redirect");
+
+        for (int i = 0; i < 10; i++) {
+            saturate(limiter, "redirect", 100); // Redis has slowed down tenfold
+        }
+
+        assertTrue(limiter.limit("redirect") < settled * 2 / 3, settled + " -> " + limiter.limit("redirect"));
+    }
+
+    @Test
+    public void shouldStayWithinMinAndMaxLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(meterRegistry, 10, 8, 12, 1.5, 0.2, 100, 1, clock::get);
+        for (int i = 0; i < 20; i++) {
+            saturate(limiter, "redirect", 10);
+        }
+
+        assertEquals(12, limiter.limit("redirect"));
+
+        for (int i = 0; i < 30; i++) {
+            saturate(limiter, "redirect", 1_000);
+        }
+
+        assertEquals(8, limiter.limit("redirect"));
+    }
+
+    @Test
+    public void shouldKeepTheLimitWhileMostOfItIsUnused() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10);
+
+        for (int i = 0; i < 20; i++) {
+            run(limiter, "shorten", 4, i % 2 == 0 ? 10 : 1_000);
+        }
+
+        assertEquals(10, limiter.limit("shorten"));
+    }
+
+    @Test
+    public void shouldAdaptEachOperationOnItsOwn() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10);
+        for (int i = 0; i < 20; i++) {
+            saturate(limiter, "shorten", 10);
+            saturate(limiter, "redirect", 10);
+        }
+        int shortenLimit = limiter.limit("shorten");
+
+        for (int i = 0; i < 10; i++) {
+            saturate(limiter, "redirect", 200);
+        }
+
+        assertEquals(shortenLimit, limiter.limit("shorten"));
+        assertTrue(limiter.limit("redirect") < shortenLimit);
+        assertEquals(0, limiter.inFlight("redirect"));
+    }
+
+    @Test
+    public void shouldRejectInvalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimiter(meterRegistry, 1, 2, 100, 1.5, 0.2, 100, 1, clock::get));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimiter(meterRegistry, 200, 2, 100, 1.5, 0.2, 100, 1, clock::get));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimiter(meterRegistry, 10, 0, 100, 1.5, 0.2, 100, 1, clock::get));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimiter(meterRegistry, 10, 2, 100, 0.5, 0.2, 100, 1, clock::get));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimiter(meterRegistry, 10, 2, 100, 1.5, 0, 100, 1, clock::get));
+    }
+
+    private void saturate(AdaptiveConcurrencyLimiter limiter, String operation, long latencyMillis) {
+        run(limiter, operation, limiter.limit(operation), latencyMillis);
+    }
+
+    // One window: the calls start together, take latencyMillis and finish before the next window
+    private void run(AdaptiveConcurrencyLimiter limiter, String operation, int calls, long latencyMillis) {
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            permits.add(limiter.tryAcquire(operation));
+        }
+        clock.addAndGet(latencyMillis * MILLISECOND);
+        permits.forEach(AdaptiveConcurrencyLimiter.Permit::close);
+        clock.addAndGet(100 * MILLISECOND);
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(int initialLimit) {
+        return new AdaptiveConcurrencyLimiter(meterRegistry, initialLimit, 2, 100, 1.5, 0.2, 100, 1, clock::get);
+    }
+}
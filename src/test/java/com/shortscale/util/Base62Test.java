@@ -0,0 +1,25 @@
+package com.shortscale.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Base62Test {
+
+    @Test
+    public void shouldRoundTripNumbers() {
+        for (long num : new long[]{1, 61, 62, 3843, 3844, 1_000_000_007L, 839_299_365_868_340_223L}) {
+            assertEquals(num, Base62.decode(Base62.encode(num)));
+        }
+        assertEquals("10", Base62.encode(62));
+        assertEquals("zzzzzzzzzz", Base62.encode(839_299_365_868_340_223L));
+    }
+
+    @Test
+    public void shouldRejectStringsEncodeCannotProduce() {
+        assertEquals(-1, Base62.decode(""));
+        assertEquals(-1, Base62.decode("0abc")); // would collide with "abc"
+        assertEquals(-1, Base62.decode("my-link"));
+        assertEquals(-1, Base62.decode("abcdefghijk")); // overflows a long
+    }
+}
@@ -0,0 +1,70 @@
+package com.shortscale.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterTest {
+
+    @Test
+    public void shouldSizeFromExpectedInsertionsAndFalsePositiveRate() {
+        BloomFilter filter = BloomFilter.create(1_000_000, 0.01);
+
+        // ~9.6 bits and 7 hash functions per element for 1%
+        assertTrue(filter.bitSize() >= 9_585_000 && filter.bitSize() <= 9_586_000);
+        assertEquals(7, filter.hashFunctions());
+    }
+
+    @Test
+    public void shouldNeverReportFalseNegatives() {
+        BloomFilter filter = BloomFilter.create(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("code" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("code" + i));
+        }
+    }
+
+    @Test
+    public void shouldKeepFalsePositiveRateNearTarget() {
+        BloomFilter filter = BloomFilter.create(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("code" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("other" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2_000, "false positives: " + falsePositives);
+        assertTrue(filter.fillRatio() > 0.4 && filter.fillRatio() < 0.6);
+    }
+
+    @Test
+    public void shouldRoundTripThroughRedisBitmapLayout() {
+        BloomFilter filter = BloomFilter.create(1_000, 0.01);
+        filter.put("abc");
+        filter.put("def");
+
+        BloomFilter copy = new BloomFilter(filter.bitSize(), filter.hashFunctions());
+        copy.mergeRedisBitmap(filter.toRedisBitmap());
+
+        assertTrue(copy.mightContain("abc"));
+        assertTrue(copy.mightContain("def"));
+        assertEquals(filter.fillRatio(), copy.fillRatio());
+    }
+
+    @Test
+    public void shouldUseRedisBitOffsetsForBitmap() {
+        BloomFilter filter = new BloomFilter(64, 1);
+        long index = filter.bitIndexes("abc")[0];
+        filter.put("abc");
+
+        byte[] bitmap = filter.toRedisBitmap();
+
+        // SETBIT offset n is bit (7 - n % 8) of byte n / 8
+        assertNotEquals(0, bitmap[(int) (index / 8)] & (0x80 >>> (index % 8)));
+    }
+}
@@ -0,0 +1,154 @@
+package com.shortscale.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BudgetedRetryTest {
+
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLong clock = new AtomicLong(1_000_000 * MILLISECOND);
+    private final List<Long> sleeps = new ArrayList<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void shouldBackOffExponentiallyUpToTheCap() {
+        BudgetedRetry retry = retry(5, 20, 50, 10_000, new RetryBudget(0.1, 10));
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = retry.execute(() -> {
+            if (attempts.incrementAndGet() < 5) {
+                throw new IllegalStateException("redis timeout");
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(List.of(20 * MILLISECOND, 40 * MILLISECOND, 50 * MILLISECOND, 50 * MILLISECOND), sleeps); // the jitter's upper bounds
+        assertEquals(4, meterRegistry.get("retry_budget_total").tags("budget", "shorten", "result", "allowed").counter().count());
+    }
+
+    @Test
+    public void shouldDrawEachWaitAtRandomUpToTheBound() {
+        RetryBudget budget = new RetryBudget(0.1, 100);
+        BudgetedRetry retry = new BudgetedRetry("shorten", meterRegistry, 2, 100, 100, 10_000, budget, e -> true);
+        long started = System.nanoTime();
+
+        for (int i = 0; i < 20; i++) {
+            assertThrows(IllegalStateException.class, () -> retry.execute(() -> {
+                throw new IllegalStateException("redis timeout");
+            }));
+        }
+
+        long elapsed = System.nanoTime() - started;
+        assertTrue(elapsed < 20 * 100 * MILLISECOND, "waited " + elapsed / MILLISECOND + " ms, the full bound every time");
+    }
+
+    @Test
+    public void shouldNotRetryClientErrors() {
+        BudgetedRetry retry = retry(3, 20, 200, 10_000, new RetryBudget(0.1, 10));
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(IllegalArgumentException.class, () -> retry.execute(() -> {
+            attempts.incrementAndGet();
+            throw new IllegalArgumentException("Custom short code already exists");
+        }));
+
+        assertEquals(1, attempts.get());
+        assertTrue(sleeps.isEmpty());
+    }
+
+    @Test
+    public void shouldRetryOnlyAsMuchAsSuccessesPayFor() {
+        RetryBudget budget = new RetryBudget(0.5, 2);
+        BudgetedRetry retry = retry(3, 20, 200, 10_000, budget);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> retry.execute(() -> failing(attempts)));
+        assertEquals(3, attempts.getAndSet(0)); // the budget starts full
+        assertThrows(IllegalStateException.class, () -> retry.execute(() -> failing(attempts)));
+        assertEquals(1, attempts.getAndSet(0));
+
+        retry.execute(() -> "ok");
+        retry.execute(() -> "ok"); // two successes at half a token each buy one retry
+
+        assertThrows(IllegalStateException.class, () -> retry.execute(() -> failing(attempts)));
+        assertEquals(2, attempts.get());
+        assertEquals(3, meterRegistry.get("retry_budget_total").tags("budget", "shorten", "result", "allowed").counter().count());
+        assertEquals(2, meterRegistry.get("retry_budget_total").tags("budget", "shorten", "result", "denied").counter().count());
+        assertEquals(0, meterRegistry.get("retry_budget_tokens").tag("budget", "shorten").gauge().value());
+    }
+
+    @Test
+    public void shouldSkipARetryThatCannotFinishBeforeTheDeadline() {
+        BudgetedRetry retry = retry(5, 20, 200, 1_000, new RetryBudget(0.1, 10));
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> retry.execute(() -> {
+            attempts.incrementAndGet();
+            clock.addAndGet(400 * MILLISECOND); // Redis answering slowly, then failing
+            throw new IllegalStateException("redis timeout");
+        }));
+
+        // 400 ms, 20 ms wait, 400 ms; a third attempt would end at 1,260 ms
+        assertEquals(2, attempts.get());
+        assertEquals(1, meterRegistry.get("retry_deadline_skipped_total").tag("budget", "shorten").counter().count());
+        assertEquals(9, meterRegistry.get("retry_budget_tokens").tag("budget", "shorten").gauge().value()); // skipped retries cost nothing
+    }
+
+    @Test
+    public void shouldKeepTheBudgetConsistentUnderContention() throws Exception {
+        RetryBudget budget = new RetryBudget(0.1, 5);
+        List<Thread> threads = new ArrayList<>();
+        AtomicInteger granted = new AtomicInteger();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    budget.deposit();
+                    if (budget.tryWithdraw()) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // 5 tokens to start with, plus a tenth of one per deposit
+        assertTrue(granted.get() <= 5 + 800, "granted " + granted.get());
+        assertTrue(budget.tokens() >= 0 && budget.tokens() <= 5);
+    }
+
+    @Test
+    public void shouldRejectInvalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new RetryBudget(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new RetryBudget(1.5, 10));
+        assertThrows(IllegalArgumentException.class, () -> new RetryBudget(0.1, 0));
+        assertThrows(IllegalArgumentException.class, () -> retry(0, 20, 200, 1_000, new RetryBudget(0.1, 10)));
+        assertThrows(IllegalArgumentException.class, () -> retry(3, 300, 200, 1_000, new RetryBudget(0.1, 10)));
+    }
+
+    private static String failing(AtomicInteger attempts) {
+        attempts.incrementAndGet();
+        throw new IllegalStateException("redis timeout");
+    }
+
+    private BudgetedRetry retry(int maxAttempts, long baseBackoffMillis, long maxBackoffMillis, long deadlineMillis, RetryBudget budget) {
+        return new BudgetedRetry("shorten", meterRegistry, maxAttempts, baseBackoffMillis, maxBackoffMillis, deadlineMillis, budget,
+                e -> !(e instanceof IllegalArgumentException), clock::get, nanos -> {
+            sleeps.add(nanos);
+            clock.addAndGet(nanos);
+        }, bound -> bound);
+    }
+}
@@ -0,0 +1,67 @@
+package com.shortscale.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 100_000;
+
+    @Test
+    public void shouldSpreadKeysEvenlyOverNodes() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes("a", "b", "c", "d"), 160);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.nodeFor(Base62.encode(i)), 1, Integer::sum);
+        }
+
+        assertEquals(4, counts.size());
+        counts.values().forEach(count -> assertTrue(Math.abs(count - KEYS / 4) < KEYS / 4 / 5, "uneven share " + counts));
+    }
+
+    @Test
+    public void shouldMoveOnlyKeysTakenOverByAddedNode() {
+        ConsistentHashRing<String> before = new ConsistentHashRing<>(nodes("a", "b", "c"), 160);
+        ConsistentHashRing<String> after = new ConsistentHashRing<>(nodes("c", "a", "b", "d"), 160);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = Base62.encode(i);
+            String owner = after.nodeFor(key);
+            if (!owner.equals(before.nodeFor(key))) {
+                assertEquals("d", owner);
+                moved++;
+            }
+        }
+
+        assertTrue(Math.abs(moved - KEYS / 4) < KEYS / 4 / 5, "moved " + moved);
+    }
+
+    @Test
+    public void shouldSendEveryKeyToOnlyNode() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes("a"), 1);
+
+        assertEquals("a", ring.nodeFor("abc"));
+        assertEquals("a", ring.nodeFor(""));
+    }
+
+    @Test
+    public void shouldRejectEmptyRing() {
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing<>(Map.of(), 160));
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing<>(nodes("a"), 0));
+    }
+
+    private static Map<String, String> nodes(String... names) {
+        Map<String, String> nodes = new LinkedHashMap<>();
+        for (String name : names) {
+            nodes.put(name, name);
+        }
+        return nodes;
+    }
+}
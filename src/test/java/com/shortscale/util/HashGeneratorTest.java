@@ -1,14 +1,22 @@
 package com.shortscale.util;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class HashGeneratorTest {
 
+    private static final ShortCodeCodec CODEC = new ShortCodeCodec(0);
+
     @Test
     public void shouldGenerateUniqueShortCodes() {
-        HashGenerator generator = new HashGenerator();
+        HashGenerator generator = generator();
         String code1 = generator.generateShortCode();
         String code2 = generator.generateShortCode();
         assertNotNull(code1);
@@ -18,23 +26,37 @@ public class HashGeneratorTest {
     }
 
     @Test
-    public void shouldEncodeNumbersCorrectlyToBase62() {
-        HashGenerator generator = new HashGenerator();
-        // Since counter starts at 1, first call is 1 -> "1"
-        assertEquals("1", generator.generateShortCode());
-        assertEquals("2", generator.generateShortCode());
-        assertEquals("3", generator.generateShortCode());
-        // 62 -> "10" (since 62 / 62 = 1, remainder 0 -> '0', then 1 -> '1', reverse "10")
-        // But counter is now 4, so need to call 59 more times? No.
-        // To test encode(62), I need to set counter to 62, but can't.
-        // Since private, perhaps use reflection or make it testable.
-        // For coverage, perhaps call many times.
-        for (int i = 4; i <= 62; i++) {
-            generator.generateShortCode();
+    public void shouldGenerateFixedWidthCodesThatDoNotFollowTheIds() {
+        HashGenerator generator = generator();
+        Set<String> codes = new HashSet<>();
+        String previous = null;
+        for (long id = 1; id <= 1_000; id++) {
+            String code = generator.generateShortCode();
+            assertEquals(ShortCodeCodec.WIDTH, code.length());
+            assertEquals(id, CODEC.decode(code)); // counter starts at 1
+            assertTrue(codes.add(code));
+            if (previous != null) {
+                assertNotEquals(previous.substring(0, ShortCodeCodec.WIDTH - 1), code.substring(0, ShortCodeCodec.WIDTH - 1));
+            }
+            previous = code;
         }
-        // Now counter at 63, next is 63
-        // 63 / 62 = 1, remainder 1 -> '1', then 1 -> '1', reverse "11"
-        String code63 = generator.generateShortCode();
-        assertEquals("11", code63);
+    }
+
+    @Test
+    public void shouldAllocateContiguousBlockForBatch() {
+        HashGenerator generator = generator();
+        generator.generateShortCode(); // 1
+
+        List<String> batch = generator.generateShortCodes(3);
+
+        assertEquals(List.of(2L, 3L, 4L), batch.stream().map(CODEC::decode).toList());
+        assertEquals(5, CODEC.decode(generator.generateShortCode()));
+        assertTrue(generator.generateShortCodes(0).isEmpty());
+    }
+
+    // Ids leased from a local counter that starts at zero, as from a fresh Redis
+    private static HashGenerator generator() {
+        AtomicLong counter = new AtomicLong();
+        return new HashGenerator(new IdAllocator(counter::addAndGet, new SimpleMeterRegistry(), 100, 100_000, 5_000), CODEC);
     }
 }
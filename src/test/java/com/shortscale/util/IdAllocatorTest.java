@@ -0,0 +1,176 @@
+package com.shortscale.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdAllocatorTest {
+
+    @Test
+    public void shouldHandOutConsecutiveIdsFromLeasedBlocks() {
+        AtomicLong counter = new AtomicLong(41);
+        IdAllocator allocator = new IdAllocator(counter::addAndGet, new SimpleMeterRegistry(), 10, 10, 5_000);
+
+        assertEquals(42, allocator.next());
+        assertEquals(43, allocator.next());
+        assertEquals(44, allocator.allocate(3));
+        assertEquals(47, allocator.next());
+        assertEquals(51, counter.get());
+    }
+
+    @Test
+    public void shouldNeverRepeatIdsAcrossThreadsAndNodes() throws Exception {
+        AtomicLong counter = new AtomicLong();
+        List<IdAllocator> nodes = List.of(
+                new IdAllocator(counter::addAndGet, new SimpleMeterRegistry(), 10, 1_000, 1),
+                new IdAllocator(counter::addAndGet, new SimpleMeterRegistry(), 10, 1_000, 1));
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            IdAllocator allocator = nodes.get(t % 2);
+            int batch = t % 3 + 1;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    long first = allocator.allocate(batch);
+                    for (int j = 0; j < batch; j++) {
+                        assertTrue(ids.add(first + j), "id " + (first + j) + " issued twice");
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(5_000 * (1 + 2 + 3 + 1 + 2 + 3 + 1 + 2), ids.size());
+    }
+
+    @Test
+    public void shouldPrefetchNextBlockBeforeCurrentRunsOut() throws Exception {
+        AtomicLong counter = new AtomicLong();
+        AtomicLong leases = new AtomicLong();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        IdAllocator allocator = new IdAllocator(count -> {
+            leases.incrementAndGet();
+            return counter.addAndGet(count);
+        }, meterRegistry, 100, 100, 5_000);
+
+        for (int i = 0; i < 51; i++) {
+            allocator.next();
+        }
+        waitFor(() -> leases.get() == 2);
+        for (int i = 0; i < 1_000; i++) {
+            allocator.next();
+            if (i % 50 == 0) {
+                Thread.sleep(2); // give each prefetch time to land, as a steady allocation rate would
+            }
+        }
+
+        assertEquals(1, meterRegistry.counter("id_lease_waits_total").count()); // only the very first lease
+        assertTrue(meterRegistry.counter("id_leases_total").count() >= 11);
+    }
+
+    @Test
+    public void shouldGrowBlocksWithAllocationRate() {
+        AtomicLong counter = new AtomicLong();
+        IdAllocator allocator = new IdAllocator(counter::addAndGet, new SimpleMeterRegistry(), 100, 100_000, 60_000);
+
+        for (int i = 0; i < 50_000; i++) {
+            allocator.next();
+        }
+
+        assertEquals(100_000, allocator.getBlockSize());
+    }
+
+    @Test
+    public void shouldLeaseBatchLargerThanBlockOnItsOwn() {
+        AtomicLong counter = new AtomicLong();
+        IdAllocator allocator = new IdAllocator(counter::addAndGet, new SimpleMeterRegistry(), 10, 10, 5_000);
+
+        long single = allocator.next();
+        long first = allocator.allocate(25);
+
+        assertEquals(1, single);
+        assertEquals(11, first);
+        assertEquals(35, counter.get());
+        assertEquals(2, allocator.next());
+    }
+
+    @Test
+    public void shouldRetryLeaseThatFailed() {
+        AtomicLong counter = new AtomicLong();
+        AtomicBoolean down = new AtomicBoolean(true);
+        IdAllocator allocator = new IdAllocator(count -> {
+            if (down.get()) {
+                throw new IllegalStateException("Redis is down");
+            }
+            return counter.addAndGet(count);
+        }, new SimpleMeterRegistry(), 10, 10, 5_000);
+
+        assertThrows(IllegalStateException.class, allocator::next);
+        down.set(false);
+
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(ids.add(allocator.next()));
+        }
+    }
+
+    @Test
+    public void shouldShareOneSlowLeaseAmongWaitingThreads() throws Exception {
+        AtomicLong counter = new AtomicLong();
+        AtomicLong leases = new AtomicLong();
+        CountDownLatch redisAnswers = new CountDownLatch(1);
+        IdAllocator allocator = new IdAllocator(count -> {
+            leases.incrementAndGet();
+            try {
+                redisAnswers.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return counter.addAndGet(count);
+        }, new SimpleMeterRegistry(), 10, 10, 5_000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(allocator::next));
+        }
+
+        waitFor(() -> leases.get() == 1);
+        Thread.sleep(50); // the other threads reach the pending lease
+        redisAnswers.countDown();
+        Set<Long> ids = new HashSet<>();
+        for (Future<Long> future : futures) {
+            ids.add(future.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertEquals(Set.of(1L, 2L, 3L, 4L), ids);
+        assertEquals(1, leases.get());
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,58 @@
+package com.shortscale.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyedAccumulatorTest {
+
+    @Test
+    public void shouldDrainAccumulatedDeltasPerKey() {
+        KeyedAccumulator accumulator = new KeyedAccumulator();
+        accumulator.add("a", 1);
+        accumulator.add("a", 2);
+        accumulator.add("b", 5);
+
+        assertEquals(3, accumulator.pending("a"));
+        assertEquals(Map.of("a", 3L, "b", 5L), accumulator.drain());
+        assertEquals(0, accumulator.pending("a"));
+        assertTrue(accumulator.drain().isEmpty());
+    }
+
+    @Test
+    public void shouldNotLoseDeltasWhileDrainingConcurrently() throws InterruptedException {
+        KeyedAccumulator accumulator = new KeyedAccumulator();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicBoolean running = new AtomicBoolean(true);
+        long[] drained = new long[1];
+        Thread drainer = new Thread(() -> {
+            while (running.get()) {
+                accumulator.drain().values().forEach(delta -> drained[0] += delta);
+            }
+        });
+        drainer.start();
+
+        for (int t = 0; t < 4; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    accumulator.add("key" + (i % 8), 1);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        running.set(false);
+        drainer.join();
+        for (int i = 0; i < 2; i++) {
+            accumulator.drain().values().forEach(delta -> drained[0] += delta);
+        }
+
+        assertEquals(200_000, drained[0]);
+    }
+}
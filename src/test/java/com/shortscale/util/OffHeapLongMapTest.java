@@ -0,0 +1,73 @@
+package com.shortscale.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapLongMapTest {
+
+    @Test
+    public void shouldPutGetAndReplace() {
+        OffHeapLongMap map = new OffHeapLongMap(16);
+
+        assertEquals(OffHeapLongMap.MISSING, map.put(0, 10));
+        assertEquals(OffHeapLongMap.MISSING, map.put(42, 20));
+        assertEquals(10, map.get(0));
+        assertEquals(20, map.put(42, 21));
+        assertEquals(21, map.get(42));
+        assertEquals(OffHeapLongMap.MISSING, map.get(7));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void shouldGrowPastItsInitialCapacity() {
+        OffHeapLongMap map = new OffHeapLongMap(8);
+        long initialCapacity = map.capacity();
+
+        for (long key = 1; key <= 10_000; key++) {
+            map.put(key, key * 3);
+        }
+
+        assertTrue(map.capacity() > initialCapacity);
+        assertEquals(10_000, map.size());
+        for (long key = 1; key <= 10_000; key++) {
+            assertEquals(key * 3, map.get(key));
+        }
+    }
+
+    @Test
+    public void shouldKeepEveryEntryReachableAfterRemovals() {
+        OffHeapLongMap map = new OffHeapLongMap(1_000);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 50_000; i++) {
+            long key = random.nextInt(2_000);
+            if (random.nextBoolean()) {
+                long value = random.nextInt(1_000_000);
+                Long previous = expected.put(key, value);
+                assertEquals(previous == null ? OffHeapLongMap.MISSING : previous, map.put(key, value));
+            } else {
+                Long previous = expected.remove(key);
+                assertEquals(previous == null ? OffHeapLongMap.MISSING : previous, map.remove(key));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (long key = 0; key < 2_000; key++) {
+            assertEquals(expected.getOrDefault(key, OffHeapLongMap.MISSING), map.get(key));
+        }
+    }
+
+    @Test
+    public void shouldRejectNegativeKeysAndValues() {
+        OffHeapLongMap map = new OffHeapLongMap(16);
+
+        assertThrows(IllegalArgumentException.class, () -> map.put(-1, 1));
+        assertThrows(IllegalArgumentException.class, () -> map.put(1, -1));
+        assertThrows(IllegalArgumentException.class, () -> map.get(Long.MAX_VALUE));
+    }
+}
@@ -1,72 +1,282 @@
 package com.shortscale.util;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Supplier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import static org.junit.jupiter.api.Assertions.assertFalse;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class RateLimiterTest {
 
-    @Test
-    public void shouldAllowFirstRequest() {
-        RateLimiter rateLimiter = new RateLimiter();
-        assertTrue(rateLimiter.isAllowed("ip1"));
-    }
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong clock = new AtomicLong(1_000 * SECOND);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
 
     @Test
     public void shouldAllowRequestsWithinLimit() {
-        RateLimiter rateLimiter = new RateLimiter();
+        RateLimiter rateLimiter = rateLimiter("token-bucket", "");
         for (int i = 0; i < 10; i++) {
-            assertTrue(rateLimiter.isAllowed("ip1"));
+            assertTrue(rateLimiter.isAllowed("shorten", "ip1"));
         }
     }
 
     @Test
     public void shouldDenyRequestWhenLimitExceeded() {
-        RateLimiter rateLimiter = new RateLimiter();
+        for (String algorithm : List.of("token-bucket", "sliding-window")) {
+            RateLimiter rateLimiter = rateLimiter(algorithm, "");
+            for (int i = 0; i < 10; i++) {
+                rateLimiter.isAllowed("shorten", "ip1");
+            }
+            assertFalse(rateLimiter.isAllowed("shorten", "ip1"), algorithm);
+        }
+        assertEquals(2, meterRegistry.get("rate_limited_total").tag("endpoint", "shorten").counter().count());
+    }
+
+    @Test
+    public void shouldRefillTokenBucketEvenly() {
+        RateLimiter rateLimiter = rateLimiter("token-bucket", "");
+        for (int i = 0; i < 10; i++) {
+            assertTrue(rateLimiter.isAllowed("shorten", "ip1"));
+        }
+        assertFalse(rateLimiter.isAllowed("shorten", "ip1"));
+
+        clock.addAndGet(6 * SECOND); // one permit per 6 seconds
+
+        assertTrue(rateLimiter.isAllowed("shorten", "ip1"));
+        assertFalse(rateLimiter.isAllowed("shorten", "ip1"));
+
+        clock.addAndGet(61 * SECOND);
+
         for (int i = 0; i < 10; i++) {
-            rateLimiter.isAllowed("ip1");
+            assertTrue(rateLimiter.isAllowed("shorten", "ip1"));
         }
-        assertFalse(rateLimiter.isAllowed("ip1"));
+        assertFalse(rateLimiter.isAllowed("shorten", "ip1"));
     }
 
     @Test
-    public void shouldAllowRequestAfterTimeWindowResets() {
-        AtomicReference<LocalDateTime> currentTime = new AtomicReference<>(LocalDateTime.of(2023, 1, 1, 12, 0, 0));
-        Supplier<LocalDateTime> timeSupplier = currentTime::get;
-        RateLimiter rateLimiter = new RateLimiter(timeSupplier);
+    public void shouldWeighPreviousWindowInSlidingWindow() {
+        RateLimiter rateLimiter = rateLimiter("sliding-window", ""); // windows start when the limiter does
+        for (int i = 0; i < 10; i++) {
+            assertTrue(rateLimiter.isAllowed("shorten", "ip1"));
+        }
+
+        clock.addAndGet(75 * SECOND); // a quarter into the next window: 10 * 0.75 of the old window still counts
+
+        assertTrue(rateLimiter.isAllowed("shorten", "ip1"));
+        assertTrue(rateLimiter.isAllowed("shorten", "ip1"));
+        assertFalse(rateLimiter.isAllowed("shorten", "ip1"));
+
+        clock.addAndGet(120 * SECOND);
 
-        // Make 10 requests
         for (int i = 0; i < 10; i++) {
-            assertTrue(rateLimiter.isAllowed("ip1"));
+            assertTrue(rateLimiter.isAllowed("shorten", "ip1"));
         }
-        // 11th should be false
-        assertFalse(rateLimiter.isAllowed("ip1"));
+        assertFalse(rateLimiter.isAllowed("shorten", "ip1"));
+    }
 
-        // Advance time by more than 60 seconds
-        currentTime.set(currentTime.get().plusSeconds(61));
+    @Test
+    public void shouldApplyLimitsPerEndpointAndKey() {
+        RateLimiter rateLimiter = rateLimiter("token-bucket", "bulk=2/1m, import=1/1h");
 
-        // Now should be allowed again, and can do 10 more
+        assertTrue(rateLimiter.isAllowed("bulk", "ip1"));
+        assertTrue(rateLimiter.isAllowed("bulk", "ip1"));
+        assertFalse(rateLimiter.isAllowed("bulk", "ip1"));
+        assertTrue(rateLimiter.isAllowed("bulk", "ip2"));
+        assertTrue(rateLimiter.isAllowed("import", "ip1"));
+        assertFalse(rateLimiter.isAllowed("import", "ip1"));
         for (int i = 0; i < 10; i++) {
-            assertTrue(rateLimiter.isAllowed("ip1"));
+            assertTrue(rateLimiter.isAllowed("shorten", "ip1"));
+        }
+        assertFalse(rateLimiter.isAllowed("shorten", "ip1"));
+    }
+
+    @Test
+    public void shouldForgetIdleKeysButKeepActiveOnes() {
+        RateLimiter rateLimiter = rateLimiter("token-bucket", "");
+        for (int i = 0; i < 1_000; i++) {
+            rateLimiter.isAllowed("shorten", "cold" + i);
+        }
+        clock.addAndGet(59 * SECOND);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(rateLimiter.isAllowed("shorten", "hot"));
+        }
+
+        clock.addAndGet(2 * SECOND); // the generation rotates, but "hot" has not refilled yet
+
+        assertFalse(rateLimiter.isAllowed("shorten", "hot"));
+
+        clock.addAndGet(61 * SECOND); // the cold keys have now been idle for two generations
+
+        assertTrue(rateLimiter.isAllowed("shorten", "hot"));
+        assertEquals(2, rateLimiter.trackedKeys("shorten")); // "hot", carried into the current generation
+    }
+
+    @Test
+    public void shouldBoundKeysUnderAFloodOfNewOnes() {
+        RateLimiter rateLimiter = new RateLimiter(meterRegistry, "token-bucket", "10/1m", "", 60_000, 500, clock::get);
+
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(rateLimiter.isAllowed("shorten", "flood" + i));
+        }
+
+        assertTrue(rateLimiter.trackedKeys("shorten") <= 1_000);
+        assertEquals(rateLimiter.trackedKeys("shorten"), meterRegistry.get("rate_limiter_keys").tag("endpoint", "shorten").gauge().value());
+    }
+
+    @Test
+    public void shouldKeepClientsOverTheirLimitThroughASprayOfNewKeys() {
+        for (String algorithm : List.of("token-bucket", "sliding-window")) {
+            RateLimiter rateLimiter = new RateLimiter(meterRegistry, algorithm, "10/1m", "", 60_000, 500, clock::get);
+            for (int i = 0; i < 10; i++) {
+                assertTrue(rateLimiter.isAllowed("shorten", "abuser"));
+            }
+
+            for (int i = 0; i < 10_000; i++) {
+                rateLimiter.isAllowed("shorten", algorithm + "-spray" + i); // twenty early rotations
+            }
+
+            assertFalse(rateLimiter.isAllowed("shorten", "abuser"), algorithm);
+            assertTrue(rateLimiter.trackedKeys("shorten") <= 1_000);
+        }
+    }
+
+    @Test
+    public void shouldNeverGrantMoreThanTheLimitUnderContention() throws Exception {
+        for (String algorithm : List.of("token-bucket", "sliding-window")) {
+            RateLimiter rateLimiter = new RateLimiter(meterRegistry, algorithm, "1000/1h", "", 60_000, 1_000_000, clock::get);
+            ExecutorService executor = Executors.newFixedThreadPool(16);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    int granted = 0;
+                    for (int i = 0; i < 500; i++) {
+                        granted += rateLimiter.isAllowed("shorten", "shared") ? 1 : 0;
+                    }
+                    return granted;
+                }));
+            }
+            start.countDown();
+            int granted = 0;
+            for (Future<Integer> result : results) {
+                granted += result.get(10, TimeUnit.SECONDS);
+            }
+            executor.shutdown();
+
+            assertEquals(1000, granted, algorithm);
         }
-        assertFalse(rateLimiter.isAllowed("ip1"));
     }
 
     @Test
-    public void shouldAllowRequestsForDifferentKeysIndependently() {
-        RateLimiter rateLimiter = new RateLimiter();
+    public void shouldServeLeasedPermitsLocally() {
+        AtomicLong leases = new AtomicLong();
+        RateLimiter rateLimiter = distributed((key, permits, periodNanos, wanted) -> {
+            assertEquals("shorten:ip1", key);
+            assertEquals(50, permits);
+            leases.incrementAndGet();
+            return wanted;
+        }, "local");
+
         for (int i = 0; i < 10; i++) {
-            assertTrue(rateLimiter.isAllowed("ip1"));
-            assertTrue(rateLimiter.isAllowed("ip2"));
+            assertTrue(rateLimiter.isAllowed("shorten", "ip1"));
         }
-        assertFalse(rateLimiter.isAllowed("ip1"));
-        assertFalse(rateLimiter.isAllowed("ip2"));
+
+        assertEquals(2, leases.get()); // a tenth of the limit per lease
+        assertEquals(2, meterRegistry.get("rate_limit_leases_total").tag("endpoint", "shorten").counter().count());
     }
 
-    // Note: Time-based tests are hard without mocking time, but the above covers the main logic.
+    @Test
+    public void shouldDropUnusedPermitsWhenTheLeaseExpires() {
+        AtomicLong leases = new AtomicLong();
+        RateLimiter rateLimiter = distributed((key, permits, periodNanos, wanted) -> {
+            leases.incrementAndGet();
+            return wanted;
+        }, "local");
+
+        assertTrue(rateLimiter.isAllowed("shorten", "ip1"));
+        clock.addAndGet(SECOND);
+        assertTrue(rateLimiter.isAllowed("shorten", "ip1"));
+
+        assertEquals(2, leases.get());
+    }
+
+    @Test
+    public void shouldNotAskAgainUntilARefusedPermitIsFree() {
+        AtomicLong leases = new AtomicLong();
+        RateLimiter rateLimiter = distributed((key, permits, periodNanos, wanted) -> {
+            leases.incrementAndGet();
+            return -2_000;
+        }, "local");
+
+        for (int i = 0; i < 5; i++) {
+            assertFalse(rateLimiter.isAllowed("shorten", "ip1"));
+        }
+        assertEquals(1, leases.get());
+
+        clock.addAndGet(2 * SECOND);
+
+        assertFalse(rateLimiter.isAllowed("shorten", "ip1"));
+        assertEquals(2, leases.get());
+    }
+
+    @Test
+    public void shouldFallBackToLocalLimitWhenRedisFails() {
+        AtomicLong attempts = new AtomicLong();
+        RateLimiter rateLimiter = distributed((key, permits, periodNanos, wanted) -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("redis down");
+        }, "local");
+
+        for (int i = 0; i < 50; i++) {
+            assertTrue(rateLimiter.isAllowed("shorten", "ip1"));
+        }
+        assertFalse(rateLimiter.isAllowed("shorten", "ip1"));
+        assertEquals(1, attempts.get()); // skipped for a second after failing
+
+        clock.addAndGet(SECOND);
+        rateLimiter.isAllowed("shorten", "ip1");
+
+        assertEquals(2, attempts.get());
+        assertEquals(52, meterRegistry.get("rate_limit_fallbacks_total").tag("endpoint", "shorten").counter().count());
+    }
+
+    @Test
+    public void shouldDenyWhenRedisFailsAndFailingClosed() {
+        RateLimiter rateLimiter = distributed((key, permits, periodNanos, wanted) -> {
+            throw new IllegalStateException("redis down");
+        }, "deny");
+
+        assertFalse(rateLimiter.isAllowed("shorten", "ip1"));
+        assertFalse(rateLimiter.isAllowed("shorten", "ip2"));
+    }
+
+    @Test
+    public void shouldRejectInvalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> rateLimiter("leaky", ""));
+        assertThrows(IllegalArgumentException.class, () -> rateLimiter("token-bucket", "shorten"));
+        assertThrows(IllegalArgumentException.class, () -> rateLimiter("token-bucket", "shorten=10"));
+        assertThrows(IllegalArgumentException.class, () -> rateLimiter("sliding-window", "shorten=2000000/1m"));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(meterRegistry, null, "token-bucket", "10/1m", "",
+                60_000, 1_000_000, "global", 10, 1_000, "local", clock::get));
+        assertThrows(IllegalArgumentException.class, () -> distributed((key, permits, periodNanos, wanted) -> wanted, "open"));
+    }
+
+    private RateLimiter distributed(PermitSource permitSource, String onFailure) {
+        return new RateLimiter(meterRegistry, permitSource, "token-bucket", "50/1m", "", 60_000, 1_000_000, "distributed", 10, 1_000,
+                onFailure, clock::get);
+    }
+
+    private RateLimiter rateLimiter(String algorithm, String endpointLimits) {
+        return new RateLimiter(meterRegistry, algorithm, "10/1m", endpointLimits, 60_000, 1_000_000, clock::get);
+    }
 }
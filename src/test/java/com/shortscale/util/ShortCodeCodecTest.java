@@ -0,0 +1,83 @@
+package com.shortscale.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShortCodeCodecTest {
+
+    private final ShortCodeCodec codec = new ShortCodeCodec(42);
+
+    @Test
+    public void shouldRoundTripIdsAcrossTheWholeRange() {
+        for (long id : new long[]{0, 1, 2, 61, 62, 1_000_000_007L, 1L << 40, ShortCodeCodec.MAX_ID - 1, ShortCodeCodec.MAX_ID}) {
+            String code = codec.encode(id);
+            assertEquals(ShortCodeCodec.WIDTH, code.length());
+            assertEquals(id, codec.decode(code));
+        }
+    }
+
+    @Test
+    public void shouldGiveEveryIdItsOwnCode() {
+        Set<String> codes = new HashSet<>();
+        for (long id = 0; id < 200_000; id++) {
+            String code = codec.encode(id);
+            assertTrue(codes.add(code), "code " + code + " given twice");
+            assertEquals(id, codec.decode(code));
+        }
+    }
+
+    @Test
+    public void shouldDecodeEveryCodeToAnIdThatEncodesBackToIt() {
+        for (String code : new String[]{"00000000", "zzzzzzzz", "mylink12", "Ab3dEf9Z"}) {
+            long id = codec.decode(code);
+            assertTrue(id >= 0 && id <= ShortCodeCodec.MAX_ID);
+            assertEquals(code, codec.encode(id));
+        }
+    }
+
+    @Test
+    public void shouldEncodeIntoCallerBuffers() {
+        byte[] bytes = new byte[ShortCodeCodec.WIDTH + 2];
+        char[] chars = new char[ShortCodeCodec.WIDTH];
+
+        codec.encode(123_456_789L, bytes, 2);
+        codec.encode(123_456_789L, chars, 0);
+
+        String code = codec.encode(123_456_789L);
+        assertEquals(code, new String(bytes, 2, ShortCodeCodec.WIDTH, StandardCharsets.US_ASCII));
+        assertEquals(code, new String(chars));
+        assertEquals(123_456_789L, codec.decode(bytes, 2));
+    }
+
+    @Test
+    public void shouldDependOnTheKey() {
+        ShortCodeCodec other = new ShortCodeCodec(43);
+
+        int same = 0;
+        for (long id = 1; id <= 1_000; id++) {
+            if (codec.encode(id).equals(other.encode(id))) {
+                same++;
+            }
+        }
+
+        assertTrue(same < 5);
+        assertEquals(codec.encode(7), new ShortCodeCodec(42).encode(7));
+    }
+
+    @Test
+    public void shouldRejectWhatIsNotACode() {
+        assertEquals(-1, codec.decode(""));
+        assertEquals(-1, codec.decode("abc"));
+        assertEquals(-1, codec.decode("abcdefghi"));
+        assertEquals(-1, codec.decode("my-link1"));
+        assertEquals(-1, codec.decode("abcdéfgh"));
+        assertEquals(-1, codec.decode("my-link1".getBytes(StandardCharsets.US_ASCII), 0));
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(-1));
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(ShortCodeCodec.MAX_ID + 1));
+    }
+}